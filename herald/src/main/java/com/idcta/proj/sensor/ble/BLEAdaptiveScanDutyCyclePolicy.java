@@ -0,0 +1,99 @@
+//  Copyright 2020 VMware, Inc.
+//  SPDX-License-Identifier: Apache-2.0
+//
+
+package com.idcta.proj.sensor.ble;
+
+import com.idcta.proj.sensor.datatype.TimeInterval;
+
+/// Adaptive scan duty cycle, adjusting scan loop durations after each cycle based on discovery
+/// rate, processing time and battery level. Rules, in order of precedence:
+/// - Processing overrun, double wait between cycles (up to limit), to give processing time to
+///   complete and the radio time to rest, otherwise halve the wait until it is back to base
+/// - Low battery and not charging, use minimum scan duration and extended wait
+/// - Dense environment (many devices in scan), lengthen scan by 50% (up to limit)
+/// - No new devices for several cycles, shorten scan by 25% (down to limit)
+/// - Otherwise, return scan duration to base
+/// Policy is stateful and should be called from the scan loop only.
+public class BLEAdaptiveScanDutyCyclePolicy implements BLEScanDutyCyclePolicy {
+    private final BLEScanDutyCycle base;
+    private final long minScanOnMillis;
+    private final long maxScanOnMillis;
+    private final long maxScanOffMillis;
+    private final long lowBatteryScanOffMillis;
+    private final int denseDevices;
+    private final int quietCycles;
+    private final double lowBatteryLevel;
+    private int consecutiveQuietCycles = 0;
+
+    /// Adaptive duty cycle around standard duty cycle, scan for 2-12s, wait for up to 30s.
+    public BLEAdaptiveScanDutyCyclePolicy() {
+        this(BLEScanDutyCycle.standard,
+                TimeInterval.seconds(2).millis(), TimeInterval.seconds(12).millis(),
+                TimeInterval.seconds(30).millis(), TimeInterval.seconds(10).millis(),
+                10, 3, 20);
+    }
+
+    /// Adaptive duty cycle around base duty cycle.
+    /// - Scan duration is kept within min and max scan on duration
+    /// - Wait between cycles is kept within base and max scan off duration
+    /// - Dense environment is a scan with at least denseDevices devices
+    /// - Quiet is quietCycles consecutive cycles without new devices
+    /// - Low battery is below lowBatteryLevel percent
+    public BLEAdaptiveScanDutyCyclePolicy(final BLEScanDutyCycle base, final long minScanOnMillis, final long maxScanOnMillis, final long maxScanOffMillis, final long lowBatteryScanOffMillis, final int denseDevices, final int quietCycles, final double lowBatteryLevel) {
+        this.base = base;
+        this.minScanOnMillis = minScanOnMillis;
+        this.maxScanOnMillis = maxScanOnMillis;
+        this.maxScanOffMillis = maxScanOffMillis;
+        this.lowBatteryScanOffMillis = lowBatteryScanOffMillis;
+        this.denseDevices = denseDevices;
+        this.quietCycles = quietCycles;
+        this.lowBatteryLevel = lowBatteryLevel;
+    }
+
+    @Override
+    public BLEScanDutyCycle initial() {
+        consecutiveQuietCycles = 0;
+        return base;
+    }
+
+    @Override
+    public BLEScanDutyCycleDecision next(final BLEScanDutyCycle current, final BLEScanCycleStatistics cycle) {
+        final StringBuilder reason = new StringBuilder();
+        // Wait between cycles
+        long scanOffMillis;
+        if (cycle.processMillis >= current.scanProcessMillis) {
+            scanOffMillis = Math.min(maxScanOffMillis, Math.max(base.scanOffMillis, current.scanOffMillis * 2));
+            reason.append("overrun");
+        } else {
+            scanOffMillis = Math.max(base.scanOffMillis, current.scanOffMillis / 2);
+        }
+        // Scan duration
+        long scanOnMillis;
+        consecutiveQuietCycles = (cycle.newDevices == 0 ? consecutiveQuietCycles + 1 : 0);
+        final boolean lowBattery = (cycle.batteryLevel != BLEScanCycleStatistics.batteryLevelUnknown && cycle.batteryLevel < lowBatteryLevel && !cycle.charging);
+        if (lowBattery) {
+            scanOnMillis = minScanOnMillis;
+            scanOffMillis = Math.max(scanOffMillis, lowBatteryScanOffMillis);
+            append(reason, "lowBattery");
+        } else if (cycle.devices >= denseDevices) {
+            scanOnMillis = Math.min(maxScanOnMillis, Math.round(current.scanOnMillis * 1.5));
+            append(reason, "dense");
+        } else if (consecutiveQuietCycles >= quietCycles) {
+            scanOnMillis = Math.max(minScanOnMillis, Math.round(current.scanOnMillis * 0.75));
+            append(reason, "quiet");
+        } else {
+            scanOnMillis = base.scanOnMillis;
+            append(reason, "normal");
+        }
+        final BLEScanDutyCycle next = new BLEScanDutyCycle(scanOnMillis, base.scanRestMillis, base.scanProcessMillis, scanOffMillis);
+        return new BLEScanDutyCycleDecision(cycle, current, next, reason.toString());
+    }
+
+    private static void append(final StringBuilder reason, final String value) {
+        if (reason.length() > 0) {
+            reason.append('|');
+        }
+        reason.append(value);
+    }
+}
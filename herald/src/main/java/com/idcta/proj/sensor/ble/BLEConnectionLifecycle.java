@@ -0,0 +1,201 @@
+//  Copyright 2020 VMware, Inc.
+//  SPDX-License-Identifier: Apache-2.0
+//
+
+package com.idcta.proj.sensor.ble;
+
+import com.idcta.proj.sensor.analysis.Sample;
+import com.idcta.proj.sensor.data.ConcreteSensorLogger;
+import com.idcta.proj.sensor.data.SensorLogger;
+
+/// Connection lifecycle for processing a device, i.e. connect, wait for the tasks to complete
+/// asynchronously in GATT callbacks, then disconnect. The calling thread waits on the device
+/// state, which is signalled directly by the GATT callbacks, rather than polling the state.
+/// Devices with a pooled connection are processed over the open connection, and processing
+/// ends when the device is .idle or .disconnected.
+public class BLEConnectionLifecycle<C> {
+    private final SensorLogger logger = new ConcreteSensorLogger("Sensor", "BLE.BLEConnectionLifecycle");
+    private final BLEGattConnector<C> connector;
+    private final long connectTimeoutMillis;
+    private final long processTimeoutMillis;
+    private final Sample timeToConnectDevice;
+    private final Sample timeToProcessDevice;
+    private final BLEConnectionStatistics statistics;
+    private final BLEConnectionPool<C> pool;
+
+    /// Lifecycle with connect timeout, and overall process timeout from connection request to
+    /// disconnection, recording connection and processing time for successful connections.
+    public BLEConnectionLifecycle(final BLEGattConnector<C> connector, final long connectTimeoutMillis, final long processTimeoutMillis, final Sample timeToConnectDevice, final Sample timeToProcessDevice) {
+        this(connector, connectTimeoutMillis, processTimeoutMillis, timeToConnectDevice, timeToProcessDevice, null);
+    }
+
+    /// Lifecycle with connect timeout set by connection statistics for each device, where
+    /// connect timeout is the upper bound, and connection outcomes are recorded in statistics.
+    public BLEConnectionLifecycle(final BLEGattConnector<C> connector, final long connectTimeoutMillis, final long processTimeoutMillis, final Sample timeToConnectDevice, final Sample timeToProcessDevice, final BLEConnectionStatistics statistics) {
+        this(connector, connectTimeoutMillis, processTimeoutMillis, timeToConnectDevice, timeToProcessDevice, statistics, null);
+    }
+
+    /// Lifecycle with connection statistics, and connection pool for reusing connections that
+    /// have been retained in the pool after processing.
+    public BLEConnectionLifecycle(final BLEGattConnector<C> connector, final long connectTimeoutMillis, final long processTimeoutMillis, final Sample timeToConnectDevice, final Sample timeToProcessDevice, final BLEConnectionStatistics statistics, final BLEConnectionPool<C> pool) {
+        this.connector = connector;
+        this.connectTimeoutMillis = connectTimeoutMillis;
+        this.processTimeoutMillis = processTimeoutMillis;
+        this.timeToConnectDevice = timeToConnectDevice;
+        this.timeToProcessDevice = timeToProcessDevice;
+        this.statistics = statistics;
+        this.pool = pool;
+    }
+
+    /// Connect and process device, returns true if device was processed and disconnected within time limit.
+    public boolean process(final BLEDevice device) {
+        return process(device, Long.MAX_VALUE);
+    }
+
+    /// Connect and process device, returns true if device was processed and disconnected within
+    /// time limit. Connect and process timeouts are shortened to end by the deadline (epoch millis)
+    /// if required, e.g. for sharing a deadline across concurrent connections in a scan cycle.
+    public boolean process(final BLEDevice device, final long deadlineMillis) {
+        if (device.state() == BLEDeviceState.connected) {
+            logger.debug("taskConnectDevice, already connected to transmitter (device={})", device);
+            return true;
+        }
+        // Connect (timeout at p95 of connect time for device class, given enough samples)
+        final long timeConnect = System.currentTimeMillis();
+        if (timeConnect >= deadlineMillis) {
+            logger.debug("taskConnectDevice, reached deadline (device={})", device);
+            return false;
+        }
+        // Reuse pooled connection if available
+        if (pool != null) {
+            final C pooled = pool.acquire(device, timeConnect);
+            if (pooled != null) {
+                return processPooled(device, pooled, Math.min(timeConnect + processTimeoutMillis, deadlineMillis));
+            }
+        }
+        final long connectTimeout = (statistics == null ? connectTimeoutMillis : Math.min(connectTimeoutMillis, statistics.connectTimeoutMillis(device)));
+        final long connectDeadline = Math.min(timeConnect + connectTimeout, deadlineMillis);
+        final long processDeadline = Math.min(timeConnect + processTimeoutMillis, deadlineMillis);
+        logger.debug("taskConnectDevice, connect (device={})", device);
+        device.state(BLEDeviceState.connecting);
+        final C connection = connector.connect(device);
+        if (connection == null) {
+            logger.fault("taskConnectDevice, connect failed (device={})", device);
+            device.registerConnectAttempt(false);
+            if (statistics != null) {
+                statistics.failed(device, System.currentTimeMillis());
+            }
+            device.state(BLEDeviceState.disconnected);
+            return false;
+        }
+        // Wait for connection
+        // A connect request should normally result in .connected or .disconnected state which is
+        // set asynchronously by the callback function onConnectionStateChange(). However, some
+        // connections may get stuck in a .connecting state indefinitely due to BLE issues, and
+        // therefore the callback function is never called, leaving the device in a limbo state.
+        // As such, the wait is limited to a fixed duration (established through experimentation)
+        // to check if connection was successful, else abort the connection to put the device in
+        // a consistent default .disconnected state.
+        final BLEDeviceState connectState = device.awaitState(connectDeadline - System.currentTimeMillis(), BLEDeviceState.connected, BLEDeviceState.disconnected);
+        device.registerConnectAttempt(connectState == BLEDeviceState.connected);
+        if (connectState != BLEDeviceState.connected) {
+            // Failed to establish connection within time limit, assume connection failure
+            // and disconnect device to put it in a consistent default .disconnected state
+            logger.fault("taskConnectDevice, connect timeout (device={},timeout={}ms)", device, connectTimeout);
+            // Ending at the shared deadline is not a device failure
+            final boolean reachedDeadline = (connectState != BLEDeviceState.disconnected && connectDeadline < timeConnect + connectTimeout);
+            if (statistics != null && !reachedDeadline) {
+                if (connectState == BLEDeviceState.disconnected) {
+                    statistics.failed(device, System.currentTimeMillis());
+                } else {
+                    // Connect time for device class is at least the timeout
+                    statistics.timedOut(device, connectTimeout, System.currentTimeMillis());
+                }
+            }
+            close(device, connection);
+            return false;
+        } else {
+            // Connection was successful, make note of time to establish connection to
+            // inform setting of connect timeout for the device class.
+            final long connectElapsed = System.currentTimeMillis() - timeConnect;
+            timeToConnectDevice.add(connectElapsed);
+            if (statistics != null) {
+                statistics.connected(device, connectElapsed);
+            }
+            logger.debug("taskConnectDevice, connected (device={},elapsed={}ms,statistics={})", device, connectElapsed, timeToConnectDevice);
+        }
+        // Wait for disconnection
+        // Device is connected at this point, and all the actual work is being
+        // performed asynchronously by callback methods. The wait ends when the
+        // device state changes from .connected to .disconnected, which is set
+        // asynchronously by the callback function onConnectionStateChange(), once
+        // all the tasks for the device have been completed. If the connection has
+        // been held too long, then the connection is closed to put the device in
+        // a consistent default .disconnected state. The device is .idle instead
+        // if the connection has been retained in the connection pool.
+        final BLEDeviceState processState = device.awaitState(processDeadline - System.currentTimeMillis(), BLEDeviceState.idle, BLEDeviceState.disconnected);
+        boolean success = true;
+        // Timeout connection if required, and always set state to disconnected
+        if (processState != BLEDeviceState.disconnected && processState != BLEDeviceState.idle) {
+            // Failed to complete tasks and disconnect within time limit, assume failure
+            // and disconnect device to put it in a consistent default .disconnected state
+            logger.fault("taskConnectDevice, disconnect timeout (device={})", device);
+            close(device, connection);
+            success = false;
+        }
+        // Always set state to .disconnected at the end, unless connection is pooled
+        if (processState != BLEDeviceState.idle) {
+            device.state(BLEDeviceState.disconnected);
+        }
+        final long timeElapsed = System.currentTimeMillis() - timeConnect;
+        if (success) {
+            device.registerProcessed();
+            timeToProcessDevice.add(timeElapsed);
+            if (statistics != null) {
+                statistics.processed(device, timeElapsed);
+            }
+            logger.debug("taskConnectDevice, complete (success=true,device={},elapsed={}ms,statistics={})", device, timeElapsed, timeToProcessDevice);
+        } else {
+            logger.fault("taskConnectDevice, complete (success=false,device={},elapsed={}ms)", device, timeElapsed);
+        }
+        return success;
+    }
+
+    /// Process device over pooled connection, returns true if device was processed within time limit.
+    private boolean processPooled(final BLEDevice device, final C connection, final long processDeadline) {
+        final long timeStart = System.currentTimeMillis();
+        logger.debug("taskConnectDevice, reuse pooled connection (device={})", device);
+        device.state(BLEDeviceState.connected);
+        if (!pool.resume(device, connection)) {
+            logger.fault("taskConnectDevice, resume failed (device={})", device);
+            close(device, connection);
+            device.state(BLEDeviceState.disconnected);
+            return false;
+        }
+        // Wait for tasks to complete, same as for a new connection
+        final BLEDeviceState processState = device.awaitState(processDeadline - System.currentTimeMillis(), BLEDeviceState.idle, BLEDeviceState.disconnected);
+        if (processState != BLEDeviceState.idle && processState != BLEDeviceState.disconnected) {
+            logger.fault("taskConnectDevice, pooled connection timeout (device={})", device);
+            close(device, connection);
+            device.state(BLEDeviceState.disconnected);
+            return false;
+        }
+        final long timeElapsed = System.currentTimeMillis() - timeStart;
+        device.registerProcessed();
+        pool.timeToProcess.add(timeElapsed);
+        logger.debug("taskConnectDevice, complete (success=true,pooled=true,device={},elapsed={}ms,pool={})", device, timeElapsed, pool);
+        return true;
+    }
+
+    private void close(final BLEDevice device, final C connection) {
+        // Connection may have been retained just before timeout
+        if (pool != null) {
+            pool.remove(device, connection);
+        }
+        try {
+            connector.close(connection);
+        } catch (Throwable e) {
+            logger.fault("taskConnectDevice, close failed (device={})", device, e);
+        }
+    }
+}
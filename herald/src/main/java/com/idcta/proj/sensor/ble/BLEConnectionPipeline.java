@@ -0,0 +1,117 @@
+//  Copyright 2020 VMware, Inc.
+//  SPDX-License-Identifier: Apache-2.0
+//
+
+package com.idcta.proj.sensor.ble;
+
+import com.idcta.proj.sensor.data.ConcreteSensorLogger;
+import com.idcta.proj.sensor.data.SensorLogger;
+
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/// Connection pipeline for processing devices with up to N concurrent GATT connections in
+/// flight, rather than one device at a time. Each connection is subject to its own connect and
+/// process timeouts, and all connections in a cycle share a deadline, after which no further
+/// connections are started and connections in flight are timed out.
+public abstract class BLEConnectionPipeline {
+    private final SensorLogger logger = new ConcreteSensorLogger("Sensor", "BLE.BLEConnectionPipeline");
+    private final int concurrency;
+    private final Semaphore permits;
+    private final ExecutorService executor;
+    private final AtomicInteger inFlight = new AtomicInteger(0);
+
+    /// Pipeline with at most concurrency connections in flight.
+    public BLEConnectionPipeline(final int concurrency) {
+        this.concurrency = Math.max(1, concurrency);
+        this.permits = new Semaphore(this.concurrency, true);
+        // Daemon threads, connections in flight must not prevent shutdown
+        this.executor = Executors.newFixedThreadPool(this.concurrency, new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger(0);
+
+            @Override
+            public Thread newThread(final Runnable runnable) {
+                final Thread thread = new Thread(runnable, "BLE.ConnectionPipeline-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /// Connect and process device, finishing by deadline (epoch millis), returns true on success.
+    /// This is called concurrently for different devices.
+    protected abstract boolean connect(final BLEDevice device, final long deadlineMillis);
+
+    /// Process devices in order with up to N concurrent connections until the deadline, skipping
+    /// devices that do not require processing, or have already been started in this cycle. Blocks until all
+    /// connections started in this cycle have completed, and returns the number of connections started.
+    public int process(final List<BLEDevice> devices, final BLEDevicePredicate requiresProcessing, final long deadlineMillis) {
+        final Set<BLEDevice> started = Collections.newSetFromMap(new IdentityHashMap<BLEDevice, Boolean>());
+        int connections = 0;
+        for (final BLEDevice device : devices) {
+            // Wait for connection slot, or stop at deadline
+            final long remaining = deadlineMillis - System.currentTimeMillis();
+            if (remaining <= 0 || !tryAcquire(1, remaining)) {
+                logger.debug("process, reached deadline (started={},devices={})", connections, devices.size());
+                break;
+            }
+            // Slots are released by connections closed at the deadline
+            if (System.currentTimeMillis() >= deadlineMillis) {
+                permits.release();
+                logger.debug("process, reached deadline (started={},devices={})", connections, devices.size());
+                break;
+            }
+            // Check device after slot is acquired, as device state may have changed while waiting
+            if (started.contains(device) || !requiresProcessing.test(device)) {
+                permits.release();
+                continue;
+            }
+            started.add(device);
+            connections++;
+            inFlight.incrementAndGet();
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        connect(device, deadlineMillis);
+                    } catch (Throwable e) {
+                        logger.fault("process, connect failed (device={})", device, e);
+                    } finally {
+                        inFlight.decrementAndGet();
+                        permits.release();
+                    }
+                }
+            });
+        }
+        // Wait for connections in flight, these are bounded by the deadline, allowing time for close
+        final long remaining = Math.max(0, deadlineMillis - System.currentTimeMillis()) + 1000;
+        if (tryAcquire(concurrency, remaining)) {
+            permits.release(concurrency);
+        } else {
+            logger.fault("process, connections in flight after deadline (inFlight={})", inFlight.get());
+        }
+        return connections;
+    }
+
+    /// Number of connections in flight.
+    public int inFlight() {
+        return inFlight.get();
+    }
+
+    private boolean tryAcquire(final int count, final long timeoutMillis) {
+        try {
+            return permits.tryAcquire(count, timeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+}
@@ -0,0 +1,244 @@
+//  Copyright 2020 VMware, Inc.
+//  SPDX-License-Identifier: Apache-2.0
+//
+
+package com.idcta.proj.sensor.ble;
+
+import com.idcta.proj.sensor.analysis.Sample;
+import com.idcta.proj.sensor.data.ConcreteSensorLogger;
+import com.idcta.proj.sensor.data.SensorLogger;
+import com.idcta.proj.sensor.datatype.TargetIdentifier;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/// Pool of open GATT connections to peers with frequent follow-up operations, e.g. payload
+/// sharing and RSSI writes to iOS devices every 15 seconds. Processing a pooled device resumes
+/// the tasks over the open connection, using the characteristics discovered on connection,
+/// instead of connect, service discovery and disconnect for every operation.
+/// - Connection is closed once idle for longer than the idle timeout, or held for longer than the
+///   maximum age, which must be less than the 1 minute connection limit, see BLEDeviceExpiry
+/// - Least recently used idle connection is closed when the pool is full
+/// - Pooled devices are in .idle state while waiting for the next operation
+public abstract class BLEConnectionPool<C> {
+    private final SensorLogger logger = new ConcreteSensorLogger("Sensor", "BLE.BLEConnectionPool");
+    private final BLEGattConnector<C> connector;
+    private final int capacity;
+    private final long idleTimeoutMillis;
+    private final long maximumAgeMillis;
+    private final Map<TargetIdentifier, Entry<C>> entries = new LinkedHashMap<>(16, 0.75f, true);
+    /// Time to process device over pooled connection, from resume to idle.
+    public final Sample timeToProcess = new Sample();
+    private long retained = 0;
+    private long reused = 0;
+    private long expired = 0;
+    private long evicted = 0;
+
+    /// Pooled connection
+    private final static class Entry<C> {
+        private final BLEDevice device;
+        private final C connection;
+        private final long retainedAt;
+        private long lastUsedAt;
+        private boolean inUse = false;
+
+        private Entry(final BLEDevice device, final C connection, final long retainedAt) {
+            this.device = device;
+            this.connection = connection;
+            this.retainedAt = retainedAt;
+            this.lastUsedAt = retainedAt;
+        }
+    }
+
+    /// Pool of up to capacity connections, closing connections with connector once idle for
+    /// longer than idle timeout, or held for longer than maximum age since first retained.
+    public BLEConnectionPool(final BLEGattConnector<C> connector, final int capacity, final long idleTimeoutMillis, final long maximumAgeMillis) {
+        this.connector = connector;
+        this.capacity = capacity;
+        this.idleTimeoutMillis = idleTimeoutMillis;
+        this.maximumAgeMillis = maximumAgeMillis;
+    }
+
+    /// Resume processing of device over open connection, i.e. start the next task. Device state
+    /// changes to .idle once all tasks are complete and the connection is retained, or
+    /// .disconnected otherwise. Returns false if the request failed.
+    protected abstract boolean resume(final BLEDevice device, final C connection);
+
+    /// Is the pool enabled?
+    public boolean isEnabled() {
+        return capacity > 0;
+    }
+
+    // MARK:- Connections
+
+    /// Get pooled connection to device for processing, or null if there is no pooled connection,
+    /// or the connection has expired, in which case the connection is closed.
+    public C acquire(final BLEDevice device, final long now) {
+        final Entry<C> entry;
+        synchronized (this) {
+            final Entry<C> candidate = entries.get(device.identifier);
+            if (candidate == null || candidate.inUse) {
+                return null;
+            }
+            if (!expired(candidate, now)) {
+                candidate.inUse = true;
+                reused++;
+                return candidate.connection;
+            }
+            entries.remove(device.identifier);
+            expired++;
+            entry = candidate;
+        }
+        logger.debug("acquire, expired (device={})", device);
+        close(entry);
+        return null;
+    }
+
+    /// Retain open connection to device after all tasks have been completed, returns true if the
+    /// connection is pooled, or false if the connection should be closed by the caller, e.g.
+    /// pool is full of connections in use, or the connection has reached maximum age.
+    public boolean retain(final BLEDevice device, final C connection, final long now) {
+        if (!isEnabled()) {
+            return false;
+        }
+        Entry<C> eldest = null;
+        Entry<C> replaced = null;
+        synchronized (this) {
+            final Entry<C> existing = entries.get(device.identifier);
+            if (existing != null && existing.connection == connection) {
+                if (now - existing.retainedAt >= maximumAgeMillis) {
+                    entries.remove(device.identifier);
+                    expired++;
+                    return false;
+                }
+                existing.inUse = false;
+                existing.lastUsedAt = now;
+                return true;
+            }
+            if (existing != null) {
+                // Replaced by a new connection
+                entries.remove(device.identifier);
+                replaced = existing;
+            } else if (entries.size() >= capacity) {
+                // Evict least recently used idle connection
+                for (final Iterator<Entry<C>> iterator = entries.values().iterator(); iterator.hasNext(); ) {
+                    final Entry<C> candidate = iterator.next();
+                    if (!candidate.inUse) {
+                        iterator.remove();
+                        evicted++;
+                        eldest = candidate;
+                        break;
+                    }
+                }
+                if (eldest == null) {
+                    return false;
+                }
+            }
+            entries.put(device.identifier, new Entry<>(device, connection, now));
+            retained++;
+        }
+        if (eldest != null) {
+            logger.debug("retain, evicted connection (device={},replacedBy={})", eldest.device, device);
+            close(eldest);
+        }
+        if (replaced != null) {
+            // Device is using the new connection, only close the old connection
+            logger.debug("retain, replaced connection (device={})", device);
+            close(device, replaced.connection);
+        }
+        return true;
+    }
+
+    /// Remove connection to device from pool without closing it, e.g. after disconnection by the
+    /// peer, or when the caller closes the connection. Returns true if the connection was pooled.
+    public synchronized boolean remove(final BLEDevice device, final C connection) {
+        final Entry<C> entry = entries.get(device.identifier);
+        if (entry == null || entry.connection != connection) {
+            return false;
+        }
+        entries.remove(device.identifier);
+        return true;
+    }
+
+    /// Close idle connections that have expired, returns number of connections closed.
+    public int expire(final long now) {
+        final List<Entry<C>> closing = new ArrayList<>();
+        synchronized (this) {
+            for (final Iterator<Entry<C>> iterator = entries.values().iterator(); iterator.hasNext(); ) {
+                final Entry<C> entry = iterator.next();
+                if (!entry.inUse && expired(entry, now)) {
+                    iterator.remove();
+                    expired++;
+                    closing.add(entry);
+                }
+            }
+        }
+        for (final Entry<C> entry : closing) {
+            logger.debug("expire, closing connection (device={})", entry.device);
+            close(entry);
+        }
+        return closing.size();
+    }
+
+    /// Close all idle connections, e.g. on stop.
+    public int closeAll() {
+        return expire(Long.MAX_VALUE);
+    }
+
+    private boolean expired(final Entry<C> entry, final long now) {
+        return now - entry.lastUsedAt >= idleTimeoutMillis || now - entry.retainedAt >= maximumAgeMillis;
+    }
+
+    private void close(final Entry<C> entry) {
+        close(entry.device, entry.connection);
+        entry.device.state(BLEDeviceState.disconnected);
+    }
+
+    private void close(final BLEDevice device, final C connection) {
+        try {
+            connector.close(connection);
+        } catch (Throwable e) {
+            logger.fault("close failed (device={})", device, e);
+        }
+    }
+
+    // MARK:- Statistics
+
+    /// Number of pooled connections.
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /// Is there a pooled connection to device?
+    public synchronized boolean contains(final BLEDevice device) {
+        return entries.containsKey(device.identifier);
+    }
+
+    /// Number of connections retained in pool.
+    public synchronized long retained() {
+        return retained;
+    }
+
+    /// Number of times a pooled connection was used instead of a new connection.
+    public synchronized long connectionsSaved() {
+        return reused;
+    }
+
+    /// Number of connections closed on reaching idle timeout or maximum age.
+    public synchronized long expired() {
+        return expired;
+    }
+
+    /// Number of connections closed to make space for another connection.
+    public synchronized long evicted() {
+        return evicted;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "[size=" + entries.size() + ",retained=" + retained + ",saved=" + reused + ",expired=" + expired + ",evicted=" + evicted + ",timeToProcess=" + timeToProcess + "]";
+    }
+}
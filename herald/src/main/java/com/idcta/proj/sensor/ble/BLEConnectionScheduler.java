@@ -0,0 +1,110 @@
+//  Copyright 2020 VMware, Inc.
+//  SPDX-License-Identifier: Apache-2.0
+//
+
+package com.idcta.proj.sensor.ble;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/// Value-based ordering of devices for connection, to maximise new payloads acquired per
+/// unit of radio time within the time budget of each scan cycle. Devices are ordered by
+/// the class of their next task first, e.g. missing payload before payload update before
+/// write tasks, and then by the expected value of connecting to the device, based on signal
+/// strength, time since the device was last processed and connection history. Devices of
+/// equal value retain discovery order.
+public abstract class BLEConnectionScheduler {
+    /// Weakest and strongest signal for scoring, RSSI outside this range is clamped
+    private final static double rssiMin = -100, rssiMax = -40;
+
+    /// Task classes in ascending order of value
+    public enum TaskClass {
+        /// No pending task, device is not scheduled
+        nothing,
+        /// Write payload, RSSI or payload sharing data
+        writeData,
+        /// Read payload update, or device introspection
+        readPayloadUpdate,
+        /// Read payload from device without payload
+        readPayload,
+        /// Immediate send requested by application
+        immediateSend
+    }
+
+    /// Device and score, snapshot of device attributes for sorting
+    private final static class Candidate {
+        private final BLEDevice device;
+        private final TaskClass taskClass;
+        private final double value;
+
+        private Candidate(final BLEDevice device, final TaskClass taskClass, final double value) {
+            this.device = device;
+            this.taskClass = taskClass;
+            this.value = value;
+        }
+    }
+
+    private final static Comparator<Candidate> descendingValue = new Comparator<Candidate>() {
+        @Override
+        public int compare(Candidate a, Candidate b) {
+            final int byClass = b.taskClass.compareTo(a.taskClass);
+            if (byClass != 0) {
+                return byClass;
+            }
+            return Double.compare(b.value, a.value);
+        }
+    };
+
+    /// Class of the next task for device.
+    protected abstract TaskClass taskClass(final BLEDevice device);
+
+    /// Devices with pending tasks, in descending order of value. Devices without pending
+    /// tasks are excluded.
+    public List<BLEDevice> schedule(final Collection<BLEDevice> devices, final long now) {
+        final List<Candidate> candidates = new ArrayList<>(devices.size());
+        for (final BLEDevice device : devices) {
+            final TaskClass taskClass = taskClass(device);
+            if (taskClass == TaskClass.nothing) {
+                continue;
+            }
+            candidates.add(new Candidate(device, taskClass, value(device, now)));
+        }
+        // Stable sort, equal value devices retain discovery order
+        Collections.sort(candidates, descendingValue);
+        final List<BLEDevice> scheduled = new ArrayList<>(candidates.size());
+        for (final Candidate candidate : candidates) {
+            scheduled.add(candidate.device);
+        }
+        return scheduled;
+    }
+
+    /// Expected value of connecting to device within its task class, in range (0,1].
+    /// - Connection success rate from history, 0.5 for new devices
+    /// - Signal strength, stronger signal connects faster and more reliably
+    /// - Time since last processed, relative to payload update interval
+    public static double value(final BLEDevice device, final long now) {
+        return device.connectSuccessRate() * (0.5 + 0.5 * signal(device)) * (0.5 + 0.5 * staleness(device, now));
+    }
+
+    /// Signal strength score in range [0,1], 0.5 for unknown RSSI.
+    protected static double signal(final BLEDevice device) {
+        if (device.rssi() == null) {
+            return 0.5;
+        }
+        final double rssi = Math.max(rssiMin, Math.min(rssiMax, device.rssi().value));
+        return (rssi - rssiMin) / (rssiMax - rssiMin);
+    }
+
+    /// Staleness score in range [0,1], 1 for devices never processed, or not processed
+    /// within payload update interval.
+    protected static double staleness(final BLEDevice device, final long now) {
+        if (device.lastProcessedAt() == null) {
+            return 1;
+        }
+        final double elapsed = now - device.lastProcessedAt().getTime();
+        return Math.max(0, Math.min(1, elapsed / BLESensorConfiguration.payloadDataUpdateTimeInterval.millis()));
+    }
+}
@@ -0,0 +1,265 @@
+//  Copyright 2020 VMware, Inc.
+//  SPDX-License-Identifier: Apache-2.0
+//
+
+package com.idcta.proj.sensor.ble;
+
+import com.idcta.proj.sensor.analysis.Sample;
+import com.idcta.proj.sensor.ble.filter.BLEAdvert;
+import com.idcta.proj.sensor.datatype.Data;
+import com.idcta.proj.sensor.datatype.TargetIdentifier;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/// Connection statistics by device and by device class, for setting connect timeouts and
+/// skipping devices that repeatedly fail to connect. Device class is the model where known,
+/// otherwise the operating system and advert features, so a slow or unreachable model does
+/// not waste the full connect time limit on every scan cycle.
+/// - Connect timeout is the p95 of recent connect times for the device class, or all devices
+///   if the class has too few samples, times a margin, bounded by the minimum and default timeouts
+/// - Connect timeouts are recorded as censored connect times at the timeout, so with the margin
+///   the timeout of a class grows back when its devices become slower than the timeout
+/// - Connect failures add a unit penalty to the device that decays exponentially, a device is
+///   skipped while its penalty is above the skip threshold, successful connection clears it
+public class BLEConnectionStatistics {
+    /// Class of all devices
+    public final static String all = "all";
+    private final long defaultConnectTimeoutMillis;
+    private final long minimumConnectTimeoutMillis;
+    private final double connectTimeoutMargin;
+    private final int window;
+    private final int minimumSamples;
+    private final long penaltyHalfLifeMillis;
+    private final double skipPenalty;
+    private final Map<String, Statistics> classes = new HashMap<>();
+    private final Map<TargetIdentifier, Statistics> devices;
+
+    /// Connection statistics for a device or device class.
+    public final static class Statistics {
+        private final long[] recentConnectMillis;
+        private int recentCount = 0;
+        private int recentNext = 0;
+        /// Time to connect for successful connections.
+        public final Sample timeToConnect = new Sample();
+        /// Time to process, from connect request to disconnection, for processed devices.
+        public final Sample timeToProcess = new Sample();
+        private long attempts = 0;
+        private long successes = 0;
+        private double penalty = 0;
+        private long penaltyAt = 0;
+
+        private Statistics(final int window) {
+            this.recentConnectMillis = new long[window];
+        }
+
+        private synchronized void connected(final long connectMillis) {
+            attempts++;
+            successes++;
+            timeToConnect.add(connectMillis);
+            recent(connectMillis);
+            penalty = 0;
+        }
+
+        private synchronized void timedOut(final long timeoutMillis, final long now, final long halfLifeMillis) {
+            failed(now, halfLifeMillis);
+            // Connect time is at least the timeout
+            recent(timeoutMillis);
+        }
+
+        private void recent(final long connectMillis) {
+            recentConnectMillis[recentNext] = connectMillis;
+            recentNext = (recentNext + 1) % recentConnectMillis.length;
+            if (recentCount < recentConnectMillis.length) {
+                recentCount++;
+            }
+        }
+
+        private synchronized void failed(final long now, final long halfLifeMillis) {
+            attempts++;
+            penalty = penalty(now, halfLifeMillis) + 1;
+            penaltyAt = now;
+        }
+
+        /// Number of connection attempts.
+        public synchronized long attempts() {
+            return attempts;
+        }
+
+        /// Number of successful connections.
+        public synchronized long successes() {
+            return successes;
+        }
+
+        /// Connect success rate, with Laplace smoothing for few attempts.
+        public synchronized double successRate() {
+            return (successes + 1) / (double) (attempts + 2);
+        }
+
+        /// Failure penalty at time, decayed since last failure.
+        public synchronized double penalty(final long now, final long halfLifeMillis) {
+            if (penalty == 0) {
+                return 0;
+            }
+            final long elapsed = Math.max(0, now - penaltyAt);
+            return penalty * Math.pow(0.5, elapsed / (double) halfLifeMillis);
+        }
+
+        /// Number of recent connect times for percentile, including timeouts.
+        public synchronized int recentCount() {
+            return recentCount;
+        }
+
+        /// Percentile (0-1) of recent connect times, or -1 if no samples.
+        public synchronized long percentile(final double p) {
+            if (recentCount == 0) {
+                return -1;
+            }
+            final long[] sorted = Arrays.copyOf(recentConnectMillis, recentCount);
+            Arrays.sort(sorted);
+            final int index = (int) Math.ceil(p * recentCount) - 1;
+            return sorted[Math.max(0, Math.min(recentCount - 1, index))];
+        }
+
+        @Override
+        public synchronized String toString() {
+            return "[attempts=" + attempts + ",successes=" + successes + ",p95=" + percentile(0.95) + ",timeToConnect=" + timeToConnect + ",timeToProcess=" + timeToProcess + "]";
+        }
+    }
+
+    /// Statistics with default connect timeout, timeouts from p95 of the most recent connect
+    /// times (window) given at least minimum samples, times margin, bounded by minimum timeout,
+    /// and failure penalty decaying by half-life. Device statistics are kept for the most
+    /// recently used devices up to capacity.
+    public BLEConnectionStatistics(final long defaultConnectTimeoutMillis, final long minimumConnectTimeoutMillis, final double connectTimeoutMargin, final int window, final int minimumSamples, final long penaltyHalfLifeMillis, final double skipPenalty, final int capacity) {
+        this.defaultConnectTimeoutMillis = defaultConnectTimeoutMillis;
+        this.minimumConnectTimeoutMillis = minimumConnectTimeoutMillis;
+        this.connectTimeoutMargin = connectTimeoutMargin;
+        this.window = window;
+        this.minimumSamples = minimumSamples;
+        this.penaltyHalfLifeMillis = penaltyHalfLifeMillis;
+        this.skipPenalty = skipPenalty;
+        this.devices = new LinkedHashMap<TargetIdentifier, Statistics>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(final Map.Entry<TargetIdentifier, Statistics> eldest) {
+                return capacity > 0 && size() > capacity;
+            }
+        };
+    }
+
+    /// Device class from model where known, otherwise operating system and type of first
+    /// Apple advert message, e.g. "model=Pixel 4" or "os=ios_tbc,apple=10".
+    public static String classOf(final BLEDevice device) {
+        final String model = device.model();
+        if (model != null) {
+            return "model=" + model;
+        }
+        final StringBuilder s = new StringBuilder("os=").append(device.operatingSystem());
+        final BLEAdvert advert = device.advert();
+        if (advert != null && advert.appleSegmentCount() > 0) {
+            final Data message = advert.appleSegment(0);
+            if (message.value.length > 0) {
+                s.append(",apple=").append(message.subdata(0, 1).hexEncodedString());
+            }
+        }
+        return s.toString();
+    }
+
+    // MARK:- Record outcomes
+
+    /// Record successful connection to device.
+    public synchronized void connected(final BLEDevice device, final long connectMillis) {
+        device(device, true).connected(connectMillis);
+        deviceClass(classOf(device), true).connected(connectMillis);
+        deviceClass(all, true).connected(connectMillis);
+    }
+
+    /// Record failed connection to device, e.g. connect request failed or device disconnected.
+    public synchronized void failed(final BLEDevice device, final long now) {
+        device(device, true).failed(now, penaltyHalfLifeMillis);
+        deviceClass(classOf(device), true).failed(now, penaltyHalfLifeMillis);
+        deviceClass(all, true).failed(now, penaltyHalfLifeMillis);
+    }
+
+    /// Record failed connection to device after waiting for connect timeout.
+    public synchronized void timedOut(final BLEDevice device, final long timeoutMillis, final long now) {
+        device(device, true).timedOut(timeoutMillis, now, penaltyHalfLifeMillis);
+        deviceClass(classOf(device), true).timedOut(timeoutMillis, now, penaltyHalfLifeMillis);
+        deviceClass(all, true).timedOut(timeoutMillis, now, penaltyHalfLifeMillis);
+    }
+
+    /// Record successful processing of device, from connect request to disconnection.
+    public synchronized void processed(final BLEDevice device, final long processMillis) {
+        device(device, true).timeToProcess.add(processMillis);
+        deviceClass(classOf(device), true).timeToProcess.add(processMillis);
+        deviceClass(all, true).timeToProcess.add(processMillis);
+    }
+
+    /// Remove device statistics, e.g. after device has been deleted.
+    public synchronized void remove(final BLEDevice device) {
+        devices.remove(device.identifier);
+    }
+
+    // MARK:- Decisions
+
+    /// Connect timeout for device, from p95 of connect times for device class times margin.
+    public synchronized long connectTimeoutMillis(final BLEDevice device) {
+        Statistics statistics = deviceClass(classOf(device), false);
+        if (statistics == null || statistics.recentCount() < minimumSamples) {
+            statistics = deviceClass(all, false);
+        }
+        if (statistics == null || statistics.recentCount() < minimumSamples) {
+            return defaultConnectTimeoutMillis;
+        }
+        final long timeout = (long) Math.ceil(statistics.percentile(0.95) * connectTimeoutMargin);
+        return Math.max(minimumConnectTimeoutMillis, Math.min(defaultConnectTimeoutMillis, timeout));
+    }
+
+    /// Failure penalty for device at time.
+    public synchronized double penalty(final BLEDevice device, final long now) {
+        final Statistics statistics = device(device, false);
+        return (statistics == null ? 0 : statistics.penalty(now, penaltyHalfLifeMillis));
+    }
+
+    /// Should connection to device be skipped at time due to repeated failures?
+    public boolean skip(final BLEDevice device, final long now) {
+        return penalty(device, now) >= skipPenalty;
+    }
+
+    // MARK:- Statistics
+
+    /// Statistics for device, or null if none.
+    public synchronized Statistics device(final BLEDevice device) {
+        return devices.get(device.identifier);
+    }
+
+    /// Statistics for device class, or null if none.
+    public synchronized Statistics deviceClass(final String deviceClass) {
+        return classes.get(deviceClass);
+    }
+
+    /// Number of devices with statistics.
+    public synchronized int devices() {
+        return devices.size();
+    }
+
+    private Statistics device(final BLEDevice device, final boolean create) {
+        Statistics statistics = devices.get(device.identifier);
+        if (statistics == null && create) {
+            statistics = new Statistics(window);
+            devices.put(device.identifier, statistics);
+        }
+        return statistics;
+    }
+
+    private Statistics deviceClass(final String deviceClass, final boolean create) {
+        Statistics statistics = classes.get(deviceClass);
+        if (statistics == null && create) {
+            statistics = new Statistics(window);
+            classes.put(deviceClass, statistics);
+        }
+        return statistics;
+    }
+}
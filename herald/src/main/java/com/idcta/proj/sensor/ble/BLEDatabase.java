@@ -33,9 +33,16 @@ public interface BLEDatabase {
     /// Get all devices
     List<BLEDevice> devices();
 
+    /// Visit devices matching predicate in the live table without copying, returns number of devices visited.
+    /// Devices added or deleted during iteration may or may not be visited.
+    int forEach(BLEDevicePredicate predicate, BLEDeviceVisitor visitor);
+
     /// Delete
     void delete(TargetIdentifier identifier);
 
     /// Get payload sharing data for a peer
     PayloadSharingData payloadSharingData(BLEDevice peer);
+
+    /// Is there payload sharing data for a peer, without recording payloads as shared with peer
+    boolean hasPayloadSharingData(BLEDevice peer);
 }
@@ -6,8 +6,8 @@ package com.idcta.proj.sensor.ble;
 
 import android.bluetooth.BluetoothDevice;
 import android.bluetooth.BluetoothGattCharacteristic;
-import android.bluetooth.le.ScanRecord;
 
+import com.idcta.proj.sensor.ble.filter.BLEAdvert;
 import com.idcta.proj.sensor.datatype.Calibration;
 import com.idcta.proj.sensor.datatype.CalibrationMeasurementUnit;
 import com.idcta.proj.sensor.datatype.Data;
@@ -17,10 +17,11 @@ import com.idcta.proj.sensor.datatype.RSSI;
 import com.idcta.proj.sensor.datatype.TargetIdentifier;
 import com.idcta.proj.sensor.datatype.TimeInterval;
 
-import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
-import java.util.List;
 import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class BLEDevice {
     /// Device registration timestamp
@@ -36,7 +37,9 @@ public class BLEDevice {
     /// Android Bluetooth device object for interacting with this device.
     private BluetoothDevice peripheral = null;
     /// Bluetooth device connection state.
-    private BLEDeviceState state = BLEDeviceState.disconnected;
+    private volatile BLEDeviceState state = BLEDeviceState.disconnected;
+    /// Monitor for signalling state changes to threads waiting in awaitState()
+    private final Object stateMonitor = new Object();
     /// Device operating system, this is necessary for selecting different interaction procedures for each platform.
     private BLEDeviceOperatingSystem operatingSystem = BLEDeviceOperatingSystem.unknown;
     /// Payload data acquired from the device via payloadCharacteristic read, e.g. C19X beacon code or Sonar encrypted identifier
@@ -53,7 +56,7 @@ public class BLEDevice {
     /// Ignore logic
     private TimeInterval ignoreForDuration = null;
     private Date ignoreUntil = null;
-    private ScanRecord scanRecord = null;
+    private BLEAdvert advert = null;
 
     /// BLE characteristics
     private BluetoothGattCharacteristic signalCharacteristic = null;
@@ -61,6 +64,13 @@ public class BLEDevice {
     private BluetoothGattCharacteristic legacyPayloadCharacteristic = null;
     protected byte[] signalCharacteristicWriteValue = null;
     protected Queue<byte[]> signalCharacteristicWriteQueue = null;
+    protected long signalCharacteristicWriteStartedAt = 0;
+    /// ATT MTU for current connection
+    protected int mtu = BLEMtuCache.defaultMtu;
+    protected boolean mtuRequestPending = false;
+    /// Current connection phase for trace, see BLETrace
+    protected String tracePhase = null;
+    protected long tracePhaseStartedAt = 0;
 
     private BluetoothGattCharacteristic modelCharacteristic = null;
     private String model = null;
@@ -70,14 +80,46 @@ public class BLEDevice {
     /// Track connection timestamps
     private Date lastDiscoveredAt = null;
     private Date lastConnectedAt = null;
+    /// Track connection outcomes for scheduling
+    private int connectAttempts = 0;
+    private int connectSuccesses = 0;
+    private Date lastProcessedAt = null;
 
     /// Payload data already shared with this peer
-    protected final List<PayloadData> payloadSharingData = new ArrayList<>();
+    protected final Set<PayloadData> payloadSharingData = Collections.newSetFromMap(new ConcurrentHashMap<PayloadData, Boolean>());
 
     /// Track write timestamps
     private Date lastWritePayloadAt = null;
     private Date lastWriteRssiAt = null;
     private Date lastWritePayloadSharingAt = null;
+    private Date lastImmediateSendAt = null;
+
+    public Date lastConnectedAt() {
+        return lastConnectedAt;
+    }
+
+    /// Record outcome of connection attempt, connected is true if connection was established.
+    public synchronized void registerConnectAttempt(boolean connected) {
+        connectAttempts++;
+        if (connected) {
+            connectSuccesses++;
+        }
+    }
+
+    /// Estimated probability of establishing a connection to this device, based on connection
+    /// history with a uniform prior, i.e. 0.5 for a device that has never been connected.
+    public synchronized double connectSuccessRate() {
+        return (connectSuccesses + 1) / (double) (connectAttempts + 2);
+    }
+
+    /// Record successful completion of all pending tasks for this device.
+    public void registerProcessed() {
+        lastProcessedAt = new Date();
+    }
+
+    public Date lastProcessedAt() {
+        return lastProcessedAt;
+    }
 
     public TimeInterval timeIntervalSinceConnected() {
         if (state() != BLEDeviceState.connected) {
@@ -118,9 +160,14 @@ public class BLEDevice {
 
     /// Create a clone of an existing device
     public BLEDevice(BLEDevice device, BluetoothDevice bluetoothDevice) {
+        this(device, new TargetIdentifier(bluetoothDevice));
+    }
+
+    /// Create a clone of an existing device, attached to peripheral with target identifier
+    public BLEDevice(BLEDevice device, TargetIdentifier identifier) {
         this.createdAt = device.createdAt;
         this.lastUpdatedAt = new Date();
-        this.identifier = new TargetIdentifier(bluetoothDevice);
+        this.identifier = identifier;
         this.pseudoDeviceAddress = device.pseudoDeviceAddress;
         this.delegate = device.delegate;
         this.state = device.state;
@@ -132,7 +179,7 @@ public class BLEDevice {
         this.receiveOnly = device.receiveOnly;
         this.ignoreForDuration = device.ignoreForDuration;
         this.ignoreUntil = device.ignoreUntil;
-        this.scanRecord = device.scanRecord;
+        this.advert = device.advert;
         this.signalCharacteristic = device.signalCharacteristic;
         this.payloadCharacteristic = device.payloadCharacteristic;
         this.modelCharacteristic = device.modelCharacteristic;
@@ -141,13 +188,24 @@ public class BLEDevice {
         this.deviceName = device.deviceName;
         this.signalCharacteristicWriteValue = device.signalCharacteristicWriteValue;
         this.signalCharacteristicWriteQueue = device.signalCharacteristicWriteQueue;
+        this.signalCharacteristicWriteStartedAt = device.signalCharacteristicWriteStartedAt;
+        this.mtu = device.mtu;
+        this.mtuRequestPending = device.mtuRequestPending;
+        this.tracePhase = device.tracePhase;
+        this.tracePhaseStartedAt = device.tracePhaseStartedAt;
         this.legacyPayloadCharacteristic = device.legacyPayloadCharacteristic;
         this.lastDiscoveredAt = device.lastDiscoveredAt;
         this.lastConnectedAt = device.lastConnectedAt;
+        synchronized (device) {
+            this.connectAttempts = device.connectAttempts;
+            this.connectSuccesses = device.connectSuccesses;
+        }
+        this.lastProcessedAt = device.lastProcessedAt;
         this.payloadSharingData.addAll(device.payloadSharingData);
         this.lastWritePayloadAt = device.lastWritePayloadAt;
         this.lastWriteRssiAt = device.lastWriteRssiAt;
         this.lastWritePayloadSharingAt = device.lastWritePayloadSharingAt;
+        this.lastImmediateSendAt = device.lastImmediateSendAt;
     }
 
     public PseudoDeviceAddress pseudoDeviceAddress() {
@@ -158,6 +216,7 @@ public class BLEDevice {
         if (this.pseudoDeviceAddress == null || !this.pseudoDeviceAddress.equals(pseudoDeviceAddress)) {
             this.pseudoDeviceAddress = pseudoDeviceAddress;
             lastUpdatedAt = new Date();
+            delegate.device(this, BLEDeviceAttribute.pseudoDeviceAddress);
         }
     }
 
@@ -177,14 +236,43 @@ public class BLEDevice {
     }
 
     public void state(BLEDeviceState state) {
-        this.state = state;
-        lastUpdatedAt = new Date();
-        if (state == BLEDeviceState.connected) {
-            lastConnectedAt = lastUpdatedAt;
+        synchronized (stateMonitor) {
+            this.state = state;
+            lastUpdatedAt = new Date();
+            if (state == BLEDeviceState.connected) {
+                lastConnectedAt = lastUpdatedAt;
+            }
+            stateMonitor.notifyAll();
         }
         delegate.device(this, BLEDeviceAttribute.state);
     }
 
+    /// Wait until device is in any of the given states, or timeout. This is signalled directly
+    /// by state changes, e.g. from GATT callbacks, and returns the state on exit, which is not
+    /// one of the given states on timeout or interruption (interrupt status is preserved).
+    public BLEDeviceState awaitState(final long timeoutMillis, final BLEDeviceState... states) {
+        final long deadline = System.currentTimeMillis() + timeoutMillis;
+        synchronized (stateMonitor) {
+            while (true) {
+                for (final BLEDeviceState candidate : states) {
+                    if (state == candidate) {
+                        return state;
+                    }
+                }
+                final long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0) {
+                    return state;
+                }
+                try {
+                    stateMonitor.wait(remaining);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return state;
+                }
+            }
+        }
+    }
+
     public BLEDeviceOperatingSystem operatingSystem() {
         return operatingSystem;
     }
@@ -291,8 +379,12 @@ public class BLEDevice {
     }
 
     public void receiveOnly(boolean receiveOnly) {
+        final boolean changed = (this.receiveOnly != receiveOnly);
         this.receiveOnly = receiveOnly;
         lastUpdatedAt = new Date();
+        if (changed) {
+            delegate.device(this, BLEDeviceAttribute.receiveOnly);
+        }
     }
 
     public void invalidateCharacteristics() {
@@ -394,6 +486,16 @@ public class BLEDevice {
         return new TimeInterval((new Date().getTime() - lastWritePayloadSharingAt.getTime()) / 1000);
     }
 
+    /// Record successful write of immediate send data.
+    public void registerImmediateSend() {
+        lastUpdatedAt = new Date();
+        lastImmediateSendAt = lastUpdatedAt;
+    }
+
+    public Date lastImmediateSendAt() {
+        return lastImmediateSendAt;
+    }
+
     public TimeInterval timeIntervalUntilIgnoreExpires() {
         if (ignoreUntil == null) {
             return TimeInterval.zero;
@@ -404,12 +506,13 @@ public class BLEDevice {
         return new TimeInterval((ignoreUntil.getTime() - new Date().getTime()) / 1000);
     }
 
-    public void scanRecord(ScanRecord scanRecord) {
-        this.scanRecord = scanRecord;
+    /// Set most recent advert, parsed from scan record.
+    public void advert(BLEAdvert advert) {
+        this.advert = advert;
     }
 
-    public ScanRecord scanRecord() {
-        return scanRecord;
+    public BLEAdvert advert() {
+        return advert;
     }
 
     @Override
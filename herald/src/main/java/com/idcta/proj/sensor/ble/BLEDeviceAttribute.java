@@ -5,5 +5,5 @@
 package com.idcta.proj.sensor.ble;
 
 public enum BLEDeviceAttribute {
-    peripheral, state, operatingSystem, payloadData, rssi, txPower
+    peripheral, pseudoDeviceAddress, state, operatingSystem, payloadData, receiveOnly, rssi, txPower
 }
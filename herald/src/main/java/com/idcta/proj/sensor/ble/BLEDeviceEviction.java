@@ -0,0 +1,62 @@
+//  Copyright 2020 VMware, Inc.
+//  SPDX-License-Identifier: Apache-2.0
+//
+
+package com.idcta.proj.sensor.ble;
+
+import com.idcta.proj.sensor.datatype.TimeInterval;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+/// Selection of least valuable devices for eviction when the database is full. Devices without
+/// payload that have not been seen recently are evicted first, then devices with payload that
+/// have not been seen recently, then devices without payload that have been seen recently, and
+/// devices with payload that have been seen recently are evicted last. Least recently updated
+/// devices are evicted first within each group. Devices that are connecting or connected are
+/// never evicted, to avoid interrupting GATT operations.
+public class BLEDeviceEviction {
+    /// Devices updated within this time interval are considered recently seen
+    public final static TimeInterval recentTimeInterval = TimeInterval.minute;
+
+    /// Eviction order is computed from a snapshot of device attributes, as attributes may change during selection
+    private final static class Candidate implements Comparable<Candidate> {
+        private final BLEDevice device;
+        private final int group;
+        private final long lastUpdatedAt;
+
+        private Candidate(final BLEDevice device, final long recentSince) {
+            this.device = device;
+            this.lastUpdatedAt = device.lastUpdatedAt.getTime();
+            this.group = (lastUpdatedAt > recentSince ? 2 : 0) + (device.payloadData() != null ? 1 : 0);
+        }
+
+        @Override
+        public int compareTo(final Candidate other) {
+            if (group != other.group) {
+                return (group < other.group ? -1 : 1);
+            }
+            return (lastUpdatedAt < other.lastUpdatedAt ? -1 : (lastUpdatedAt == other.lastUpdatedAt ? 0 : 1));
+        }
+    }
+
+    /// Select up to count least valuable devices for eviction, excluding device to keep (e.g. device being created).
+    public static List<BLEDevice> select(final Collection<BLEDevice> devices, final int count, final BLEDevice keep, final long currentTimeMillis) {
+        final long recentSince = currentTimeMillis - recentTimeInterval.millis();
+        final List<Candidate> candidates = new ArrayList<>(devices.size());
+        for (final BLEDevice device : devices) {
+            if (device == keep || device.state() != BLEDeviceState.disconnected) {
+                continue;
+            }
+            candidates.add(new Candidate(device, recentSince));
+        }
+        Collections.sort(candidates);
+        final List<BLEDevice> selected = new ArrayList<>(Math.min(count, candidates.size()));
+        for (int i = 0; i < candidates.size() && selected.size() < count; i++) {
+            selected.add(candidates.get(i).device);
+        }
+        return selected;
+    }
+}
@@ -0,0 +1,75 @@
+//  Copyright 2020 VMware, Inc.
+//  SPDX-License-Identifier: Apache-2.0
+//
+
+package com.idcta.proj.sensor.ble;
+
+import com.idcta.proj.sensor.datatype.TimeInterval;
+
+import java.util.List;
+
+/// Housekeeping schedule for devices in the database, tracking device expiry (no update for
+/// 15 minutes) and connections that have been held for too long (connected for 1 minute).
+/// Devices are scheduled via database events, and housekeeping only visits devices that are
+/// due, rather than sweeping the whole database on every scan cycle.
+public class BLEDeviceExpiry implements BLEDatabaseDelegate {
+    /// Device expires when time interval since last update exceeds 15 minutes, i.e. reaches
+    /// 15 minutes and 1 second at one second resolution, as per timeIntervalSinceLastUpdate().
+    public final static long expiryMillis = TimeInterval.minutes(15).millis() + 1000;
+    /// Connection is considered stale when time interval since connected exceeds 1 minute.
+    public final static long connectionLimitMillis = TimeInterval.minute.millis() + 1000;
+    private final static long tickMillis = 1000;
+    private final static int slots = 1024;
+
+    private final BLEDeviceTimingWheel expiry = new BLEDeviceTimingWheel(tickMillis, slots) {
+        @Override
+        protected long deadline(final BLEDevice device) {
+            if (device.lastUpdatedAt == null) {
+                return never;
+            }
+            return device.lastUpdatedAt.getTime() + expiryMillis;
+        }
+    };
+
+    private final BLEDeviceTimingWheel connection = new BLEDeviceTimingWheel(tickMillis, slots) {
+        @Override
+        protected long deadline(final BLEDevice device) {
+            if (device.state() != BLEDeviceState.connected || device.lastConnectedAt() == null) {
+                return never;
+            }
+            return device.lastConnectedAt().getTime() + connectionLimitMillis;
+        }
+    };
+
+    /// Get devices that have expired, these are removed from the schedule.
+    public List<BLEDevice> expired(final long currentTimeMillis) {
+        return expiry.due(currentTimeMillis);
+    }
+
+    /// Get devices that have been connected for too long, these are removed from the schedule
+    /// until the next connection.
+    public List<BLEDevice> connectionExpired(final long currentTimeMillis) {
+        return connection.due(currentTimeMillis);
+    }
+
+    // MARK:- BLEDatabaseDelegate
+
+    @Override
+    public void bleDatabaseDidCreate(final BLEDevice device) {
+        expiry.schedule(device);
+        connection.schedule(device);
+    }
+
+    @Override
+    public void bleDatabaseDidUpdate(final BLEDevice device, final BLEDeviceAttribute attribute) {
+        if (attribute == BLEDeviceAttribute.state) {
+            connection.schedule(device);
+        }
+    }
+
+    @Override
+    public void bleDatabaseDidDelete(final BLEDevice device) {
+        expiry.cancel(device);
+        connection.cancel(device);
+    }
+}
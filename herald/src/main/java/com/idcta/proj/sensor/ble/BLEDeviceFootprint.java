@@ -0,0 +1,120 @@
+//  Copyright 2020 VMware, Inc.
+//  SPDX-License-Identifier: Apache-2.0
+//
+
+package com.idcta.proj.sensor.ble;
+
+import com.idcta.proj.sensor.ble.filter.BLEAdvert;
+import com.idcta.proj.sensor.datatype.Data;
+import com.idcta.proj.sensor.datatype.PayloadData;
+
+/// Approximate heap footprint of devices in the database, for monitoring memory use under
+/// address churn. Estimates assume 32-bit references, 8 byte object headers and 8 byte
+/// alignment as on ART, and only count data owned by the device.
+public class BLEDeviceFootprint {
+    private final static int header = 8;
+    private final static int arrayHeader = 12;
+    private final static int reference = 4;
+    /// BLEDevice object with about 40 fields
+    private final static int device = align(header + 40 * reference + 4 * 8);
+    /// Date objects held by device (created, updated, discovered, connected, writes, payload update)
+    private final static int dates = 8 * align(header + 8 + reference);
+    /// TargetIdentifier holding UUID string
+    private final static int targetIdentifier = align(header + reference) + string(36);
+    /// BLEAdvert parsed representation (flags, pseudo device address, TX power, Apple segment offsets)
+    private final static int advertParsed = align(header + 4 + 8 + 4 + 2 * reference);
+    /// GATT characteristic with descriptors, only the device holds references after disconnect
+    private final static int characteristic = 160;
+    /// Concurrent set entry for shared payload record
+    private final static int setEntry = 32;
+
+    /// Number of devices.
+    public final long devices;
+    /// Total estimated bytes.
+    public final long bytes;
+    /// Largest estimated device in bytes.
+    public final long maxBytes;
+
+    public BLEDeviceFootprint(final long devices, final long bytes, final long maxBytes) {
+        this.devices = devices;
+        this.bytes = bytes;
+        this.maxBytes = maxBytes;
+    }
+
+    /// Mean estimated bytes per device.
+    public long meanBytes() {
+        return (devices == 0 ? 0 : bytes / devices);
+    }
+
+    /// Estimate heap footprint of device in bytes.
+    public static long estimate(final BLEDevice device) {
+        long bytes = BLEDeviceFootprint.device + dates + targetIdentifier;
+        bytes += data(device.payloadData());
+        bytes += data(device.immediateSendData());
+        if (device.pseudoDeviceAddress() != null) {
+            bytes += align(header + 8 + reference) + byteArray(device.pseudoDeviceAddress().data.length);
+        }
+        final BLEAdvert advert = device.advert();
+        if (advert != null) {
+            bytes += advertParsed + byteArray(advert.raw().length) + align(arrayHeader + 4 * 2 * advert.appleSegmentCount());
+        }
+        if (device.signalCharacteristic() != null) {
+            bytes += characteristic;
+        }
+        if (device.payloadCharacteristic() != null) {
+            bytes += characteristic;
+        }
+        if (device.getLegacyPayloadCharacteristic() != null) {
+            bytes += characteristic;
+        }
+        if (device.modelCharacteristic() != null) {
+            bytes += characteristic;
+        }
+        if (device.deviceNameCharacteristic() != null) {
+            bytes += characteristic;
+        }
+        if (device.model() != null) {
+            bytes += string(device.model().length());
+        }
+        if (device.deviceName() != null) {
+            bytes += string(device.deviceName().length());
+        }
+        // Payloads shared with device are owned by other devices, only count set entries
+        bytes += (long) device.payloadSharingData.size() * setEntry;
+        if (device.signalCharacteristicWriteQueue != null) {
+            for (final byte[] fragment : device.signalCharacteristicWriteQueue) {
+                bytes += byteArray(fragment.length) + setEntry;
+            }
+        }
+        return bytes;
+    }
+
+    @Override
+    public String toString() {
+        return "BLEDeviceFootprint{" +
+                "devices=" + devices +
+                ", bytes=" + bytes +
+                ", meanBytes=" + meanBytes() +
+                ", maxBytes=" + maxBytes +
+                '}';
+    }
+
+    private static long data(final Data data) {
+        if (data == null || data.value == null) {
+            return 0;
+        }
+        return align(header + reference) + byteArray(data.value.length);
+    }
+
+    private static int byteArray(final int length) {
+        return align(arrayHeader + length);
+    }
+
+    private static int string(final int length) {
+        return align(header + reference + 8) + align(arrayHeader + 2 * length);
+    }
+
+    private static int align(final int bytes) {
+        return (bytes + 7) & ~7;
+    }
+}
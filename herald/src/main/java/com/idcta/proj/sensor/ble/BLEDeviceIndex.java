@@ -0,0 +1,114 @@
+//  Copyright 2020 VMware, Inc.
+//  SPDX-License-Identifier: Apache-2.0
+//
+
+package com.idcta.proj.sensor.ble;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/// Secondary index for looking up devices by an attribute value (e.g. pseudo device address)
+/// without scanning the whole device table. The index must be kept consistent by calling
+/// update() whenever the attribute value of a device changes, and remove() when the device
+/// is deleted from the database. Devices are tracked by object identity, so a stale device
+/// object can never displace a live device with the same identifier.
+public abstract class BLEDeviceIndex<K> {
+    private final Map<K, List<BLEDevice>> devicesByKey = new HashMap<>();
+    private final Map<BLEDevice, K> keyByDevice = new IdentityHashMap<>();
+    private final Comparator<BLEDevice> order;
+
+    /// Index where devices sharing the same key are returned in the order they were indexed.
+    public BLEDeviceIndex() {
+        this(null);
+    }
+
+    /// Index where devices sharing the same key are returned in the given order. Ordering is
+    /// applied on lookup as ordering attributes (e.g. lastUpdatedAt) change without notice.
+    public BLEDeviceIndex(final Comparator<BLEDevice> order) {
+        this.order = order;
+    }
+
+    /// Index key for device, or null if device should not be indexed.
+    protected abstract K key(final BLEDevice device);
+
+    /// Add, move or remove device in index according to its current key.
+    public synchronized void update(final BLEDevice device) {
+        final K key = key(device);
+        final K previousKey = keyByDevice.get(device);
+        if (key != null && key.equals(previousKey)) {
+            return;
+        }
+        if (previousKey != null) {
+            removeFromBucket(previousKey, device);
+        }
+        if (key == null) {
+            keyByDevice.remove(device);
+            return;
+        }
+        List<BLEDevice> bucket = devicesByKey.get(key);
+        if (bucket == null) {
+            bucket = new ArrayList<>(1);
+            devicesByKey.put(key, bucket);
+        }
+        bucket.add(device);
+        keyByDevice.put(device, key);
+    }
+
+    /// Remove device from index.
+    public synchronized void remove(final BLEDevice device) {
+        final K previousKey = keyByDevice.remove(device);
+        if (previousKey != null) {
+            removeFromBucket(previousKey, device);
+        }
+    }
+
+    /// Get all devices with the given key, in index order. Returns an empty list if none found.
+    public synchronized List<BLEDevice> devices(final K key) {
+        final List<BLEDevice> bucket = devicesByKey.get(key);
+        if (bucket == null) {
+            return new ArrayList<>(0);
+        }
+        final List<BLEDevice> devices = new ArrayList<>(bucket);
+        if (order != null && devices.size() > 1) {
+            Collections.sort(devices, order);
+        }
+        return devices;
+    }
+
+    /// Get first device with the given key, in index order, or null if none found.
+    public synchronized BLEDevice first(final K key) {
+        final List<BLEDevice> bucket = devicesByKey.get(key);
+        if (bucket == null || bucket.isEmpty()) {
+            return null;
+        }
+        if (order == null || bucket.size() == 1) {
+            return bucket.get(0);
+        }
+        return Collections.min(bucket, order);
+    }
+
+    /// Number of indexed devices.
+    public synchronized int size() {
+        return keyByDevice.size();
+    }
+
+    private void removeFromBucket(final K key, final BLEDevice device) {
+        final List<BLEDevice> bucket = devicesByKey.get(key);
+        if (bucket == null) {
+            return;
+        }
+        for (int i = bucket.size(); i-- > 0; ) {
+            if (bucket.get(i) == device) {
+                bucket.remove(i);
+            }
+        }
+        if (bucket.isEmpty()) {
+            devicesByKey.remove(key);
+        }
+    }
+}
@@ -0,0 +1,11 @@
+//  Copyright 2020 VMware, Inc.
+//  SPDX-License-Identifier: Apache-2.0
+//
+
+package com.idcta.proj.sensor.ble;
+
+/// Device filter for iterating over devices in the database, see BLEDevicePredicates for common filters.
+public interface BLEDevicePredicate {
+    /// Returns true if device should be included.
+    boolean test(BLEDevice device);
+}
@@ -0,0 +1,85 @@
+//  Copyright 2020 VMware, Inc.
+//  SPDX-License-Identifier: Apache-2.0
+//
+
+package com.idcta.proj.sensor.ble;
+
+import com.idcta.proj.sensor.datatype.TimeInterval;
+
+/// Common device filters for BLEDatabase.forEach.
+public class BLEDevicePredicates {
+    /// All devices.
+    public final static BLEDevicePredicate all = new BLEDevicePredicate() {
+        @Override
+        public boolean test(BLEDevice device) {
+            return true;
+        }
+    };
+
+    /// Devices with payload data.
+    public final static BLEDevicePredicate hasPayloadData = new BLEDevicePredicate() {
+        @Override
+        public boolean test(BLEDevice device) {
+            return device.payloadData() != null;
+        }
+    };
+
+    /// Devices that are not being ignored.
+    public final static BLEDevicePredicate notIgnored = new BLEDevicePredicate() {
+        @Override
+        public boolean test(BLEDevice device) {
+            return !device.ignore();
+        }
+    };
+
+    /// Devices with a discovered signal characteristic.
+    public final static BLEDevicePredicate hasSignalCharacteristic = new BLEDevicePredicate() {
+        @Override
+        public boolean test(BLEDevice device) {
+            return device.signalCharacteristic() != null;
+        }
+    };
+
+    /// Devices updated within time interval of now, i.e. timeIntervalSinceLastUpdate() < timeInterval.
+    /// Current time is captured on creation, so create a new predicate for each iteration.
+    public static BLEDevicePredicate updatedWithin(final TimeInterval timeInterval) {
+        final long since = System.currentTimeMillis() - timeInterval.millis();
+        return new BLEDevicePredicate() {
+            @Override
+            public boolean test(BLEDevice device) {
+                return device.lastUpdatedAt != null && device.lastUpdatedAt.getTime() > since;
+            }
+        };
+    }
+
+    /// Devices with any of the given operating systems.
+    public static BLEDevicePredicate operatingSystem(final BLEDeviceOperatingSystem... operatingSystems) {
+        return new BLEDevicePredicate() {
+            @Override
+            public boolean test(BLEDevice device) {
+                final BLEDeviceOperatingSystem operatingSystem = device.operatingSystem();
+                for (final BLEDeviceOperatingSystem candidate : operatingSystems) {
+                    if (candidate == operatingSystem) {
+                        return true;
+                    }
+                }
+                return false;
+            }
+        };
+    }
+
+    /// Devices matching all predicates.
+    public static BLEDevicePredicate and(final BLEDevicePredicate... predicates) {
+        return new BLEDevicePredicate() {
+            @Override
+            public boolean test(BLEDevice device) {
+                for (final BLEDevicePredicate predicate : predicates) {
+                    if (!predicate.test(device)) {
+                        return false;
+                    }
+                }
+                return true;
+            }
+        };
+    }
+}
@@ -5,6 +5,7 @@
 package com.idcta.proj.sensor.ble;
 
 /// BLE device connection state
+/// - Idle is connected with all tasks complete, and the connection held open for reuse, see BLEConnectionPool
 public enum BLEDeviceState {
-    connecting, connected, disconnected
+    connecting, connected, idle, disconnected
 }
@@ -0,0 +1,127 @@
+//  Copyright 2020 VMware, Inc.
+//  SPDX-License-Identifier: Apache-2.0
+//
+
+package com.idcta.proj.sensor.ble;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/// Hashed timing wheel for scheduling a deadline per device, where the deadline is derived
+/// from device attributes (e.g. lastUpdatedAt). Scheduling and cancellation are O(1), and
+/// polling only visits devices in slots that have become due since the last poll.
+///
+/// Device attributes may change without notice after scheduling (e.g. lastUpdatedAt is
+/// touched on every attribute update), so the deadline is re-evaluated when a device
+/// becomes due, and the device is rescheduled if the deadline has moved into the future.
+/// This keeps touches free of cost while housekeeping remains exact.
+public abstract class BLEDeviceTimingWheel {
+    /// Deadline value for devices that should not be scheduled.
+    public final static long never = Long.MAX_VALUE;
+    private final long tickMillis;
+    private final List<List<Entry>> slots;
+    private final Map<BLEDevice, Entry> entries = new IdentityHashMap<>();
+    private long lastTick = -1;
+
+    private final static class Entry {
+        private final BLEDevice device;
+        private final long tick;
+
+        private Entry(final BLEDevice device, final long tick) {
+            this.device = device;
+            this.tick = tick;
+        }
+    }
+
+    /// Timing wheel covering slots * tickMillis per revolution, deadlines further ahead
+    /// remain in their slot for multiple revolutions.
+    public BLEDeviceTimingWheel(final long tickMillis, final int slots) {
+        this.tickMillis = tickMillis;
+        this.slots = new ArrayList<>(slots);
+        for (int i = 0; i < slots; i++) {
+            this.slots.add(new ArrayList<Entry>(0));
+        }
+    }
+
+    /// Deadline for device as epoch time in millis, or never if device should not be scheduled.
+    protected abstract long deadline(final BLEDevice device);
+
+    /// Schedule or reschedule device according to its current deadline.
+    public synchronized void schedule(final BLEDevice device) {
+        final long deadline = deadline(device);
+        if (deadline == never) {
+            entries.remove(device);
+            return;
+        }
+        // Cancelled and superseded entries are discarded lazily when their slot is visited
+        final Entry entry = new Entry(device, Math.max(tick(deadline), lastTick));
+        entries.put(device, entry);
+        slot(entry.tick).add(entry);
+    }
+
+    /// Cancel schedule for device.
+    public synchronized void cancel(final BLEDevice device) {
+        entries.remove(device);
+    }
+
+    /// Number of scheduled devices.
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /// Get all devices that have reached their deadline at the given time. Due devices are
+    /// removed from the schedule, and must be rescheduled if required.
+    public synchronized List<BLEDevice> due(final long currentTimeMillis) {
+        final List<BLEDevice> due = new ArrayList<>();
+        final long currentTick = tick(currentTimeMillis);
+        // Revisit last tick as it may contain entries that were not due at the last poll.
+        // Visit each slot at most once, even if polling has been delayed by multiple revolutions,
+        // or on first poll where devices may have been scheduled at any tick.
+        final long firstTick = (lastTick < 0 ? currentTick - slots.size() + 1 : Math.max(lastTick, currentTick - slots.size() + 1));
+        for (long tick = firstTick; tick <= currentTick; tick++) {
+            final List<Entry> slot = slot(tick);
+            if (slot.isEmpty()) {
+                continue;
+            }
+            final List<Entry> rescheduled = new ArrayList<>(0);
+            for (int i = slot.size(); i-- > 0; ) {
+                final Entry entry = slot.get(i);
+                // Deadline in a future revolution
+                if (entry.tick > currentTick) {
+                    continue;
+                }
+                slot.remove(i);
+                // Cancelled or superseded
+                if (entries.get(entry.device) != entry) {
+                    continue;
+                }
+                final long deadline = deadline(entry.device);
+                if (deadline == never) {
+                    entries.remove(entry.device);
+                } else if (deadline > currentTimeMillis) {
+                    final Entry update = new Entry(entry.device, tick(deadline));
+                    entries.put(entry.device, update);
+                    rescheduled.add(update);
+                } else {
+                    entries.remove(entry.device);
+                    due.add(entry.device);
+                }
+            }
+            for (final Entry entry : rescheduled) {
+                slot(entry.tick).add(entry);
+            }
+        }
+        lastTick = currentTick;
+        return due;
+    }
+
+    private long tick(final long timeMillis) {
+        return timeMillis / tickMillis;
+    }
+
+    private List<Entry> slot(final long tick) {
+        return slots.get((int) (tick % slots.size()));
+    }
+}
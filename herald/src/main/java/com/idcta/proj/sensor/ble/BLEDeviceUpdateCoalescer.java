@@ -0,0 +1,156 @@
+//  Copyright 2020 VMware, Inc.
+//  SPDX-License-Identifier: Apache-2.0
+//
+
+package com.idcta.proj.sensor.ble;
+
+import java.util.Collections;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/// Coalescing stage for device attribute update notifications. Updates are queued and delivered
+/// to the target delegate in batches, with a single task on the executor per dispatch tick,
+/// rather than one task per update. Delegates read attribute values from the device on
+/// delivery, so a pending update for the same (device, attribute) key already delivers the
+/// latest value. Measurement updates (RSSI, TX power) are collapsed by key and bounded, excess
+/// updates are dropped and counted. All other updates (e.g. state, payload data) are lossless,
+/// every update is delivered in order and never dropped.
+public class BLEDeviceUpdateCoalescer implements BLEDeviceDelegate {
+    private final BLEDeviceDelegate target;
+    private final Executor executor;
+    private final int capacity;
+    private final Queue<Update> queue = new ConcurrentLinkedQueue<>();
+    private final Set<Update> pendingCollapsible = Collections.newSetFromMap(new ConcurrentHashMap<Update, Boolean>());
+    private final AtomicInteger pendingCollapsibleCount = new AtomicInteger(0);
+    private final AtomicBoolean dispatchScheduled = new AtomicBoolean(false);
+    private final AtomicLong received = new AtomicLong(0);
+    private final AtomicLong delivered = new AtomicLong(0);
+    private final AtomicLong collapsed = new AtomicLong(0);
+    private final AtomicLong dropped = new AtomicLong(0);
+
+    /// Device attribute update, equality by device identity and attribute
+    private final static class Update {
+        private final BLEDevice device;
+        private final BLEDeviceAttribute attribute;
+
+        private Update(final BLEDevice device, final BLEDeviceAttribute attribute) {
+            this.device = device;
+            this.attribute = attribute;
+        }
+
+        @Override
+        public boolean equals(final Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            final Update update = (Update) o;
+            return device == update.device && attribute == update.attribute;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * System.identityHashCode(device) + attribute.hashCode();
+        }
+    }
+
+    /// Coalesce updates for delivery to target on executor, with at most capacity pending
+    /// collapsible updates.
+    public BLEDeviceUpdateCoalescer(final BLEDeviceDelegate target, final Executor executor, final int capacity) {
+        this.target = target;
+        this.executor = executor;
+        this.capacity = capacity;
+    }
+
+    /// Updates that only carry the latest measurement and can be collapsed.
+    public static boolean isCollapsible(final BLEDeviceAttribute attribute) {
+        return attribute == BLEDeviceAttribute.rssi || attribute == BLEDeviceAttribute.txPower;
+    }
+
+    @Override
+    public void device(final BLEDevice device, final BLEDeviceAttribute didUpdate) {
+        received.incrementAndGet();
+        final Update update = new Update(device, didUpdate);
+        if (isCollapsible(didUpdate)) {
+            if (pendingCollapsible.contains(update)) {
+                collapsed.incrementAndGet();
+                return;
+            }
+            if (pendingCollapsibleCount.incrementAndGet() > capacity) {
+                pendingCollapsibleCount.decrementAndGet();
+                dropped.incrementAndGet();
+                return;
+            }
+            if (!pendingCollapsible.add(update)) {
+                // Concurrent update for the same key
+                pendingCollapsibleCount.decrementAndGet();
+                collapsed.incrementAndGet();
+                return;
+            }
+        }
+        queue.add(update);
+        scheduleDispatch();
+    }
+
+    private void scheduleDispatch() {
+        if (!dispatchScheduled.compareAndSet(false, true)) {
+            return;
+        }
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                dispatch();
+            }
+        });
+    }
+
+    /// Deliver all pending updates, updates arriving during delivery are delivered on the next tick.
+    private void dispatch() {
+        dispatchScheduled.set(false);
+        for (int remaining = queue.size(); remaining-- > 0; ) {
+            final Update update = queue.poll();
+            if (update == null) {
+                break;
+            }
+            if (isCollapsible(update.attribute)) {
+                // Release key before delivery, so later updates are queued for the next tick
+                pendingCollapsible.remove(update);
+                pendingCollapsibleCount.decrementAndGet();
+            }
+            delivered.incrementAndGet();
+            target.device(update.device, update.attribute);
+        }
+        if (!queue.isEmpty()) {
+            scheduleDispatch();
+        }
+    }
+
+    /// Number of updates pending delivery.
+    public int pending() {
+        return queue.size();
+    }
+
+    /// Number of updates received.
+    public long received() {
+        return received.get();
+    }
+
+    /// Number of updates delivered to target.
+    public long delivered() {
+        return delivered.get();
+    }
+
+    /// Number of updates collapsed into a pending update for the same device and attribute.
+    public long collapsed() {
+        return collapsed.get();
+    }
+
+    /// Number of updates dropped because the pending capacity was reached.
+    public long dropped() {
+        return dropped.get();
+    }
+}
@@ -0,0 +1,11 @@
+//  Copyright 2020 VMware, Inc.
+//  SPDX-License-Identifier: Apache-2.0
+//
+
+package com.idcta.proj.sensor.ble;
+
+/// Callback for iterating over devices in the database without copying.
+public interface BLEDeviceVisitor {
+    /// Visit device, return false to stop iteration.
+    boolean visit(BLEDevice device);
+}
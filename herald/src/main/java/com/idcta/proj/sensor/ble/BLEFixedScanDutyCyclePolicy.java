@@ -0,0 +1,29 @@
+//  Copyright 2020 VMware, Inc.
+//  SPDX-License-Identifier: Apache-2.0
+//
+
+package com.idcta.proj.sensor.ble;
+
+/// Fixed scan duty cycle, regardless of observations.
+public class BLEFixedScanDutyCyclePolicy implements BLEScanDutyCyclePolicy {
+    private final BLEScanDutyCycle dutyCycle;
+
+    /// Standard duty cycle.
+    public BLEFixedScanDutyCyclePolicy() {
+        this(BLEScanDutyCycle.standard);
+    }
+
+    public BLEFixedScanDutyCyclePolicy(final BLEScanDutyCycle dutyCycle) {
+        this.dutyCycle = dutyCycle;
+    }
+
+    @Override
+    public BLEScanDutyCycle initial() {
+        return dutyCycle;
+    }
+
+    @Override
+    public BLEScanDutyCycleDecision next(final BLEScanDutyCycle current, final BLEScanCycleStatistics cycle) {
+        return new BLEScanDutyCycleDecision(cycle, current, dutyCycle, "fixed");
+    }
+}
@@ -0,0 +1,16 @@
+//  Copyright 2020 VMware, Inc.
+//  SPDX-License-Identifier: Apache-2.0
+//
+
+package com.idcta.proj.sensor.ble;
+
+/// GATT connection operations used by the connection lifecycle, separated from the Android
+/// Bluetooth stack to enable testing of the lifecycle with a fake GATT layer. Connection state
+/// changes are reported asynchronously by setting BLEDevice.state(), e.g. from GATT callbacks.
+public interface BLEGattConnector<C> {
+    /// Request connection to device, returns connection, or null if the request failed.
+    C connect(BLEDevice device);
+
+    /// Close connection and release resources.
+    void close(C connection);
+}
@@ -0,0 +1,115 @@
+//  Copyright 2020 VMware, Inc.
+//  SPDX-License-Identifier: Apache-2.0
+//
+
+package com.idcta.proj.sensor.ble;
+
+import com.idcta.proj.sensor.data.ConcreteSensorLogger;
+import com.idcta.proj.sensor.data.SensorLogger;
+import com.idcta.proj.sensor.datatype.Data;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/// Immediate send to many targets with up to N concurrent deliveries in flight and an overall
+/// deadline, rather than one target at a time. Broadcasts run asynchronously one at a time, and
+/// the outcome and latency for each target is reported via a future.
+/// - Targets are started in the given order, e.g. most recently seen first
+/// - Targets that have not been reached by the deadline are cancelled and reported as timeout
+/// - Data is set as pending immediate send data on each target just before its delivery, and
+///   cleared on cancellation, so targets reported as timeout are not sent the data later
+public abstract class BLEImmediateSendAll {
+    private final SensorLogger logger = new ConcreteSensorLogger("Sensor", "BLE.BLEImmediateSendAll");
+    /// Time allowed after deadline for deliveries in flight to close their connections
+    private final static long closeAllowanceMillis = 1000;
+    private final ExecutorService broadcasts;
+    private final ExecutorService deliveries;
+
+    /// Broadcast with at most concurrency deliveries in flight.
+    public BLEImmediateSendAll(final int concurrency) {
+        // Daemon threads, deliveries in flight must not prevent shutdown
+        this.broadcasts = Executors.newSingleThreadExecutor(threadFactory("BLE.ImmediateSendAll"));
+        this.deliveries = Executors.newFixedThreadPool(Math.max(1, concurrency), threadFactory("BLE.ImmediateSendAll.Delivery"));
+    }
+
+    private static ThreadFactory threadFactory(final String name) {
+        return new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger(0);
+
+            @Override
+            public Thread newThread(final Runnable runnable) {
+                final Thread thread = new Thread(runnable, name + "-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        };
+    }
+
+    /// Deliver immediate send data of target by deadline (epoch millis), returns outcome. This
+    /// is called concurrently for different targets.
+    protected abstract BLEImmediateSendResult.Outcome send(final BLEDevice device, final long deadlineMillis);
+
+    /// Deliver data (encoded immediate send data) to targets in order by deadline (epoch millis),
+    /// returns results in target order.
+    public Future<List<BLEImmediateSendResult>> send(final List<BLEDevice> targets, final Data data, final long deadlineMillis) {
+        return broadcasts.submit(new Callable<List<BLEImmediateSendResult>>() {
+            @Override
+            public List<BLEImmediateSendResult> call() throws Exception {
+                return broadcast(targets, data, deadlineMillis);
+            }
+        });
+    }
+
+    private List<BLEImmediateSendResult> broadcast(final List<BLEDevice> targets, final Data data, final long deadlineMillis) throws InterruptedException {
+        final long timeStart = System.currentTimeMillis();
+        final List<Callable<BLEImmediateSendResult>> tasks = new ArrayList<>(targets.size());
+        for (final BLEDevice device : targets) {
+            tasks.add(new Callable<BLEImmediateSendResult>() {
+                @Override
+                public BLEImmediateSendResult call() {
+                    final long timeSend = System.currentTimeMillis();
+                    if (timeSend >= deadlineMillis) {
+                        return new BLEImmediateSendResult(device.identifier, BLEImmediateSendResult.Outcome.timeout, timeSend - timeStart);
+                    }
+                    device.immediateSendData(data);
+                    final BLEImmediateSendResult.Outcome outcome = send(device, deadlineMillis);
+                    return new BLEImmediateSendResult(device.identifier, outcome, System.currentTimeMillis() - timeSend);
+                }
+            });
+        }
+        // Deliveries are queued in target order, and cancelled if not complete by the deadline
+        final long remaining = Math.max(0, deadlineMillis - timeStart) + closeAllowanceMillis;
+        final List<Future<BLEImmediateSendResult>> futures = deliveries.invokeAll(tasks, remaining, TimeUnit.MILLISECONDS);
+        final List<BLEImmediateSendResult> results = new ArrayList<>(targets.size());
+        int delivered = 0;
+        for (int i = 0; i < targets.size(); i++) {
+            final BLEDevice device = targets.get(i);
+            BLEImmediateSendResult result;
+            try {
+                result = futures.get(i).get();
+            } catch (CancellationException e) {
+                // No retry for immediate send
+                device.immediateSendData(null);
+                result = new BLEImmediateSendResult(device.identifier, BLEImmediateSendResult.Outcome.timeout, System.currentTimeMillis() - timeStart);
+            } catch (ExecutionException e) {
+                logger.fault("broadcast, send failed (device={})", device, e.getCause());
+                result = new BLEImmediateSendResult(device.identifier, BLEImmediateSendResult.Outcome.failed, System.currentTimeMillis() - timeStart);
+            }
+            if (result.outcome == BLEImmediateSendResult.Outcome.delivered) {
+                delivered++;
+            }
+            results.add(result);
+        }
+        logger.debug("broadcast (targets={},delivered={},elapsed={}ms)", targets.size(), delivered, System.currentTimeMillis() - timeStart);
+        return results;
+    }
+}
@@ -0,0 +1,42 @@
+//  Copyright 2020 VMware, Inc.
+//  SPDX-License-Identifier: Apache-2.0
+//
+
+package com.idcta.proj.sensor.ble;
+
+import com.idcta.proj.sensor.datatype.TargetIdentifier;
+
+/// Outcome of immediate send to a target, see BLEImmediateSendAll.
+public class BLEImmediateSendResult {
+    public enum Outcome {
+        /// Data has been written to signal characteristic
+        delivered,
+        /// Connection or write failed
+        failed,
+        /// Not delivered within connect or process time limit, or by the deadline
+        timeout,
+        /// Target does not offer signal characteristic for receiving data
+        noSignalCharacteristic
+    }
+
+    public final TargetIdentifier target;
+    public final Outcome outcome;
+    /// Time from start of delivery to target to outcome, or from start of broadcast for
+    /// targets that have not been reached by the deadline.
+    public final long latencyMillis;
+
+    public BLEImmediateSendResult(final TargetIdentifier target, final Outcome outcome, final long latencyMillis) {
+        this.target = target;
+        this.outcome = outcome;
+        this.latencyMillis = latencyMillis;
+    }
+
+    @Override
+    public String toString() {
+        return "BLEImmediateSendResult{" +
+                "target=" + target +
+                ", outcome=" + outcome +
+                ", latencyMillis=" + latencyMillis +
+                '}';
+    }
+}
@@ -0,0 +1,130 @@
+//  Copyright 2020 VMware, Inc.
+//  SPDX-License-Identifier: Apache-2.0
+//
+
+package com.idcta.proj.sensor.ble;
+
+import com.idcta.proj.sensor.datatype.TargetIdentifier;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/// Negotiated ATT MTU by device and by model, for requesting a larger MTU on connection and
+/// sizing signal characteristic write fragments. MTU is negotiated again on every connection,
+/// the cache decides whether to request and what to request.
+/// - Devices and models that rejected a larger MTU are not asked again, and use default MTU
+/// - Devices that negotiated an MTU before are asked for the same MTU
+/// - Model is rejected once rejections outnumber successful negotiations for the model
+public class BLEMtuCache {
+    /// Default ATT MTU, available without negotiation
+    public final static int defaultMtu = 23;
+    /// ATT write request header (opcode and handle), not available for data
+    public final static int attHeader = 3;
+    private final int requestMtu;
+    private final Map<TargetIdentifier, Integer> devices;
+    private final Map<String, Model> models = new HashMap<>();
+
+    /// Negotiation outcomes for model
+    private final static class Model {
+        private int mtu = defaultMtu;
+        private int negotiated = 0;
+        private int rejected = 0;
+    }
+
+    /// Cache for requesting MTU, keeping device outcomes for the most recently used devices up to capacity.
+    public BLEMtuCache(final int requestMtu, final int capacity) {
+        this.requestMtu = requestMtu;
+        this.devices = new LinkedHashMap<TargetIdentifier, Integer>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(final Map.Entry<TargetIdentifier, Integer> eldest) {
+                return capacity > 0 && size() > capacity;
+            }
+        };
+    }
+
+    /// MTU to request on connection to device, or 0 if MTU should not be requested.
+    public synchronized int requestMtu(final BLEDevice device) {
+        if (requestMtu <= defaultMtu) {
+            return 0;
+        }
+        final Integer deviceMtu = devices.get(device.identifier);
+        if (deviceMtu != null) {
+            return (deviceMtu > defaultMtu ? deviceMtu : 0);
+        }
+        final String model = device.model();
+        if (model != null) {
+            final Model modelMtu = models.get(model);
+            if (modelMtu != null) {
+                if (modelMtu.rejected > modelMtu.negotiated) {
+                    return 0;
+                }
+                if (modelMtu.mtu > defaultMtu) {
+                    return modelMtu.mtu;
+                }
+            }
+        }
+        return requestMtu;
+    }
+
+    /// Record MTU negotiated with device.
+    public synchronized void negotiated(final BLEDevice device, final int mtu) {
+        devices.put(device.identifier, mtu);
+        final Model model = model(device);
+        if (model != null) {
+            if (mtu > defaultMtu) {
+                model.negotiated++;
+                model.mtu = mtu;
+            } else {
+                model.rejected++;
+            }
+        }
+    }
+
+    /// Record device rejecting MTU request, or failing to write fragments at negotiated MTU.
+    public synchronized void rejected(final BLEDevice device) {
+        devices.put(device.identifier, defaultMtu);
+        final Model model = model(device);
+        if (model != null) {
+            model.rejected++;
+        }
+    }
+
+    /// Number of devices with negotiation outcomes.
+    public synchronized int devices() {
+        return devices.size();
+    }
+
+    private Model model(final BLEDevice device) {
+        final String name = device.model();
+        if (name == null) {
+            return null;
+        }
+        Model model = models.get(name);
+        if (model == null) {
+            model = new Model();
+            models.put(name, model);
+        }
+        return model;
+    }
+
+    // MARK:- Fragments
+
+    /// Maximum write fragment size at MTU.
+    public static int fragmentSize(final int mtu) {
+        return Math.max(defaultMtu, mtu) - attHeader;
+    }
+
+    /// Split data into fragments, where each fragment has length <= fragment size
+    public static Queue<byte[]> fragment(final byte[] data, final int fragmentSize) {
+        final Queue<byte[]> fragments = new ConcurrentLinkedQueue<>();
+        for (int i = 0; i < data.length; i += fragmentSize) {
+            final byte[] fragment = new byte[Math.min(fragmentSize, data.length - i)];
+            System.arraycopy(data, i, fragment, 0, fragment.length);
+            fragments.add(fragment);
+        }
+        return fragments;
+    }
+}
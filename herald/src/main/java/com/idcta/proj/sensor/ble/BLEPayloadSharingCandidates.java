@@ -0,0 +1,253 @@
+//  Copyright 2020 VMware, Inc.
+//  SPDX-License-Identifier: Apache-2.0
+//
+
+package com.idcta.proj.sensor.ble;
+
+import com.idcta.proj.sensor.datatype.Data;
+import com.idcta.proj.sensor.datatype.PayloadData;
+import com.idcta.proj.sensor.datatype.PayloadSharingData;
+import com.idcta.proj.sensor.datatype.RSSI;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/// Incrementally maintained set of devices whose payload may be shared with peers, i.e. iOS
+/// or receive only devices with a payload, ordered by recency. Payload sharing data for a peer
+/// is built by a bounded walk over the candidates into a reused buffer, and memoised per peer
+/// until the candidate set changes.
+/// - Data is not memoised while payloads new to the peer did not fit, so the next call shares
+///   them first, as they are still unknown to the peer
+/// - Candidates are reindexed on payload, operating system and receive only changes, recency
+///   is read from the device in the walk, and recency order is refreshed after the walk
+/// - Candidates not seen recently are pruned by the walk, and restored on their next update
+public class BLEPayloadSharingCandidates {
+    /// Limit how much to share to avoid oversized data transfers over BLE
+    /// (512 bytes limit according to spec, 510 with response, iOS requires response)
+    public final static int payloadSharingDataLimit = 510;
+    private final static PayloadSharingData empty = new PayloadSharingData(new RSSI(127), new Data(new byte[0]));
+    /// Candidates ordered by recency key, most recent last
+    private final TreeMap<RecencyKey, BLEDevice> candidates = new TreeMap<>();
+    private final Map<BLEDevice, RecencyKey> recencyKeys = new IdentityHashMap<>();
+    /// Candidates pruned from walk as they were not seen recently
+    private final Set<BLEDevice> dormant = Collections.newSetFromMap(new IdentityHashMap<BLEDevice, Boolean>());
+    private final Map<BLEDevice, Memo> memos = new IdentityHashMap<>();
+    private final byte[] buffer = new byte[payloadSharingDataLimit];
+    private long sequence = 0;
+    private long version = 0;
+
+    /// Recency at the time of last update, sequence number breaks ties in update order
+    private final static class RecencyKey implements Comparable<RecencyKey> {
+        private final long lastUpdatedAt;
+        private final long sequence;
+
+        private RecencyKey(final long lastUpdatedAt, final long sequence) {
+            this.lastUpdatedAt = lastUpdatedAt;
+            this.sequence = sequence;
+        }
+
+        @Override
+        public int compareTo(final RecencyKey other) {
+            if (lastUpdatedAt != other.lastUpdatedAt) {
+                return (lastUpdatedAt < other.lastUpdatedAt ? -1 : 1);
+            }
+            return (sequence < other.sequence ? -1 : (sequence == other.sequence ? 0 : 1));
+        }
+    }
+
+    /// Payload sharing data built for a peer, and the state it was built from
+    private final static class Memo {
+        private final long version;
+        private final RSSI rssi;
+        private final PayloadData payloadData;
+        private final int knownCount;
+        private final long validUntil;
+        private final PayloadSharingData payloadSharingData;
+
+        private Memo(final long version, final RSSI rssi, final PayloadData payloadData, final int knownCount, final long validUntil, final PayloadSharingData payloadSharingData) {
+            this.version = version;
+            this.rssi = rssi;
+            this.payloadData = payloadData;
+            this.knownCount = knownCount;
+            this.validUntil = validUntil;
+            this.payloadSharingData = payloadSharingData;
+        }
+    }
+
+    /// Device is a payload sharing candidate if it has payload and is iOS or receive only (Samsung J6)
+    private static boolean isCandidate(final BLEDevice device) {
+        return device.payloadData() != null && (device.operatingSystem() == BLEDeviceOperatingSystem.ios || device.receiveOnly());
+    }
+
+    /// Add, reorder or remove device according to its current attributes, call on payload data,
+    /// operating system and receive only updates.
+    public synchronized void update(final BLEDevice device) {
+        final RecencyKey previousKey = recencyKeys.remove(device);
+        if (previousKey != null) {
+            candidates.remove(previousKey);
+            version++;
+        }
+        if (dormant.remove(device)) {
+            version++;
+        }
+        if (isCandidate(device)) {
+            insert(device);
+            version++;
+        }
+    }
+
+    /// Restore pruned candidate that has been seen again, call on all other attribute updates.
+    public synchronized void touch(final BLEDevice device) {
+        if (dormant.remove(device)) {
+            insert(device);
+            version++;
+        }
+    }
+
+    private void insert(final BLEDevice device) {
+        final RecencyKey key = new RecencyKey(device.lastUpdatedAt.getTime(), sequence++);
+        candidates.put(key, device);
+        recencyKeys.put(device, key);
+    }
+
+    /// Remove device as candidate and peer.
+    public synchronized void remove(final BLEDevice device) {
+        final RecencyKey previousKey = recencyKeys.remove(device);
+        if (previousKey != null) {
+            candidates.remove(previousKey);
+            version++;
+        }
+        if (dormant.remove(device)) {
+            version++;
+        }
+        memos.remove(device);
+    }
+
+    /// Number of candidates, including candidates pruned from walk.
+    public synchronized int size() {
+        return candidates.size() + dormant.size();
+    }
+
+    /// Number of candidates in walk.
+    public synchronized int recent() {
+        return candidates.size();
+    }
+
+    /// Is there payload sharing data for peer? Unlike payloadSharingData, this does not record
+    /// payloads as known to peer, nor update the memo or candidate order.
+    public synchronized boolean hasPayloadSharingData(final BLEDevice peer, final long currentTimeMillis) {
+        if (peer.rssi() == null) {
+            return false;
+        }
+        final PayloadData peerPayloadData = peer.payloadData();
+        final long expiryMillis = BLESensorConfiguration.payloadSharingExpiryTimeInterval.millis();
+        for (final BLEDevice device : candidates.descendingMap().values()) {
+            final PayloadData payloadData = device.payloadData();
+            if (currentTimeMillis - device.lastUpdatedAt.getTime() >= expiryMillis) {
+                continue;
+            }
+            if (payloadData == null || (peerPayloadData != null && Arrays.equals(payloadData.value, peerPayloadData.value))) {
+                continue;
+            }
+            if (payloadData.value.length <= payloadSharingDataLimit) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /// Get payload sharing data for peer, sharing payloads that are new to the peer first, then
+    /// known payloads, most recently seen first, up to the BLE transfer limit. Shared payloads are
+    /// recorded as known to peer.
+    public synchronized PayloadSharingData payloadSharingData(final BLEDevice peer, final long currentTimeMillis) {
+        final RSSI rssi = peer.rssi();
+        if (rssi == null) {
+            return empty;
+        }
+        final PayloadData peerPayloadData = peer.payloadData();
+        final Memo memo = memos.get(peer);
+        if (memo != null && memo.version == version && currentTimeMillis < memo.validUntil
+                && memo.rssi.equals(rssi) && memo.knownCount == peer.payloadSharingData.size()
+                && (memo.payloadData == null ? peerPayloadData == null : memo.payloadData.equals(peerPayloadData))) {
+            return memo.payloadSharingData;
+        }
+        final long expiryMillis = BLESensorConfiguration.payloadSharingExpiryTimeInterval.millis();
+        final List<PayloadData> sharedPayloads = new ArrayList<>();
+        long validUntil = Long.MAX_VALUE;
+        final List<BLEDevice> expired = new ArrayList<>();
+        final List<BLEDevice> reordered = new ArrayList<>();
+        int length = 0;
+        boolean hasCandidates = false;
+        boolean full = false;
+        boolean unknownUnshared = false;
+        // Unknown payloads first, then known payloads
+        for (int pass = 0; pass < 2 && !full; pass++) {
+            final boolean known = (pass == 1);
+            for (final Map.Entry<RecencyKey, BLEDevice> entry : candidates.descendingMap().entrySet()) {
+                final BLEDevice device = entry.getValue();
+                final PayloadData payloadData = device.payloadData();
+                // Device was seen recently, otherwise prune from walk
+                final long lastUpdatedAt = device.lastUpdatedAt.getTime();
+                if (currentTimeMillis - lastUpdatedAt >= expiryMillis) {
+                    if (pass == 0) {
+                        expired.add(device);
+                    }
+                    continue;
+                }
+                if (pass == 0 && lastUpdatedAt != entry.getKey().lastUpdatedAt) {
+                    reordered.add(device);
+                }
+                // Payload is not the peer itself
+                if (payloadData == null || (peerPayloadData != null && Arrays.equals(payloadData.value, peerPayloadData.value))) {
+                    continue;
+                }
+                // Payload is new to peer on first pass, known to peer on second pass
+                if (peer.payloadSharingData.contains(payloadData) != known) {
+                    continue;
+                }
+                hasCandidates = true;
+                // Eliminate duplicates (this happens when the same device has changed address but the old version has not expired yet)
+                if (sharedPayloads.contains(payloadData)) {
+                    continue;
+                }
+                // Limit payload sharing by BLE transfer limit
+                if (length + payloadData.value.length > payloadSharingDataLimit) {
+                    full = true;
+                    unknownUnshared = !known;
+                    break;
+                }
+                System.arraycopy(payloadData.value, 0, buffer, length, payloadData.value.length);
+                length += payloadData.value.length;
+                sharedPayloads.add(payloadData);
+                // Shared payload drops out when device is no longer recent
+                validUntil = Math.min(validUntil, lastUpdatedAt + expiryMillis);
+            }
+        }
+        // Pruning and reordering does not change the payloads shared with any peer
+        for (final BLEDevice device : expired) {
+            candidates.remove(recencyKeys.remove(device));
+            dormant.add(device);
+        }
+        for (final BLEDevice device : reordered) {
+            candidates.remove(recencyKeys.remove(device));
+            insert(device);
+        }
+        if (!hasCandidates) {
+            return empty;
+        }
+        peer.payloadSharingData.addAll(sharedPayloads);
+        final PayloadSharingData payloadSharingData = new PayloadSharingData(rssi, new Data(Arrays.copyOf(buffer, length)));
+        if (unknownUnshared) {
+            memos.remove(peer);
+        } else {
+            memos.put(peer, new Memo(version, rssi, peerPayloadData, peer.payloadSharingData.size(), validUntil, payloadSharingData));
+        }
+        return payloadSharingData;
+    }
+}
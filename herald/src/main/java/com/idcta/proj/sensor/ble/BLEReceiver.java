@@ -8,9 +8,12 @@ import com.idcta.proj.sensor.Sensor;
 import com.idcta.proj.sensor.SensorDelegate;
 import com.idcta.proj.sensor.datatype.Data;
 import com.idcta.proj.sensor.datatype.TargetIdentifier;
+import com.idcta.proj.sensor.datatype.TimeInterval;
 
+import java.util.List;
 import java.util.Queue;
 import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Future;
 
 /**
  * Beacon receiver scans for peripherals with fixed service UUID.
@@ -23,4 +26,8 @@ public interface BLEReceiver extends Sensor {
 
     // Immediate send to all (connected / recent / nearby)
     boolean immediateSendAll(Data data);
+
+    /// Immediate send to all recent targets concurrently, most recent first, within timeout.
+    /// Returns outcome and latency for each target on completion.
+    Future<List<BLEImmediateSendResult>> immediateSendAll(Data data, TimeInterval timeout);
 }
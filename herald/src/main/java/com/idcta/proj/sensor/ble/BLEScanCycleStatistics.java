@@ -0,0 +1,47 @@
+//  Copyright 2020 VMware, Inc.
+//  SPDX-License-Identifier: Apache-2.0
+//
+
+package com.idcta.proj.sensor.ble;
+
+/// Observations from a completed scan cycle, input for scan duty cycle policy.
+public class BLEScanCycleStatistics {
+    /// Battery level is unknown
+    public final static double batteryLevelUnknown = -1;
+    /// Time scan was started (epoch millis)
+    public final long scanStartedAt;
+    /// Actual scan duration
+    public final long scanOnMillis;
+    /// Number of distinct devices discovered in scan
+    public final int devices;
+    /// Number of devices discovered for the first time in scan
+    public final int newDevices;
+    /// Actual time spent processing scan results
+    public final long processMillis;
+    /// Battery level in percent, or batteryLevelUnknown
+    public final double batteryLevel;
+    /// Device is charging
+    public final boolean charging;
+
+    public BLEScanCycleStatistics(final long scanStartedAt, final long scanOnMillis, final int devices, final int newDevices, final long processMillis, final double batteryLevel, final boolean charging) {
+        this.scanStartedAt = scanStartedAt;
+        this.scanOnMillis = scanOnMillis;
+        this.devices = devices;
+        this.newDevices = newDevices;
+        this.processMillis = processMillis;
+        this.batteryLevel = batteryLevel;
+        this.charging = charging;
+    }
+
+    @Override
+    public String toString() {
+        return "BLEScanCycleStatistics{" +
+                "scanOn=" + scanOnMillis +
+                ", devices=" + devices +
+                ", newDevices=" + newDevices +
+                ", process=" + processMillis +
+                ", batteryLevel=" + batteryLevel +
+                ", charging=" + charging +
+                '}';
+    }
+}
@@ -0,0 +1,113 @@
+//  Copyright 2020 VMware, Inc.
+//  SPDX-License-Identifier: Apache-2.0
+//
+
+package com.idcta.proj.sensor.ble;
+
+import com.idcta.proj.sensor.analysis.Sample;
+
+import java.util.EnumMap;
+import java.util.Map;
+
+/// Delivery of scan results to the app process, either per result where the process wakes for
+/// every advert, or in batches collected by the Bluetooth controller for a report delay, where
+/// the process wakes once per batch. Batching trades detection latency for fewer wake-ups, and
+/// wake-up counts and detection latency are recorded per mode for comparing the trade-off.
+/// - Batching is used if report delay is set and the chipset supports offloaded batching
+/// - Batching falls back to per result delivery if the scanner rejects batched scan settings
+/// - Detection latency is time from advert receipt by the controller to delivery
+public class BLEScanDelivery {
+    private final long reportDelayMillis;
+    private boolean fallback = false;
+    private Mode mode = Mode.perResult;
+    private final Map<Mode, Statistics> statistics = new EnumMap<>(Mode.class);
+
+    /// Scan result delivery mode
+    public enum Mode {
+        perResult, batched
+    }
+
+    /// Wake-up and detection latency statistics for a delivery mode.
+    public final static class Statistics {
+        private long wakeups = 0;
+        private long results = 0;
+        /// Time from advert receipt by the controller to delivery to the app process.
+        public final Sample detectionLatency = new Sample();
+
+        /// Number of times app process was woken to receive results.
+        public synchronized long wakeups() {
+            return wakeups;
+        }
+
+        /// Number of results received.
+        public synchronized long results() {
+            return results;
+        }
+
+        /// Mean number of results per wake-up.
+        public synchronized double resultsPerWakeup() {
+            return (wakeups == 0 ? 0 : results / (double) wakeups);
+        }
+
+        @Override
+        public synchronized String toString() {
+            return "Statistics{wakeups=" + wakeups + ", results=" + results + ", detectionLatency=" + detectionLatency + "}";
+        }
+    }
+
+    /// Scan result delivery, batching with report delay if delay is greater than 0.
+    public BLEScanDelivery(final long reportDelayMillis) {
+        this.reportDelayMillis = Math.max(0, reportDelayMillis);
+        for (final Mode mode : Mode.values()) {
+            statistics.put(mode, new Statistics());
+        }
+    }
+
+    /// Select delivery mode for the next scan, given chipset support for offloaded batching.
+    public synchronized Mode start(final boolean offloadedScanBatchingSupported) {
+        mode = (reportDelayMillis > 0 && offloadedScanBatchingSupported && !fallback ? Mode.batched : Mode.perResult);
+        return mode;
+    }
+
+    /// Delivery mode for current scan.
+    public synchronized Mode mode() {
+        return mode;
+    }
+
+    /// Report delay for current scan, 0 for per result delivery.
+    public synchronized long reportDelayMillis() {
+        return (mode == Mode.batched ? reportDelayMillis : 0);
+    }
+
+    /// Scanner rejected batched scan settings, use per result delivery for subsequent scans.
+    /// Returns true if this is a fallback from batching.
+    public synchronized boolean fallback() {
+        if (mode != Mode.batched) {
+            return false;
+        }
+        fallback = true;
+        mode = Mode.perResult;
+        return true;
+    }
+
+    /// Record wake-up to receive results.
+    public void wakeup(final Mode mode, final int results) {
+        final Statistics s = statistics.get(mode);
+        synchronized (s) {
+            s.wakeups++;
+            s.results += results;
+        }
+    }
+
+    /// Record detection latency of a result, ignored if latency is unknown (negative).
+    public void detected(final Mode mode, final long detectionLatencyMillis) {
+        if (detectionLatencyMillis >= 0) {
+            statistics.get(mode).detectionLatency.add(detectionLatencyMillis);
+        }
+    }
+
+    /// Wake-up and detection latency statistics for delivery mode.
+    public Statistics statistics(final Mode mode) {
+        return statistics.get(mode);
+    }
+}
@@ -0,0 +1,62 @@
+//  Copyright 2020 VMware, Inc.
+//  SPDX-License-Identifier: Apache-2.0
+//
+
+package com.idcta.proj.sensor.ble;
+
+import com.idcta.proj.sensor.datatype.TimeInterval;
+
+/// Scan loop durations for one cycle of startScan-wait-stopScan-processScanResults-wait-repeat.
+public class BLEScanDutyCycle {
+    /// Standard duty cycle, scan for 4s, rest for 1s, process for up to 60s, then wait 2s
+    public final static BLEScanDutyCycle standard = new BLEScanDutyCycle(
+            TimeInterval.seconds(4).millis(),
+            TimeInterval.seconds(1).millis(),
+            TimeInterval.seconds(60).millis(),
+            TimeInterval.seconds(2).millis());
+    /// Scan duration
+    public final long scanOnMillis;
+    /// Wait after scan stop before processing scan results
+    public final long scanRestMillis;
+    /// Time limit for processing scan results (i.e. connecting to devices)
+    public final long scanProcessMillis;
+    /// Wait after processing before next scan
+    public final long scanOffMillis;
+
+    public BLEScanDutyCycle(final long scanOnMillis, final long scanRestMillis, final long scanProcessMillis, final long scanOffMillis) {
+        this.scanOnMillis = scanOnMillis;
+        this.scanRestMillis = scanRestMillis;
+        this.scanProcessMillis = scanProcessMillis;
+        this.scanOffMillis = scanOffMillis;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        BLEScanDutyCycle that = (BLEScanDutyCycle) o;
+        return scanOnMillis == that.scanOnMillis &&
+                scanRestMillis == that.scanRestMillis &&
+                scanProcessMillis == that.scanProcessMillis &&
+                scanOffMillis == that.scanOffMillis;
+    }
+
+    @Override
+    public int hashCode() {
+        int result = (int) (scanOnMillis ^ (scanOnMillis >>> 32));
+        result = 31 * result + (int) (scanRestMillis ^ (scanRestMillis >>> 32));
+        result = 31 * result + (int) (scanProcessMillis ^ (scanProcessMillis >>> 32));
+        result = 31 * result + (int) (scanOffMillis ^ (scanOffMillis >>> 32));
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return "BLEScanDutyCycle{" +
+                "on=" + scanOnMillis +
+                ", rest=" + scanRestMillis +
+                ", process=" + scanProcessMillis +
+                ", off=" + scanOffMillis +
+                '}';
+    }
+}
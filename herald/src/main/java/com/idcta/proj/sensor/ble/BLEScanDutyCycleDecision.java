@@ -0,0 +1,34 @@
+//  Copyright 2020 VMware, Inc.
+//  SPDX-License-Identifier: Apache-2.0
+//
+
+package com.idcta.proj.sensor.ble;
+
+/// Record of scan duty cycle policy decision, for comparing detection continuity against radio on time.
+public class BLEScanDutyCycleDecision {
+    /// Observations from completed cycle
+    public final BLEScanCycleStatistics cycle;
+    /// Duty cycle of completed cycle
+    public final BLEScanDutyCycle previous;
+    /// Duty cycle for next cycle
+    public final BLEScanDutyCycle next;
+    /// Reason for decision
+    public final String reason;
+
+    public BLEScanDutyCycleDecision(final BLEScanCycleStatistics cycle, final BLEScanDutyCycle previous, final BLEScanDutyCycle next, final String reason) {
+        this.cycle = cycle;
+        this.previous = previous;
+        this.next = next;
+        this.reason = reason;
+    }
+
+    @Override
+    public String toString() {
+        return "BLEScanDutyCycleDecision{" +
+                "cycle=" + cycle +
+                ", previous=" + previous +
+                ", next=" + next +
+                ", reason=" + reason +
+                '}';
+    }
+}
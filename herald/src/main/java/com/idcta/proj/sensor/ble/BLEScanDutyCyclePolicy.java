@@ -0,0 +1,15 @@
+//  Copyright 2020 VMware, Inc.
+//  SPDX-License-Identifier: Apache-2.0
+//
+
+package com.idcta.proj.sensor.ble;
+
+/// Policy for setting scan loop durations, called by the scan loop after each cycle.
+public interface BLEScanDutyCyclePolicy {
+
+    /// Duty cycle for first scan cycle.
+    BLEScanDutyCycle initial();
+
+    /// Duty cycle for next scan cycle, given the duty cycle and observations of the completed cycle.
+    BLEScanDutyCycleDecision next(final BLEScanDutyCycle current, final BLEScanCycleStatistics cycle);
+}
@@ -0,0 +1,98 @@
+//  Copyright 2020 VMware, Inc.
+//  SPDX-License-Identifier: Apache-2.0
+//
+
+package com.idcta.proj.sensor.ble;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+
+/// Record of scan duty cycle decisions, for comparing detection continuity against radio on time.
+/// The most recent decisions are retained for inspection, and totals are kept for all decisions.
+/// Detection continuity is measured by the scan cycle period, i.e. time between consecutive scan
+/// starts, as this bounds the gap between consecutive detections of a device that remains in range.
+public class BLEScanDutyCycleRecorder {
+    private final int capacity;
+    private final Deque<BLEScanDutyCycleDecision> decisions = new ArrayDeque<>();
+    private long cycles = 0;
+    private long devices = 0;
+    private long scanOnMillis = 0;
+    private long periodMillis = 0;
+    private long maxPeriodMillis = 0;
+    private long lastScanStartedAt = 0;
+    private long lastScanOnMillis = 0;
+
+    /// Recorder retaining the most recent capacity decisions.
+    public BLEScanDutyCycleRecorder(final int capacity) {
+        this.capacity = capacity;
+    }
+
+    /// Record decision and return duty cycle for next cycle.
+    public synchronized BLEScanDutyCycle record(final BLEScanDutyCycleDecision decision) {
+        if (capacity > 0) {
+            if (decisions.size() >= capacity) {
+                decisions.removeFirst();
+            }
+            decisions.addLast(decision);
+        }
+        cycles++;
+        devices += decision.cycle.devices;
+        scanOnMillis += decision.cycle.scanOnMillis;
+        if (lastScanStartedAt > 0 && decision.cycle.scanStartedAt > lastScanStartedAt) {
+            final long period = decision.cycle.scanStartedAt - lastScanStartedAt;
+            periodMillis += period;
+            maxPeriodMillis = Math.max(maxPeriodMillis, period);
+        }
+        lastScanStartedAt = decision.cycle.scanStartedAt;
+        lastScanOnMillis = decision.cycle.scanOnMillis;
+        return decision.next;
+    }
+
+    /// Most recent decisions, oldest first.
+    public synchronized List<BLEScanDutyCycleDecision> decisions() {
+        return new ArrayList<>(decisions);
+    }
+
+    /// Number of cycles recorded.
+    public synchronized long cycles() {
+        return cycles;
+    }
+
+    /// Mean number of devices per scan.
+    public synchronized double meanDevices() {
+        return (cycles == 0 ? 0 : devices / (double) cycles);
+    }
+
+    /// Total scan duration.
+    public synchronized long scanOnMillis() {
+        return scanOnMillis;
+    }
+
+    /// Fraction of time scanning, between first and last recorded scan start.
+    public synchronized double radioOnFraction() {
+        return (periodMillis == 0 ? 0 : (scanOnMillis - lastScanOnMillis) / (double) periodMillis);
+    }
+
+    /// Mean time between consecutive scan starts.
+    public synchronized double meanPeriodMillis() {
+        return (cycles <= 1 ? 0 : periodMillis / (double) (cycles - 1));
+    }
+
+    /// Maximum time between consecutive scan starts.
+    public synchronized long maxPeriodMillis() {
+        return maxPeriodMillis;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "BLEScanDutyCycleRecorder{" +
+                "cycles=" + cycles +
+                ", meanDevices=" + meanDevices() +
+                ", radioOnFraction=" + radioOnFraction() +
+                ", meanPeriod=" + meanPeriodMillis() +
+                ", maxPeriod=" + maxPeriodMillis +
+                '}';
+    }
+}
@@ -0,0 +1,142 @@
+//  Copyright 2020 VMware, Inc.
+//  SPDX-License-Identifier: Apache-2.0
+//
+
+package com.idcta.proj.sensor.ble;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/// Ingestion stage for scan results, coalescing all results for the same device address within
+/// a scan window into a single entry holding the latest result and RSSI statistics. This enables
+/// processing of one entry per distinct device rather than one per advert, as a low latency scan
+/// can deliver dozens of adverts per device per window. Memory is bounded by capacity, results
+/// for new addresses are dropped and counted once the window holds capacity distinct addresses.
+public abstract class BLEScanResultCoalescer<T> {
+    private final int capacity;
+    private Map<String, Entry<T>> window = new LinkedHashMap<>();
+    private long raw = 0;
+    private long coalesced = 0;
+    private long dropped = 0;
+
+    /// Latest result and RSSI statistics for a device address in a scan window
+    public final static class Entry<T> {
+        public final String address;
+        private T latest;
+        private int count = 0;
+        private int maxRssi = Integer.MIN_VALUE;
+        private long sumRssi = 0;
+
+        private Entry(final String address) {
+            this.address = address;
+        }
+
+        private void add(final T result, final int rssi) {
+            latest = result;
+            count++;
+            maxRssi = Math.max(maxRssi, rssi);
+            sumRssi += rssi;
+        }
+
+        /// Most recent result for address.
+        public T latest() {
+            return latest;
+        }
+
+        /// Number of results for address.
+        public int count() {
+            return count;
+        }
+
+        /// Maximum RSSI of results for address.
+        public int maxRssi() {
+            return maxRssi;
+        }
+
+        /// Mean RSSI of results for address.
+        public double meanRssi() {
+            return sumRssi / (double) count;
+        }
+
+        @Override
+        public String toString() {
+            return "Entry{address=" + address + ", count=" + count + ", maxRssi=" + maxRssi + ", meanRssi=" + meanRssi() + "}";
+        }
+    }
+
+    /// Coalescer holding at most capacity distinct addresses per scan window.
+    public BLEScanResultCoalescer(final int capacity) {
+        this.capacity = capacity;
+    }
+
+    /// Device address of result, or null if result should be ignored.
+    protected abstract String address(final T result);
+
+    /// RSSI of result.
+    protected abstract int rssi(final T result);
+
+    /// Add result to current scan window, returns false if result was dropped.
+    public synchronized boolean add(final T result) {
+        raw++;
+        final String address = address(result);
+        if (address == null) {
+            dropped++;
+            return false;
+        }
+        Entry<T> entry = window.get(address);
+        if (entry == null) {
+            if (window.size() >= capacity) {
+                dropped++;
+                return false;
+            }
+            entry = new Entry<>(address);
+            window.put(address, entry);
+        }
+        entry.add(result, rssi(result));
+        return true;
+    }
+
+    /// Add batch of results to current scan window, returns number of results dropped.
+    public synchronized int addAll(final List<T> results) {
+        int dropped = 0;
+        for (final T result : results) {
+            if (!add(result)) {
+                dropped++;
+            }
+        }
+        return dropped;
+    }
+
+    /// Close current scan window and return its entries, in order of first result per address.
+    public List<Entry<T>> drain() {
+        final Map<String, Entry<T>> entries;
+        synchronized (this) {
+            entries = window;
+            window = new LinkedHashMap<>();
+            coalesced += entries.size();
+        }
+        return new ArrayList<>(entries.values());
+    }
+
+    /// Number of distinct addresses in current scan window.
+    public synchronized int size() {
+        return window.size();
+    }
+
+    /// Number of results received.
+    public synchronized long raw() {
+        return raw;
+    }
+
+    /// Number of entries delivered by drain, i.e. distinct addresses per scan window.
+    public synchronized long coalesced() {
+        return coalesced;
+    }
+
+    /// Number of results dropped for lack of capacity or address.
+    public synchronized long dropped() {
+        return dropped;
+    }
+}
@@ -77,6 +77,8 @@ public class BLESensorConfiguration {
     public final static byte signalCharacteristicActionWritePayloadSharing = (byte) 3;
     /// Arbitrary immediate write
     public final static byte signalCharacteristicActionWriteImmediate = (byte) 4;
+    /// Signal characteristic action code for write bundle, expect 1 byte action code followed by 2 byte little-endian Int16 integer value for bundle data length, then a sequence of write payload, write RSSI and write payload sharing data bundles, each preceded by 2 byte little-endian Int16 integer value for its length
+    public final static byte signalCharacteristicActionWriteBundle = (byte) 5;
 
     // MARK:- App configurable BLE features
 
@@ -97,12 +99,119 @@ public class BLESensorConfiguration {
     /// - Filters all occurrences of payload data from all targets
     public static TimeInterval filterDuplicatePayloadData = TimeInterval.never;
 
+    /// Cache payload data for each validity period, see CachingPayloadDataSupplier
+    /// - Set to the period of the payload data supplier, e.g. 6 minutes for SimplePayloadDataSupplier
+    /// - Set to .never to disable cache where the payload changes more often
+    /// - Payload for the next period is generated ahead of the period boundary by refresh ahead time
+    public static TimeInterval payloadDataCachePeriod = TimeInterval.minutes(6);
+    public static TimeInterval payloadDataCacheRefreshAhead = TimeInterval.seconds(30);
+
     /// Expiry time for shared payloads, to ensure only recently seen payloads are shared
     public static TimeInterval payloadSharingExpiryTimeInterval = new TimeInterval(5 * TimeInterval.minute.value);
 
     /// Advert refresh time interval
     public static TimeInterval advertRefreshTimeInterval = TimeInterval.minutes(15);
 
+    /// Maximum number of devices tracked by the BLE database
+    /// - Bounds heap usage in dense environments where devices rotate addresses on every scan
+    /// - Least valuable devices are evicted in batches when the limit is exceeded, see BLEDeviceEviction
+    /// - Evicted devices are reported to delegates as deleted
+    /// - Set to 0 to disable the limit
+    public static int deviceDatabaseCapacity = 2000;
+
+    /// Maximum number of pending RSSI and TX power update notifications to delegates
+    /// - Updates for the same device and attribute are collapsed while pending
+    /// - Further updates are dropped when the limit is reached
+    /// - State, payload data and other updates are never collapsed or dropped
+    public static int deviceUpdateNotificationCapacity = 1000;
+
+    /// Report delay for hardware batched scan results, or 0 to deliver every scan result on receipt
+    /// - Batching wakes the app process once per batch rather than for every advert, trading
+    ///   detection latency for CPU and battery use, e.g. 1000ms for battery constrained devices
+    /// - Batching is only used if the chipset supports offloaded scan batching, otherwise
+    ///   results are delivered on receipt
+    /// - Delay should be shorter than scan on time, pending results are flushed on scan stop
+    public static long scanReportDelayMillis = 0;
+
+    /// Maximum number of distinct devices held for processing per scan window
+    /// - Scan results are coalesced by device address, keeping the latest result and RSSI statistics
+    /// - Results for further devices are dropped until the window is processed
+    public static int scanResultCapacity = 1000;
+
+    /// Scan duty cycle policy for setting scan, rest, process and wait durations of the receiver scan loop
+    /// - Fixed policy uses the standard duty cycle (4s scan, 1s rest, up to 60s process, 2s wait)
+    /// - Adaptive policy adjusts durations based on discovery rate, processing time and battery level
+    /// - Decisions are recorded for comparing detection continuity against radio on time
+    public static BLEScanDutyCyclePolicy scanDutyCyclePolicy = new BLEFixedScanDutyCyclePolicy();
+
+    /// Maximum number of concurrent GATT connections for processing devices in each scan cycle
+    /// - Android stacks typically support up to 7 concurrent connections, shared with other apps
+    /// - Higher values may cause connection failures (status 133) on some handsets
+    /// - Set to 1 to process devices one at a time
+    public static int concurrentConnectionLimit = 4;
+
+    /// Connect timeout from connection statistics by device class, see BLEConnectionStatistics
+    /// - Device class is the model where known, otherwise operating system and advert features
+    /// - Timeout is the p95 of the most recent connect times (window) for the device class,
+    ///   or all devices if the class has too few samples, times margin, bounded by minimum and maximum
+    /// - Timeouts count as connect times at the timeout, margin above 1 lets the timeout grow again
+    /// - Maximum is the fixed connect time limit applied until there are enough samples
+    public static TimeInterval connectTimeoutMaximum = TimeInterval.seconds(12);
+    public static TimeInterval connectTimeoutMinimum = TimeInterval.seconds(2);
+    public static double connectTimeoutMargin = 1.5;
+    public static int connectionStatisticsWindow = 32;
+    public static int connectionStatisticsMinimumSamples = 5;
+
+    /// Skip connection to devices that repeatedly fail to connect
+    /// - Each failure adds a penalty of 1 that halves every half-life, success clears the penalty
+    /// - Device is skipped while the penalty is at or above the skip penalty, i.e. 3 quick failures
+    /// - Set skip penalty to Double.MAX_VALUE to always attempt connection
+    public static TimeInterval connectFailurePenaltyHalfLife = TimeInterval.minutes(2);
+    public static double connectFailureSkipPenalty = 3;
+
+    /// Keep connections open to iOS devices with frequent payload sharing and RSSI writes, see BLEConnectionPool
+    /// - Follow-up writes use the open connection, without connect and service discovery
+    /// - Pooled connections count towards the concurrent connection limit of the Bluetooth stack
+    /// - Idle timeout should be longer than the 15 second write interval for the connection to be reused
+    /// - Maximum age must be less than the 1 minute connection limit
+    /// - Set capacity to 0 to disable connection pool, 2 is recommended where enabled
+    public static int connectionPoolCapacity = 0;
+    public static TimeInterval connectionPoolIdleTimeout = TimeInterval.seconds(30);
+    public static TimeInterval connectionPoolMaximumAge = TimeInterval.seconds(45);
+
+    /// ATT MTU to request before writing fragmented data to Android signal characteristic
+    /// - Write fragment size is negotiated MTU - 3, instead of 20 bytes at the default MTU of 23
+    /// - Devices and models that reject larger MTU are not asked again, see BLEMtuCache
+    /// - Set to 23 or less to disable MTU negotiation
+    public static int signalCharacteristicMtu = 185;
+
+    /// Reassembly of fragmented signal characteristic writes by centrals, see BLESignalDataReassembler
+    /// - Partial data written by a central beyond maximum size is discarded
+    /// - Partial data is discarded when no further fragment is received within the expiry time
+    /// - Buffers are pooled for reuse across centrals, up to pool capacity
+    public static int signalDataMaximumSize = 8192;
+    public static TimeInterval signalDataExpiry = TimeInterval.seconds(30);
+    public static int signalDataBufferPoolCapacity = 16;
+
+    /// Process signal characteristic writes off the Bluetooth binder thread, see BLEWriteRequestPipeline
+    /// - Response is sent once the fragment is accepted, before decoding and delegate dispatch
+    /// - Centrals are hashed to lanes, writes by a central are processed in order
+    /// - Writes beyond capacity across all lanes are dropped, check dropped() if delegates are slow
+    public static int signalDataProcessingLanes = 2;
+    public static int signalDataProcessingCapacity = 256;
+
+    /// Combine payload, RSSI and payload sharing writes that are due into a single write bundle
+    /// - Applies to Android devices only, as writes are only due for peers that cannot transmit
+    /// - Saves a connection and service discovery for every additional write
+    /// - Peers running older versions ignore write bundles, only enable once all peers support it
+    public static boolean signalCharacteristicWriteBundleEnabled = false;
+
+    /// Trace scan loop and connection phases for analysis in a trace viewer, see BLETrace
+    /// - Capacity is the number of most recent spans kept in memory, 0 disables trace
+    /// - About 10,000 spans per hour for a few nearby devices, so 16384 holds an hour of activity
+    /// - Export with ConcreteBLEReceiver.trace().chromeTrace()
+    public static int traceCapacity = 0;
+
     /// Randomisation method for generating the pseudo device addresses, see PseudoDeviceAddress and RandomSource for details.
     /// - Set to Random for reliable continuous operation, validated
     /// - Other methods will cause blocking after 4-8 hours and interrupt operation on idle devices
@@ -0,0 +1,256 @@
+//  Copyright 2020 VMware, Inc.
+//  SPDX-License-Identifier: Apache-2.0
+//
+
+package com.idcta.proj.sensor.ble;
+
+import com.idcta.proj.sensor.datatype.Data;
+import com.idcta.proj.sensor.datatype.SignalCharacteristicData;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/// Reassembly of fragmented signal characteristic writes by centrals, appending each fragment
+/// to a growable buffer per central rather than copying all previous fragments on every write.
+/// - Buffer is reserved for the expected length once the data header has been received, and
+///   complete data is returned once, after the last fragment
+/// - Buffers are taken from and returned to a pool, for reuse across centrals and writes
+/// - Data with an unknown action code or invalid length is discarded on the first fragment,
+///   only data with a known but incomplete header waits for further fragments
+/// - Partial data beyond maximum size is discarded, as is partial data without a fragment
+///   for the expiry time, e.g. central disconnected without notification
+/// - Writes by different centrals can be appended concurrently
+public class BLESignalDataReassembler {
+    /// Initial buffer capacity, sufficient for RSSI and payload writes
+    public final static int initialCapacity = 128;
+    private final int maximumSize;
+    private final long expiryMillis;
+    private final int poolCapacity;
+    private final ConcurrentMap<String, Buffer> buffers = new ConcurrentHashMap<>();
+    private final Deque<byte[]> pool = new ArrayDeque<>();
+    private final AtomicLong memory = new AtomicLong(0);
+    private final AtomicLong completed = new AtomicLong(0);
+    private final AtomicLong oversized = new AtomicLong(0);
+    private final AtomicLong unknown = new AtomicLong(0);
+    private final AtomicLong expired = new AtomicLong(0);
+    private final AtomicLong copied = new AtomicLong(0);
+
+    /// Partial data written by a central
+    private final static class Buffer {
+        private byte[] bytes;
+        private int length = 0;
+        private int expectedLength = -1;
+        private long lastFragmentAt;
+        private boolean released = false;
+
+        private Buffer(final byte[] bytes, final long lastFragmentAt) {
+            this.bytes = bytes;
+            this.lastFragmentAt = lastFragmentAt;
+        }
+    }
+
+    /// Reassembler accepting up to maximum size per central, discarding partial data after
+    /// expiry, and holding up to pool capacity buffers for reuse.
+    public BLESignalDataReassembler(final int maximumSize, final long expiryMillis, final int poolCapacity) {
+        this.maximumSize = maximumSize;
+        this.expiryMillis = expiryMillis;
+        this.poolCapacity = poolCapacity;
+    }
+
+    /// Append fragment written by central, returns complete data once all fragments of the
+    /// data have been received, otherwise null.
+    public Data append(final String central, final byte[] value, final long now) {
+        if (central == null || value == null || value.length == 0) {
+            return null;
+        }
+        while (true) {
+            Buffer buffer = buffers.get(central);
+            if (buffer == null) {
+                final Buffer created = new Buffer(acquire(), now);
+                final Buffer existing = buffers.putIfAbsent(central, created);
+                if (existing == null) {
+                    buffer = created;
+                } else {
+                    release(created);
+                    buffer = existing;
+                }
+            }
+            synchronized (buffer) {
+                // Buffer was completed, expired or removed concurrently, start again
+                if (buffer.released) {
+                    continue;
+                }
+                return append(central, buffer, value, now);
+            }
+        }
+    }
+
+    private Data append(final String central, final Buffer buffer, final byte[] value, final long now) {
+        final int length = buffer.length + value.length;
+        if (length > maximumSize) {
+            oversized.incrementAndGet();
+            close(central, buffer);
+            return null;
+        }
+        reserve(buffer, length);
+        System.arraycopy(value, 0, buffer.bytes, buffer.length, value.length);
+        copied.addAndGet(value.length);
+        buffer.length = length;
+        buffer.lastFragmentAt = now;
+        if (buffer.expectedLength < 0) {
+            buffer.expectedLength = SignalCharacteristicData.expectedLength(buffer.bytes, buffer.length);
+            // Unknown action code or invalid length, further fragments cannot complete the data
+            if (buffer.expectedLength < -1) {
+                unknown.incrementAndGet();
+                close(central, buffer);
+                return null;
+            }
+            if (buffer.expectedLength > maximumSize) {
+                oversized.incrementAndGet();
+                close(central, buffer);
+                return null;
+            }
+            // Reserve expected length once, so further fragments are appended without growth
+            if (buffer.expectedLength > 0) {
+                reserve(buffer, buffer.expectedLength);
+            }
+        }
+        if (buffer.expectedLength < 0 || buffer.length < buffer.expectedLength) {
+            return null;
+        }
+        final Data data = new Data(Arrays.copyOf(buffer.bytes, buffer.length));
+        copied.addAndGet(buffer.length);
+        completed.incrementAndGet();
+        close(central, buffer);
+        return data;
+    }
+
+    /// Grow buffer to hold at least capacity bytes, doubling to amortise growth.
+    private void reserve(final Buffer buffer, final int capacity) {
+        if (buffer.bytes.length >= capacity) {
+            return;
+        }
+        final int grown = Math.min(maximumSize, Math.max(capacity, buffer.bytes.length * 2));
+        memory.addAndGet(grown - buffer.bytes.length);
+        buffer.bytes = Arrays.copyOf(buffer.bytes, grown);
+        copied.addAndGet(buffer.length);
+    }
+
+    /// Discard partial data written by central, e.g. on disconnection.
+    public void remove(final String central) {
+        if (central == null) {
+            return;
+        }
+        final Buffer buffer = buffers.get(central);
+        if (buffer == null) {
+            return;
+        }
+        synchronized (buffer) {
+            if (!buffer.released) {
+                close(central, buffer);
+            }
+        }
+    }
+
+    /// Discard partial data without a fragment for the expiry time, returns number of centrals
+    /// with partial data discarded.
+    public int expire(final long now) {
+        int count = 0;
+        for (final Map.Entry<String, Buffer> entry : buffers.entrySet()) {
+            final Buffer buffer = entry.getValue();
+            synchronized (buffer) {
+                if (!buffer.released && now - buffer.lastFragmentAt > expiryMillis) {
+                    close(entry.getKey(), buffer);
+                    count++;
+                }
+            }
+        }
+        expired.addAndGet(count);
+        return count;
+    }
+
+    /// Remove buffer for central and return it to the pool, caller must hold buffer lock.
+    private void close(final String central, final Buffer buffer) {
+        buffer.released = true;
+        buffers.remove(central, buffer);
+        release(buffer);
+    }
+
+    // MARK:- Buffer pool
+
+    private byte[] acquire() {
+        synchronized (pool) {
+            final byte[] bytes = pool.pollLast();
+            if (bytes != null) {
+                return bytes;
+            }
+        }
+        memory.addAndGet(initialCapacity);
+        return new byte[initialCapacity];
+    }
+
+    private void release(final Buffer buffer) {
+        final byte[] bytes = buffer.bytes;
+        buffer.bytes = null;
+        synchronized (pool) {
+            if (pool.size() < poolCapacity) {
+                pool.addLast(bytes);
+                return;
+            }
+        }
+        memory.addAndGet(-bytes.length);
+    }
+
+    // MARK:- Statistics
+
+    /// Number of centrals with partial data.
+    public int size() {
+        return buffers.size();
+    }
+
+    /// Buffer memory held for central, 0 if central has no partial data.
+    public long memory(final String central) {
+        final Buffer buffer = buffers.get(central);
+        if (buffer == null) {
+            return 0;
+        }
+        synchronized (buffer) {
+            return (buffer.released ? 0 : buffer.bytes.length);
+        }
+    }
+
+    /// Buffer memory held for all centrals and pooled buffers.
+    public long memory() {
+        return memory.get();
+    }
+
+    /// Number of complete data reassembled.
+    public long completed() {
+        return completed.get();
+    }
+
+    /// Number of partial data discarded for exceeding maximum size.
+    public long oversized() {
+        return oversized.get();
+    }
+
+    /// Number of data discarded for unknown action code or invalid length.
+    public long unknown() {
+        return unknown.get();
+    }
+
+    /// Number of partial data discarded on expiry.
+    public long expired() {
+        return expired.get();
+    }
+
+    /// Number of bytes copied, for fragments, buffer growth and complete data.
+    public long copied() {
+        return copied.get();
+    }
+}
@@ -9,16 +9,9 @@ import android.os.PowerManager;
 
 import com.idcta.proj.sensor.data.ConcreteSensorLogger;
 import com.idcta.proj.sensor.data.SensorLogger;
-import com.idcta.proj.sensor.analysis.Sample;
-
-import java.util.Queue;
-import java.util.concurrent.ConcurrentLinkedQueue;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.atomic.AtomicLong;
 
 /**
- * Steady one second timer for controlling BLE operations. Having a reliable timer for starting
+ * Steady deadline timer for controlling BLE operations. Having a reliable timer for starting
  * and stopping scans is fundamental for reliable detection and tracking. Methods that have been
  * tested and failed included :
  * 1. Handler.postDelayed loop backed by MainLooper
@@ -28,6 +21,9 @@ import java.util.concurrent.atomic.AtomicLong;
  * 3. Timer scheduled task loop
  * - Timer can drift
  * <p>
+ * Timer uses a dedicated maximum priority thread under a partial wake lock, sleeping until
+ * the earliest delegate deadline, see BLETimerScheduler for per delegate periods and drift.
+ * <p>
  * Test impact of power management by ...
  * <p>
  * 1. Run app on device
@@ -61,45 +57,22 @@ import java.util.concurrent.atomic.AtomicLong;
  */
 public class BLETimer {
     private final SensorLogger logger = new ConcreteSensorLogger("Sensor", "BLETimer");
-    private final Sample sample = new Sample();
-    private final ExecutorService executorService = Executors.newSingleThreadExecutor();
+    /// Default tick period for delegates
+    public final static long defaultPeriodMillis = 1000;
+    private final BLETimerScheduler scheduler = new BLETimerScheduler(BLETimerScheduler.systemClock);
     private final PowerManager.WakeLock wakeLock;
-    private final AtomicLong now = new AtomicLong(0);
-    private final Queue<BLETimerDelegate> delegates = new ConcurrentLinkedQueue<>();
-    private final Runnable runnable = new Runnable() {
-        @Override
-        public void run() {
-            for (BLETimerDelegate delegate : delegates) {
-                try {
-                    delegate.bleTimer(now.get());
-                } catch (Throwable e) {
-                    logger.fault("delegate execution failed", e);
-                }
-            }
-        }
-    };
 
     public BLETimer(Context context) {
         final PowerManager powerManager = (PowerManager) context.getSystemService(Context.POWER_SERVICE);
         wakeLock = powerManager.newWakeLock(PowerManager.PARTIAL_WAKE_LOCK, "Sensor:BLETimer");
         wakeLock.acquire();
+        // Timer thread sleeps until the earliest delegate deadline, rather than polling
         final Thread timerThread = new Thread(new Runnable() {
-            private long last = 0;
-
             @Override
             public void run() {
                 while (true) {
-                    now.set(System.currentTimeMillis());
-                    final long elapsed = now.get() - last;
-                    if (elapsed >= 1000) {
-                        if (last != 0) {
-                            sample.add(elapsed);
-                            executorService.execute(runnable);
-                        }
-                        last = now.get();
-                    }
                     try {
-                        Thread.sleep(500);
+                        scheduler.await(scheduler.tick());
                     } catch (Throwable e) {
                         logger.fault("Timer interrupted", e);
                     }
@@ -116,8 +89,37 @@ public class BLETimer {
         wakeLock.release();
     }
 
-    /// Add delegate for time notification
+    /// Add delegate for time notification every second
     public void add(BLETimerDelegate delegate) {
-        delegates.add(delegate);
+        add(delegate, defaultPeriodMillis);
+    }
+
+    /// Add delegate for time notification every period, with the period as budget for execution
+    public void add(BLETimerDelegate delegate, long periodMillis) {
+        add(delegate, periodMillis, periodMillis);
+    }
+
+    /// Add delegate for time notification every period, watchdog reports delegate if execution
+    /// exceeds budget. Each delegate runs on its own thread, and a notification is skipped while
+    /// the previous notification is still running.
+    public void add(BLETimerDelegate delegate, long periodMillis, long budgetMillis) {
+        scheduler.add(delegate, periodMillis, budgetMillis);
+    }
+
+    /// Set next time notification for delegate, e.g. when the next state change is due,
+    /// subsequent notifications are every period after this deadline
+    public void schedule(BLETimerDelegate delegate, long deadline) {
+        scheduler.schedule(delegate, deadline);
+    }
+
+    /// Tick statistics for delegate, including drift from deadline, execution time, skipped
+    /// notifications and budget overruns
+    public BLETimerScheduler.Statistics statistics(BLETimerDelegate delegate) {
+        return scheduler.statistics(delegate);
+    }
+
+    /// Number of times timer thread woke to notify delegates
+    public long wakeups() {
+        return scheduler.wakeups();
     }
 }
@@ -0,0 +1,307 @@
+//  Copyright 2020 VMware, Inc.
+//  SPDX-License-Identifier: Apache-2.0
+//
+
+package com.idcta.proj.sensor.ble;
+
+import com.idcta.proj.sensor.analysis.Sample;
+import com.idcta.proj.sensor.data.ConcreteSensorLogger;
+import com.idcta.proj.sensor.data.SensorLogger;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/// Deadline scheduler for timer delegates, where each delegate has its own period and next
+/// deadline, and the timer thread sleeps until the earliest deadline rather than polling.
+/// - Ticks are fixed rate, the next deadline is the current deadline plus period, so execution
+///   delay does not accumulate as drift over successive ticks
+/// - Ticks missed while the thread was delayed, e.g. deep sleep, are skipped rather than run
+///   in a burst, the next deadline is a full period after the late tick
+/// - Delegate can set its next deadline, e.g. earlier than the next tick for a time critical
+///   action, or later to skip ticks where no work is due
+/// - Drift is time from deadline to start of execution, recorded per delegate
+/// - Each delegate runs in its own lane, so a blocked delegate does not stall the others, and
+///   a tick is skipped rather than queued while the previous tick is still running
+/// - Watchdog logs a delegate that has been running for longer than its budget
+public class BLETimerScheduler {
+    private final SensorLogger logger = new ConcreteSensorLogger("Sensor", "BLE.BLETimerScheduler");
+    /// Upper bounds of drift histogram buckets in millis, last bucket is unbounded
+    public final static long[] driftBucketBounds = new long[]{1, 10, 100, 1000, 10000};
+    private final Clock clock;
+    private final List<Entry> entries = new ArrayList<>();
+    private long wakeups = 0;
+    private boolean rescheduled = false;
+
+    /// Time source for scheduler, replaced by fake clock in tests
+    public abstract static class Clock {
+        /// Current time in millis.
+        public abstract long now();
+    }
+
+    /// System clock, delegates receive wall clock time
+    public final static Clock systemClock = new Clock() {
+        @Override
+        public long now() {
+            return System.currentTimeMillis();
+        }
+    };
+
+    /// Tick statistics for a delegate.
+    public final static class Statistics {
+        private final long[] driftHistogram = new long[driftBucketBounds.length + 1];
+        private long ticks = 0;
+        private long missed = 0;
+        private long skipped = 0;
+        private long overruns = 0;
+        /// Time from deadline to start of execution.
+        public final Sample drift = new Sample();
+        /// Time from start to end of execution.
+        public final Sample executionTime = new Sample();
+
+        private synchronized void tick(final long driftMillis) {
+            final long d = Math.max(0, driftMillis);
+            ticks++;
+            drift.add(d);
+            int bucket = 0;
+            while (bucket < driftBucketBounds.length && d >= driftBucketBounds[bucket]) {
+                bucket++;
+            }
+            driftHistogram[bucket]++;
+        }
+
+        private synchronized void missed(final long count) {
+            missed += count;
+        }
+
+        private synchronized void skip() {
+            skipped++;
+        }
+
+        private synchronized void overrun() {
+            overruns++;
+        }
+
+        /// Number of ticks executed.
+        public synchronized long ticks() {
+            return ticks;
+        }
+
+        /// Number of ticks skipped because the scheduler was delayed by a period or more.
+        public synchronized long missed() {
+            return missed;
+        }
+
+        /// Number of ticks skipped because the previous tick was still running.
+        public synchronized long skipped() {
+            return skipped;
+        }
+
+        /// Number of ticks that ran for longer than budget.
+        public synchronized long overruns() {
+            return overruns;
+        }
+
+        /// Count of ticks by drift, bucket i holds drift below driftBucketBounds[i] and at or
+        /// above the previous bound.
+        public synchronized long[] driftHistogram() {
+            return driftHistogram.clone();
+        }
+
+        @Override
+        public synchronized String toString() {
+            final StringBuilder s = new StringBuilder();
+            for (int i = 0; i < driftHistogram.length; i++) {
+                s.append(i == 0 ? "" : ",").append(i < driftBucketBounds.length ? "<" + driftBucketBounds[i] : ">=" + driftBucketBounds[i - 1]).append("ms=").append(driftHistogram[i]);
+            }
+            return "Statistics{ticks=" + ticks + ", missed=" + missed + ", skipped=" + skipped + ", overruns=" + overruns + ", drift=" + drift + ", executionTime=" + executionTime + ", histogram={" + s + "}}";
+        }
+    }
+
+    private final static class Entry {
+        private final BLETimerDelegate delegate;
+        private final long periodMillis;
+        private final long budgetMillis;
+        private final Executor lane;
+        private long deadline;
+        private boolean running = false;
+        private long runningSince = 0;
+        private boolean overrun = false;
+        private final Statistics statistics = new Statistics();
+
+        private Entry(final BLETimerDelegate delegate, final long periodMillis, final long budgetMillis, final Executor lane, final long deadline) {
+            this.delegate = delegate;
+            this.periodMillis = periodMillis;
+            this.budgetMillis = budgetMillis;
+            this.lane = lane;
+            this.deadline = deadline;
+        }
+    }
+
+    /// Scheduler running each delegate in its own lane, using clock for time.
+    public BLETimerScheduler(final Clock clock) {
+        this.clock = clock;
+    }
+
+    /// Create lane for running delegate ticks, default is a dedicated thread.
+    protected Executor lane(final BLETimerDelegate delegate) {
+        final String name = "Sensor.BLETimer." + name(delegate);
+        return Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(final Runnable runnable) {
+                final Thread thread = new Thread(runnable, name);
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /// Name of delegate for thread names and logging, class name for anonymous classes.
+    private static String name(final BLETimerDelegate delegate) {
+        final String simpleName = delegate.getClass().getSimpleName();
+        return (simpleName.isEmpty() ? delegate.getClass().getName() : simpleName);
+    }
+
+    /// Add delegate for ticks every period, starting one period from now, with budget for
+    /// execution time of each tick.
+    public synchronized void add(final BLETimerDelegate delegate, final long periodMillis, final long budgetMillis) {
+        final long period = Math.max(1, periodMillis);
+        entries.add(new Entry(delegate, period, Math.max(1, budgetMillis), lane(delegate), clock.now() + period));
+        reschedule();
+    }
+
+    /// Set next deadline for delegate, subsequent ticks are at period after this deadline.
+    public synchronized void schedule(final BLETimerDelegate delegate, final long deadline) {
+        final Entry entry = entry(delegate);
+        if (entry == null) {
+            logger.fault("schedule denied, unknown delegate (delegate={})", delegate);
+            return;
+        }
+        entry.deadline = deadline;
+        reschedule();
+    }
+
+    /// Tick statistics for delegate, or null if delegate is unknown.
+    public synchronized Statistics statistics(final BLETimerDelegate delegate) {
+        final Entry entry = entry(delegate);
+        return (entry == null ? null : entry.statistics);
+    }
+
+    /// Number of times scheduler woke to run delegates.
+    public synchronized long wakeups() {
+        return wakeups;
+    }
+
+    private Entry entry(final BLETimerDelegate delegate) {
+        for (final Entry entry : entries) {
+            if (entry.delegate == delegate) {
+                return entry;
+            }
+        }
+        return null;
+    }
+
+    /// Wake timer thread to reconsider earliest deadline.
+    private void reschedule() {
+        rescheduled = true;
+        notifyAll();
+    }
+
+    // MARK:- Timer thread
+
+    /// Run delegates with deadline at or before now, check running delegates against budget,
+    /// and return the earliest next deadline or budget expiry.
+    public long tick() {
+        final List<Entry> due = new ArrayList<>();
+        final List<Long> deadlines = new ArrayList<>();
+        final List<Entry> overruns = new ArrayList<>();
+        final long now;
+        long earliest = Long.MAX_VALUE;
+        synchronized (this) {
+            wakeups++;
+            now = clock.now();
+            for (final Entry entry : entries) {
+                if (entry.deadline <= now) {
+                    final long deadline = entry.deadline;
+                    entry.deadline = deadline + entry.periodMillis;
+                    if (entry.deadline <= now) {
+                        // Skip missed ticks, next tick is a full period after this late tick
+                        entry.statistics.missed((now - deadline) / entry.periodMillis);
+                        entry.deadline = now + entry.periodMillis;
+                    }
+                    if (entry.running) {
+                        // Skip tick while previous tick is still running, rather than queue
+                        entry.statistics.skip();
+                    } else {
+                        entry.running = true;
+                        entry.runningSince = now;
+                        entry.overrun = false;
+                        due.add(entry);
+                        deadlines.add(deadline);
+                    }
+                }
+                earliest = Math.min(earliest, entry.deadline);
+                // Watchdog
+                if (entry.running && !entry.overrun) {
+                    final long budgetExpiry = entry.runningSince + entry.budgetMillis;
+                    if (now > budgetExpiry) {
+                        entry.overrun = true;
+                        entry.statistics.overrun();
+                        overruns.add(entry);
+                    } else {
+                        earliest = Math.min(earliest, budgetExpiry + 1);
+                    }
+                }
+            }
+        }
+        for (final Entry entry : overruns) {
+            logger.fault("watchdog, delegate exceeded budget (delegate={},budget={}ms,running={}ms)", name(entry.delegate), entry.budgetMillis, now - entry.runningSince);
+        }
+        // Dispatch outside lock, delegates may add or reschedule delegates
+        for (int i = 0; i < due.size(); i++) {
+            dispatch(due.get(i), deadlines.get(i));
+        }
+        return earliest;
+    }
+
+    private void dispatch(final Entry entry, final long deadline) {
+        entry.lane.execute(new Runnable() {
+            @Override
+            public void run() {
+                final long now = clock.now();
+                entry.statistics.tick(now - deadline);
+                try {
+                    entry.delegate.bleTimer(now);
+                } catch (Throwable e) {
+                    logger.fault("delegate execution failed", e);
+                }
+                final long elapsed = clock.now() - now;
+                entry.statistics.executionTime.add(elapsed);
+                final boolean overrun;
+                synchronized (BLETimerScheduler.this) {
+                    entry.running = false;
+                    overrun = (!entry.overrun && elapsed > entry.budgetMillis);
+                    entry.overrun = entry.overrun || overrun;
+                }
+                if (overrun) {
+                    entry.statistics.overrun();
+                    logger.fault("watchdog, delegate exceeded budget (delegate={},budget={}ms,elapsed={}ms)", name(entry.delegate), entry.budgetMillis, elapsed);
+                }
+            }
+        });
+    }
+
+    /// Sleep until deadline, or until a delegate is added or rescheduled.
+    public synchronized void await(final long deadline) throws InterruptedException {
+        while (!rescheduled) {
+            final long remaining = deadline - clock.now();
+            if (remaining <= 0) {
+                break;
+            }
+            wait(remaining);
+        }
+        rescheduled = false;
+    }
+}
@@ -0,0 +1,177 @@
+//  Copyright 2020 VMware, Inc.
+//  SPDX-License-Identifier: Apache-2.0
+//
+
+package com.idcta.proj.sensor.ble;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+/// Trace of scan loop and connection activity for finding stalls, recorded as spans in a ring
+/// buffer that is allocated once on creation, and exported in Chrome trace event format for
+/// loading into a trace viewer, e.g. chrome://tracing or Perfetto.
+/// - Spans are recorded on lanes, i.e. the scan loop, and one lane per device
+/// - Device connection is traced as a sequence of phases (connect, discoverServices, each task,
+///   disconnect), where each phase ends when the next phase starts or the device disconnects
+/// - Recording does not allocate, names and lanes must be constant or existing strings
+/// - Oldest spans are overwritten once the buffer is full
+public class BLETrace {
+    /// Lane for scan loop spans
+    public final static String scanLane = "scan";
+    private final int capacity;
+    private final String[] names;
+    private final String[] categories;
+    private final String[] lanes;
+    private final long[] startMicros;
+    private final long[] durationMicros;
+    /// Epoch time in micros at nanoTime origin, for converting monotonic time to epoch time
+    private final long epochMicrosAtOrigin;
+    private final long nanoTimeOrigin;
+    private long count = 0;
+
+    /// Trace with capacity for the most recent spans, trace is disabled if capacity is 0.
+    public BLETrace(final int capacity) {
+        this.capacity = Math.max(0, capacity);
+        this.names = new String[this.capacity];
+        this.categories = new String[this.capacity];
+        this.lanes = new String[this.capacity];
+        this.startMicros = new long[this.capacity];
+        this.durationMicros = new long[this.capacity];
+        this.nanoTimeOrigin = System.nanoTime();
+        this.epochMicrosAtOrigin = System.currentTimeMillis() * 1000;
+    }
+
+    /// Is trace enabled?
+    public boolean isEnabled() {
+        return capacity > 0;
+    }
+
+    /// Monotonic time for span start.
+    public long now() {
+        return System.nanoTime();
+    }
+
+    // MARK:- Record
+
+    /// Record span on lane from start time (now()) to now.
+    public void span(final String lane, final String category, final String name, final long startNanos) {
+        if (capacity == 0) {
+            return;
+        }
+        record(lane, category, name, startNanos, System.nanoTime());
+    }
+
+    /// Record span on lane from start time to end time (now()).
+    public synchronized void record(final String lane, final String category, final String name, final long startNanos, final long endNanos) {
+        if (capacity == 0) {
+            return;
+        }
+        final int index = (int) (count % capacity);
+        names[index] = name;
+        categories[index] = category;
+        lanes[index] = lane;
+        startMicros[index] = epochMicrosAtOrigin + (startNanos - nanoTimeOrigin) / 1000;
+        durationMicros[index] = Math.max(0, endNanos - startNanos) / 1000;
+        count++;
+    }
+
+    /// End current connection phase for device, if any, and start the next phase.
+    public void phase(final BLEDevice device, final String name) {
+        if (capacity == 0) {
+            return;
+        }
+        final long now = System.nanoTime();
+        synchronized (this) {
+            if (device.tracePhase != null) {
+                record(device.identifier.value, "connection", device.tracePhase, device.tracePhaseStartedAt, now);
+            }
+            device.tracePhase = name;
+            device.tracePhaseStartedAt = now;
+        }
+    }
+
+    /// End current connection phase for device, if any, e.g. on disconnection.
+    public void endPhase(final BLEDevice device) {
+        phase(device, null);
+    }
+
+    // MARK:- Export
+
+    /// Number of spans in buffer.
+    public synchronized int size() {
+        return (int) Math.min(count, capacity);
+    }
+
+    /// Number of spans that have been overwritten.
+    public synchronized long dropped() {
+        return Math.max(0, count - capacity);
+    }
+
+    /// Spans in Chrome trace event format (JSON object), oldest first.
+    public String chromeTrace() {
+        final StringBuilder s = new StringBuilder();
+        try {
+            chromeTrace(s);
+        } catch (IOException e) {
+            // StringBuilder does not throw
+        }
+        return s.toString();
+    }
+
+    /// Write spans in Chrome trace event format (JSON object), oldest first. Each lane is shown
+    /// as a named thread of the same process, with spans as complete events.
+    public synchronized void chromeTrace(final Appendable out) throws IOException {
+        final Map<String, Integer> laneIds = new HashMap<>();
+        out.append("{\"traceEvents\":[");
+        boolean first = true;
+        final long start = Math.max(0, count - capacity);
+        for (long i = start; i < count; i++) {
+            final int index = (int) (i % capacity);
+            Integer laneId = laneIds.get(lanes[index]);
+            if (laneId == null) {
+                laneId = laneIds.size() + 1;
+                laneIds.put(lanes[index], laneId);
+                first = separator(out, first);
+                out.append("{\"name\":\"thread_name\",\"ph\":\"M\",\"pid\":1,\"tid\":").append(Integer.toString(laneId));
+                out.append(",\"args\":{\"name\":");
+                string(out, lanes[index]);
+                out.append("}}");
+            }
+            first = separator(out, first);
+            out.append("{\"name\":");
+            string(out, names[index]);
+            out.append(",\"cat\":");
+            string(out, categories[index]);
+            out.append(",\"ph\":\"X\",\"ts\":").append(Long.toString(startMicros[index]));
+            out.append(",\"dur\":").append(Long.toString(durationMicros[index]));
+            out.append(",\"pid\":1,\"tid\":").append(Integer.toString(laneId)).append('}');
+        }
+        out.append("],\"displayTimeUnit\":\"ms\"}");
+    }
+
+    private static boolean separator(final Appendable out, final boolean first) throws IOException {
+        if (!first) {
+            out.append(',');
+        }
+        return false;
+    }
+
+    /// Write JSON string with escaping.
+    private static void string(final Appendable out, final String value) throws IOException {
+        out.append('"');
+        if (value != null) {
+            for (int i = 0; i < value.length(); i++) {
+                final char c = value.charAt(i);
+                if (c == '"' || c == '\\') {
+                    out.append('\\').append(c);
+                } else if (c < 0x20) {
+                    out.append(String.format("\\u%04x", (int) c));
+                } else {
+                    out.append(c);
+                }
+            }
+        }
+        out.append('"');
+    }
+}
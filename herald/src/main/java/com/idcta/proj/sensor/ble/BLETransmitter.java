@@ -4,6 +4,7 @@
 
 package com.idcta.proj.sensor.ble;
 
+import com.idcta.proj.sensor.datatype.Data;
 import com.idcta.proj.sensor.datatype.PayloadData;
 import com.idcta.proj.sensor.Sensor;
 import com.idcta.proj.sensor.SensorDelegate;
@@ -30,6 +31,11 @@ public interface BLETransmitter extends Sensor {
      */
     PayloadData payloadData();
 
+    /**
+     * Get current payload encoded for writing to signal characteristic of receive-only peers.
+     */
+    Data signalCharacteristicWritePayload();
+
     /**
      * Is transmitter supported.
      *
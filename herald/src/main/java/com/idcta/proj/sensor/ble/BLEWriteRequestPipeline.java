@@ -0,0 +1,126 @@
+//  Copyright 2020 VMware, Inc.
+//  SPDX-License-Identifier: Apache-2.0
+//
+
+package com.idcta.proj.sensor.ble;
+
+import com.idcta.proj.sensor.data.ConcreteSensorLogger;
+import com.idcta.proj.sensor.data.SensorLogger;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/// Processing stage for GATT server write requests, so the Bluetooth binder thread only
+/// reassembles fragments and sends the response, while decoding and delegate dispatch, e.g.
+/// file loggers, run on lanes off the binder thread.
+/// - Centrals are hashed to single thread lanes, so writes by a central are processed in
+///   order, and a slow central only delays centrals sharing its lane
+/// - Queue is bounded across all lanes, writes beyond capacity are dropped and counted, as
+///   the response has already been sent and the binder thread must not block
+/// - Failure in processing is logged and does not stop the lane
+public class BLEWriteRequestPipeline {
+    private final SensorLogger logger = new ConcreteSensorLogger("Sensor", "BLE.BLEWriteRequestPipeline");
+    private final Executor[] lanes;
+    private final int capacity;
+    private final AtomicInteger depth = new AtomicInteger(0);
+    private final AtomicInteger maxDepth = new AtomicInteger(0);
+    private final AtomicLong submitted = new AtomicLong(0);
+    private final AtomicLong processed = new AtomicLong(0);
+    private final AtomicLong dropped = new AtomicLong(0);
+    private final AtomicLong failed = new AtomicLong(0);
+
+    /// Pipeline with number of lanes, holding at most capacity writes queued or in process.
+    public BLEWriteRequestPipeline(final int lanes, final int capacity) {
+        this.lanes = new Executor[Math.max(1, lanes)];
+        this.capacity = Math.max(1, capacity);
+        for (int i = 0; i < this.lanes.length; i++) {
+            this.lanes[i] = lane(i);
+        }
+    }
+
+    /// Executor for lane, tasks on a lane must run one at a time in submission order.
+    /// Override to run lanes elsewhere, e.g. in tests.
+    protected Executor lane(final int index) {
+        // Daemon thread, queued writes must not prevent shutdown
+        return Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(final Runnable runnable) {
+                final Thread thread = new Thread(runnable, "BLE.WriteRequestPipeline-" + index);
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /// Lane index for central.
+    protected int laneIndex(final String central) {
+        return (central == null ? 0 : (central.hashCode() & 0x7fffffff) % lanes.length);
+    }
+
+    /// Queue processing of write by central on its lane, returns false if the write was dropped
+    /// because the pipeline is at capacity.
+    public boolean submit(final String central, final Runnable process) {
+        final int queued = depth.incrementAndGet();
+        if (queued > capacity) {
+            depth.decrementAndGet();
+            dropped.incrementAndGet();
+            logger.fault("submit, dropped write at capacity (central={},capacity={})", central, capacity);
+            return false;
+        }
+        submitted.incrementAndGet();
+        int max = maxDepth.get();
+        while (queued > max && !maxDepth.compareAndSet(max, queued)) {
+            max = maxDepth.get();
+        }
+        lanes[laneIndex(central)].execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    process.run();
+                } catch (Throwable e) {
+                    failed.incrementAndGet();
+                    logger.fault("process failed (central={})", central, e);
+                } finally {
+                    processed.incrementAndGet();
+                    depth.decrementAndGet();
+                }
+            }
+        });
+        return true;
+    }
+
+    // MARK:- Statistics
+
+    /// Number of writes queued or in process across all lanes.
+    public int depth() {
+        return depth.get();
+    }
+
+    /// Maximum queue depth since start.
+    public int maxDepth() {
+        return maxDepth.get();
+    }
+
+    /// Number of writes accepted for processing.
+    public long submitted() {
+        return submitted.get();
+    }
+
+    /// Number of writes processed, including failures.
+    public long processed() {
+        return processed.get();
+    }
+
+    /// Number of writes dropped at capacity.
+    public long dropped() {
+        return dropped.get();
+    }
+
+    /// Number of writes where processing threw an exception.
+    public long failed() {
+        return failed.get();
+    }
+}
@@ -8,36 +8,61 @@ import android.bluetooth.BluetoothDevice;
 import android.bluetooth.le.ScanRecord;
 import android.bluetooth.le.ScanResult;
 
+import com.idcta.proj.sensor.ble.filter.BLEAdvert;
 import com.idcta.proj.sensor.data.ConcreteSensorLogger;
 import com.idcta.proj.sensor.data.SensorLogger;
-import com.idcta.proj.sensor.datatype.Data;
 import com.idcta.proj.sensor.datatype.PayloadData;
 import com.idcta.proj.sensor.datatype.PayloadSharingData;
 import com.idcta.proj.sensor.datatype.PseudoDeviceAddress;
-import com.idcta.proj.sensor.datatype.RSSI;
 import com.idcta.proj.sensor.datatype.TargetIdentifier;
 
-import java.io.ByteArrayOutputStream;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.Collections;
-import java.util.Comparator;
 import java.util.Date;
-import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Queue;
-import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class ConcreteBLEDatabase implements BLEDatabase, BLEDeviceDelegate {
     private final SensorLogger logger = new ConcreteSensorLogger("Sensor", "BLE.ConcreteBLEDatabase");
     private final Queue<BLEDatabaseDelegate> delegates = new ConcurrentLinkedQueue<>();
     private final Map<TargetIdentifier, BLEDevice> database = new ConcurrentHashMap<>();
     private final ExecutorService queue = Executors.newSingleThreadExecutor();
+    private final Object evictionLock = new Object();
+    private final AtomicLong evicted = new AtomicLong(0);
+    /// Database size at which eviction is retried, after devices could not be evicted
+    private volatile int evictionRetrySize = 0;
+    /// Devices by pseudo device address, most recently updated first
+    private final BLEDeviceIndex<PseudoDeviceAddress> pseudoDeviceAddressIndex = new BLEDeviceIndex<PseudoDeviceAddress>(new BLEDeviceLastUpdatedComparator()) {
+        @Override
+        protected PseudoDeviceAddress key(final BLEDevice device) {
+            return device.pseudoDeviceAddress();
+        }
+    };
+    /// Devices by payload data, in order of payload acquisition
+    private final BLEDeviceIndex<PayloadData> payloadDataIndex = new BLEDeviceIndex<PayloadData>() {
+        @Override
+        protected PayloadData key(final BLEDevice device) {
+            return device.payloadData();
+        }
+    };
+    /// Coalesced delivery of device attribute updates to delegates
+    private final BLEDeviceUpdateCoalescer updates = new BLEDeviceUpdateCoalescer(new BLEDeviceDelegate() {
+        @Override
+        public void device(final BLEDevice device, final BLEDeviceAttribute didUpdate) {
+            logger.debug("update (device={},attribute={})", device.identifier, didUpdate.name());
+            for (BLEDatabaseDelegate delegate : delegates) {
+                delegate.bleDatabaseDidUpdate(device, didUpdate);
+            }
+        }
+    }, queue, BLESensorConfiguration.deviceUpdateNotificationCapacity);
+    /// Devices with payload that may be shared with peers
+    private final BLEPayloadSharingCandidates payloadSharingCandidates = new BLEPayloadSharingCandidates();
 
     @Override
     public void add(BLEDatabaseDelegate delegate) {
@@ -47,46 +72,46 @@ public class ConcreteBLEDatabase implements BLEDatabase, BLEDeviceDelegate {
     @Override
     public BLEDevice device(ScanResult scanResult) {
         final BluetoothDevice bluetoothDevice = scanResult.getDevice();
-        // Get pseudo device address
-        final PseudoDeviceAddress pseudoDeviceAddress = pseudoDeviceAddress(scanResult);
+        final ScanRecord scanRecord = scanResult.getScanRecord();
+        return device(new TargetIdentifier(bluetoothDevice), bluetoothDevice, (scanRecord == null ? null : scanRecord.getBytes()));
+    }
+
+    /// Get device for scan result from peripheral with target identifier and raw scan record.
+    BLEDevice device(final TargetIdentifier targetIdentifier, final BluetoothDevice bluetoothDevice, final byte[] scanRecord) {
+        // Parse advert once for device lookup and subsequent processing
+        final BLEAdvert advert = advert(targetIdentifier, scanRecord);
+        final BLEDevice device = device(targetIdentifier, bluetoothDevice, advert);
+        if (advert != null) {
+            device.advert(advert);
+        }
+        return device;
+    }
+
+    private BLEDevice device(final TargetIdentifier targetIdentifier, final BluetoothDevice bluetoothDevice, final BLEAdvert advert) {
+        // Get pseudo device address for Android devices
+        final PseudoDeviceAddress pseudoDeviceAddress = (advert != null && advert.hasPseudoDeviceAddress ? new PseudoDeviceAddress(advert.pseudoDeviceAddress) : null);
         if (pseudoDeviceAddress == null) {
             // Get device based on peripheral only
-            return device(bluetoothDevice);
-        }
-        // Identify all existing devices with the same pseudo device address
-        final List<BLEDevice> candidates = new ArrayList<>();
-        for (final BLEDevice device : database.values()) {
-            if (device.pseudoDeviceAddress() == null) {
-                continue;
-            }
-            if (device.pseudoDeviceAddress().equals(pseudoDeviceAddress)) {
-                candidates.add(device);
-            }
+            return device(targetIdentifier, bluetoothDevice);
         }
+        // Identify most recent existing device with the same pseudo device address
+        final BLEDevice cloneSource = pseudoDeviceAddressIndex.first(pseudoDeviceAddress);
         // No existing device matching pseudo device address, create new device
-        if (candidates.size() == 0) {
-            final BLEDevice device = device(bluetoothDevice);
+        if (cloneSource == null) {
+            final BLEDevice device = device(targetIdentifier, bluetoothDevice);
             device.pseudoDeviceAddress(pseudoDeviceAddress);
             return device;
         }
         // Find device with the same target identifier
-        final TargetIdentifier targetIdentifier = new TargetIdentifier(bluetoothDevice);
         final BLEDevice existingDevice = database.get(targetIdentifier);
         if (existingDevice != null) {
             existingDevice.pseudoDeviceAddress(pseudoDeviceAddress);
             shareDataAcrossDevices(pseudoDeviceAddress);
             return existingDevice;
         }
-        // Get most recent version of the device and clone to enable attachment to new peripheral
-        Collections.sort(candidates, new Comparator<BLEDevice>() {
-            @Override
-            public int compare(BLEDevice d0, BLEDevice d1) {
-                return Long.compare(d1.lastUpdatedAt.getTime(), d0.lastUpdatedAt.getTime());
-            }
-        });
-        final BLEDevice cloneSource = candidates.get(0);
-        final BLEDevice newDevice = new BLEDevice(cloneSource, scanResult.getDevice());
-        database.put(newDevice.identifier, newDevice);
+        // Clone most recent version of the device to enable attachment to new peripheral
+        final BLEDevice newDevice = new BLEDevice(cloneSource, targetIdentifier);
+        insert(newDevice);
         queue.execute(new Runnable() {
             @Override
             public void run() {
@@ -96,7 +121,7 @@ public class ConcreteBLEDatabase implements BLEDatabase, BLEDeviceDelegate {
                 }
             }
         });
-        newDevice.peripheral(scanResult.getDevice());
+        newDevice.peripheral(bluetoothDevice);
         final PayloadData payloadData = shareDataAcrossDevices(pseudoDeviceAddress);
         if (payloadData != null) {
             newDevice.payloadData(payloadData);
@@ -104,38 +129,27 @@ public class ConcreteBLEDatabase implements BLEDatabase, BLEDeviceDelegate {
         return newDevice;
     }
 
-    /// Get pseudo device address for Android devices
-    private PseudoDeviceAddress pseudoDeviceAddress(final ScanResult scanResult) {
-        final ScanRecord scanRecord = scanResult.getScanRecord();
+    /// Parse advert in scan record, reusing the advert of the existing device if it was parsed from
+    /// the same scan record, e.g. when the scan result is processed again after the scan.
+    private BLEAdvert advert(final TargetIdentifier targetIdentifier, final byte[] scanRecord) {
         if (scanRecord == null) {
             return null;
         }
-        final byte[] data = scanRecord.getManufacturerSpecificData(BLESensorConfiguration.manufacturerIdForSensor);
-        if (data == null || data.length != 6) {
-            return null;
+        final BLEDevice existingDevice = database.get(targetIdentifier);
+        if (existingDevice != null) {
+            final BLEAdvert existingAdvert = existingDevice.advert();
+            if (existingAdvert != null && existingAdvert.raw() == scanRecord) {
+                return existingAdvert;
+            }
         }
-        return new PseudoDeviceAddress(data);
+        return BLEAdvert.parse(scanRecord);
     }
 
     /// Share information across devices with the same pseudo device address
     private PayloadData shareDataAcrossDevices(final PseudoDeviceAddress pseudoDeviceAddress) {
-        // Get all devices with the same pseudo device address
-        final List<BLEDevice> devices = new ArrayList<>();
-        for (final BLEDevice device : database.values()) {
-            if (device.pseudoDeviceAddress() == null) {
-                continue;
-            }
-            if (device.pseudoDeviceAddress().equals(pseudoDeviceAddress)) {
-                devices.add(device);
-            }
-        }
+        // Get all devices with the same pseudo device address, most recent first
+        final List<BLEDevice> devices = pseudoDeviceAddressIndex.devices(pseudoDeviceAddress);
         // Get most recent version of payload data
-        Collections.sort(devices, new Comparator<BLEDevice>() {
-            @Override
-            public int compare(BLEDevice d0, BLEDevice d1) {
-                return Long.compare(d1.lastUpdatedAt.getTime(), d0.lastUpdatedAt.getTime());
-            }
-        });
         PayloadData payloadData = null;
         for (BLEDevice device : devices) {
             if (device.payloadData() != null) {
@@ -181,12 +195,15 @@ public class ConcreteBLEDatabase implements BLEDatabase, BLEDeviceDelegate {
 
     @Override
     public BLEDevice device(BluetoothDevice bluetoothDevice) {
-        final TargetIdentifier identifier = new TargetIdentifier(bluetoothDevice);
+        return device(new TargetIdentifier(bluetoothDevice), bluetoothDevice);
+    }
+
+    private BLEDevice device(final TargetIdentifier identifier, final BluetoothDevice bluetoothDevice) {
         BLEDevice device = database.get(identifier);
         if (device == null) {
             final BLEDevice newDevice = new BLEDevice(identifier, this);
             device = newDevice;
-            database.put(identifier, newDevice);
+            insert(newDevice);
             queue.execute(new Runnable() {
                 @Override
                 public void run() {
@@ -203,18 +220,12 @@ public class ConcreteBLEDatabase implements BLEDatabase, BLEDeviceDelegate {
 
     @Override
     public BLEDevice device(PayloadData payloadData) {
-        BLEDevice device = null;
-        for (BLEDevice candidate : database.values()) {
-            if (payloadData.equals(candidate.payloadData())) {
-                device = candidate;
-                break;
-            }
-        }
+        BLEDevice device = payloadDataIndex.first(payloadData);
         if (device == null) {
             final TargetIdentifier identifier = new TargetIdentifier();
             final BLEDevice newDevice = new BLEDevice(identifier, this);
             device = newDevice;
-            database.put(identifier, newDevice);
+            insert(newDevice);
             queue.execute(new Runnable() {
                 @Override
                 public void run() {
@@ -234,10 +245,28 @@ public class ConcreteBLEDatabase implements BLEDatabase, BLEDeviceDelegate {
         return new ArrayList<>(database.values());
     }
 
+    @Override
+    public int forEach(final BLEDevicePredicate predicate, final BLEDeviceVisitor visitor) {
+        int visited = 0;
+        for (final BLEDevice device : database.values()) {
+            if (!predicate.test(device)) {
+                continue;
+            }
+            visited++;
+            if (!visitor.visit(device)) {
+                break;
+            }
+        }
+        return visited;
+    }
+
     @Override
     public void delete(final TargetIdentifier identifier) {
         final BLEDevice device = database.remove(identifier);
         if (device != null) {
+            pseudoDeviceAddressIndex.remove(device);
+            payloadDataIndex.remove(device);
+            payloadSharingCandidates.remove(device);
             queue.execute(new Runnable() {
                 @Override
                 public void run() {
@@ -252,97 +281,115 @@ public class ConcreteBLEDatabase implements BLEDatabase, BLEDeviceDelegate {
 
     @Override
     public PayloadSharingData payloadSharingData(final BLEDevice peer) {
-        final RSSI rssi = peer.rssi();
-        if (rssi == null) {
-            return new PayloadSharingData(new RSSI(127), new Data(new byte[0]));
+        return payloadSharingCandidates.payloadSharingData(peer, System.currentTimeMillis());
+    }
+
+    @Override
+    public boolean hasPayloadSharingData(final BLEDevice peer) {
+        return payloadSharingCandidates.hasPayloadSharingData(peer, System.currentTimeMillis());
+    }
+
+    /// Add device to database and indices
+    private void insert(final BLEDevice device) {
+        database.put(device.identifier, device);
+        pseudoDeviceAddressIndex.update(device);
+        payloadDataIndex.update(device);
+        payloadSharingCandidates.update(device);
+        evict(device);
+    }
+
+    /// Evict least valuable devices when database exceeds capacity, freeing 10% of capacity at
+    /// a time to amortise the cost of selection. Where devices cannot be evicted, e.g. all
+    /// devices are connected, selection is repeated once the database has grown by 10% of capacity.
+    private void evict(final BLEDevice keep) {
+        final int capacity = BLESensorConfiguration.deviceDatabaseCapacity;
+        if (capacity <= 0 || database.size() <= capacity || database.size() < evictionRetrySize) {
+            return;
         }
-        // Get other devices that were seen recently by this device
-        final List<BLEDevice> unknownDevices = new ArrayList<>();
-        final List<BLEDevice> knownDevices = new ArrayList<>();
-        for (BLEDevice device : database.values()) {
-            // Device was seen recently
-            if (device.timeIntervalSinceLastUpdate().value >= BLESensorConfiguration.payloadSharingExpiryTimeInterval.value) {
-                continue;
-            }
-            // Device has payload
-            if (device.payloadData() == null) {
-                continue;
-            }
-            // Device is iOS or receive only (Samsung J6)
-            if (!(device.operatingSystem() == BLEDeviceOperatingSystem.ios || device.receiveOnly())) {
-                continue;
+        synchronized (evictionLock) {
+            final int size = database.size();
+            if (size <= capacity || size < evictionRetrySize) {
+                return;
             }
-            // Payload is not the peer itself
-            if (peer.payloadData() != null && (Arrays.equals(device.payloadData().value, peer.payloadData().value))) {
-                continue;
-            }
-            // Payload is new to peer
-            if (peer.payloadSharingData.contains(device.payloadData())) {
-                knownDevices.add(device);
-            } else {
-                unknownDevices.add(device);
+            final int batch = Math.max(1, capacity / 10);
+            final int count = size - capacity + batch;
+            final List<BLEDevice> devices = BLEDeviceEviction.select(database.values(), count, keep, System.currentTimeMillis());
+            int deleted = 0;
+            for (final BLEDevice device : devices) {
+                if (database.get(device.identifier) != device) {
+                    continue;
+                }
+                logger.debug("evict (device={},size={},capacity={})", device.identifier, size, capacity);
+                delete(device.identifier);
+                deleted++;
             }
+            evicted.addAndGet(deleted);
+            final int remaining = database.size();
+            evictionRetrySize = (remaining > capacity ? remaining + batch : 0);
+            logger.debug("evict (evicted={},remaining={},footprint={})", deleted, remaining, footprint());
         }
-        // Most recently seen unknown devices first
-        final List<BLEDevice> devices = new ArrayList<>();
-        Collections.sort(unknownDevices, new Comparator<BLEDevice>() {
-            @Override
-            public int compare(BLEDevice d0, BLEDevice d1) {
-                return Long.compare(d1.lastUpdatedAt.getTime(), d0.lastUpdatedAt.getTime());
-            }
-        });
-        Collections.sort(knownDevices, new Comparator<BLEDevice>() {
+    }
+
+    /// Number of devices evicted due to capacity limit.
+    public long evicted() {
+        return evicted.get();
+    }
+
+    /// Estimated heap footprint of devices in the database.
+    public BLEDeviceFootprint footprint() {
+        final long[] totals = new long[3];
+        forEach(BLEDevicePredicates.all, new BLEDeviceVisitor() {
             @Override
-            public int compare(BLEDevice d0, BLEDevice d1) {
-                return Long.compare(d1.lastUpdatedAt.getTime(), d0.lastUpdatedAt.getTime());
+            public boolean visit(BLEDevice device) {
+                final long bytes = BLEDeviceFootprint.estimate(device);
+                totals[0]++;
+                totals[1] += bytes;
+                totals[2] = Math.max(totals[2], bytes);
+                return true;
             }
         });
-        devices.addAll(unknownDevices);
-        devices.addAll(knownDevices);
-        if (devices.size() == 0) {
-            return new PayloadSharingData(new RSSI(127), new Data(new byte[0]));
+        return new BLEDeviceFootprint(totals[0], totals[1], totals[2]);
+    }
+
+    /// Update device in index after attribute change, only for devices that are still in the database
+    private void reindex(final BLEDeviceIndex<?> index, final BLEDevice device) {
+        index.update(device);
+        // Device may have been deleted or replaced concurrently
+        if (database.get(device.identifier) != device) {
+            index.remove(device);
         }
-        // Limit how much to share to avoid oversized data transfers over BLE
-        // (512 bytes limit according to spec, 510 with response, iOS requires response)
-        final Set<PayloadData> sharedPayloads = new HashSet<>(devices.size());
-        final ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
-        for (BLEDevice device : devices) {
-            final PayloadData payloadData = device.payloadData();
-            if (payloadData == null) {
-                continue;
-            }
-            // Eliminate duplicates (this happens when the same device has changed address but the old version has not expired yet)
-            if (sharedPayloads.contains(payloadData)) {
-                continue;
-            }
-            // Limit payload sharing by BLE transfer limit
-            if (payloadData.value.length + byteArrayOutputStream.toByteArray().length > 510) {
-                break;
-            }
-            try {
-                byteArrayOutputStream.write(payloadData.value);
-                peer.payloadSharingData.add(payloadData);
-                sharedPayloads.add(payloadData);
-            } catch (Throwable e) {
-                logger.fault("Failed to append payload sharing data", e);
-            }
+    }
+
+    /// Update payload sharing candidates after attribute change, only for devices that are still in the database
+    private void reindexPayloadSharingCandidate(final BLEDevice device) {
+        payloadSharingCandidates.update(device);
+        // Device may have been deleted or replaced concurrently
+        if (database.get(device.identifier) != device) {
+            payloadSharingCandidates.remove(device);
         }
-        final Data data = new Data(byteArrayOutputStream.toByteArray());
-        return new PayloadSharingData(rssi, data);
     }
 
     // MARK:- BLEDeviceDelegate
 
     @Override
     public void device(final BLEDevice device, final BLEDeviceAttribute didUpdate) {
-        queue.execute(new Runnable() {
-            @Override
-            public void run() {
-                logger.debug("update (device={},attribute={})", device.identifier, didUpdate.name());
-                for (BLEDatabaseDelegate delegate : delegates) {
-                    delegate.bleDatabaseDidUpdate(device, didUpdate);
-                }
-            }
-        });
+        // Update indices immediately, before notifying delegates
+        if (didUpdate == BLEDeviceAttribute.pseudoDeviceAddress) {
+            reindex(pseudoDeviceAddressIndex, device);
+        } else if (didUpdate == BLEDeviceAttribute.payloadData) {
+            reindex(payloadDataIndex, device);
+        }
+        // Candidate set only changes with these attributes, other updates may restore a pruned candidate
+        if (didUpdate == BLEDeviceAttribute.payloadData || didUpdate == BLEDeviceAttribute.operatingSystem || didUpdate == BLEDeviceAttribute.receiveOnly) {
+            reindexPayloadSharingCandidate(device);
+        } else {
+            payloadSharingCandidates.touch(device);
+        }
+        updates.device(device, didUpdate);
+    }
+
+    /// Device attribute update notification statistics.
+    public BLEDeviceUpdateCoalescer updates() {
+        return updates;
     }
 }
@@ -14,15 +14,19 @@ import android.bluetooth.BluetoothProfile;
 import android.bluetooth.le.BluetoothLeScanner;
 import android.bluetooth.le.ScanCallback;
 import android.bluetooth.le.ScanFilter;
-import android.bluetooth.le.ScanRecord;
 import android.bluetooth.le.ScanResult;
 import android.bluetooth.le.ScanSettings;
 import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.os.BatteryManager;
 import android.os.Build;
 import android.os.ParcelUuid;
+import android.os.SystemClock;
 
 import com.idcta.proj.sensor.SensorDelegate;
 import com.idcta.proj.sensor.analysis.Sample;
+import com.idcta.proj.sensor.ble.filter.BLEAdvert;
 import com.idcta.proj.sensor.ble.filter.BLEAdvertParser;
 import com.idcta.proj.sensor.ble.filter.BLEDeviceFilter;
 import com.idcta.proj.sensor.data.ConcreteSensorLogger;
@@ -40,38 +44,129 @@ import com.idcta.proj.sensor.datatype.TargetIdentifier;
 import com.idcta.proj.sensor.datatype.TimeInterval;
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.EnumMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Queue;
 import java.util.Set;
-import java.util.SortedSet;
-import java.util.TreeSet;
 import java.util.UUID;
-import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 public class ConcreteBLEReceiver extends BluetoothGattCallback implements BLEReceiver {
     private final SensorLogger logger = new ConcreteSensorLogger("Sensor", "BLE.ConcreteBLEReceiver");
-    // Scan ON/OFF/PROCESS durations
-    private final static long scanOnDurationMillis = TimeInterval.seconds(4).millis();
-    private final static long scanRestDurationMillis = TimeInterval.seconds(1).millis();
-    private final static long scanProcessDurationMillis = TimeInterval.seconds(60).millis();
-    private final static long scanOffDurationMillis = TimeInterval.seconds(2).millis();
-    private final static long timeToConnectDeviceLimitMillis = TimeInterval.seconds(12).millis();
+    // Scan ON/OFF/PROCESS durations are set by scan duty cycle policy,
+    // process duration here is the time limit for processing each device
+    private final static long scanProcessDurationMillis = BLEScanDutyCycle.standard.scanProcessMillis;
+    // Overall time limit for fire and forget immediate send to all
+    private final static TimeInterval immediateSendAllTimeout = TimeInterval.minute;
     private final static Sample timeToConnectDevice = new Sample();
     private final static Sample timeToProcessDevice = new Sample();
-    private final static int defaultMTU = 20;
     private final Context context;
     private final BluetoothStateManager bluetoothStateManager;
     private final BLEDatabase database;
     private final BLETransmitter transmitter;
     private final BLEDeviceFilter deviceFilter;
+    private final BLEDeviceExpiry deviceExpiry = new BLEDeviceExpiry();
+    private final BLETrace trace = new BLETrace(BLESensorConfiguration.traceCapacity);
+    private final BLEScanDelivery scanDelivery = new BLEScanDelivery(BLESensorConfiguration.scanReportDelayMillis);
+    private final BLEMtuCache mtuCache = new BLEMtuCache(BLESensorConfiguration.signalCharacteristicMtu, BLESensorConfiguration.deviceDatabaseCapacity);
+    private final Map<SignalCharacteristicDataType, Sample> timeToWriteSignalCharacteristic = new EnumMap<>(SignalCharacteristicDataType.class);
+    private final BLEConnectionStatistics connectionStatistics = new BLEConnectionStatistics(
+            BLESensorConfiguration.connectTimeoutMaximum.millis(),
+            BLESensorConfiguration.connectTimeoutMinimum.millis(),
+            BLESensorConfiguration.connectTimeoutMargin,
+            BLESensorConfiguration.connectionStatisticsWindow,
+            BLESensorConfiguration.connectionStatisticsMinimumSamples,
+            BLESensorConfiguration.connectFailurePenaltyHalfLife.millis(),
+            BLESensorConfiguration.connectFailureSkipPenalty,
+            BLESensorConfiguration.deviceDatabaseCapacity);
+    private final BLEGattConnector<BluetoothGatt> gattConnector = new BLEGattConnector<BluetoothGatt>() {
+        @Override
+        public BluetoothGatt connect(final BLEDevice device) {
+            trace.phase(device, "connect");
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
+                // API 23 and above - force Low Energy only
+                return device.peripheral().connectGatt(context, false, ConcreteBLEReceiver.this, BluetoothDevice.TRANSPORT_LE);
+            } else {
+                // support back to API 21
+                return device.peripheral().connectGatt(context, false, ConcreteBLEReceiver.this);
+            }
+        }
+
+        @Override
+        public void close(final BluetoothGatt gatt) {
+            gatt.close();
+            trace.endPhase(database.device(gatt.getDevice()));
+        }
+    };
+    private final BLEConnectionPool<BluetoothGatt> connectionPool = new BLEConnectionPool<BluetoothGatt>(gattConnector,
+            BLESensorConfiguration.connectionPoolCapacity,
+            BLESensorConfiguration.connectionPoolIdleTimeout.millis(),
+            BLESensorConfiguration.connectionPoolMaximumAge.millis()) {
+        @Override
+        protected boolean resume(final BLEDevice device, final BluetoothGatt gatt) {
+            // Characteristics and MTU from connection are still valid
+            nextTask(gatt);
+            return true;
+        }
+    };
+    private final BLEConnectionLifecycle<BluetoothGatt> connectionLifecycle = new BLEConnectionLifecycle<>(gattConnector,
+            BLESensorConfiguration.connectTimeoutMaximum.millis(), scanProcessDurationMillis, timeToConnectDevice, timeToProcessDevice, connectionStatistics, connectionPool);
+    private final BLEConnectionPipeline connectionPipeline = new BLEConnectionPipeline(BLESensorConfiguration.concurrentConnectionLimit) {
+        @Override
+        protected boolean connect(final BLEDevice device, final long deadlineMillis) {
+            return taskConnectDevice(device, deadlineMillis);
+        }
+    };
+    private final BLEConnectionScheduler connectionScheduler = new BLEConnectionScheduler() {
+        @Override
+        protected TaskClass taskClass(final BLEDevice device) {
+            switch (nextTaskForDevice(device)) {
+                case nothing:
+                    return TaskClass.nothing;
+                case immediateSend:
+                    return TaskClass.immediateSend;
+                case readPayload:
+                    return (device.payloadData() == null ? TaskClass.readPayload : TaskClass.readPayloadUpdate);
+                case readModel:
+                case readDeviceName:
+                    return TaskClass.readPayloadUpdate;
+                default:
+                    return TaskClass.writeData;
+            }
+        }
+    };
+    private final BLEScanDutyCyclePolicy scanDutyCyclePolicy = BLESensorConfiguration.scanDutyCyclePolicy;
+    private final BLEScanDutyCycleRecorder scanDutyCycleRecorder = new BLEScanDutyCycleRecorder(100);
+    private volatile BLEScanDutyCycle scanDutyCycle = scanDutyCyclePolicy.initial();
+    private volatile long scanStartedAt = 0;
+    private volatile long scanStoppedAt = 0;
     private final ExecutorService operationQueue = Executors.newSingleThreadExecutor();
-    private final Queue<ScanResult> scanResults = new ConcurrentLinkedQueue<>();
+    private final BLEImmediateSendAll immediateSendAllTask = new BLEImmediateSendAll(BLESensorConfiguration.concurrentConnectionLimit) {
+        @Override
+        protected BLEImmediateSendResult.Outcome send(final BLEDevice device, final long deadlineMillis) {
+            return taskImmediateSend(device, deadlineMillis);
+        }
+    };
+    private final BLEScanResultCoalescer<ScanResult> scanResults = new BLEScanResultCoalescer<ScanResult>(BLESensorConfiguration.scanResultCapacity) {
+        @Override
+        protected String address(final ScanResult scanResult) {
+            return (scanResult.getDevice() == null ? null : scanResult.getDevice().getAddress());
+        }
+
+        @Override
+        protected int rssi(final ScanResult scanResult) {
+            return scanResult.getRssi();
+        }
+    };
 
     private enum NextTask {
-        nothing, readPayload, writePayload, writeRSSI, writePayloadSharing, immediateSend,
+        nothing, readPayload, writePayload, writeRSSI, writePayloadSharing, writeBundle, immediateSend,
         readModel, readDeviceName
     }
 
@@ -80,27 +175,44 @@ public class ConcreteBLEReceiver extends BluetoothGattCallback implements BLERec
         public void onScanResult(int callbackType, ScanResult scanResult) {
             logger.debug("onScanResult (result={}, data={})", scanResult,
                     BLEAdvertParser.hex(scanResult.getScanRecord().getBytes()));
-
+            scanDelivery.wakeup(BLEScanDelivery.Mode.perResult, 1);
             scanResults.add(scanResult);
-            // Create or update device in database
-            final BLEDevice device = database.device(scanResult);
-            device.registerDiscovery();
-            // Read RSSI from scan result
-            device.rssi(new RSSI(scanResult.getRssi()));
+            didReceive(BLEScanDelivery.Mode.perResult, scanResult, SystemClock.elapsedRealtimeNanos());
         }
 
+        /// Batched results are added to the scan window as one batch, and delivered once
+        /// per report delay rather than per advert when batching is enabled
         @Override
         public void onBatchScanResults(List<ScanResult> results) {
-            for (ScanResult scanResult : results) {
-                onScanResult(0, scanResult);
+            logger.debug("onBatchScanResults (results={})", results.size());
+            scanDelivery.wakeup(BLEScanDelivery.Mode.batched, results.size());
+            scanResults.addAll(results);
+            final long now = SystemClock.elapsedRealtimeNanos();
+            for (final ScanResult scanResult : results) {
+                didReceive(BLEScanDelivery.Mode.batched, scanResult, now);
             }
         }
 
         @Override
         public void onScanFailed(int errorCode) {
             logger.fault("onScanFailed (error={})", onScanFailedErrorCodeToString(errorCode));
+            // Chipset rejected batched scan settings, next scan uses per result delivery
+            if (errorCode == ScanCallback.SCAN_FAILED_FEATURE_UNSUPPORTED && scanDelivery.fallback()) {
+                logger.fault("onScanFailed, batched scan unsupported, falling back to per result delivery");
+            }
             super.onScanFailed(errorCode);
         }
+
+        private void didReceive(final BLEScanDelivery.Mode mode, final ScanResult scanResult, final long nowNanos) {
+            // Timestamp is time of advert receipt by the controller
+            final long timestampNanos = scanResult.getTimestampNanos();
+            scanDelivery.detected(mode, (timestampNanos > 0 ? (nowNanos - timestampNanos) / 1000000 : -1));
+            // Create or update device in database
+            final BLEDevice device = database.device(scanResult);
+            device.registerDiscovery();
+            // Read RSSI from scan result
+            device.rssi(new RSSI(scanResult.getRssi()));
+        }
     };
 
     /**
@@ -111,7 +223,11 @@ public class ConcreteBLEReceiver extends BluetoothGattCallback implements BLERec
         this.bluetoothStateManager = bluetoothStateManager;
         this.database = database;
         this.transmitter = transmitter;
-        timer.add(new ScanLoopTask());
+        for (final SignalCharacteristicDataType type : SignalCharacteristicDataType.values()) {
+            timeToWriteSignalCharacteristic.put(type, new Sample());
+        }
+        database.add(deviceExpiry);
+        timer.add(new ScanLoopTask(timer));
 
         // Enable device introspection if device filter training is enabled
         // to obtain device name and model data for all devices, and also
@@ -177,31 +293,65 @@ public class ConcreteBLEReceiver extends BluetoothGattCallback implements BLERec
 
     @Override
     public boolean immediateSendAll(Data data) {
+        immediateSendAll(data, immediateSendAllTimeout);
+        return true; // fire and forget
+    }
+
+    @Override
+    public Future<List<BLEImmediateSendResult>> immediateSendAll(Data data, TimeInterval timeout) {
         logger.debug("immediateSendAll");
         // Encode data
         final Data dataToSend = SignalCharacteristicData.encodeImmediateSend(new ImmediateSendData(data));
         logger.debug("immediateSendAll (dataLength={})", dataToSend.value.length);
 
-        // Order by descending time seen (most recent first)
-        // Choose targets
-        SortedSet<BLEDevice> targets = new TreeSet<>(new BLEDeviceLastUpdatedComparator());
-        // Fetch targets seen (for RSSI via advert) in the last minute
-        for (BLEDevice device : database.devices()) {
-            if (!device.ignore() && device.signalCharacteristic() != null && device.timeIntervalSinceLastUpdate().value < 60) {
+        // Choose targets seen (for RSSI via advert) in the last minute
+        final List<BLEDevice> targets = new ArrayList<>();
+        database.forEach(BLEDevicePredicates.and(
+                BLEDevicePredicates.notIgnored,
+                BLEDevicePredicates.hasSignalCharacteristic,
+                BLEDevicePredicates.updatedWithin(TimeInterval.minute)), new BLEDeviceVisitor() {
+            @Override
+            public boolean visit(BLEDevice device) {
                 targets.add(device);
+                return true;
+            }
+        });
+        // Order by descending time seen (most recent first), keeping devices seen at the same time
+        Collections.sort(targets, new BLEDeviceLastUpdatedComparator());
+        // Connect and immediate send to targets concurrently, most recent first, data is set
+        // on each target just before its delivery
+        // => taskImmediateSend(device, deadline)
+        return immediateSendAllTask.send(targets, dataToSend, System.currentTimeMillis() + timeout.millis());
+    }
+
+    /// Connect and immediate send to device, returns outcome for immediateSendAll.
+    private BLEImmediateSendResult.Outcome taskImmediateSend(final BLEDevice device, final long deadlineMillis) {
+        final long timeStart = System.currentTimeMillis();
+        BLEImmediateSendResult.Outcome outcome;
+        if (device.signalCharacteristic() == null) {
+            outcome = BLEImmediateSendResult.Outcome.noSignalCharacteristic;
+        } else {
+            final boolean success = taskConnectDevice(device, deadlineMillis);
+            final Date lastImmediateSendAt = device.lastImmediateSendAt();
+            final Date lastConnectedAt = device.lastConnectedAt();
+            if (lastImmediateSendAt != null && lastImmediateSendAt.getTime() >= timeStart) {
+                outcome = BLEImmediateSendResult.Outcome.delivered;
+            } else if (device.signalCharacteristic() == null) {
+                // Signal characteristic not found on service discovery
+                outcome = BLEImmediateSendResult.Outcome.noSignalCharacteristic;
+            } else if (lastConnectedAt == null || lastConnectedAt.getTime() < timeStart) {
+                // Connect timeout leaves device in connecting state
+                outcome = (device.state() == BLEDeviceState.connecting ? BLEImmediateSendResult.Outcome.timeout : BLEImmediateSendResult.Outcome.failed);
+            } else {
+                outcome = (!success || System.currentTimeMillis() >= deadlineMillis ? BLEImmediateSendResult.Outcome.timeout : BLEImmediateSendResult.Outcome.failed);
             }
         }
-        // Send messages
-        // Connect and immediate send to each
-        // NOTE: This separate loop doesn't order interactions yet. Once working, refactor so this has an effect.
-        for (BLEDevice target : targets) {
-            target.immediateSendData(dataToSend);
-        }
-        // Now force an out of sequence connection (and thus immediate send as the next action)
-        for (BLEDevice target : targets) {
-            taskConnectDevice(target);
+        if (outcome != BLEImmediateSendResult.Outcome.delivered) {
+            // No retry for immediate send
+            device.immediateSendData(null);
         }
-        return true; // fire and forget
+        logger.debug("taskImmediateSend (device={},outcome={},elapsed={}ms)", device, outcome, System.currentTimeMillis() - timeStart);
+        return outcome;
     }
 
     // MARK:- Scan loop for startScan-wait-stopScan-processScanResults-wait-repeat
@@ -211,14 +361,34 @@ public class ConcreteBLEReceiver extends BluetoothGattCallback implements BLERec
     }
 
     private class ScanLoopTask implements BLETimerDelegate {
+        private final BLETimer timer;
         private ScanLoopState scanLoopState = ScanLoopState.processed;
         private long lastStateChangeAt = System.currentTimeMillis();
+        private long lastStateChangeTraceAt = trace.now();
+
+        private ScanLoopTask(final BLETimer timer) {
+            this.timer = timer;
+        }
 
         private void state(final long now, ScanLoopState state) {
             final long elapsed = now - lastStateChangeAt;
             logger.debug("scanLoopTask, state change (from={},to={},elapsed={}ms)", scanLoopState, state, elapsed);
+            trace.span(BLETrace.scanLane, "scan", scanLoopState.name(), lastStateChangeTraceAt);
             this.scanLoopState = state;
             lastStateChangeAt = now;
+            lastStateChangeTraceAt = trace.now();
+            // Wake when the next state change is due, rather than on the next tick after it
+            switch (state) {
+                case scanStarted:
+                    timer.schedule(this, now + scanDutyCycle.scanOnMillis);
+                    break;
+                case scanStopped:
+                    timer.schedule(this, now + scanDutyCycle.scanRestMillis);
+                    break;
+                case processed:
+                    timer.schedule(this, now + scanDutyCycle.scanOffMillis);
+                    break;
+            }
         }
 
         private long timeSincelastStateChange(final long now) {
@@ -245,7 +415,7 @@ public class ConcreteBLEReceiver extends BluetoothGattCallback implements BLERec
                 case processed: {
                     if (bluetoothStateManager.state() == BluetoothState.poweredOn) {
                         final long period = timeSincelastStateChange(now);
-                        if (period >= scanOffDurationMillis) {
+                        if (period >= scanDutyCycle.scanOffMillis) {
                             logger.debug("scanLoopTask, start scan (process={}ms)", period);
                             final BluetoothLeScanner bluetoothLeScanner = bluetoothLeScanner();
                             if (bluetoothLeScanner == null) {
@@ -256,6 +426,8 @@ public class ConcreteBLEReceiver extends BluetoothGattCallback implements BLERec
                             startScan(bluetoothLeScanner, new Callback<Boolean>() {
                                 @Override
                                 public void accept(Boolean value) {
+                                    scanStartedAt = now;
+                                    scanStoppedAt = now;
                                     state(now, value ? ScanLoopState.scanStarted : ScanLoopState.scanStopped);
                                 }
                             });
@@ -265,13 +437,14 @@ public class ConcreteBLEReceiver extends BluetoothGattCallback implements BLERec
                 }
                 case scanStarted: {
                     final long period = timeSincelastStateChange(now);
-                    if (period >= scanOnDurationMillis) {
+                    if (period >= scanDutyCycle.scanOnMillis) {
                         logger.debug("scanLoopTask, stop scan (scan={}ms)", period);
                         final BluetoothLeScanner bluetoothLeScanner = bluetoothLeScanner();
                         if (bluetoothLeScanner == null) {
                             logger.fault("scanLoopTask, stop scan denied, Bluetooth LE scanner unavailable");
                             return;
                         }
+                        scanStoppedAt = now;
                         state(now, ScanLoopState.scanStopping);
                         stopScan(bluetoothLeScanner, new Callback<Boolean>() {
                             @Override
@@ -285,7 +458,7 @@ public class ConcreteBLEReceiver extends BluetoothGattCallback implements BLERec
                 case scanStopped: {
                     if (bluetoothStateManager.state() == BluetoothState.poweredOn) {
                         final long period = timeSincelastStateChange(now);
-                        if (period >= scanRestDurationMillis) {
+                        if (period >= scanDutyCycle.scanRestMillis) {
                             logger.debug("scanLoopTask, start processing (stop={}ms)", period);
                             state(now, ScanLoopState.processing);
                             processScanResults(new Callback<Boolean>() {
@@ -341,9 +514,13 @@ public class ConcreteBLEReceiver extends BluetoothGattCallback implements BLERec
                 new ParcelUuid(BLESensorConfiguration.serviceUUID),
                 new ParcelUuid(new UUID(0xFFFFFFFFFFFFFFFFL, 0)))
                 .build());
+        // Batch results in the controller if enabled and supported by chipset
+        final BluetoothAdapter bluetoothAdapter = BluetoothAdapter.getDefaultAdapter();
+        final BLEScanDelivery.Mode mode = scanDelivery.start(bluetoothAdapter != null && bluetoothAdapter.isOffloadedScanBatchingSupported());
+        logger.debug("scanForPeripherals (delivery={},reportDelay={}ms)", mode, scanDelivery.reportDelayMillis());
         final ScanSettings settings = new ScanSettings.Builder()
                 .setScanMode(ScanSettings.SCAN_MODE_LOW_LATENCY)
-                .setReportDelay(0)
+                .setReportDelay(scanDelivery.reportDelayMillis())
                 .build();
         bluetoothLeScanner.startScan(filter, settings, scanCallback);
     }
@@ -372,6 +549,15 @@ public class ConcreteBLEReceiver extends BluetoothGattCallback implements BLERec
         operationQueue.execute(new Runnable() {
             @Override
             public void run() {
+                // Deliver results batched since last report before stopping scan
+                if (scanDelivery.mode() == BLEScanDelivery.Mode.batched) {
+                    try {
+                        bluetoothLeScanner.flushPendingScanResults(scanCallback);
+                        logger.debug("stopScan, flushed pending scan results");
+                    } catch (Throwable e) {
+                        logger.fault("stopScan warning, bluetoothLeScanner.flushPendingScanResults error", e);
+                    }
+                }
                 try {
                     bluetoothLeScanner.stopScan(scanCallback);
                     logger.debug("stopScan, stopped scanner");
@@ -398,14 +584,85 @@ public class ConcreteBLEReceiver extends BluetoothGattCallback implements BLERec
     /// Process scan results.
     private void processScanResults() {
         final long t0 = System.currentTimeMillis();
-        logger.debug("processScanResults (results={})", scanResults.size());
+        final long traceAt = trace.now();
+        logger.debug("processScanResults (devices={})", scanResults.size());
         // Identify devices discovered in last scan
         final List<BLEDevice> didDiscover = didDiscover();
+        trace.span(BLETrace.scanLane, "process", "didDiscover", traceAt);
+        final long traceHousekeepingAt = trace.now();
         taskRemoveExpiredDevices();
         taskCorrectConnectionStatus();
+        taskExpirePooledConnections();
+        trace.span(BLETrace.scanLane, "process", "housekeeping", traceHousekeepingAt);
+        final long traceConnectAt = trace.now();
         taskConnect(didDiscover);
+        trace.span(BLETrace.scanLane, "process", "taskConnect", traceConnectAt);
         final long t1 = System.currentTimeMillis();
-        logger.debug("processScanResults (results={},devices={},elapsed={}ms)", scanResults.size(), didDiscover.size(), (t1 - t0));
+        logger.debug("processScanResults (devices={},elapsed={}ms,raw={},coalesced={},dropped={})", didDiscover.size(), (t1 - t0), scanResults.raw(), scanResults.coalesced(), scanResults.dropped());
+        taskUpdateScanDutyCycle(didDiscover, t1 - t0);
+    }
+
+    // MARK:- Scan duty cycle
+
+    /// Update scan duty cycle for next scan according to policy.
+    private void taskUpdateScanDutyCycle(final List<BLEDevice> didDiscover, final long processMillis) {
+        int newDevices = 0;
+        for (final BLEDevice device : didDiscover) {
+            if (device.createdAt.getTime() >= scanStartedAt) {
+                newDevices++;
+            }
+        }
+        double batteryLevel = BLEScanCycleStatistics.batteryLevelUnknown;
+        boolean charging = false;
+        try {
+            final Intent batteryStatus = context.registerReceiver(null, new IntentFilter(Intent.ACTION_BATTERY_CHANGED));
+            if (batteryStatus != null) {
+                final int status = batteryStatus.getIntExtra(BatteryManager.EXTRA_STATUS, -1);
+                charging = (status == BatteryManager.BATTERY_STATUS_CHARGING || status == BatteryManager.BATTERY_STATUS_FULL);
+                final int level = batteryStatus.getIntExtra(BatteryManager.EXTRA_LEVEL, -1);
+                final int scale = batteryStatus.getIntExtra(BatteryManager.EXTRA_SCALE, -1);
+                if (level >= 0 && scale > 0) {
+                    batteryLevel = level * 100d / scale;
+                }
+            }
+        } catch (Throwable e) {
+            logger.fault("taskUpdateScanDutyCycle, battery status unavailable", e);
+        }
+        final BLEScanCycleStatistics cycle = new BLEScanCycleStatistics(scanStartedAt, Math.max(0, scanStoppedAt - scanStartedAt), didDiscover.size(), newDevices, processMillis, batteryLevel, charging);
+        final BLEScanDutyCycleDecision decision = scanDutyCyclePolicy.next(scanDutyCycle, cycle);
+        scanDutyCycle = scanDutyCycleRecorder.record(decision);
+        logger.debug("taskUpdateScanDutyCycle (decision={},summary={})", decision, scanDutyCycleRecorder);
+    }
+
+    /// Scan duty cycle decisions, for comparing detection continuity against radio on time.
+    public BLEScanDutyCycleRecorder scanDutyCycleRecorder() {
+        return scanDutyCycleRecorder;
+    }
+
+    /// Trace of scan loop and connection phases, for export in Chrome trace event format.
+    public BLETrace trace() {
+        return trace;
+    }
+
+    /// Pooled connections, and connections saved by reusing pooled connections.
+    public BLEConnectionPool<BluetoothGatt> connectionPool() {
+        return connectionPool;
+    }
+
+    /// Scan result delivery mode, with wake-up and detection latency statistics per mode.
+    public BLEScanDelivery scanDelivery() {
+        return scanDelivery;
+    }
+
+    /// Connection statistics by device and device class, for connect timeouts and skip decisions.
+    public BLEConnectionStatistics connectionStatistics() {
+        return connectionStatistics;
+    }
+
+    /// Time to complete signal characteristic write by data type, from first write request to
+    /// write response for the last fragment.
+    public Sample timeToWriteSignalCharacteristic(final SignalCharacteristicDataType type) {
+        return timeToWriteSignalCharacteristic.get(type);
     }
 
     // MARK:- didDiscover
@@ -417,38 +674,33 @@ public class ConcreteBLEReceiver extends BluetoothGattCallback implements BLERec
      * 3. Identify operating system where possible
      */
     private List<BLEDevice> didDiscover() {
-        // Take current copy of concurrently modifiable scan results
-        final List<ScanResult> scanResultList = new ArrayList<>(scanResults.size());
-        while (scanResults.size() > 0) {
-            scanResultList.add(scanResults.poll());
-        }
+        // Take scan results for last scan window, coalesced by device address
+        final List<BLEScanResultCoalescer.Entry<ScanResult>> entries = scanResults.drain();
 
-        // Process scan results and return devices created/updated in scan results
-        logger.debug("didDiscover (scanResults={})", scanResultList.size());
+        // Process latest scan result per address and return devices created/updated in scan results
+        logger.debug("didDiscover (addresses={})", entries.size());
         final Set<BLEDevice> deviceSet = new HashSet<>();
         final List<BLEDevice> devices = new ArrayList<>();
-        for (ScanResult scanResult : scanResultList) {
+        for (BLEScanResultCoalescer.Entry<ScanResult> entry : entries) {
+            final ScanResult scanResult = entry.latest();
             final BLEDevice device = database.device(scanResult);
             if (deviceSet.add(device)) {
-                logger.debug("didDiscover (device={})", device);
+                logger.debug("didDiscover (device={},results={},maxRssi={},meanRssi={})", device, entry.count(), entry.maxRssi(), entry.meanRssi());
                 devices.add(device);
             }
-            // Set scan record
-            device.scanRecord(scanResult.getScanRecord());
+            // Advert is parsed once by database on device lookup
+            final BLEAdvert advert = device.advert();
             // Set TX power level
-            if (device.scanRecord() != null) {
-                int txPowerLevel = device.scanRecord().getTxPowerLevel();
-                if (txPowerLevel != Integer.MIN_VALUE) {
-                    device.txPower(new BLE_TxPower(txPowerLevel));
-                }
+            if (advert != null && advert.txPower != BLEAdvert.txPowerUnknown) {
+                device.txPower(new BLE_TxPower(advert.txPower));
             }
             // Identify operating system from scan record where possible
             // - Sensor service found + Manufacturer is Apple -> iOS (Foreground)
             // - Sensor service found + Manufacturer not Apple -> Android
             // - Sensor service not found + Manufacturer is Apple -> iOS (Background) or Apple device not advertising sensor service, to be resolved later
             // - Sensor service not found + Manufacturer not Apple -> Ignore (shouldn't be possible as we are scanning for Apple or with service)
-            final boolean hasSensorService = hasSensorService(scanResult);
-            final boolean isAppleDevice = isAppleDevice(scanResult);
+            final boolean hasSensorService = (advert != null && advert.hasSensorService);
+            final boolean isAppleDevice = (advert != null && advert.isAppleDevice);
             if (hasSensorService && isAppleDevice) {
                 // Definitely iOS device offering sensor service in foreground mode
                 device.operatingSystem(BLEDeviceOperatingSystem.ios);
@@ -482,197 +734,78 @@ public class ConcreteBLEReceiver extends BluetoothGattCallback implements BLERec
         return devices;
     }
 
-    /// Does scan result include advert for sensor service?
-    private static boolean hasSensorService(final ScanResult scanResult) {
-        final ScanRecord scanRecord = scanResult.getScanRecord();
-        if (scanRecord == null) {
-            return false;
-        }
-        final List<ParcelUuid> serviceUuids = scanRecord.getServiceUuids();
-        if (serviceUuids == null || serviceUuids.size() == 0) {
-            return false;
-        }
-        for (ParcelUuid serviceUuid : serviceUuids) {
-            if (serviceUuid.getUuid().equals(BLESensorConfiguration.serviceUUID)) {
-                return true;
-            }
-        }
-        return false;
-    }
-
-    /// Does scan result indicate device was manufactured by Apple?
-    private static boolean isAppleDevice(final ScanResult scanResult) {
-        final ScanRecord scanRecord = scanResult.getScanRecord();
-        if (scanRecord == null) {
-            return false;
-        }
-        final byte[] data = scanRecord.getManufacturerSpecificData(BLESensorConfiguration.manufacturerIdForApple);
-        return data != null;
-    }
-
     // MARK:- House keeping tasks
 
     /// Remove devices that have not been updated for over 15 minutes, as the UUID
     // is likely to have changed after being out of range for over 20 minutes,
     // so it will require discovery. Discovery is fast and cheap on Android.
     private void taskRemoveExpiredDevices() {
-        final List<BLEDevice> devicesToRemove = new ArrayList<>();
-        for (BLEDevice device : database.devices()) {
-            if (device.timeIntervalSinceLastUpdate().value > TimeInterval.minutes(15).value) {
-                devicesToRemove.add(device);
+        for (BLEDevice device : deviceExpiry.expired(System.currentTimeMillis())) {
+            // Ignore devices that have already been deleted or replaced
+            if (database.device(device.identifier) != device) {
+                continue;
             }
-        }
-        for (BLEDevice device : devicesToRemove) {
             logger.debug("taskRemoveExpiredDevices (remove={})", device);
             database.delete(device.identifier);
+            connectionStatistics.remove(device);
         }
     }
 
     /// Connections should not be held for more than 1 minute, likely to have not received onConnectionStateChange callback.
     private void taskCorrectConnectionStatus() {
-        for (BLEDevice device : database.devices()) {
-            if (device.state() == BLEDeviceState.connected && device.timeIntervalSinceConnected().value > TimeInterval.minute.value) {
-                logger.debug("taskCorrectConnectionStatus (device={})", device);
-                device.state(BLEDeviceState.disconnected);
-            }
+        for (BLEDevice device : deviceExpiry.connectionExpired(System.currentTimeMillis())) {
+            logger.debug("taskCorrectConnectionStatus (device={})", device);
+            device.state(BLEDeviceState.disconnected);
+        }
+    }
+
+    /// Close pooled connections that have been idle or held for too long.
+    private void taskExpirePooledConnections() {
+        if (!connectionPool.isEnabled()) {
+            return;
         }
+        final int closed = connectionPool.expire(System.currentTimeMillis());
+        logger.debug("taskExpirePooledConnections (closed={},pool={})", closed, connectionPool);
     }
 
 
     // MARK:- Connect task
 
     private void taskConnect(final List<BLEDevice> discovered) {
-        // Clever connection prioritisation is pointless here as devices
-        // like the Samsung A10 and A20 changes mac address on every scan
-        // call, so optimising new device handling is more effective.
+        // Devices like the Samsung A10 and A20 changes mac address on every
+        // scan call, so devices are ordered by value rather than identity,
+        // to read new payloads first, and favour devices with strong signal
+        // and reliable connections. Devices are processed concurrently, all
+        // connections share the time limit for the scan cycle.
         final long timeStart = System.currentTimeMillis();
-        int devicesProcessed = 0;
-        for (BLEDevice device : discovered) {
-            // Stop process if exceeded time limit
-            final long elapsedTime = System.currentTimeMillis() - timeStart;
-            if (elapsedTime >= scanProcessDurationMillis) {
-                logger.debug("taskConnect, reached time limit (elapsed={}ms,limit={}ms)", elapsedTime, scanProcessDurationMillis);
-                break;
-            }
-            if (devicesProcessed > 0) {
-                final long predictedElapsedTime = Math.round((elapsedTime / (double) devicesProcessed) * (devicesProcessed + 1));
-                if (predictedElapsedTime > scanProcessDurationMillis) {
-                    logger.debug("taskConnect, likely to exceed time limit soon (elapsed={}ms,devicesProcessed={},predicted={}ms,limit={}ms)", elapsedTime, devicesProcessed, predictedElapsedTime, scanProcessDurationMillis);
-                    break;
+        final List<BLEDevice> scheduled = connectionScheduler.schedule(discovered, timeStart);
+        final int devicesProcessed = connectionPipeline.process(scheduled, new BLEDevicePredicate() {
+            @Override
+            public boolean test(BLEDevice device) {
+                if (nextTaskForDevice(device) == NextTask.nothing) {
+                    logger.debug("taskConnect, no pending action (device={})", device);
+                    return false;
                 }
+                if (connectionStatistics.skip(device, System.currentTimeMillis())) {
+                    logger.debug("taskConnect, skipping device after repeated connect failures (device={},statistics={})", device, connectionStatistics.device(device));
+                    return false;
+                }
+                return true;
             }
-            if (nextTaskForDevice(device) == NextTask.nothing) {
-                logger.debug("taskConnect, no pending action (device={})", device);
-                continue;
-            }
-            taskConnectDevice(device);
-            devicesProcessed++;
-        }
+        }, timeStart + scanDutyCycle.scanProcessMillis);
+        logger.debug("taskConnect (devices={},scheduled={},devicesProcessed={},elapsed={}ms,limit={}ms,pool={})", discovered.size(), scheduled.size(), devicesProcessed, System.currentTimeMillis() - timeStart, scanDutyCycle.scanProcessMillis, connectionPool);
     }
 
     private boolean taskConnectDevice(final BLEDevice device) {
-        if (device.state() == BLEDeviceState.connected) {
-            logger.debug("taskConnectDevice, already connected to transmitter (device={})", device);
-            return true;
-        }
-        // Connect (timeout at 95% = 2 SD)
-        final long timeConnect = System.currentTimeMillis();
-        logger.debug("taskConnectDevice, connect (device={})", device);
-        device.state(BLEDeviceState.connecting);
-        BluetoothGatt gatt = null;
-        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
-            // API 23 and above - force Low Energy only
-            gatt = device.peripheral().connectGatt(context, false, this, BluetoothDevice.TRANSPORT_LE);
-        } else {
-            // support back to API 21
-            gatt = device.peripheral().connectGatt(context, false, this);
-        }
-        if (gatt == null) {
-            logger.fault("taskConnectDevice, connect failed (device={})", device);
-            device.state(BLEDeviceState.disconnected);
-            return false;
-        }
-        // Wait for connection
-        // A connect request should normally result in .connected or .disconnected state which is
-        // set asynchronously by the callback function onConnectionStateChange(). However, some
-        // connections may get stuck in a .connecting state indefinitely due to BLE issues, and
-        // therefore the callback function is never called, leaving the device in a limbo state.
-        // As such, the follow loop runs for a fixed duration (established through experimentation)
-        // to check if connection was successful, else abort the connection to put the device in
-        // a consistent default .disconnected state.
-        while (device.state() != BLEDeviceState.connected && device.state() != BLEDeviceState.disconnected && (System.currentTimeMillis() - timeConnect) < timeToConnectDeviceLimitMillis) {
-            try {
-                Thread.sleep(200);
-            } catch (Throwable e) {
-                logger.fault("Timer interrupted", e);
-            }
-        }
-        if (device.state() != BLEDeviceState.connected) {
-            // Failed to establish connection within time limit, assume connection failure
-            // and disconnect device to put it in a consistent default .disconnected state
-            logger.fault("taskConnectDevice, connect timeout (device={})", device);
-            try {
-                gatt.close();
-            } catch (Throwable e) {
-                logger.fault("taskConnectDevice, close failed (device={})", device, e);
-            }
-            return false;
-        } else {
-            // Connection was successful, make note of time to establish connection to
-            // inform setting of timeToConnectDeviceLimitMillis. A previous implementation
-            // used an adaptive algorithm to adjust this parameter according to device
-            // capability, but that was deemed too unreliable for minimal gain in
-            // performance, as the target device plays a big part in determining the
-            // connection time, and that can be unpredictable due to environment factors.
-            final long connectElapsed = System.currentTimeMillis() - timeConnect;
-            // Add sample to adaptive connection timeout
-            timeToConnectDevice.add(connectElapsed);
-            logger.debug("taskConnectDevice, connected (device={},elapsed={}ms,statistics={})", device, connectElapsed, timeToConnectDevice);
-        }
-        // Wait for disconnection
-        // Device is connected at this point, and all the actual work is being
-        // performed asynchronously by callback methods outside of this function.
-        // As such, the only work required here at this point is to keep track
-        // of connection time, to ensure a connection is not held for too long
-        // e.g. due to BLE issues. The following code waits for device state change
-        // from .connected to .disconnected, which is normally set asynchronously
-        // by the callback function onConnectionStateChange(), once all the tasks
-        // for the device have been completed. If the connection has been held
-        // too long, then this function will force a disconnection by calling
-        // gatt.close() to disconnect device to put it in a consistent default
-        // .disconnected state.
-        while (device.state() != BLEDeviceState.disconnected && (System.currentTimeMillis() - timeConnect) < scanProcessDurationMillis) {
-            try {
-                Thread.sleep(500);
-            } catch (Throwable e) {
-                logger.fault("Timer interrupted", e);
-            }
-        }
-        boolean success = true;
-        // Timeout connection if required, and always set state to disconnected
-        if (device.state() != BLEDeviceState.disconnected) {
-            // Failed to complete tasks and disconnect within time limit, assume failure
-            // and disconnect device to put it in a consistent default .disconnected state
-            logger.fault("taskConnectDevice, disconnect timeout (device={})", device);
-            try {
-                gatt.close();
-            } catch (Throwable e) {
-                logger.fault("taskConnectDevice, close failed (device={})", device, e);
-            }
-            success = false;
-        }
-        // Always set state to .disconnected at the end
-        device.state(BLEDeviceState.disconnected);
-        final long timeDisconnect = System.currentTimeMillis();
-        final long timeElapsed = (timeDisconnect - timeConnect);
-        if (success) {
-            timeToProcessDevice.add(timeElapsed);
-            logger.debug("taskConnectDevice, complete (success=true,device={},elapsed={}ms,statistics={})", device, timeElapsed, timeToProcessDevice);
-        } else {
-            logger.fault("taskConnectDevice, complete (success=false,device={},elapsed={}ms)", device, timeElapsed);
-        }
-        // Train device filter
-        if (BLESensorConfiguration.deviceFilterTrainingEnabled) {
+        return taskConnectDevice(device, Long.MAX_VALUE);
+    }
+
+    private boolean taskConnectDevice(final BLEDevice device, final long deadlineMillis) {
+        final long timeStart = System.currentTimeMillis();
+        final boolean success = connectionLifecycle.process(device, deadlineMillis);
+        // Train device filter if connection was established
+        final Date lastConnectedAt = device.lastConnectedAt();
+        if (BLESensorConfiguration.deviceFilterTrainingEnabled && lastConnectedAt != null && lastConnectedAt.getTime() >= timeStart) {
             deviceFilter.train(device, device.payloadCharacteristic() == null);
         }
         return success;
@@ -685,10 +818,22 @@ public class ConcreteBLEReceiver extends BluetoothGattCallback implements BLERec
         final BLEDevice device = database.device(gatt.getDevice());
         logger.debug("onConnectionStateChange (device={},status={},state={})", device, bleStatus(status), bleState(newState));
         if (newState == BluetoothProfile.STATE_CONNECTED) {
+            // MTU is negotiated per connection
+            device.mtu = BLEMtuCache.defaultMtu;
+            device.mtuRequestPending = false;
             device.state(BLEDeviceState.connected);
+            trace.phase(device, "discoverServices");
             gatt.discoverServices();
         } else if (newState == BluetoothProfile.STATE_DISCONNECTED) {
+            if (device.mtuRequestPending) {
+                // Disconnected or timed out while waiting for onMtuChanged, use default MTU next time
+                logger.fault("onConnectionStateChange, MTU request incomplete (device={})", device);
+                device.mtuRequestPending = false;
+                mtuCache.rejected(device);
+            }
+            connectionPool.remove(device, gatt);
             gatt.close();
+            trace.endPhase(device);
             device.state(BLEDeviceState.disconnected);
             if (status != 0) {
                 logger.fault("onConnectionStateChange (device={},status={},state={})", device, bleStatus(status), bleState(newState));
@@ -771,6 +916,62 @@ public class ConcreteBLEReceiver extends BluetoothGattCallback implements BLERec
             }
         }
 
+        // Request larger MTU before fragmented writes, tasks resume on onMtuChanged
+        if (requestMtu(gatt, device)) {
+            trace.phase(device, "requestMtu");
+            return;
+        }
+        nextTask(gatt);
+    }
+
+    /// Request larger MTU from Android device if the next task writes data that may need to be
+    /// fragmented, returns true if the request has been made, and onMtuChanged will follow.
+    private boolean requestMtu(final BluetoothGatt gatt, final BLEDevice device) {
+        final BluetoothGattCharacteristic signalCharacteristic = device.signalCharacteristic();
+        if (signalCharacteristic == null || !signalCharacteristic.getUuid().equals(BLESensorConfiguration.androidSignalCharacteristicUUID)) {
+            return false;
+        }
+        final NextTask nextTask = nextTaskForDevice(device);
+        if (!(nextTask == NextTask.writePayload || nextTask == NextTask.writePayloadSharing || nextTask == NextTask.writeBundle || nextTask == NextTask.immediateSend)) {
+            return false;
+        }
+        final int mtu = mtuCache.requestMtu(device);
+        if (mtu == 0) {
+            return false;
+        }
+        device.mtuRequestPending = true;
+        if (!gatt.requestMtu(mtu)) {
+            logger.fault("requestMtu failed (device={},mtu={})", device, mtu);
+            device.mtuRequestPending = false;
+            mtuCache.rejected(device);
+            return false;
+        }
+        logger.debug("requestMtu (device={},mtu={})", device, mtu);
+        // => onMtuChanged
+        return true;
+    }
+
+    @Override
+    public void onMtuChanged(BluetoothGatt gatt, int mtu, int status) {
+        final BLEDevice device = database.device(gatt.getDevice());
+        logger.debug("onMtuChanged (device={},mtu={},status={})", device, mtu, bleStatus(status));
+        final boolean success = (status == BluetoothGatt.GATT_SUCCESS);
+        if (!device.mtuRequestPending) {
+            // MTU change requested by remote device
+            if (success) {
+                device.mtu = mtu;
+            }
+            return;
+        }
+        device.mtuRequestPending = false;
+        if (success) {
+            device.mtu = mtu;
+            mtuCache.negotiated(device, mtu);
+        } else {
+            // Fallback to default MTU, and do not ask device again
+            device.mtu = BLEMtuCache.defaultMtu;
+            mtuCache.rejected(device);
+        }
         nextTask(gatt);
     }
 
@@ -848,6 +1049,12 @@ public class ConcreteBLEReceiver extends BluetoothGattCallback implements BLERec
         }
         // Write payload, rssi and payload sharing data if this device cannot transmit
         if (!transmitter.isSupported()) {
+            // Write all data that is due in one bundle if possible
+            final List<Data> writeBundle = writeBundleForDevice(device);
+            if (writeBundle != null) {
+                logger.debug("nextTaskForDevice (device={},task=writeBundle,bundles={})", device, writeBundle.size());
+                return NextTask.writeBundle;
+            }
             // Write payload data as top priority
             if (device.timeIntervalSinceLastWritePayload().value > TimeInterval.minutes(5).value) {
                 logger.debug("nextTaskForDevice (device={},task=writePayload,elapsed={})", device, device.timeIntervalSinceLastWritePayload());
@@ -890,6 +1097,29 @@ public class ConcreteBLEReceiver extends BluetoothGattCallback implements BLERec
         return NextTask.nothing;
     }
 
+    /// Payload, RSSI and payload sharing data bundles that are due for writing to device, for
+    /// combining into a single write bundle. Returns null if write bundle is disabled or not
+    /// supported by device, or fewer than two writes are due, where the individual write task
+    /// applies. Writes are due under the same conditions as the individual write tasks.
+    private List<Data> writeBundleForDevice(final BLEDevice device) {
+        if (!BLESensorConfiguration.signalCharacteristicWriteBundleEnabled || device.operatingSystem() != BLEDeviceOperatingSystem.android) {
+            return null;
+        }
+        final List<Data> bundles = new ArrayList<>(3);
+        final PayloadData payloadData = transmitter.payloadData();
+        if (payloadData != null && payloadData.value != null && payloadData.value.length > 0
+                && (device.timeIntervalSinceLastWritePayload().value > TimeInterval.minutes(5).value
+                    || device.timeIntervalSinceLastWritePayload().value > BLESensorConfiguration.payloadDataUpdateTimeInterval.value)) {
+            bundles.add(transmitter.signalCharacteristicWritePayload());
+        }
+        final RSSI rssi = device.rssi();
+        if (rssi != null && device.timeIntervalSinceLastWriteRssi().value >= TimeInterval.seconds(15).value) {
+            bundles.add(SignalCharacteristicData.encodeWriteRssi(rssi));
+        }
+        // Payload sharing data is only written to iOS devices
+        return (bundles.size() >= 2 ? bundles : null);
+    }
+
     /// Given an open connection, perform the next task for the device.
     /// Use this function to define the actual code for implementing
     /// a task on the device (e.g. readPayload). The actual priority
@@ -898,6 +1128,9 @@ public class ConcreteBLEReceiver extends BluetoothGattCallback implements BLERec
     private void nextTask(BluetoothGatt gatt) {
         final BLEDevice device = database.device(gatt.getDevice());
         final NextTask nextTask = nextTaskForDevice(device);
+        if (nextTask != NextTask.nothing) {
+            trace.phase(device, nextTask.name());
+        }
         switch (nextTask) {
             case readModel: {
                 final BluetoothGattCharacteristic modelCharacteristic = device.modelCharacteristic();
@@ -952,7 +1185,7 @@ public class ConcreteBLEReceiver extends BluetoothGattCallback implements BLERec
                     gatt.disconnect();
                     return; // => onConnectionStateChange
                 }
-                final Data data = SignalCharacteristicData.encodeWritePayload(transmitter.payloadData());
+                final Data data = transmitter.signalCharacteristicWritePayload();
                 logger.debug("nextTask (task=writePayload,device={},dataLength={})", device, data.value.length);
                 writeSignalCharacteristic(gatt, NextTask.writePayload, data.value);
                 return;
@@ -969,6 +1202,23 @@ public class ConcreteBLEReceiver extends BluetoothGattCallback implements BLERec
                 writeSignalCharacteristic(gatt, NextTask.writePayloadSharing, data.value);
                 return;
             }
+            case writeBundle: {
+                final List<Data> bundles = writeBundleForDevice(device);
+                if (bundles == null) {
+                    logger.fault("nextTask failed (task=writeBundle,device={},reason=missingBundleData)", device);
+                    gatt.disconnect();
+                    return;
+                }
+                final Data data = SignalCharacteristicData.encodeWriteBundle(bundles);
+                if (data == null) {
+                    logger.fault("nextTask failed (task=writeBundle,device={},reason=oversizedBundleData)", device);
+                    gatt.disconnect();
+                    return;
+                }
+                logger.debug("nextTask (task=writeBundle,device={},bundles={},dataLength={})", device, bundles.size(), data.value.length);
+                writeSignalCharacteristic(gatt, NextTask.writeBundle, data.value);
+                return;
+            }
             case writeRSSI: {
                 final BluetoothGattCharacteristic signalCharacteristic = device.signalCharacteristic();
                 if (signalCharacteristic == null) {
@@ -1006,10 +1256,40 @@ public class ConcreteBLEReceiver extends BluetoothGattCallback implements BLERec
                 return;
             }
         }
+        // Keep connection open for frequent follow-up operations
+        if (retainConnection(gatt, device)) {
+            logger.debug("nextTask (task=nothing,device={},pooled=true)", device);
+            trace.phase(device, "idle");
+            return; // => BLEConnectionPool
+        }
         logger.debug("nextTask (task=nothing,device={})", device);
+        trace.phase(device, "disconnect");
         gatt.disconnect();
     }
 
+    /// Retain connection in connection pool after all tasks have been completed, for devices
+    /// with frequent follow-up operations. Returns true if the connection has been retained,
+    /// and device is now .idle, otherwise the connection should be closed.
+    private boolean retainConnection(final BluetoothGatt gatt, final BLEDevice device) {
+        if (!connectionPool.isEnabled() || !frequentOperations(device)) {
+            return false;
+        }
+        if (!connectionPool.retain(device, gatt, System.currentTimeMillis())) {
+            return false;
+        }
+        device.state(BLEDeviceState.idle);
+        return true;
+    }
+
+    /// Does device require frequent follow-up operations? This applies to iOS devices where payload
+    /// sharing data and/or RSSI is written every 15 seconds.
+    private boolean frequentOperations(final BLEDevice device) {
+        if (device.operatingSystem() != BLEDeviceOperatingSystem.ios || device.signalCharacteristic() == null) {
+            return false;
+        }
+        return !transmitter.isSupported() || database.hasPayloadSharingData(device);
+    }
+
     private void writeSignalCharacteristic(BluetoothGatt gatt, NextTask task, byte[] data) {
         final BLEDevice device = database.device(gatt.getDevice());
         final BluetoothGattCharacteristic signalCharacteristic = device.signalCharacteristic();
@@ -1026,6 +1306,7 @@ public class ConcreteBLEReceiver extends BluetoothGattCallback implements BLERec
         if (signalCharacteristic.getUuid().equals(BLESensorConfiguration.iosSignalCharacteristicUUID)) {
             device.signalCharacteristicWriteValue = data;
             device.signalCharacteristicWriteQueue = null;
+            device.signalCharacteristicWriteStartedAt = System.currentTimeMillis();
             signalCharacteristic.setValue(data);
             signalCharacteristic.setWriteType(BluetoothGattCharacteristic.WRITE_TYPE_DEFAULT);
             if (!gatt.writeCharacteristic(signalCharacteristic)) {
@@ -1039,12 +1320,13 @@ public class ConcreteBLEReceiver extends BluetoothGattCallback implements BLERec
         }
         if (signalCharacteristic.getUuid().equals(BLESensorConfiguration.androidSignalCharacteristicUUID)) {
             device.signalCharacteristicWriteValue = data;
-            device.signalCharacteristicWriteQueue = fragmentDataByMtu(data);
+            device.signalCharacteristicWriteQueue = fragmentDataByMtu(device, data);
+            device.signalCharacteristicWriteStartedAt = System.currentTimeMillis();
             if (writeAndroidSignalCharacteristic(gatt) == WriteAndroidSignalCharacteristicResult.failed) {
                 logger.fault("writeSignalCharacteristic to Android failed (task={},device={},reason=writeCharacteristicFailed)", task, device);
                 gatt.disconnect();
             } else {
-                logger.debug("writeSignalCharacteristic to Android (task={},dataLength={},device={})", task, data.length, device);
+                logger.debug("writeSignalCharacteristic to Android (task={},dataLength={},mtu={},device={})", task, data.length, device.mtu, device);
                 // => onCharacteristicWrite
             }
         }
@@ -1078,15 +1360,9 @@ public class ConcreteBLEReceiver extends BluetoothGattCallback implements BLERec
         }
     }
 
-    /// Split data into fragments, where each fragment has length <= mtu
-    private Queue<byte[]> fragmentDataByMtu(byte[] data) {
-        final Queue<byte[]> fragments = new ConcurrentLinkedQueue<>();
-        for (int i = 0; i < data.length; i += ConcreteBLEReceiver.defaultMTU) {
-            final byte[] fragment = new byte[Math.min(ConcreteBLEReceiver.defaultMTU, data.length - i)];
-            System.arraycopy(data, i, fragment, 0, fragment.length);
-            fragments.add(fragment);
-        }
-        return fragments;
+    /// Split data into fragments, where each fragment fits in a write request at the MTU for the connection
+    private Queue<byte[]> fragmentDataByMtu(final BLEDevice device, final byte[] data) {
+        return BLEMtuCache.fragment(data, BLEMtuCache.fragmentSize(device.mtu));
     }
 
     @Override
@@ -1147,8 +1423,20 @@ public class ConcreteBLEReceiver extends BluetoothGattCallback implements BLERec
             if (success && writeAndroidSignalCharacteristic(gatt) == WriteAndroidSignalCharacteristicResult.moreToWrite) {
                 return;
             }
+            if (!success && device.mtu > BLEMtuCache.defaultMtu) {
+                // Write at negotiated MTU failed, use default MTU next time
+                logger.fault("onCharacteristicWrite, write failed at negotiated MTU (device={},mtu={})", device, device.mtu);
+                mtuCache.rejected(device);
+            }
+        }
+        final Data signalCharacteristicWriteValue = new Data(device.signalCharacteristicWriteValue);
+        final SignalCharacteristicDataType signalCharacteristicDataType = SignalCharacteristicData.detect(signalCharacteristicWriteValue);
+        if (success && signalCharacteristicDataType != SignalCharacteristicDataType.unknown) {
+            final long elapsed = System.currentTimeMillis() - device.signalCharacteristicWriteStartedAt;
+            final Sample timeToWrite = timeToWriteSignalCharacteristic.get(signalCharacteristicDataType);
+            timeToWrite.add(elapsed);
+            logger.debug("onCharacteristicWrite, write complete (device={},type={},mtu={},elapsed={}ms,statistics={})", device, signalCharacteristicDataType, device.mtu, elapsed, timeToWrite);
         }
-        final SignalCharacteristicDataType signalCharacteristicDataType = SignalCharacteristicData.detect(new Data(device.signalCharacteristicWriteValue));
         signalCharacteristic.setValue(new byte[0]);
         device.signalCharacteristicWriteValue = null;
         device.signalCharacteristicWriteQueue = null;
@@ -1177,16 +1465,26 @@ public class ConcreteBLEReceiver extends BluetoothGattCallback implements BLERec
                     logger.fault("onCharacteristicWrite, write payload sharing failed (device={})", device);
                 }
                 break;
+            case bundle:
+                if (success) {
+                    logger.debug("onCharacteristicWrite, write bundle success (device={})", device);
+                    registerWriteBundle(device, signalCharacteristicWriteValue);
+                } else {
+                    logger.fault("onCharacteristicWrite, write bundle failed (device={})", device);
+                }
+                break;
             case immediateSend:
                 if (success) {
                     logger.debug("onCharacteristicWrite, write immediate send data success (device={})", device);
                     device.immediateSendData(null);
+                    device.registerImmediateSend();
                 } else {
                     logger.fault("onCharacteristicWrite, write immediate send data failed (device={})", device);
                     // No retry for immediate send
                     device.immediateSendData(null);
                 }
                 // Close connection immediately upon completion of immediate send
+                trace.phase(device, "disconnect");
                 gatt.disconnect();
                 // Do not perform any other tasks
                 return;
@@ -1197,6 +1495,30 @@ public class ConcreteBLEReceiver extends BluetoothGattCallback implements BLERec
         nextTask(gatt);
     }
 
+    /// Register successful writes of all data bundles in write bundle.
+    private void registerWriteBundle(final BLEDevice device, final Data writeBundle) {
+        final List<Data> bundles = SignalCharacteristicData.decodeWriteBundle(writeBundle);
+        if (bundles == null) {
+            logger.fault("registerWriteBundle, invalid bundle (device={})", device);
+            return;
+        }
+        for (final Data bundle : bundles) {
+            switch (SignalCharacteristicData.detect(bundle)) {
+                case payload:
+                    device.registerWritePayload();
+                    break;
+                case rssi:
+                    device.registerWriteRssi();
+                    break;
+                case payloadSharing:
+                    device.registerWritePayloadSharing();
+                    break;
+                default:
+                    break;
+            }
+        }
+    }
+
     // MARK:- Bluetooth code transformers
 
     private static String bleStatus(final int status) {
@@ -20,14 +20,17 @@ import com.idcta.proj.sensor.PayloadDataSupplier;
 import com.idcta.proj.sensor.SensorDelegate;
 import com.idcta.proj.sensor.datatype.TargetIdentifier;
 import com.idcta.proj.sensor.datatype.TimeInterval;
+import com.idcta.proj.sensor.payload.CachingPayloadDataSupplier;
 
 import java.util.Date;
+import java.util.List;
 import java.util.Map;
 import java.util.Queue;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 public class ConcreteBLESensor implements BLESensor, BLEDatabaseDelegate, BluetoothStateManagerDelegate {
     private final SensorLogger logger = new ConcreteSensorLogger("Sensor", "BLE.ConcreteBLESensor");
@@ -43,7 +46,10 @@ public class ConcreteBLESensor implements BLESensor, BLEDatabaseDelegate, Blueto
         final BLEDatabase database = new ConcreteBLEDatabase();
         final BLETimer timer = new BLETimer(context);
         bluetoothStateManager.delegates.add(this);
-        transmitter = new ConcreteBLETransmitter(context, bluetoothStateManager, timer, payloadDataSupplier, database);
+        // Payload is generated once per validity period, rather than on every read and write
+        final PayloadDataSupplier cachingPayloadDataSupplier = (BLESensorConfiguration.payloadDataCachePeriod.value == TimeInterval.never.value ? payloadDataSupplier :
+                new CachingPayloadDataSupplier(payloadDataSupplier, BLESensorConfiguration.payloadDataCachePeriod.millis(), BLESensorConfiguration.payloadDataCacheRefreshAhead.millis()));
+        transmitter = new ConcreteBLETransmitter(context, bluetoothStateManager, timer, cachingPayloadDataSupplier, database);
         receiver = new ConcreteBLEReceiver(context, bluetoothStateManager, timer, database, transmitter);
         database.add(this);
     }
@@ -79,6 +85,11 @@ public class ConcreteBLESensor implements BLESensor, BLEDatabaseDelegate, Blueto
         return receiver.immediateSendAll(data);
     }
 
+    /// Immediate send to all recent targets, returns outcome and latency for each target on completion.
+    public Future<List<BLEImmediateSendResult>> immediateSendAll(Data data, TimeInterval timeout) {
+        return receiver.immediateSendAll(data, timeout);
+    }
+
     // MARK:- BLEDatabaseDelegate
 
     @Override
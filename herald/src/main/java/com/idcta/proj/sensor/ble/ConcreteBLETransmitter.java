@@ -36,10 +36,10 @@ import com.idcta.proj.sensor.datatype.SignalCharacteristicData;
 import com.idcta.proj.sensor.datatype.TargetIdentifier;
 import com.idcta.proj.sensor.datatype.TimeInterval;
 import com.idcta.proj.sensor.datatype.Triple;
+import com.idcta.proj.sensor.payload.CachingPayloadDataSupplier;
 import com.idcta.proj.sensor.PayloadDataSupplier;
 import com.idcta.proj.sensor.SensorDelegate;
 
-import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Date;
 import java.util.List;
@@ -63,6 +63,13 @@ public class ConcreteBLETransmitter implements BLETransmitter, BluetoothStateMan
     private final PayloadDataSupplier payloadDataSupplier;
     private final BLEDatabase database;
     private final ExecutorService operationQueue = Executors.newSingleThreadExecutor();
+    private final BLESignalDataReassembler signalDataReassembler = new BLESignalDataReassembler(
+            BLESensorConfiguration.signalDataMaximumSize,
+            BLESensorConfiguration.signalDataExpiry.millis(),
+            BLESensorConfiguration.signalDataBufferPoolCapacity);
+    private final BLEWriteRequestPipeline writeRequestPipeline = new BLEWriteRequestPipeline(
+            BLESensorConfiguration.signalDataProcessingLanes,
+            BLESensorConfiguration.signalDataProcessingCapacity);
 
     // Referenced by startAdvert and stopExistingGattServer ONLY
     private BluetoothGattServer bluetoothGattServer = null;
@@ -85,6 +92,16 @@ public class ConcreteBLETransmitter implements BLETransmitter, BluetoothStateMan
         delegates.add(delegate);
     }
 
+    /// Reassembly of fragmented signal characteristic writes, with memory and discard statistics.
+    public BLESignalDataReassembler signalDataReassembler() {
+        return signalDataReassembler;
+    }
+
+    /// Processing of signal characteristic writes off the binder thread, with queue depth statistics.
+    public BLEWriteRequestPipeline writeRequestPipeline() {
+        return writeRequestPipeline;
+    }
+
     @Override
     public void start() {
         logger.debug("start (supported={})", isSupported());
@@ -146,6 +163,11 @@ public class ConcreteBLETransmitter implements BLETransmitter, BluetoothStateMan
 
         @Override
         public void bleTimer(final long now) {
+            // Discard partial writes from centrals that stopped writing
+            final int expired = signalDataReassembler.expire(now);
+            if (expired > 0) {
+                logger.debug("advertLoopTask, expired partial signal data (centrals={})", expired);
+            }
             if (!isSupported() || bluetoothStateManager.state() == BluetoothState.poweredOff) {
                 if (advertLoopState != AdvertLoopState.stopped) {
                     logger.debug("advertLoopTask, stopping advert following bluetooth state change (isSupported={},bluetoothPowerOff={})", isSupported(), bluetoothStateManager.state() == BluetoothState.poweredOff);
@@ -235,7 +257,7 @@ public class ConcreteBLETransmitter implements BLETransmitter, BluetoothStateMan
                 }
                 // Start new GATT server
                 try {
-                    bluetoothGattServer = startGattServer(logger, context, payloadDataSupplier, database);
+                    bluetoothGattServer = startGattServer(logger, context, payloadDataSupplier, database, signalDataReassembler, writeRequestPipeline);
                 } catch (Throwable e) {
                     logger.fault("startAdvert failed to start GATT server", e);
                     result = false;
@@ -326,6 +348,15 @@ public class ConcreteBLETransmitter implements BLETransmitter, BluetoothStateMan
         return payloadDataSupplier.payload(new PayloadTimestamp(new Date()));
     }
 
+    @Override
+    public Data signalCharacteristicWritePayload() {
+        // Caching supplier holds encoding for current period
+        if (payloadDataSupplier instanceof CachingPayloadDataSupplier) {
+            return ((CachingPayloadDataSupplier) payloadDataSupplier).signalCharacteristicWritePayload(new PayloadTimestamp(new Date()));
+        }
+        return SignalCharacteristicData.encodeWritePayload(payloadData());
+    }
+
     @Override
     public boolean isSupported() {
         return bluetoothLeAdvertiser() != null;
@@ -361,7 +392,7 @@ public class ConcreteBLETransmitter implements BLETransmitter, BluetoothStateMan
         logger.debug("startAdvertising successful (pseudoDeviceAddress={},settings={})", pseudoDeviceAddress, settings);
     }
 
-    private static BluetoothGattServer startGattServer(final SensorLogger logger, final Context context, final PayloadDataSupplier payloadDataSupplier, final BLEDatabase database) {
+    private static BluetoothGattServer startGattServer(final SensorLogger logger, final Context context, final PayloadDataSupplier payloadDataSupplier, final BLEDatabase database, final BLESignalDataReassembler signalDataReassembler, final BLEWriteRequestPipeline writeRequestPipeline) {
         logger.debug("startGattServer");
         final BluetoothManager bluetoothManager = (BluetoothManager) context.getSystemService(Context.BLUETOOTH_SERVICE);
         if (bluetoothManager == null) {
@@ -372,7 +403,6 @@ public class ConcreteBLETransmitter implements BLETransmitter, BluetoothStateMan
         final AtomicReference<BluetoothGattServer> server = new AtomicReference<>(null);
         final BluetoothGattServerCallback callback = new BluetoothGattServerCallback() {
             private final Map<String, PayloadData> onCharacteristicReadPayloadData = new ConcurrentHashMap<>();
-            private final Map<String, byte[]> onCharacteristicWriteSignalData = new ConcurrentHashMap<>();
 
             private PayloadData onCharacteristicReadPayloadData(BluetoothDevice device) {
                 final String key = device.getAddress();
@@ -384,33 +414,10 @@ public class ConcreteBLETransmitter implements BLETransmitter, BluetoothStateMan
                 return payloadData;
             }
 
-            private byte[] onCharacteristicWriteSignalData(BluetoothDevice device, byte[] value) {
-                final String key = device.getAddress();
-                byte[] partialData = onCharacteristicWriteSignalData.get(key);
-                if (partialData == null) {
-                    partialData = new byte[0];
-                }
-                byte[] data = new byte[partialData.length + (value == null ? 0 : value.length)];
-                System.arraycopy(partialData, 0, data, 0, partialData.length);
-                if (value != null) {
-                    System.arraycopy(value, 0, data, partialData.length, value.length);
-                }
-                onCharacteristicWriteSignalData.put(key, data);
-                return data;
-            }
-
             private void removeData(BluetoothDevice device) {
                 final String deviceAddress = device.getAddress();
-                for (String deviceRequestId : new ArrayList<>(onCharacteristicReadPayloadData.keySet())) {
-                    if (deviceRequestId.startsWith(deviceAddress)) {
-                        onCharacteristicReadPayloadData.remove(deviceRequestId);
-                    }
-                }
-                for (String deviceRequestId : new ArrayList<>(onCharacteristicWriteSignalData.keySet())) {
-                    if (deviceRequestId.startsWith(deviceAddress)) {
-                        onCharacteristicWriteSignalData.remove(deviceRequestId);
-                    }
-                }
+                onCharacteristicReadPayloadData.remove(deviceAddress);
+                signalDataReassembler.remove(deviceAddress);
             }
 
             @Override
@@ -426,35 +433,9 @@ public class ConcreteBLETransmitter implements BLETransmitter, BluetoothStateMan
                 }
             }
 
-            @Override
-            public void onCharacteristicWriteRequest(BluetoothDevice device, int requestId, BluetoothGattCharacteristic characteristic, boolean preparedWrite, boolean responseNeeded, int offset, byte[] value) {
-                final BLEDevice targetDevice = database.device(device);
+            /// Process complete or partial signal data written by central.
+            private void didReceiveWriteSignalData(final BluetoothDevice device, final BLEDevice targetDevice, final Data data) {
                 final TargetIdentifier targetIdentifier = targetDevice.identifier;
-                logger.debug("didReceiveWrite (central={},requestId={},offset={},characteristic={},value={})",
-                        targetDevice, requestId, offset,
-                        (characteristic.getUuid().equals(BLESensorConfiguration.androidSignalCharacteristicUUID) ? "signal" : "unknown"),
-                        (value != null ? value.length : "null")
-                );
-                if (characteristic.getUuid() != BLESensorConfiguration.androidSignalCharacteristicUUID) {
-                    if (responseNeeded) {
-                        server.get().sendResponse(device, requestId, BluetoothGatt.GATT_REQUEST_NOT_SUPPORTED, offset, value);
-                    }
-                    return;
-                }
-                final Data data = new Data(onCharacteristicWriteSignalData(device, value));
-				if (characteristic.getUuid().equals(BLESensorConfiguration.legacyPayloadCharacteristicUUID)) {
-				    if (null == data.value) {
-				        return;
-                    }
-                    final PayloadData payloadData = new PayloadData(data.value);
-                    logger.debug("didReceiveWrite (dataType=payload,central={},payload={})", targetDevice, payloadData);
-                    targetDevice.payloadData(payloadData);
-                    onCharacteristicWriteSignalData.remove(device.getAddress());
-                    if (responseNeeded) {
-                        server.get().sendResponse(device, requestId, BluetoothGatt.GATT_SUCCESS, offset, value);
-                    }
-                    return;
-                }
                 switch (SignalCharacteristicData.detect(data)) {
                     case rssi: {
                         final RSSI rssi = SignalCharacteristicData.decodeWriteRSSI(data);
@@ -472,7 +453,7 @@ public class ConcreteBLETransmitter implements BLETransmitter, BluetoothStateMan
                     case payload: {
                         final PayloadData payloadData = SignalCharacteristicData.decodeWritePayload(data);
                         if (payloadData == null) {
-                            // Fragmented payload data may be incomplete
+                            logger.fault("didReceiveWrite, invalid request (central={},action=writePayload)", targetDevice);
                             break;
                         }
                         logger.debug("didReceiveWrite (dataType=payload,central={},payload={})", targetDevice, payloadData);
@@ -480,13 +461,12 @@ public class ConcreteBLETransmitter implements BLETransmitter, BluetoothStateMan
                         targetDevice.operatingSystem(BLEDeviceOperatingSystem.android);
                         targetDevice.receiveOnly(true);
                         targetDevice.payloadData(payloadData);
-                        onCharacteristicWriteSignalData.remove(device.getAddress());
                         break;
                     }
                     case payloadSharing: {
                         final PayloadSharingData payloadSharingData = SignalCharacteristicData.decodeWritePayloadSharing(data);
                         if (payloadSharingData == null) {
-                            // Fragmented payload sharing data may be incomplete
+                            logger.fault("didReceiveWrite, invalid request (central={},action=writePayloadSharing)", targetDevice);
                             break;
                         }
                         final List<PayloadData> didSharePayloadData = payloadDataSupplier.payload(payloadSharingData.data);
@@ -504,10 +484,22 @@ public class ConcreteBLETransmitter implements BLETransmitter, BluetoothStateMan
                         }
                         break;
                     }
+                    case bundle: {
+                        final List<Data> bundles = SignalCharacteristicData.decodeWriteBundle(data);
+                        if (bundles == null) {
+                            logger.fault("didReceiveWrite, invalid request (central={},action=writeBundle)", targetDevice);
+                            break;
+                        }
+                        logger.debug("didReceiveWrite (dataType=bundle,central={},bundles={})", targetDevice, bundles.size());
+                        for (final Data bundle : bundles) {
+                            didReceiveWriteSignalData(device, targetDevice, bundle);
+                        }
+                        break;
+                    }
                     case immediateSend: {
                         final ImmediateSendData immediateSendData = SignalCharacteristicData.decodeImmediateSend(data);
                         if (immediateSendData == null) {
-                            // Fragmented immediate send data may be incomplete
+                            logger.fault("didReceiveWrite, invalid request (central={},action=immediateSend)", targetDevice);
                             break;
                         }
                         for (SensorDelegate delegate : delegates) {
@@ -517,9 +509,53 @@ public class ConcreteBLETransmitter implements BLETransmitter, BluetoothStateMan
                         break;
                     }
                 }
+            }
+
+            @Override
+            public void onCharacteristicWriteRequest(final BluetoothDevice device, int requestId, BluetoothGattCharacteristic characteristic, boolean preparedWrite, boolean responseNeeded, int offset, byte[] value) {
+                final BLEDevice targetDevice = database.device(device);
+                logger.debug("didReceiveWrite (central={},requestId={},offset={},characteristic={},value={})",
+                        targetDevice, requestId, offset,
+                        (characteristic.getUuid().equals(BLESensorConfiguration.androidSignalCharacteristicUUID) ? "signal" : "unknown"),
+                        (value != null ? value.length : "null")
+                );
+                if (characteristic.getUuid() != BLESensorConfiguration.androidSignalCharacteristicUUID) {
+                    if (responseNeeded) {
+                        server.get().sendResponse(device, requestId, BluetoothGatt.GATT_REQUEST_NOT_SUPPORTED, offset, value);
+                    }
+                    return;
+                }
+				if (characteristic.getUuid().equals(BLESensorConfiguration.legacyPayloadCharacteristicUUID)) {
+				    if (null == value) {
+				        return;
+                    }
+                    final PayloadData payloadData = new PayloadData(value);
+                    if (responseNeeded) {
+                        server.get().sendResponse(device, requestId, BluetoothGatt.GATT_SUCCESS, offset, value);
+                    }
+                    writeRequestPipeline.submit(device.getAddress(), new Runnable() {
+                        @Override
+                        public void run() {
+                            logger.debug("didReceiveWrite (dataType=payload,central={},payload={})", targetDevice, payloadData);
+                            targetDevice.payloadData(payloadData);
+                        }
+                    });
+                    return;
+                }
+                // Respond once fragment is accepted, process data off the binder thread once all
+                // fragments have been received
+                final Data data = signalDataReassembler.append(device.getAddress(), value, System.currentTimeMillis());
                 if (responseNeeded) {
                     server.get().sendResponse(device, requestId, BluetoothGatt.GATT_SUCCESS, offset, value);
                 }
+                if (data != null) {
+                    writeRequestPipeline.submit(device.getAddress(), new Runnable() {
+                        @Override
+                        public void run() {
+                            didReceiveWriteSignalData(device, targetDevice, data);
+                        }
+                    });
+                }
             }
 
             @Override
@@ -0,0 +1,215 @@
+//  Copyright 2020 VMware, Inc.
+//  SPDX-License-Identifier: Apache-2.0
+//
+
+package com.idcta.proj.sensor.ble.filter;
+
+import com.idcta.proj.sensor.ble.BLESensorConfiguration;
+import com.idcta.proj.sensor.datatype.Data;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+
+/// Compact immutable advert descriptor, parsed from raw scan record bytes in a single pass.
+/// This replaces repeated inspection of ScanRecord (service UUID list, manufacturer data
+/// lookups, TX power) and re-parsing of the raw bytes by BLEAdvertParser for the device filter.
+/// Apple segments are located by offset into the raw bytes, and only copied on request.
+/// Like BLEAdvertParser.extractAppleManufacturerSegments, segments are parsed from all
+/// manufacturer data in the advert.
+public class BLEAdvert {
+    /// TX power level is not included in advert, same as ScanRecord.getTxPowerLevel()
+    public final static int txPowerUnknown = Integer.MIN_VALUE;
+    private final static int[] noSegments = new int[0];
+    /// Bluetooth base UUID for expanding 16-bit and 32-bit service UUIDs
+    private final static long baseUUIDMostSignificantBits = 0x0000000000001000L;
+    private final static long baseUUIDLeastSignificantBits = 0x800000805F9B34FBL;
+    private final byte[] raw;
+    /// Advert includes sensor service UUID
+    public final boolean hasSensorService;
+    /// Advert includes Apple manufacturer data
+    public final boolean isAppleDevice;
+    /// Advert includes sensor manufacturer data with a pseudo device address
+    public final boolean hasPseudoDeviceAddress;
+    /// Pseudo device address, see PseudoDeviceAddress.address
+    public final long pseudoDeviceAddress;
+    /// TX power level or txPowerUnknown
+    public final int txPower;
+    /// Offset and length pairs of Apple segments in raw bytes
+    private final int[] appleSegments;
+
+    private BLEAdvert(final byte[] raw, final boolean hasSensorService, final boolean isAppleDevice, final boolean hasPseudoDeviceAddress, final long pseudoDeviceAddress, final int txPower, final int[] appleSegments) {
+        this.raw = raw;
+        this.hasSensorService = hasSensorService;
+        this.isAppleDevice = isAppleDevice;
+        this.hasPseudoDeviceAddress = hasPseudoDeviceAddress;
+        this.pseudoDeviceAddress = pseudoDeviceAddress;
+        this.txPower = txPower;
+        this.appleSegments = appleSegments;
+    }
+
+    /// Parse raw scan record bytes. Parsing stops at the first zero length or truncated
+    /// segment, as for ScanRecord.
+    public static BLEAdvert parse(final byte[] raw) {
+        if (raw == null) {
+            return new BLEAdvert(new byte[0], false, false, false, 0, txPowerUnknown, noSegments);
+        }
+        final UUID serviceUUID = BLESensorConfiguration.serviceUUID;
+        final long serviceMSB = serviceUUID.getMostSignificantBits();
+        final long serviceLSB = serviceUUID.getLeastSignificantBits();
+        boolean hasSensorService = false;
+        boolean isAppleDevice = false;
+        boolean hasPseudoDeviceAddress = false;
+        long pseudoDeviceAddress = 0;
+        int txPower = txPowerUnknown;
+        int[] appleSegments = noSegments;
+        int appleSegmentsLength = 0;
+        int position = 0;
+        while (position + 2 <= raw.length) {
+            final int length = raw[position] & 0xFF;
+            // Length includes type
+            if (length == 0 || position + 1 + length > raw.length) {
+                break;
+            }
+            final int type = raw[position + 1] & 0xFF;
+            final int start = position + 2;
+            final int end = position + 1 + length;
+            switch (type) {
+                // 16-bit service UUIDs
+                case 0x02:
+                case 0x03: {
+                    if (serviceLSB == baseUUIDLeastSignificantBits) {
+                        for (int i = start; i + 2 <= end; i += 2) {
+                            if (serviceMSB == ((littleEndian(raw, i, 2) << 32) | baseUUIDMostSignificantBits)) {
+                                hasSensorService = true;
+                            }
+                        }
+                    }
+                    break;
+                }
+                // 32-bit service UUIDs
+                case 0x04:
+                case 0x05: {
+                    if (serviceLSB == baseUUIDLeastSignificantBits) {
+                        for (int i = start; i + 4 <= end; i += 4) {
+                            if (serviceMSB == ((littleEndian(raw, i, 4) << 32) | baseUUIDMostSignificantBits)) {
+                                hasSensorService = true;
+                            }
+                        }
+                    }
+                    break;
+                }
+                // 128-bit service UUIDs
+                case 0x06:
+                case 0x07: {
+                    for (int i = start; i + 16 <= end; i += 16) {
+                        if (serviceLSB == littleEndian(raw, i, 8) && serviceMSB == littleEndian(raw, i + 8, 8)) {
+                            hasSensorService = true;
+                        }
+                    }
+                    break;
+                }
+                // TX power level
+                case 0x0A: {
+                    if (end > start) {
+                        txPower = raw[start];
+                    }
+                    break;
+                }
+                // Manufacturer data
+                case 0xFF: {
+                    if (end - start < 2) {
+                        break;
+                    }
+                    final int manufacturerId = (int) littleEndian(raw, start, 2);
+                    if (manufacturerId == BLESensorConfiguration.manufacturerIdForApple) {
+                        isAppleDevice = true;
+                    }
+                    if (manufacturerId == BLESensorConfiguration.manufacturerIdForSensor) {
+                        // Last manufacturer data for sensor is used, as for ScanRecord
+                        hasPseudoDeviceAddress = (end - start - 2 == 6);
+                        pseudoDeviceAddress = (hasPseudoDeviceAddress ? littleEndian(raw, start + 2, 6) : 0);
+                    }
+                    // Apple segments, type-length-data, or legacy type 01 without length to end of data
+                    int segment = start + 2;
+                    while (segment < end) {
+                        final int segmentLength;
+                        if (raw[segment] == 0x01) {
+                            segmentLength = end - segment;
+                        } else if (segment + 1 < end) {
+                            segmentLength = Math.min(raw[segment + 1] & 0xFF, end - segment - 2) + 2;
+                        } else {
+                            // Truncated segment
+                            break;
+                        }
+                        if (appleSegmentsLength + 2 > appleSegments.length) {
+                            appleSegments = Arrays.copyOf(appleSegments, Math.max(8, appleSegments.length * 2));
+                        }
+                        appleSegments[appleSegmentsLength++] = segment;
+                        appleSegments[appleSegmentsLength++] = segmentLength;
+                        segment += segmentLength;
+                    }
+                    break;
+                }
+                default:
+                    break;
+            }
+            position = end;
+        }
+        if (appleSegmentsLength != appleSegments.length) {
+            appleSegments = Arrays.copyOf(appleSegments, appleSegmentsLength);
+        }
+        return new BLEAdvert(raw, hasSensorService, isAppleDevice, hasPseudoDeviceAddress, pseudoDeviceAddress, txPower, appleSegments);
+    }
+
+    private static long littleEndian(final byte[] raw, final int offset, final int length) {
+        long value = 0;
+        for (int i = length; i-- > 0; ) {
+            value = (value << 8) | (raw[offset + i] & 0xFF);
+        }
+        return value;
+    }
+
+    /// Raw scan record bytes, shared and must not be modified.
+    public byte[] raw() {
+        return raw;
+    }
+
+    /// Number of Apple segments.
+    public int appleSegmentCount() {
+        return appleSegments.length / 2;
+    }
+
+    /// Apple segment (type, length and data) at index.
+    public Data appleSegment(final int index) {
+        final int offset = appleSegments[index * 2];
+        final int length = appleSegments[index * 2 + 1];
+        return new Data(Arrays.copyOfRange(raw, offset, offset + length));
+    }
+
+    /// All Apple segments (type, length and data).
+    public List<Data> appleSegments() {
+        final int count = appleSegmentCount();
+        if (count == 0) {
+            return Collections.emptyList();
+        }
+        final List<Data> segments = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            segments.add(appleSegment(i));
+        }
+        return segments;
+    }
+
+    @Override
+    public String toString() {
+        return "BLEAdvert{" +
+                "hasSensorService=" + hasSensorService +
+                ", isAppleDevice=" + isAppleDevice +
+                ", hasPseudoDeviceAddress=" + hasPseudoDeviceAddress +
+                ", txPower=" + (txPower == txPowerUnknown ? "unknown" : Integer.toString(txPower)) +
+                ", appleSegments=" + appleSegmentCount() +
+                '}';
+    }
+}
@@ -4,7 +4,6 @@
 
 package com.idcta.proj.sensor.ble.filter;
 
-import android.bluetooth.le.ScanRecord;
 import android.content.Context;
 
 import com.idcta.proj.sensor.ble.BLEDevice;
@@ -135,40 +134,27 @@ public class BLEDeviceFilter {
         if (rawScanRecordData == null || rawScanRecordData.length == 0) {
             return null;
         }
-        final BLEScanResponseData bleScanResponseData = BLEAdvertParser.parseScanResponse(rawScanRecordData, 0);
-        // Parse scan response data into manufacturer specific data
-        if (bleScanResponseData == null || bleScanResponseData.segments == null || bleScanResponseData.segments.isEmpty()) {
-            return null;
-        }
-        final List<BLEAdvertManufacturerData> bleAdvertManufacturerDataList = BLEAdvertParser.extractManufacturerData(bleScanResponseData.segments);
-        // Parse manufacturer specific data into messages
-        if (bleAdvertManufacturerDataList == null || bleAdvertManufacturerDataList.isEmpty()) {
-            return null;
-        }
-        final List<BLEAdvertAppleManufacturerSegment> bleAdvertAppleManufacturerSegments = BLEAdvertParser.extractAppleManufacturerSegments(bleAdvertManufacturerDataList);
-        // Convert segments to messages
-        if (bleAdvertAppleManufacturerSegments == null || bleAdvertAppleManufacturerSegments.isEmpty()) {
+        return extractMessages(BLEAdvert.parse(rawScanRecordData));
+    }
+
+    /// Extract messages from parsed advert, returns null if advert has no messages
+    protected final static List<Data> extractMessages(final BLEAdvert advert) {
+        if (advert == null || advert.appleSegmentCount() == 0) {
             return null;
         }
-        final List<Data> messages = new ArrayList<>(bleAdvertAppleManufacturerSegments.size());
-        for (BLEAdvertAppleManufacturerSegment segment : bleAdvertAppleManufacturerSegments) {
-            if (segment != null && segment.raw != null && segment.raw.value.length > 0) {
-                messages.add(segment.raw);
-            }
-        }
-        return messages;
+        return advert.appleSegments();
     }
 
     // MARK:- Filtering functions
 
-    /// Extract feature data from scan record
-    private List<Data> extractFeatures(final ScanRecord scanRecord) {
-        if (scanRecord == null) {
+    /// Extract feature data from advert
+    private List<Data> extractFeatures(final BLEAdvert advert) {
+        if (advert == null) {
             return null;
         }
         // Get message data
         final List<Data> featureList = new ArrayList<>();
-        final List<Data> messages = extractMessages(scanRecord.getBytes());
+        final List<Data> messages = extractMessages(advert);
         if (messages != null) {
             featureList.addAll(messages);
         }
@@ -177,16 +163,13 @@ public class BLEDeviceFilter {
 
     /// Add training example to adaptive filter.
     public synchronized void train(final BLEDevice device, final boolean ignore) {
-        final ScanRecord scanRecord = device.scanRecord();
+        final BLEAdvert advert = device.advert();
         // Get feature data from scan record
-        if (scanRecord == null) {
-            return;
-        }
-        final Data scanRecordData = (scanRecord.getBytes() == null ? null : new Data(scanRecord.getBytes()));
-        if (scanRecordData == null) {
+        if (advert == null) {
             return;
         }
-        final List<Data> featureList = extractFeatures(scanRecord);
+        final Data scanRecordData = new Data(advert.raw());
+        final List<Data> featureList = extractFeatures(advert);
         if (featureList == null) {
             return;
         }
@@ -249,8 +232,20 @@ public class BLEDeviceFilter {
         if (rawData == null || rawData.value == null || rawData.value.length == 0) {
             return null;
         }
-        // Extract messages
-        final List<Data> messages = extractMessages(rawData.value);
+        return match(patternList, extractMessages(rawData.value));
+    }
+
+    /// Match filter patterns against messages in advert, returning the first match
+    protected final static MatchingPattern match(final List<FilterPattern> patternList, final BLEAdvert advert) {
+        // No pattern to match against
+        if (patternList == null || patternList.isEmpty()) {
+            return null;
+        }
+        return match(patternList, extractMessages(advert));
+    }
+
+    /// Match filter patterns against messages, returning the first match
+    private final static MatchingPattern match(final List<FilterPattern> patternList, final List<Data> messages) {
         if (messages == null || messages.isEmpty()) {
             return null;
         }
@@ -274,40 +269,34 @@ public class BLEDeviceFilter {
     /// Match scan record messages against all registered patterns, returns matching pattern or null.
     public MatchingPattern match(final BLEDevice device) {
         try {
-            final ScanRecord scanRecord = device.scanRecord();
+            final BLEAdvert advert = device.advert();
             // Cannot match device without any scan record data
-            if (scanRecord == null) {
-                return null;
-            }
-            // Cannot match scan record where data is null
-            final byte[] bytes = scanRecord.getBytes();
-            if (bytes == null) {
+            if (advert == null) {
                 return null;
             }
-            final Data rawData = new Data(bytes);
             // Attempt to match
-            final MatchingPattern matchingPattern = match(filterPatterns, rawData);
+            final MatchingPattern matchingPattern = match(filterPatterns, advert);
             if (matchingPattern == null || matchingPattern.filterPattern == null || matchingPattern.filterPattern.pattern == null || matchingPattern.filterPattern.regularExpression == null || matchingPattern.message == null) {
                 return null;
             } else {
                 return matchingPattern;
             }
         } catch (Throwable e) {
-            logger.fault("match, unknown error (device={},scanRecord={})", device, device.scanRecord());
+            logger.fault("match, unknown error (device={},advert={})", device, device.advert());
             return null;
         }
     }
 
     /// Should the device be ignored based on scan record data?
     private boolean ignoreBasedOnStatistics(final BLEDevice device) {
-        final ScanRecord scanRecord = device.scanRecord();
+        final BLEAdvert advert = device.advert();
         // Do not ignore device without any scan record data
-        if (scanRecord == null) {
+        if (advert == null) {
             return false;
         }
         // Extract feature data from scan record
         // Do not ignore device without any feature data
-        final List<Data> featureList = extractFeatures(scanRecord);
+        final List<Data> featureList = extractFeatures(advert);
         if (featureList == null) {
             return false;
         }
@@ -78,6 +78,11 @@ public class PseudoDeviceAddress {
         this.address = decode(data);
     }
 
+    public PseudoDeviceAddress(final long address) {
+        this.data = encode(address);
+        this.address = decode(this.data);
+    }
+
     protected final static byte[] encode(final long value) {
         final ByteBuffer byteBuffer = ByteBuffer.allocate(8);
         byteBuffer.order(ByteOrder.LITTLE_ENDIAN);
@@ -8,6 +8,8 @@ import com.idcta.proj.sensor.ble.BLESensorConfiguration;
 
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.List;
 
 /// Codec for signal characteristic data bundles
 public class SignalCharacteristicData {
@@ -177,6 +179,75 @@ public class SignalCharacteristicData {
         return new ImmediateSendData(immediateSendDataBytes);
     }
 
+    /// Encode write bundle, combining write payload, write RSSI and write payload sharing data bundles,
+    /// returns null if the bundle data count exceeds the Int16 count field, rather than truncating it
+    // writeBundle data format
+    // 0-0 : actionCode
+    // 1-2 : bundle data count in bytes (Int16)
+    // 3.. : bundle data, sequence of data bundles, each with
+    //       0-1 : data bundle count in bytes (Int16)
+    //       2.. : data bundle
+    public static Data encodeWriteBundle(final List<Data> bundles) {
+        int count = 0;
+        for (final Data bundle : bundles) {
+            count += 2 + bundle.value.length;
+            if (count > Short.MAX_VALUE) {
+                return null;
+            }
+        }
+        final ByteBuffer byteBuffer = ByteBuffer.allocate(3 + count);
+        byteBuffer.order(ByteOrder.LITTLE_ENDIAN);
+        byteBuffer.put(0, BLESensorConfiguration.signalCharacteristicActionWriteBundle);
+        byteBuffer.putShort(1, (short) count);
+        byteBuffer.position(3);
+        for (final Data bundle : bundles) {
+            byteBuffer.putShort((short) bundle.value.length);
+            byteBuffer.put(bundle.value);
+        }
+        return new Data(byteBuffer.array());
+    }
+
+    /// Decode write bundle into data bundles, returns null if bundle is incomplete or invalid,
+    /// including bundles containing anything other than write payload, RSSI and payload sharing.
+    public static List<Data> decodeWriteBundle(final Data data) {
+        if (data == null || data.value == null) {
+            return null;
+        }
+        if (signalDataActionCode(data.value) != BLESensorConfiguration.signalCharacteristicActionWriteBundle) {
+            return null;
+        }
+        if (data.value.length < 3) {
+            return null;
+        }
+        final Short bundleDataCount = int16(data.value, 1);
+        if (bundleDataCount == null) {
+            return null;
+        }
+        if (data.value.length != (3 + bundleDataCount.intValue())) {
+            return null;
+        }
+        final List<Data> bundles = new ArrayList<>();
+        int offset = 3;
+        while (offset < data.value.length) {
+            final Short count = int16(data.value, offset);
+            if (count == null || count <= 0 || offset + 2 + count > data.value.length) {
+                return null;
+            }
+            final Data bundle = data.subdata(offset + 2, count);
+            switch (detect(bundle)) {
+                case rssi:
+                case payload:
+                case payloadSharing:
+                    bundles.add(bundle);
+                    break;
+                default:
+                    return null;
+            }
+            offset += 2 + count;
+        }
+        return bundles;
+    }
+
     /// Detect signal characteristic data bundle type
     public static SignalCharacteristicDataType detect(Data data) {
         switch (signalDataActionCode(data.value)) {
@@ -188,11 +259,44 @@ public class SignalCharacteristicData {
                 return SignalCharacteristicDataType.payloadSharing;
             case BLESensorConfiguration.signalCharacteristicActionWriteImmediate:
                 return SignalCharacteristicDataType.immediateSend;
+            case BLESensorConfiguration.signalCharacteristicActionWriteBundle:
+                return SignalCharacteristicDataType.bundle;
             default:
                 return SignalCharacteristicDataType.unknown;
         }
     }
 
+    /// Expected length of signal characteristic data bundle from its header, given the first
+    /// length bytes of data, for reassembly of fragmented writes. Returns -1 if the header is
+    /// incomplete, or -2 if the action code is unknown or the length is invalid, as further
+    /// fragments can never complete the data.
+    public static int expectedLength(final byte[] data, final int length) {
+        if (data == null || length < 1) {
+            return -1;
+        }
+        switch (data[0]) {
+            case BLESensorConfiguration.signalCharacteristicActionWriteRSSI:
+                return 3;
+            case BLESensorConfiguration.signalCharacteristicActionWritePayload:
+            case BLESensorConfiguration.signalCharacteristicActionWriteImmediate:
+            case BLESensorConfiguration.signalCharacteristicActionWriteBundle:
+                return expectedLength(data, length, 1, 3);
+            case BLESensorConfiguration.signalCharacteristicActionWritePayloadSharing:
+                return expectedLength(data, length, 3, 5);
+            default:
+                return -2;
+        }
+    }
+
+    private static int expectedLength(final byte[] data, final int length, final int countIndex, final int headerLength) {
+        if (length < headerLength) {
+            return -1;
+        }
+        // Int16 little endian, consistent with int16()
+        final short count = (short) ((data[countIndex] & 0xFF) | (data[countIndex + 1] << 8));
+        return (count < 0 ? -2 : headerLength + count);
+    }
+
     private static byte signalDataActionCode(byte[] signalData) {
         if (signalData == null || signalData.length == 0) {
             return 0;
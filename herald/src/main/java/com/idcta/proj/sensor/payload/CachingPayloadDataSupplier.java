@@ -0,0 +1,196 @@
+//  Copyright 2020 VMware, Inc.
+//  SPDX-License-Identifier: Apache-2.0
+//
+
+package com.idcta.proj.sensor.payload;
+
+import com.idcta.proj.sensor.PayloadDataSupplier;
+import com.idcta.proj.sensor.data.ConcreteSensorLogger;
+import com.idcta.proj.sensor.data.SensorLogger;
+import com.idcta.proj.sensor.datatype.Data;
+import com.idcta.proj.sensor.datatype.PayloadData;
+import com.idcta.proj.sensor.datatype.PayloadTimestamp;
+import com.idcta.proj.sensor.datatype.SignalCharacteristicData;
+
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicLong;
+
+/// Caching payload data supplier, memoizing the payload and its signal characteristic write
+/// encoding for each validity period, where the payload of the underlying supplier only changes
+/// on period boundaries, e.g. 6 minute contact identifier periods in SimplePayloadDataSupplier.
+/// - Periods are aligned to multiples of the period since 1970, i.e. to UTC midnight where the
+///   period is a divisor of one day
+/// - Payload for the next period is generated in the background ahead of the period boundary,
+///   so requests at the boundary do not wait for payload generation
+/// - Requests for the current and next period are lock free, the underlying supplier is only
+///   called by one thread at a time, as suppliers keep unsynchronised state
+/// - Cached payload is shared by all requests for the period and must not be modified
+public class CachingPayloadDataSupplier implements PayloadDataSupplier {
+    private final SensorLogger logger = new ConcreteSensorLogger("Sensor", "Payload.CachingPayloadDataSupplier");
+    private final PayloadDataSupplier payloadDataSupplier;
+    private final long periodMillis;
+    private final long refreshAheadMillis;
+    private final Executor refreshQueue;
+    private final Object supplierLock = new Object();
+    private volatile Entry current = null;
+    private volatile Entry next = null;
+    private boolean refreshing = false;
+    private final AtomicLong hits = new AtomicLong(0);
+    private final AtomicLong misses = new AtomicLong(0);
+
+    /// Payload data and signal characteristic write encoding for a period
+    private final static class Entry {
+        private final long period;
+        private final PayloadData payloadData;
+        private final Data signalCharacteristicWritePayload;
+
+        private Entry(final long period, final PayloadData payloadData) {
+            this.period = period;
+            this.payloadData = payloadData;
+            this.signalCharacteristicWritePayload = (payloadData == null ? null : SignalCharacteristicData.encodeWritePayload(payloadData));
+        }
+    }
+
+    /// Cache payload for each period, refreshing the next period ahead of the boundary on a
+    /// background thread.
+    public CachingPayloadDataSupplier(final PayloadDataSupplier payloadDataSupplier, final long periodMillis, final long refreshAheadMillis) {
+        this(payloadDataSupplier, periodMillis, refreshAheadMillis, Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(final Runnable runnable) {
+                final Thread thread = new Thread(runnable, "Sensor.CachingPayloadDataSupplier");
+                thread.setDaemon(true);
+                return thread;
+            }
+        }));
+    }
+
+    /// Cache payload for each period, refreshing the next period ahead of the boundary on
+    /// refresh queue.
+    public CachingPayloadDataSupplier(final PayloadDataSupplier payloadDataSupplier, final long periodMillis, final long refreshAheadMillis, final Executor refreshQueue) {
+        this.payloadDataSupplier = payloadDataSupplier;
+        this.periodMillis = Math.max(1, periodMillis);
+        this.refreshAheadMillis = Math.max(0, Math.min(refreshAheadMillis, this.periodMillis));
+        this.refreshQueue = refreshQueue;
+    }
+
+    /// Period containing time.
+    private long period(final Date time) {
+        final long millis = time.getTime();
+        return (millis >= 0 ? millis / periodMillis : (millis + 1) / periodMillis - 1);
+    }
+
+    /// Get cached payload and its encoding for period, generating payload on cache miss.
+    private Entry entry(final PayloadTimestamp timestamp) {
+        final long period = period(timestamp.value);
+        final Entry current = this.current;
+        if (current != null && current.period == period) {
+            hits.incrementAndGet();
+            refreshAhead(period, timestamp.value.getTime());
+            return current;
+        }
+        final Entry next = this.next;
+        if (next != null && next.period == period) {
+            hits.incrementAndGet();
+            synchronized (this) {
+                if (this.current == null || this.current.period < period) {
+                    this.current = next;
+                }
+            }
+            return next;
+        }
+        synchronized (supplierLock) {
+            // Payload may have been generated by a concurrent request or refresh for the same period
+            final Entry refreshed = this.next;
+            final Entry latest = (refreshed != null && refreshed.period == period ? refreshed : this.current);
+            if (latest != null && latest.period == period) {
+                hits.incrementAndGet();
+                return latest;
+            }
+            misses.incrementAndGet();
+            final Entry entry = generate(period, timestamp);
+            // Cache entry for latest period, requests for past periods are not cached
+            synchronized (this) {
+                if (this.current == null || this.current.period < period) {
+                    this.current = entry;
+                }
+            }
+            return entry;
+        }
+    }
+
+    /// Generate payload for next period in background when time is within refresh ahead time
+    /// of the period boundary.
+    private void refreshAhead(final long period, final long time) {
+        if (time < (period + 1) * periodMillis - refreshAheadMillis) {
+            return;
+        }
+        final Entry next = this.next;
+        if (next != null && next.period == period + 1) {
+            return;
+        }
+        synchronized (this) {
+            if (refreshing) {
+                return;
+            }
+            refreshing = true;
+        }
+        refreshQueue.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    final long nextPeriod = period + 1;
+                    synchronized (supplierLock) {
+                        CachingPayloadDataSupplier.this.next = generate(nextPeriod, new PayloadTimestamp(new Date(nextPeriod * periodMillis)));
+                    }
+                    logger.debug("refreshAhead, generated payload for next period (period={})", nextPeriod);
+                } catch (Throwable e) {
+                    logger.fault("refreshAhead failed", e);
+                } finally {
+                    synchronized (CachingPayloadDataSupplier.this) {
+                        refreshing = false;
+                    }
+                }
+            }
+        });
+    }
+
+    /// Generate payload for period, underlying supplier is called by one thread at a time.
+    private Entry generate(final long period, final PayloadTimestamp timestamp) {
+        synchronized (supplierLock) {
+            return new Entry(period, payloadDataSupplier.payload(timestamp));
+        }
+    }
+
+    // MARK:- PayloadDataSupplier
+
+    @Override
+    public PayloadData payload(PayloadTimestamp timestamp) {
+        return entry(timestamp).payloadData;
+    }
+
+    @Override
+    public List<PayloadData> payload(Data data) {
+        synchronized (supplierLock) {
+            return payloadDataSupplier.payload(data);
+        }
+    }
+
+    /// Payload encoded for writing to signal characteristic, for receive-only peers.
+    public Data signalCharacteristicWritePayload(PayloadTimestamp timestamp) {
+        return entry(timestamp).signalCharacteristicWritePayload;
+    }
+
+    /// Number of requests served from cache.
+    public long hits() {
+        return hits.get();
+    }
+
+    /// Number of requests that generated payload on request.
+    public long misses() {
+        return misses.get();
+    }
+}
@@ -0,0 +1,231 @@
+//  Copyright 2020 VMware, Inc.
+//  SPDX-License-Identifier: Apache-2.0
+//
+
+package com.idcta.proj.sensor.ble;
+
+import com.idcta.proj.sensor.analysis.Sample;
+
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.idcta.proj.sensor.ble.BLEDeviceFixtures.device;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+public class BLEConnectionLifecycleTests {
+    /// Fake GATT layer, reports connection and disconnection asynchronously after fixed delays,
+    /// as onConnectionStateChange would. Negative delay means the callback never happens.
+    private final static class FakeGattConnector implements BLEGattConnector<Thread> {
+        private final long connectDelayMillis;
+        private final long processDelayMillis;
+        private final AtomicInteger connects = new AtomicInteger(0);
+        private final AtomicInteger closes = new AtomicInteger(0);
+
+        private FakeGattConnector(final long connectDelayMillis, final long processDelayMillis) {
+            this.connectDelayMillis = connectDelayMillis;
+            this.processDelayMillis = processDelayMillis;
+        }
+
+        @Override
+        public Thread connect(final BLEDevice device) {
+            connects.incrementAndGet();
+            final Thread callbacks = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        if (connectDelayMillis < 0) {
+                            return;
+                        }
+                        Thread.sleep(connectDelayMillis);
+                        device.state(BLEDeviceState.connected);
+                        if (processDelayMillis < 0) {
+                            return;
+                        }
+                        Thread.sleep(processDelayMillis);
+                        device.state(BLEDeviceState.disconnected);
+                    } catch (InterruptedException e) {
+                        // Connection closed
+                    }
+                }
+            });
+            callbacks.start();
+            return callbacks;
+        }
+
+        @Override
+        public void close(final Thread connection) {
+            closes.incrementAndGet();
+            connection.interrupt();
+        }
+    }
+
+    @Test
+    public void testProcessed() {
+        final FakeGattConnector connector = new FakeGattConnector(20, 30);
+        final Sample timeToConnect = new Sample();
+        final Sample timeToProcess = new Sample();
+        final BLEConnectionLifecycle<Thread> lifecycle = new BLEConnectionLifecycle<>(connector, 1000, 5000, timeToConnect, timeToProcess);
+        final BLEDevice device = device();
+        assertTrue(lifecycle.process(device));
+        assertEquals(BLEDeviceState.disconnected, device.state());
+        assertEquals(1, connector.connects.get());
+        assertEquals(0, connector.closes.get());
+        assertEquals(1, timeToConnect.count());
+        assertEquals(1, timeToProcess.count());
+        assertTrue(timeToProcess.mean() >= 50);
+        // Event driven, no polling delay
+        assertTrue(timeToProcess.mean() < 500);
+    }
+
+    @Test
+    public void testConnectFailed() {
+        final BLEConnectionLifecycle<Thread> lifecycle = new BLEConnectionLifecycle<>(new BLEGattConnector<Thread>() {
+            @Override
+            public Thread connect(BLEDevice device) {
+                return null;
+            }
+
+            @Override
+            public void close(Thread connection) {
+            }
+        }, 1000, 5000, new Sample(), new Sample());
+        final BLEDevice device = device();
+        assertFalse(lifecycle.process(device));
+        assertEquals(BLEDeviceState.disconnected, device.state());
+    }
+
+    @Test
+    public void testConnectTimeout() {
+        final FakeGattConnector connector = new FakeGattConnector(-1, -1);
+        final Sample timeToConnect = new Sample();
+        final BLEConnectionLifecycle<Thread> lifecycle = new BLEConnectionLifecycle<>(connector, 100, 5000, timeToConnect, new Sample());
+        final BLEDevice device = device();
+        final long start = System.currentTimeMillis();
+        assertFalse(lifecycle.process(device));
+        final long elapsed = System.currentTimeMillis() - start;
+        assertTrue(elapsed >= 100 && elapsed < 1000);
+        assertEquals(1, connector.closes.get());
+        assertEquals(0, timeToConnect.count());
+        // Same as before, device is left in connecting state for housekeeping
+        assertEquals(BLEDeviceState.connecting, device.state());
+    }
+
+    @Test
+    public void testConnectRejected() {
+        final BLEDevice device = device();
+        final BLEConnectionLifecycle<Thread> lifecycle = new BLEConnectionLifecycle<>(new BLEGattConnector<Thread>() {
+            @Override
+            public Thread connect(final BLEDevice device) {
+                final Thread callbacks = new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        device.state(BLEDeviceState.disconnected);
+                    }
+                });
+                callbacks.start();
+                return callbacks;
+            }
+
+            @Override
+            public void close(Thread connection) {
+            }
+        }, 5000, 10000, new Sample(), new Sample());
+        final long start = System.currentTimeMillis();
+        assertFalse(lifecycle.process(device));
+        assertTrue(System.currentTimeMillis() - start < 1000);
+    }
+
+    @Test
+    public void testProcessTimeout() {
+        final FakeGattConnector connector = new FakeGattConnector(10, -1);
+        final Sample timeToProcess = new Sample();
+        final BLEConnectionLifecycle<Thread> lifecycle = new BLEConnectionLifecycle<>(connector, 1000, 200, new Sample(), timeToProcess);
+        final BLEDevice device = device();
+        final long start = System.currentTimeMillis();
+        assertFalse(lifecycle.process(device));
+        final long elapsed = System.currentTimeMillis() - start;
+        assertTrue(elapsed >= 200 && elapsed < 1000);
+        assertEquals(1, connector.closes.get());
+        assertEquals(0, timeToProcess.count());
+        assertEquals(BLEDeviceState.disconnected, device.state());
+    }
+
+    @Test
+    public void testStatistics() {
+        final BLEConnectionStatistics statistics = new BLEConnectionStatistics(1000, 50, 1.5, 32, 1, 60000, 3, 100);
+        final BLEConnectionLifecycle<Thread> lifecycle = new BLEConnectionLifecycle<>(new FakeGattConnector(20, 10), 1000, 5000, new Sample(), new Sample(), statistics);
+        final BLEDevice device = device();
+        assertTrue(lifecycle.process(device));
+        assertEquals(1, statistics.device(device).successes());
+        assertEquals(1, statistics.device(device).timeToProcess.count());
+        // Connect timeout from statistics, bounded by minimum
+        assertTrue(statistics.connectTimeoutMillis(device) >= 50 && statistics.connectTimeoutMillis(device) < 1000);
+        final BLEConnectionLifecycle<Thread> unreachable = new BLEConnectionLifecycle<>(new FakeGattConnector(-1, -1), 1000, 5000, new Sample(), new Sample(), statistics);
+        final long start = System.currentTimeMillis();
+        assertFalse(unreachable.process(device));
+        assertTrue(System.currentTimeMillis() - start < 500);
+        assertEquals(1, statistics.penalty(device, System.currentTimeMillis()), 0.01);
+        // Reaching the shared deadline is not a device failure
+        final BLEDevice other = device();
+        assertFalse(unreachable.process(other, System.currentTimeMillis() + 10));
+        assertEquals(0, statistics.penalty(other, System.currentTimeMillis()), Double.MIN_VALUE);
+    }
+
+    @Test
+    public void testAwaitState() throws Exception {
+        final BLEDevice device = device();
+        assertEquals(BLEDeviceState.disconnected, device.awaitState(1000, BLEDeviceState.disconnected));
+        assertNotEquals(BLEDeviceState.connected, device.awaitState(10, BLEDeviceState.connected));
+        // Interruption ends wait and preserves interrupt status
+        Thread.currentThread().interrupt();
+        assertEquals(BLEDeviceState.disconnected, device.awaitState(10000, BLEDeviceState.connected));
+        assertTrue(Thread.interrupted());
+    }
+
+    // MARK:- Throughput
+
+    /// Previous implementation, polling device state every 200ms until connected, then every 500ms until disconnected
+    private static boolean processByPolling(final BLEGattConnector<Thread> connector, final BLEDevice device, final long connectTimeoutMillis, final long processTimeoutMillis) throws InterruptedException {
+        final long timeConnect = System.currentTimeMillis();
+        device.state(BLEDeviceState.connecting);
+        final Thread connection = connector.connect(device);
+        while (device.state() != BLEDeviceState.connected && device.state() != BLEDeviceState.disconnected && (System.currentTimeMillis() - timeConnect) < connectTimeoutMillis) {
+            Thread.sleep(200);
+        }
+        if (device.state() != BLEDeviceState.connected) {
+            connector.close(connection);
+            return false;
+        }
+        while (device.state() != BLEDeviceState.disconnected && (System.currentTimeMillis() - timeConnect) < processTimeoutMillis) {
+            Thread.sleep(500);
+        }
+        device.state(BLEDeviceState.disconnected);
+        return true;
+    }
+
+    @Test
+    public void benchmarkThroughput() throws Exception {
+        final int devices = 4;
+        final FakeGattConnector connector = new FakeGattConnector(30, 300);
+        final long pollingStart = System.currentTimeMillis();
+        for (int i = 0; i < devices; i++) {
+            assertTrue(processByPolling(connector, device(), 12000, 60000));
+        }
+        final long pollingElapsed = System.currentTimeMillis() - pollingStart;
+        final BLEConnectionLifecycle<Thread> lifecycle = new BLEConnectionLifecycle<>(connector, 12000, 60000, new Sample(), new Sample());
+        final long eventStart = System.currentTimeMillis();
+        for (int i = 0; i < devices; i++) {
+            assertTrue(lifecycle.process(device()));
+        }
+        final long eventElapsed = System.currentTimeMillis() - eventStart;
+        System.out.println("benchmarkThroughput (devices=" + devices + ",connect=30ms,process=300ms)");
+        System.out.println("method,elapsedMillis,devicesPerSecond");
+        System.out.println("polling," + pollingElapsed + "," + (devices * 1000d / pollingElapsed));
+        System.out.println("event," + eventElapsed + "," + (devices * 1000d / eventElapsed));
+        assertTrue(eventElapsed < pollingElapsed);
+    }
+}
@@ -0,0 +1,183 @@
+//  Copyright 2020 VMware, Inc.
+//  SPDX-License-Identifier: Apache-2.0
+//
+
+package com.idcta.proj.sensor.ble;
+
+import com.idcta.proj.sensor.analysis.Sample;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.idcta.proj.sensor.ble.BLEDeviceFixtures.device;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class BLEConnectionPipelineTests {
+    /// Fake GATT layer, reports connection and disconnection asynchronously after fixed delays.
+    /// Negative process delay means the peer never disconnects.
+    private final static class FakeGattConnector implements BLEGattConnector<Thread> {
+        private final long connectDelayMillis;
+        private final long processDelayMillis;
+
+        private FakeGattConnector(final long connectDelayMillis, final long processDelayMillis) {
+            this.connectDelayMillis = connectDelayMillis;
+            this.processDelayMillis = processDelayMillis;
+        }
+
+        @Override
+        public Thread connect(final BLEDevice device) {
+            final Thread callbacks = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        Thread.sleep(connectDelayMillis);
+                        device.state(BLEDeviceState.connected);
+                        if (processDelayMillis < 0) {
+                            return;
+                        }
+                        Thread.sleep(processDelayMillis);
+                        device.state(BLEDeviceState.disconnected);
+                    } catch (InterruptedException e) {
+                        // Connection closed
+                    }
+                }
+            });
+            callbacks.start();
+            return callbacks;
+        }
+
+        @Override
+        public void close(final Thread connection) {
+            connection.interrupt();
+        }
+    }
+
+    /// Pipeline recording connections and the maximum number of concurrent connections
+    private final static class RecordingPipeline extends BLEConnectionPipeline {
+        private final BLEConnectionLifecycle<Thread> lifecycle;
+        private final AtomicInteger concurrent = new AtomicInteger(0);
+        private final AtomicInteger maxConcurrent = new AtomicInteger(0);
+        private final AtomicInteger processed = new AtomicInteger(0);
+
+        private RecordingPipeline(final int concurrency, final BLEConnectionLifecycle<Thread> lifecycle) {
+            super(concurrency);
+            this.lifecycle = lifecycle;
+        }
+
+        @Override
+        protected boolean connect(final BLEDevice device, final long deadlineMillis) {
+            final int current = concurrent.incrementAndGet();
+            while (true) {
+                final int max = maxConcurrent.get();
+                if (current <= max || maxConcurrent.compareAndSet(max, current)) {
+                    break;
+                }
+            }
+            try {
+                final boolean success = lifecycle.process(device, deadlineMillis);
+                if (success) {
+                    processed.incrementAndGet();
+                }
+                return success;
+            } finally {
+                concurrent.decrementAndGet();
+            }
+        }
+    }
+
+    private static List<BLEDevice> devices(final int count) {
+        final List<BLEDevice> devices = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            devices.add(device());
+        }
+        return devices;
+    }
+
+    @Test
+    public void testConcurrencyLimit() {
+        final Sample timeToConnect = new Sample();
+        final Sample timeToProcess = new Sample();
+        final BLEConnectionLifecycle<Thread> lifecycle = new BLEConnectionLifecycle<>(new FakeGattConnector(10, 50), 1000, 5000, timeToConnect, timeToProcess);
+        final RecordingPipeline pipeline = new RecordingPipeline(3, lifecycle);
+        final List<BLEDevice> devices = devices(10);
+        assertEquals(10, pipeline.process(devices, BLEDevicePredicates.all, System.currentTimeMillis() + 10000));
+        assertEquals(10, pipeline.processed.get());
+        assertEquals(3, pipeline.maxConcurrent.get());
+        assertEquals(0, pipeline.inFlight());
+        // Samples are updated for every device
+        assertEquals(10, timeToConnect.count());
+        assertEquals(10, timeToProcess.count());
+        for (final BLEDevice device : devices) {
+            assertEquals(BLEDeviceState.disconnected, device.state());
+        }
+    }
+
+    @Test
+    public void testSkipDevices() {
+        final BLEConnectionLifecycle<Thread> lifecycle = new BLEConnectionLifecycle<>(new FakeGattConnector(10, 10), 1000, 5000, new Sample(), new Sample());
+        final RecordingPipeline pipeline = new RecordingPipeline(2, lifecycle);
+        final List<BLEDevice> devices = devices(4);
+        final BLEDevice skipped = devices.get(1);
+        // Duplicate device is only processed once per cycle
+        devices.add(devices.get(0));
+        assertEquals(3, pipeline.process(devices, new BLEDevicePredicate() {
+            @Override
+            public boolean test(BLEDevice device) {
+                return device != skipped;
+            }
+        }, System.currentTimeMillis() + 10000));
+        assertEquals(3, pipeline.processed.get());
+        assertEquals(null, skipped.lastConnectedAt());
+    }
+
+    @Test
+    public void testSharedDeadline() {
+        // Peers never disconnect, connections are closed at the shared deadline
+        final Sample timeToProcess = new Sample();
+        final BLEConnectionLifecycle<Thread> lifecycle = new BLEConnectionLifecycle<>(new FakeGattConnector(10, -1), 1000, 60000, new Sample(), timeToProcess);
+        final RecordingPipeline pipeline = new RecordingPipeline(2, lifecycle);
+        final List<BLEDevice> devices = devices(6);
+        final long start = System.currentTimeMillis();
+        // Only the first two devices are started before the deadline
+        assertEquals(2, pipeline.process(devices, BLEDevicePredicates.all, start + 300));
+        final long elapsed = System.currentTimeMillis() - start;
+        assertTrue(elapsed >= 300 && elapsed < 1000);
+        assertEquals(0, pipeline.processed.get());
+        assertEquals(0, timeToProcess.count());
+        for (final BLEDevice device : devices) {
+            assertEquals(BLEDeviceState.disconnected, device.state());
+        }
+        // Deadline has passed
+        assertEquals(0, pipeline.process(devices, BLEDevicePredicates.all, start));
+    }
+
+    // MARK:- Throughput
+
+    @Test
+    public void benchmarkThroughput() {
+        final int devices = 12;
+        final FakeGattConnector connector = new FakeGattConnector(30, 200);
+        System.out.println("benchmarkThroughput (devices=" + devices + ",connect=30ms,process=200ms)");
+        System.out.println("concurrency,elapsedMillis,devicesPerSecond");
+        long serialElapsed = 0, concurrentElapsed = 0;
+        for (final int concurrency : new int[]{1, 2, 4}) {
+            final BLEConnectionLifecycle<Thread> lifecycle = new BLEConnectionLifecycle<>(connector, 12000, 60000, new Sample(), new Sample());
+            final RecordingPipeline pipeline = new RecordingPipeline(concurrency, lifecycle);
+            final long start = System.currentTimeMillis();
+            assertEquals(devices, pipeline.process(devices(devices), BLEDevicePredicates.all, start + 60000));
+            final long elapsed = System.currentTimeMillis() - start;
+            assertEquals(devices, pipeline.processed.get());
+            System.out.println(concurrency + "," + elapsed + "," + (devices * 1000d / elapsed));
+            if (concurrency == 1) {
+                serialElapsed = elapsed;
+            } else {
+                concurrentElapsed = elapsed;
+            }
+        }
+        assertTrue(concurrentElapsed < serialElapsed);
+    }
+}
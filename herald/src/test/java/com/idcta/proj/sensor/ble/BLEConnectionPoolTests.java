@@ -0,0 +1,343 @@
+//  Copyright 2020 VMware, Inc.
+//  SPDX-License-Identifier: Apache-2.0
+//
+
+package com.idcta.proj.sensor.ble;
+
+import com.idcta.proj.sensor.analysis.Sample;
+
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.idcta.proj.sensor.ble.BLEDeviceFixtures.device;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class BLEConnectionPoolTests {
+    /// Connection for testing, records whether it has been closed
+    private final static class Connection {
+        private volatile boolean closed = false;
+    }
+
+    private static class Connector implements BLEGattConnector<Connection> {
+        final AtomicInteger connects = new AtomicInteger(0);
+        final AtomicInteger closes = new AtomicInteger(0);
+
+        @Override
+        public Connection connect(final BLEDevice device) {
+            connects.incrementAndGet();
+            return new Connection();
+        }
+
+        @Override
+        public void close(final Connection connection) {
+            closes.incrementAndGet();
+            connection.closed = true;
+        }
+    }
+
+    private static BLEConnectionPool<Connection> pool(final Connector connector, final int capacity) {
+        return new BLEConnectionPool<Connection>(connector, capacity, 30000, 45000) {
+            @Override
+            protected boolean resume(BLEDevice device, Connection connection) {
+                return true;
+            }
+        };
+    }
+
+    @Test
+    public void testRetainAcquire() {
+        final Connector connector = new Connector();
+        final BLEConnectionPool<Connection> pool = pool(connector, 2);
+        final BLEDevice device = device();
+        assertNull(pool.acquire(device, 0));
+        final Connection connection = connector.connect(device);
+        assertTrue(pool.retain(device, connection, 0));
+        assertTrue(pool.contains(device));
+        assertSame(connection, pool.acquire(device, 10000));
+        // Connection in use is not acquired again
+        assertNull(pool.acquire(device, 10000));
+        assertTrue(pool.retain(device, connection, 11000));
+        assertSame(connection, pool.acquire(device, 20000));
+        assertEquals(2, pool.connectionsSaved());
+        assertEquals(1, pool.retained());
+        assertEquals(0, connector.closes.get());
+    }
+
+    @Test
+    public void testDisabled() {
+        final Connector connector = new Connector();
+        final BLEConnectionPool<Connection> pool = pool(connector, 0);
+        final BLEDevice device = device();
+        assertFalse(pool.isEnabled());
+        assertFalse(pool.retain(device, connector.connect(device), 0));
+        assertEquals(0, pool.size());
+    }
+
+    @Test
+    public void testIdleTimeout() {
+        final Connector connector = new Connector();
+        final BLEConnectionPool<Connection> pool = pool(connector, 2);
+        final BLEDevice device = device();
+        final Connection connection = connector.connect(device);
+        device.state(BLEDeviceState.idle);
+        assertTrue(pool.retain(device, connection, 0));
+        assertEquals(0, pool.expire(29999));
+        assertEquals(1, pool.expire(30000));
+        assertTrue(connection.closed);
+        assertEquals(BLEDeviceState.disconnected, device.state());
+        assertEquals(0, pool.size());
+        // Expired connection is closed on acquire
+        final Connection another = connector.connect(device);
+        assertTrue(pool.retain(device, another, 0));
+        assertNull(pool.acquire(device, 30000));
+        assertTrue(another.closed);
+        assertEquals(2, pool.expired());
+    }
+
+    @Test
+    public void testMaximumAge() {
+        final Connector connector = new Connector();
+        final BLEConnectionPool<Connection> pool = pool(connector, 2);
+        final BLEDevice device = device();
+        final Connection connection = connector.connect(device);
+        assertTrue(pool.retain(device, connection, 0));
+        // Used every 15 seconds, but age is from first retain
+        assertSame(connection, pool.acquire(device, 15000));
+        assertTrue(pool.retain(device, connection, 15000));
+        assertSame(connection, pool.acquire(device, 30000));
+        assertTrue(pool.retain(device, connection, 30000));
+        assertSame(connection, pool.acquire(device, 44000));
+        // Caller closes connection on reaching maximum age
+        assertFalse(pool.retain(device, connection, 45000));
+        assertFalse(pool.contains(device));
+        assertFalse(connection.closed);
+    }
+
+    @Test
+    public void testCapacity() {
+        final Connector connector = new Connector();
+        final BLEConnectionPool<Connection> pool = pool(connector, 2);
+        final BLEDevice a = device(), b = device(), c = device();
+        final Connection ca = connector.connect(a), cb = connector.connect(b), cc = connector.connect(c);
+        assertTrue(pool.retain(a, ca, 0));
+        assertTrue(pool.retain(b, cb, 1));
+        // Use a, so b is least recently used
+        assertSame(ca, pool.acquire(a, 2));
+        assertTrue(pool.retain(a, ca, 3));
+        assertTrue(pool.retain(c, cc, 4));
+        assertTrue(cb.closed);
+        assertFalse(pool.contains(b));
+        assertEquals(1, pool.evicted());
+        // Connections in use are not evicted
+        assertSame(ca, pool.acquire(a, 5));
+        assertSame(cc, pool.acquire(c, 5));
+        assertFalse(pool.retain(b, connector.connect(b), 6));
+        assertEquals(2, pool.size());
+    }
+
+    @Test
+    public void testRemove() {
+        final Connector connector = new Connector();
+        final BLEConnectionPool<Connection> pool = pool(connector, 2);
+        final BLEDevice device = device();
+        final Connection connection = connector.connect(device);
+        assertTrue(pool.retain(device, connection, 0));
+        assertFalse(pool.remove(device, new Connection()));
+        assertTrue(pool.remove(device, connection));
+        assertFalse(pool.contains(device));
+        assertFalse(connection.closed);
+        // Replacing connection closes the old connection
+        assertTrue(pool.retain(device, connection, 0));
+        final Connection replacement = connector.connect(device);
+        device.state(BLEDeviceState.connected);
+        assertTrue(pool.retain(device, replacement, 1));
+        assertTrue(connection.closed);
+        assertEquals(BLEDeviceState.connected, device.state());
+        assertEquals(1, pool.closeAll());
+        assertTrue(replacement.closed);
+    }
+
+    // MARK:- Lifecycle
+
+    /// Fake GATT layer, connects after connect delay, then completes the task after operation
+    /// delay, and either retains the connection in the pool or disconnects, as nextTask would.
+    private final static class PooledGattConnector extends Connector {
+        private final long connectDelayMillis;
+        private final long operationDelayMillis;
+        private BLEConnectionPool<Connection> pool;
+
+        private PooledGattConnector(final long connectDelayMillis, final long operationDelayMillis) {
+            this.connectDelayMillis = connectDelayMillis;
+            this.operationDelayMillis = operationDelayMillis;
+        }
+
+        @Override
+        public Connection connect(final BLEDevice device) {
+            final Connection connection = super.connect(device);
+            operation(device, connection, connectDelayMillis);
+            return connection;
+        }
+
+        private void operation(final BLEDevice device, final Connection connection, final long connectDelayMillis) {
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        if (connectDelayMillis > 0) {
+                            Thread.sleep(connectDelayMillis);
+                            device.state(BLEDeviceState.connected);
+                        }
+                        Thread.sleep(operationDelayMillis);
+                        if (pool != null && pool.retain(device, connection, System.currentTimeMillis())) {
+                            device.state(BLEDeviceState.idle);
+                        } else {
+                            device.state(BLEDeviceState.disconnected);
+                        }
+                    } catch (InterruptedException e) {
+                        // Test ended
+                    }
+                }
+            }).start();
+        }
+    }
+
+    private static BLEConnectionPool<Connection> pool(final PooledGattConnector connector, final int capacity) {
+        final BLEConnectionPool<Connection> pool = new BLEConnectionPool<Connection>(connector, capacity, 30000, 45000) {
+            @Override
+            protected boolean resume(BLEDevice device, Connection connection) {
+                connector.operation(device, connection, 0);
+                return true;
+            }
+        };
+        connector.pool = pool;
+        return pool;
+    }
+
+    @Test
+    public void testLifecycle() {
+        final PooledGattConnector connector = new PooledGattConnector(50, 10);
+        final BLEConnectionPool<Connection> pool = pool(connector, 2);
+        final Sample timeToProcess = new Sample();
+        final BLEConnectionLifecycle<Connection> lifecycle = new BLEConnectionLifecycle<>(connector, 1000, 5000, new Sample(), timeToProcess, null, pool);
+        final BLEDevice device = device();
+        assertTrue(lifecycle.process(device));
+        assertEquals(BLEDeviceState.idle, device.state());
+        assertTrue(pool.contains(device));
+        assertTrue(lifecycle.process(device));
+        assertTrue(lifecycle.process(device));
+        assertEquals(BLEDeviceState.idle, device.state());
+        assertEquals(1, connector.connects.get());
+        assertEquals(2, pool.connectionsSaved());
+        assertEquals(1, timeToProcess.count());
+        assertEquals(2, pool.timeToProcess.count());
+        // Device is disconnected when pool closes connection
+        pool.closeAll();
+        assertEquals(BLEDeviceState.disconnected, device.state());
+        assertTrue(lifecycle.process(device));
+        assertEquals(2, connector.connects.get());
+    }
+
+    @Test
+    public void testLifecycleResumeFailed() {
+        final Connector connector = new Connector();
+        final BLEConnectionPool<Connection> pool = new BLEConnectionPool<Connection>(connector, 2, 30000, 45000) {
+            @Override
+            protected boolean resume(BLEDevice device, Connection connection) {
+                return false;
+            }
+        };
+        final BLEConnectionLifecycle<Connection> lifecycle = new BLEConnectionLifecycle<>(connector, 1000, 5000, new Sample(), new Sample(), null, pool);
+        final BLEDevice device = device();
+        final Connection connection = connector.connect(device);
+        assertTrue(pool.retain(device, connection, System.currentTimeMillis()));
+        device.state(BLEDeviceState.idle);
+        assertFalse(lifecycle.process(device));
+        assertTrue(connection.closed);
+        assertFalse(pool.contains(device));
+        assertEquals(BLEDeviceState.disconnected, device.state());
+    }
+
+    // MARK:- Connections saved
+
+    @Test
+    public void benchmarkLatency() {
+        final int operations = 10;
+        System.out.println("benchmarkLatency (operations=" + operations + ",connect=100ms,operation=10ms)");
+        System.out.println("method,connections,meanMillisPerOperation");
+        final long[] connections = new long[2];
+        final double[] latency = new double[2];
+        for (final int capacity : new int[]{0, 2}) {
+            final PooledGattConnector connector = new PooledGattConnector(100, 10);
+            final BLEConnectionPool<Connection> pool = pool(connector, capacity);
+            final BLEConnectionLifecycle<Connection> lifecycle = new BLEConnectionLifecycle<>(connector, 1000, 5000, new Sample(), new Sample(), null, pool);
+            final BLEDevice device = device();
+            final Sample sample = new Sample();
+            for (int i = 0; i < operations; i++) {
+                final long start = System.currentTimeMillis();
+                assertTrue(lifecycle.process(device));
+                sample.add(System.currentTimeMillis() - start);
+            }
+            final int index = (capacity == 0 ? 0 : 1);
+            connections[index] = connector.connects.get();
+            latency[index] = sample.mean();
+            System.out.println((capacity == 0 ? "connect" : "pooled") + "," + connections[index] + "," + latency[index]);
+            pool.closeAll();
+        }
+        assertEquals(operations, connections[0]);
+        assertEquals(1, connections[1]);
+        assertTrue(latency[1] < latency[0]);
+    }
+
+    @Test
+    public void benchmarkConnectionsSaved() {
+        // Writes to iOS devices every 15 seconds for 10 minutes, processed in 10 second scan cycles
+        final long duration = 600000;
+        final long writeInterval = 15000;
+        final long cycle = 10000;
+        System.out.println("benchmarkConnectionsSaved (duration=" + duration + "ms,writeInterval=" + writeInterval + "ms,cycle=" + cycle + "ms)");
+        System.out.println("devices,capacity,operations,connections,saved");
+        long saved = 0;
+        for (final int devices : new int[]{1, 2, 4}) {
+            for (final int capacity : new int[]{0, 2}) {
+                final Connector connector = new Connector();
+                final BLEConnectionPool<Connection> pool = pool(connector, capacity);
+                final BLEDevice[] targets = new BLEDevice[devices];
+                final long[] lastWrite = new long[devices];
+                for (int i = 0; i < devices; i++) {
+                    targets[i] = device();
+                    lastWrite[i] = -writeInterval;
+                }
+                int operations = 0;
+                for (long now = 0; now < duration; now += cycle) {
+                    pool.expire(now);
+                    for (int i = 0; i < devices; i++) {
+                        if (now - lastWrite[i] < writeInterval) {
+                            continue;
+                        }
+                        operations++;
+                        lastWrite[i] = now;
+                        Connection connection = pool.acquire(targets[i], now);
+                        if (connection == null) {
+                            connection = connector.connect(targets[i]);
+                        }
+                        if (!pool.retain(targets[i], connection, now)) {
+                            connector.close(connection);
+                        }
+                    }
+                }
+                System.out.println(devices + "," + capacity + "," + operations + "," + connector.connects.get() + "," + pool.connectionsSaved());
+                assertEquals(operations, connector.connects.get() + pool.connectionsSaved());
+                if (capacity > 0 && devices <= capacity) {
+                    saved = pool.connectionsSaved();
+                    assertTrue(connector.connects.get() < operations / 2);
+                }
+            }
+        }
+        assertTrue(saved > 0);
+    }
+}
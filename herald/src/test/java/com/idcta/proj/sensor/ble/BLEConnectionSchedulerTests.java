@@ -0,0 +1,173 @@
+//  Copyright 2020 VMware, Inc.
+//  SPDX-License-Identifier: Apache-2.0
+//
+
+package com.idcta.proj.sensor.ble;
+
+import com.idcta.proj.sensor.analysis.Sample;
+import com.idcta.proj.sensor.datatype.PayloadData;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static com.idcta.proj.sensor.ble.BLEDeviceFixtures.deviceWithRssi;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class BLEConnectionSchedulerTests {
+    /// Scheduler for tests, read payload if missing, otherwise write data
+    private final static BLEConnectionScheduler scheduler = new BLEConnectionScheduler() {
+        @Override
+        protected TaskClass taskClass(BLEDevice device) {
+            if (device.ignore()) {
+                return TaskClass.nothing;
+            }
+            return (device.payloadData() == null ? TaskClass.readPayload : TaskClass.writeData);
+        }
+    };
+
+    @Test
+    public void testTaskClassOrder() {
+        final long now = System.currentTimeMillis();
+        final BLEDevice write = deviceWithRssi(-40);
+        write.payloadData(new PayloadData(new byte[]{1}));
+        final BLEDevice read = deviceWithRssi(-95);
+        final BLEDevice ignored = deviceWithRssi(-40);
+        ignored.operatingSystem(BLEDeviceOperatingSystem.ignore);
+        final List<BLEDevice> scheduled = scheduler.schedule(Arrays.asList(write, ignored, read), now);
+        // Missing payload first regardless of signal strength, ignored device excluded
+        assertEquals(2, scheduled.size());
+        assertSame(read, scheduled.get(0));
+        assertSame(write, scheduled.get(1));
+    }
+
+    @Test
+    public void testValueOrder() {
+        final long now = System.currentTimeMillis();
+        final BLEDevice weak = deviceWithRssi(-90);
+        final BLEDevice unknown = deviceWithRssi(null);
+        final BLEDevice strong = deviceWithRssi(-50);
+        final BLEDevice unreliable = deviceWithRssi(-40);
+        unreliable.registerConnectAttempt(false);
+        unreliable.registerConnectAttempt(false);
+        final List<BLEDevice> scheduled = scheduler.schedule(Arrays.asList(weak, unknown, unreliable, strong), now);
+        assertSame(strong, scheduled.get(0));
+        assertSame(unknown, scheduled.get(1));
+        assertSame(weak, scheduled.get(2));
+        assertSame(unreliable, scheduled.get(3));
+    }
+
+    @Test
+    public void testDiscoveryOrderForEqualValue() {
+        final long now = System.currentTimeMillis();
+        final List<BLEDevice> devices = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            devices.add(deviceWithRssi(-60));
+        }
+        assertEquals(devices, scheduler.schedule(devices, now));
+    }
+
+    @Test
+    public void testValue() {
+        final long now = System.currentTimeMillis();
+        final BLEDevice device = deviceWithRssi(-40);
+        assertEquals(0.5, device.connectSuccessRate(), Double.MIN_VALUE);
+        assertEquals(0.5, BLEConnectionScheduler.value(device, now), Double.MIN_VALUE);
+        device.registerConnectAttempt(true);
+        assertEquals(2 / 3d, device.connectSuccessRate(), Double.MIN_VALUE);
+        // Recently processed device is less valuable than stale device
+        device.registerProcessed();
+        final double recent = BLEConnectionScheduler.value(device, now);
+        final double stale = BLEConnectionScheduler.value(device, now + BLESensorConfiguration.payloadDataUpdateTimeInterval.millis());
+        assertTrue(recent < stale);
+        assertEquals(2 / 3d, stale, 0.0001);
+    }
+
+    // MARK:- Simulation
+
+    /// Simulated population of devices with rotating addresses, in a crowd where connection
+    /// attempts are the limiting resource. Each device is present for a fixed number of cycles,
+    /// connection success probability depends on signal strength, and some devices cannot be
+    /// connected to at all (e.g. not running the app). Connection attempts are limited per cycle,
+    /// representing the cycle time budget.
+    private final static class Simulation {
+        private final Random random = new Random(0);
+        private final List<BLEDevice> present = new ArrayList<>();
+        private final Map<BLEDevice, Double> successProbability = new IdentityHashMap<>();
+        private final Map<BLEDevice, Integer> arrival = new IdentityHashMap<>();
+        private final Map<BLEDevice, Integer> departure = new IdentityHashMap<>();
+        private final Sample latency = new Sample();
+        private int devices = 0, acquired = 0, attempts = 0;
+
+        private void run(final boolean prioritised, final int cycles, final int arrivalsPerCycle, final int lifetime, final int attemptsPerCycle) {
+            for (int cycle = 0; cycle < cycles; cycle++) {
+                // Arrivals and departures
+                for (int i = 0; i < arrivalsPerCycle; i++) {
+                    final int rssi = -100 + random.nextInt(60);
+                    final BLEDevice device = deviceWithRssi(rssi);
+                    final boolean connectable = random.nextDouble() >= 0.3;
+                    successProbability.put(device, connectable ? 0.2 + 0.7 * (rssi + 100) / 60d : 0.02);
+                    arrival.put(device, cycle);
+                    departure.put(device, cycle + lifetime);
+                    present.add(device);
+                    devices++;
+                }
+                for (int i = present.size(); i-- > 0; ) {
+                    if (departure.get(present.get(i)) <= cycle) {
+                        present.remove(i);
+                    }
+                }
+                // Discovery order is arbitrary in practice
+                final List<BLEDevice> discovered = new ArrayList<>(present);
+                Collections.shuffle(discovered, random);
+                final List<BLEDevice> order = (prioritised ? scheduler.schedule(discovered, System.currentTimeMillis()) : discovered);
+                int budget = attemptsPerCycle;
+                for (final BLEDevice device : order) {
+                    if (budget-- <= 0) {
+                        break;
+                    }
+                    attempts++;
+                    final boolean connected = random.nextDouble() < successProbability.get(device);
+                    device.registerConnectAttempt(connected);
+                    if (!connected) {
+                        continue;
+                    }
+                    device.registerProcessed();
+                    if (device.payloadData() == null) {
+                        device.payloadData(new PayloadData(new byte[]{1}));
+                        acquired++;
+                        latency.add(cycle - arrival.get(device));
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void benchmarkPayloadAcquisition() {
+        final int cycles = 500, arrivalsPerCycle = 6, lifetime = 10, attemptsPerCycle = 8;
+        final Simulation discoveryOrder = new Simulation();
+        discoveryOrder.run(false, cycles, arrivalsPerCycle, lifetime, attemptsPerCycle);
+        final Simulation valueOrder = new Simulation();
+        valueOrder.run(true, cycles, arrivalsPerCycle, lifetime, attemptsPerCycle);
+        System.out.println("benchmarkPayloadAcquisition (cycles=" + cycles + ",arrivalsPerCycle=" + arrivalsPerCycle + ",lifetime=" + lifetime + ",attemptsPerCycle=" + attemptsPerCycle + ")");
+        System.out.println("order,devices,acquired,acquiredPerAttempt,meanLatencyCycles,p95LatencyCycles");
+        for (final Simulation simulation : new Simulation[]{discoveryOrder, valueOrder}) {
+            System.out.println((simulation == discoveryOrder ? "discovery" : "value") + ","
+                    + simulation.devices + "," + simulation.acquired + ","
+                    + (simulation.acquired / (double) simulation.attempts) + ","
+                    + simulation.latency.mean() + ","
+                    + (simulation.latency.mean() + 2 * simulation.latency.standardDeviation()));
+        }
+        assertTrue(valueOrder.acquired > discoveryOrder.acquired);
+        assertTrue(valueOrder.latency.mean() < discoveryOrder.latency.mean());
+    }
+}
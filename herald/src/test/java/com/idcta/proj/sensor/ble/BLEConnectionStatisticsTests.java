@@ -0,0 +1,251 @@
+//  Copyright 2020 VMware, Inc.
+//  SPDX-License-Identifier: Apache-2.0
+//
+
+package com.idcta.proj.sensor.ble;
+
+import com.idcta.proj.sensor.ble.filter.BLEAdvert;
+import com.idcta.proj.sensor.datatype.Data;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static com.idcta.proj.sensor.ble.BLEDeviceFixtures.deviceWithModel;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class BLEConnectionStatisticsTests {
+    private final static long minute = 60000;
+
+    private static BLEConnectionStatistics statistics() {
+        return new BLEConnectionStatistics(12000, 2000, 1.5, 32, 5, 2 * minute, 3, 100);
+    }
+
+    @Test
+    public void testDeviceClass() {
+        assertEquals("model=Pixel 4", BLEConnectionStatistics.classOf(deviceWithModel("Pixel 4")));
+        final BLEDevice device = deviceWithModel(null);
+        assertEquals("os=unknown", BLEConnectionStatistics.classOf(device));
+        device.operatingSystem(BLEDeviceOperatingSystem.ios_tbc);
+        device.advert(BLEAdvert.parse(Data.fromHexEncodedString("0bff4c001006061a396363ce").value));
+        assertEquals("os=ios_tbc,apple=10", BLEConnectionStatistics.classOf(device));
+    }
+
+    @Test
+    public void testConnectTimeoutDefault() {
+        final BLEConnectionStatistics statistics = statistics();
+        final BLEDevice device = deviceWithModel("Pixel 4");
+        assertEquals(12000, statistics.connectTimeoutMillis(device));
+        // Too few samples
+        for (int i = 0; i < 4; i++) {
+            statistics.connected(device, 3000);
+        }
+        assertEquals(12000, statistics.connectTimeoutMillis(device));
+        statistics.connected(device, 3000);
+        assertEquals(4500, statistics.connectTimeoutMillis(device));
+    }
+
+    @Test
+    public void testConnectTimeoutPercentile() {
+        final BLEConnectionStatistics statistics = statistics();
+        final BLEDevice device = deviceWithModel("Pixel 4");
+        for (int i = 1; i <= 20; i++) {
+            statistics.connected(device, i * 100);
+        }
+        // p95 of 100..2000 is 1900, times margin
+        assertEquals(1900, statistics.deviceClass("model=Pixel 4").percentile(0.95));
+        assertEquals(2850, statistics.connectTimeoutMillis(device));
+        // Fast model, bounded by minimum
+        final BLEDevice fast = deviceWithModel("Fast");
+        for (int i = 0; i < 10; i++) {
+            statistics.connected(fast, 500);
+        }
+        assertEquals(2000, statistics.connectTimeoutMillis(fast));
+        // Slow model, bounded by default
+        final BLEDevice slow = deviceWithModel("Slow");
+        for (int i = 0; i < 10; i++) {
+            statistics.connected(slow, 20000);
+        }
+        assertEquals(12000, statistics.connectTimeoutMillis(slow));
+        // Window of recent connect times
+        for (int i = 0; i < 32; i++) {
+            statistics.connected(slow, 4000);
+        }
+        assertEquals(6000, statistics.connectTimeoutMillis(slow));
+    }
+
+    @Test
+    public void testConnectTimeoutRecovery() {
+        final BLEConnectionStatistics statistics = statistics();
+        // Fast connects take timeout to the minimum
+        for (int i = 0; i < 32; i++) {
+            statistics.connected(deviceWithModel("Pixel 4"), 500);
+        }
+        assertEquals(2000, statistics.connectTimeoutMillis(deviceWithModel("Pixel 4")));
+        // Devices of the class now take 5s to connect, timeouts are recorded at the timeout
+        // and the timeout grows until connects succeed
+        long now = 0;
+        for (int i = 0; i < 64; i++) {
+            final BLEDevice device = deviceWithModel("Pixel 4");
+            final long timeout = statistics.connectTimeoutMillis(device);
+            if (5000 <= timeout) {
+                statistics.connected(device, 5000);
+            } else {
+                statistics.timedOut(device, timeout, now);
+            }
+            now += 1000;
+        }
+        assertTrue(statistics.connectTimeoutMillis(deviceWithModel("Pixel 4")) > 5000);
+        assertTrue(statistics.deviceClass("model=Pixel 4").successes() > 32);
+    }
+
+    @Test
+    public void testConnectTimeoutFallback() {
+        final BLEConnectionStatistics statistics = statistics();
+        for (int i = 0; i < 10; i++) {
+            statistics.connected(deviceWithModel("Pixel 4"), 5000);
+        }
+        // Unknown model falls back to all devices
+        final BLEDevice other = deviceWithModel("Other");
+        assertEquals(7500, statistics.connectTimeoutMillis(other));
+        assertNull(statistics.deviceClass("model=Other"));
+        assertEquals(10, statistics.deviceClass(BLEConnectionStatistics.all).successes());
+    }
+
+    @Test
+    public void testPenalty() {
+        final BLEConnectionStatistics statistics = statistics();
+        final BLEDevice device = deviceWithModel(null);
+        final long now = System.currentTimeMillis();
+        assertEquals(0, statistics.penalty(device, now), Double.MIN_VALUE);
+        statistics.failed(device, now);
+        statistics.failed(device, now);
+        assertFalse(statistics.skip(device, now));
+        statistics.failed(device, now);
+        assertTrue(statistics.skip(device, now));
+        assertEquals(3, statistics.penalty(device, now), 0.001);
+        // Decays by half every half-life
+        assertEquals(1.5, statistics.penalty(device, now + 2 * minute), 0.001);
+        assertFalse(statistics.skip(device, now + minute));
+        // Another failure after decay skips device again, for longer
+        statistics.failed(device, now + 2 * minute);
+        statistics.failed(device, now + 2 * minute);
+        assertTrue(statistics.skip(device, now + 2 * minute));
+        assertEquals(3.5, statistics.penalty(device, now + 2 * minute), 0.001);
+        // Success clears penalty
+        statistics.connected(device, 1000);
+        assertFalse(statistics.skip(device, now + 2 * minute));
+        assertEquals(6, statistics.device(device).attempts());
+        assertEquals(1, statistics.device(device).successes());
+        // Penalty is per device, not device class
+        final BLEDevice other = deviceWithModel(null);
+        for (int i = 0; i < 3; i++) {
+            statistics.failed(other, now);
+        }
+        assertTrue(statistics.skip(other, now));
+        assertFalse(statistics.skip(deviceWithModel(null), now));
+    }
+
+    @Test
+    public void testCapacity() {
+        final BLEConnectionStatistics statistics = statistics();
+        final BLEDevice first = deviceWithModel(null);
+        statistics.failed(first, 0);
+        for (int i = 0; i < 100; i++) {
+            statistics.connected(deviceWithModel(null), 1000);
+        }
+        assertEquals(100, statistics.devices());
+        assertNull(statistics.device(first));
+        // Class statistics are retained
+        assertEquals(101, statistics.deviceClass("os=unknown").attempts());
+        final BLEDevice device = deviceWithModel(null);
+        statistics.connected(device, 1000);
+        assertNotNull(statistics.device(device));
+        statistics.remove(device);
+        assertNull(statistics.device(device));
+    }
+
+    // MARK:- Simulation
+
+    /// Model with connect success probability and connect time
+    private final static class Model {
+        private final String name;
+        private final double successProbability;
+        private final long connectMillis;
+
+        private Model(final String name, final double successProbability, final long connectMillis) {
+            this.name = name;
+            this.successProbability = successProbability;
+            this.connectMillis = connectMillis;
+        }
+    }
+
+    /// Simulate scan cycles, each processing all devices sequentially within the cycle time
+    /// limit, returns {connections, millis wasted on failed connections}
+    private static long[] simulate(final BLEConnectionStatistics statistics, final List<BLEDevice> devices, final List<Model> models, final int cycles) {
+        final Random random = new Random(0);
+        long now = 0;
+        long connections = 0;
+        long wasted = 0;
+        for (int cycle = 0; cycle < cycles; cycle++) {
+            long remaining = 60000;
+            for (int i = 0; i < devices.size() && remaining > 0; i++) {
+                final BLEDevice device = devices.get(i);
+                final Model model = models.get(i);
+                if (statistics != null && statistics.skip(device, now)) {
+                    continue;
+                }
+                final long timeout = Math.min(remaining, (statistics == null ? 12000 : statistics.connectTimeoutMillis(device)));
+                final long connectMillis = model.connectMillis + random.nextInt((int) (model.connectMillis / 2 + 1));
+                final boolean success = random.nextDouble() < model.successProbability && connectMillis <= timeout;
+                if (success) {
+                    connections++;
+                    // Connect then 500ms to read payload
+                    remaining -= connectMillis + 500;
+                    if (statistics != null) {
+                        statistics.connected(device, connectMillis);
+                    }
+                } else {
+                    wasted += timeout;
+                    remaining -= timeout;
+                    if (statistics != null) {
+                        statistics.timedOut(device, timeout, now);
+                    }
+                }
+            }
+            now += 65000;
+        }
+        return new long[]{connections, wasted};
+    }
+
+    @Test
+    public void benchmarkSimulation() {
+        final Model[] population = new Model[]{
+                new Model("Fast", 0.95, 800),
+                new Model("Typical", 0.9, 1500),
+                new Model("Unreachable", 0.0, 1000)
+        };
+        final List<BLEDevice> devices = new ArrayList<>();
+        final List<Model> models = new ArrayList<>();
+        for (int i = 0; i < 24; i++) {
+            final Model model = population[i % population.length];
+            devices.add(deviceWithModel(model.name));
+            models.add(model);
+        }
+        final int cycles = 100;
+        final long[] fixed = simulate(null, devices, models, cycles);
+        final long[] adaptive = simulate(statistics(), devices, models, cycles);
+        System.out.println("benchmarkSimulation (devices=" + devices.size() + ",cycles=" + cycles + ",unreachable=" + (devices.size() / population.length) + ")");
+        System.out.println("method,connections,wastedMillisPerCycle");
+        System.out.println("fixed," + fixed[0] + "," + (fixed[1] / cycles));
+        System.out.println("adaptive," + adaptive[0] + "," + (adaptive[1] / cycles));
+        assertTrue(adaptive[0] > fixed[0]);
+        assertTrue(adaptive[1] < fixed[1]);
+    }
+}
@@ -0,0 +1,165 @@
+//  Copyright 2020 VMware, Inc.
+//  SPDX-License-Identifier: Apache-2.0
+//
+
+package com.idcta.proj.sensor.ble;
+
+import com.idcta.proj.sensor.datatype.PayloadData;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class BLEDeviceEvictionTests {
+    private static BLEDevice device(final boolean hasPayload, final long lastUpdatedAt) {
+        final BLEDevice device = BLEDeviceFixtures.device();
+        if (hasPayload) {
+            device.payloadData(new PayloadData(new byte[]{1, 2, 3}));
+        }
+        device.lastUpdatedAt = new Date(lastUpdatedAt);
+        return device;
+    }
+
+    @Test
+    public void testSelectionOrder() {
+        final long now = System.currentTimeMillis();
+        final BLEDevice recentPayload = device(true, now);
+        final BLEDevice recentNoPayload = device(false, now - 1000);
+        final BLEDevice stalePayload = device(true, now - 120000);
+        final BLEDevice staleNoPayloadNewer = device(false, now - 120000);
+        final BLEDevice staleNoPayloadOlder = device(false, now - 180000);
+        final List<BLEDevice> devices = Arrays.asList(recentPayload, recentNoPayload, stalePayload, staleNoPayloadNewer, staleNoPayloadOlder);
+        final List<BLEDevice> selected = BLEDeviceEviction.select(devices, 5, null, now);
+        assertEquals(5, selected.size());
+        assertSame(staleNoPayloadOlder, selected.get(0));
+        assertSame(staleNoPayloadNewer, selected.get(1));
+        assertSame(stalePayload, selected.get(2));
+        assertSame(recentNoPayload, selected.get(3));
+        assertSame(recentPayload, selected.get(4));
+        // Limit
+        assertEquals(2, BLEDeviceEviction.select(devices, 2, null, now).size());
+    }
+
+    @Test
+    public void testSelectionExclusions() {
+        final long now = System.currentTimeMillis();
+        final BLEDevice connected = device(false, now - 180000);
+        connected.state(BLEDeviceState.connected);
+        connected.lastUpdatedAt = new Date(now - 180000);
+        final BLEDevice keep = device(false, now - 180000);
+        final BLEDevice other = device(true, now);
+        final List<BLEDevice> selected = BLEDeviceEviction.select(Arrays.asList(connected, keep, other), 3, keep, now);
+        assertEquals(1, selected.size());
+        assertSame(other, selected.get(0));
+    }
+
+    @Test
+    public void testDatabaseCapacity() throws Exception {
+        final int capacity = BLESensorConfiguration.deviceDatabaseCapacity;
+        BLESensorConfiguration.deviceDatabaseCapacity = 20;
+        try {
+            final ConcreteBLEDatabase database = new ConcreteBLEDatabase();
+            final CountDownLatch deleted = new CountDownLatch(3);
+            database.add(new BLEDatabaseDelegate() {
+                @Override
+                public void bleDatabaseDidCreate(BLEDevice device) {
+                }
+
+                @Override
+                public void bleDatabaseDidUpdate(BLEDevice device, BLEDeviceAttribute attribute) {
+                }
+
+                @Override
+                public void bleDatabaseDidDelete(BLEDevice device) {
+                    deleted.countDown();
+                }
+            });
+            final long now = System.currentTimeMillis();
+            BLEDevice oldest = null;
+            for (int i = 0; i < 20; i++) {
+                final BLEDevice device = database.device(new PayloadData(new byte[]{(byte) i}));
+                device.lastUpdatedAt = new Date(now - (100 - i) * 60000L);
+                if (i == 0) {
+                    oldest = device;
+                }
+            }
+            assertNotNull(oldest);
+            assertEquals(0, database.evicted());
+            // Exceeding capacity evicts 10% of capacity plus excess, least recently updated first
+            final BLEDevice newest = database.device(new PayloadData(new byte[]{(byte) 100}));
+            assertEquals(18, database.devices().size());
+            assertEquals(3, database.evicted());
+            assertTrue(database.devices().contains(newest));
+            assertFalse(database.devices().contains(oldest));
+            // Evictions are reported as deletes
+            assertTrue(deleted.await(5, TimeUnit.SECONDS));
+        } finally {
+            BLESensorConfiguration.deviceDatabaseCapacity = capacity;
+        }
+    }
+
+    @Test
+    public void testDatabaseCapacityAllConnected() {
+        final int capacity = BLESensorConfiguration.deviceDatabaseCapacity;
+        BLESensorConfiguration.deviceDatabaseCapacity = 20;
+        try {
+            final ConcreteBLEDatabase database = new ConcreteBLEDatabase();
+            final List<BLEDevice> devices = new ArrayList<>();
+            for (int i = 0; i < 20; i++) {
+                final BLEDevice device = database.device(new PayloadData(new byte[]{(byte) i}));
+                device.state(BLEDeviceState.connected);
+                devices.add(device);
+            }
+            // Connected devices cannot be evicted
+            database.device(new PayloadData(new byte[]{(byte) 100}));
+            assertEquals(21, database.devices().size());
+            assertEquals(0, database.evicted());
+            // Selection is not repeated until database has grown by 10% of capacity
+            for (final BLEDevice device : devices) {
+                device.state(BLEDeviceState.disconnected);
+            }
+            database.device(new PayloadData(new byte[]{(byte) 101}));
+            assertEquals(22, database.devices().size());
+            assertEquals(0, database.evicted());
+            database.device(new PayloadData(new byte[]{(byte) 102}));
+            assertEquals(5, database.evicted());
+            assertEquals(18, database.devices().size());
+            // Eviction resumes at capacity
+            database.device(new PayloadData(new byte[]{(byte) 103}));
+            database.device(new PayloadData(new byte[]{(byte) 104}));
+            assertEquals(20, database.devices().size());
+            database.device(new PayloadData(new byte[]{(byte) 105}));
+            assertEquals(8, database.evicted());
+        } finally {
+            BLESensorConfiguration.deviceDatabaseCapacity = capacity;
+        }
+    }
+
+    @Test
+    public void testFootprint() {
+        final BLEDevice device = device(false, System.currentTimeMillis());
+        final long empty = BLEDeviceFootprint.estimate(device);
+        assertTrue(empty > 0);
+        device.payloadData(new PayloadData(new byte[100]));
+        assertTrue(BLEDeviceFootprint.estimate(device) >= empty + 100);
+        final ConcreteBLEDatabase database = new ConcreteBLEDatabase();
+        for (int i = 0; i < 10; i++) {
+            database.device(new PayloadData(new byte[]{(byte) i}));
+        }
+        final BLEDeviceFootprint footprint = database.footprint();
+        assertEquals(10, footprint.devices);
+        assertEquals(footprint.bytes / 10, footprint.meanBytes());
+        assertTrue(footprint.maxBytes >= footprint.meanBytes());
+    }
+}
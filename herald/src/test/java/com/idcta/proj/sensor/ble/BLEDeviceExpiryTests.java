@@ -0,0 +1,109 @@
+//  Copyright 2020 VMware, Inc.
+//  SPDX-License-Identifier: Apache-2.0
+//
+
+package com.idcta.proj.sensor.ble;
+
+
+import org.junit.Test;
+
+import java.util.Date;
+import java.util.List;
+
+import static com.idcta.proj.sensor.ble.BLEDeviceFixtures.device;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class BLEDeviceExpiryTests {
+    @Test
+    public void testExpiryBoundary() {
+        final BLEDeviceExpiry expiry = new BLEDeviceExpiry();
+        final long t0 = 1600000000500L;
+        final BLEDevice device = device(t0);
+        expiry.bleDatabaseDidCreate(device);
+        // Same as timeIntervalSinceLastUpdate().value > 15 minutes
+        assertTrue(expiry.expired(t0).isEmpty());
+        assertTrue(expiry.expired(t0 + 900999).isEmpty());
+        final List<BLEDevice> expired = expiry.expired(t0 + 901000);
+        assertEquals(1, expired.size());
+        assertSame(device, expired.get(0));
+        // Reported once only
+        assertTrue(expiry.expired(t0 + 902000).isEmpty());
+    }
+
+    @Test
+    public void testTouchReschedules() {
+        final BLEDeviceExpiry expiry = new BLEDeviceExpiry();
+        final long t0 = 1600000000000L;
+        final BLEDevice device = device(t0);
+        expiry.bleDatabaseDidCreate(device);
+        // Touch device without notifying schedule
+        device.lastUpdatedAt = new Date(t0 + 600000);
+        assertTrue(expiry.expired(t0 + 901000).isEmpty());
+        assertTrue(expiry.expired(t0 + 600000 + 900999).isEmpty());
+        assertEquals(1, expiry.expired(t0 + 600000 + 901000).size());
+    }
+
+    @Test
+    public void testDelete() {
+        final BLEDeviceExpiry expiry = new BLEDeviceExpiry();
+        final long t0 = 1600000000000L;
+        final BLEDevice device = device(t0);
+        expiry.bleDatabaseDidCreate(device);
+        expiry.bleDatabaseDidDelete(device);
+        assertTrue(expiry.expired(t0 + 3600000).isEmpty());
+    }
+
+    @Test
+    public void testDelayedPolling() {
+        final BLEDeviceExpiry expiry = new BLEDeviceExpiry();
+        final long t0 = 1600000000000L;
+        for (int i = 0; i < 100; i++) {
+            expiry.bleDatabaseDidCreate(device(t0 + i * 60000L));
+        }
+        assertTrue(expiry.expired(t0).isEmpty());
+        // Poll after multiple revolutions of the wheel
+        assertEquals(100, expiry.expired(t0 + 3 * 3600000L).size());
+    }
+
+    @Test
+    public void testConnectionExpiry() {
+        final BLEDeviceExpiry expiry = new BLEDeviceExpiry();
+        final BLEDevice device = device(System.currentTimeMillis());
+        expiry.bleDatabaseDidCreate(device);
+        device.state(BLEDeviceState.connected);
+        expiry.bleDatabaseDidUpdate(device, BLEDeviceAttribute.state);
+        final long t0 = device.lastConnectedAt().getTime();
+        // Same as timeIntervalSinceConnected().value > 1 minute
+        assertTrue(expiry.connectionExpired(t0 + 60999).isEmpty());
+        assertEquals(1, expiry.connectionExpired(t0 + 61000).size());
+        // Disconnected devices are not reported
+        device.state(BLEDeviceState.connected);
+        expiry.bleDatabaseDidUpdate(device, BLEDeviceAttribute.state);
+        device.state(BLEDeviceState.disconnected);
+        assertTrue(expiry.connectionExpired(device.lastConnectedAt().getTime() + 61000).isEmpty());
+    }
+
+    @Test
+    public void testWheelOnlyVisitsDueDevices() {
+        final int[] evaluations = new int[1];
+        final BLEDeviceTimingWheel wheel = new BLEDeviceTimingWheel(1000, 1024) {
+            @Override
+            protected long deadline(BLEDevice device) {
+                evaluations[0]++;
+                return device.lastUpdatedAt.getTime();
+            }
+        };
+        final long t0 = 1600000000000L;
+        for (int i = 0; i < 2000; i++) {
+            wheel.schedule(device(t0 + 100000 + i));
+        }
+        wheel.schedule(device(t0 + 1000));
+        wheel.due(t0);
+        evaluations[0] = 0;
+        assertEquals(1, wheel.due(t0 + 1000).size());
+        assertEquals(1, evaluations[0]);
+        assertEquals(2000, wheel.size());
+    }
+}
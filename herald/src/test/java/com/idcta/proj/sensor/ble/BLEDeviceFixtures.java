@@ -0,0 +1,53 @@
+//  Copyright 2020 VMware, Inc.
+//  SPDX-License-Identifier: Apache-2.0
+//
+
+package com.idcta.proj.sensor.ble;
+
+import com.idcta.proj.sensor.datatype.RSSI;
+import com.idcta.proj.sensor.datatype.TargetIdentifier;
+
+import java.util.Date;
+
+/// Devices for tests, with a delegate that ignores attribute updates.
+final class BLEDeviceFixtures {
+    final static BLEDeviceDelegate dummyDelegate = new BLEDeviceDelegate() {
+        @Override
+        public void device(BLEDevice device, BLEDeviceAttribute didUpdate) {
+            // do nothing
+        }
+    };
+
+    private BLEDeviceFixtures() {
+    }
+
+    /// New device with random identifier.
+    static BLEDevice device() {
+        return new BLEDevice(new TargetIdentifier(), dummyDelegate);
+    }
+
+    /// New device last updated at time (epoch millis).
+    static BLEDevice device(final long lastUpdatedAt) {
+        final BLEDevice device = device();
+        device.lastUpdatedAt = new Date(lastUpdatedAt);
+        return device;
+    }
+
+    /// New device with model, or without model if null.
+    static BLEDevice deviceWithModel(final String model) {
+        final BLEDevice device = device();
+        if (model != null) {
+            device.model(model);
+        }
+        return device;
+    }
+
+    /// New device with RSSI, or without RSSI if null.
+    static BLEDevice deviceWithRssi(final Integer rssi) {
+        final BLEDevice device = device();
+        if (rssi != null) {
+            device.rssi(new RSSI(rssi));
+        }
+        return device;
+    }
+}
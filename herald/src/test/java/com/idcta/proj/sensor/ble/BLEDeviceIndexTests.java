@@ -0,0 +1,141 @@
+//  Copyright 2020 VMware, Inc.
+//  SPDX-License-Identifier: Apache-2.0
+//
+
+package com.idcta.proj.sensor.ble;
+
+import com.idcta.proj.sensor.datatype.PseudoDeviceAddress;
+
+import org.junit.Test;
+
+import java.util.Date;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class BLEDeviceIndexTests {
+    private static BLEDeviceIndex<PseudoDeviceAddress> pseudoDeviceAddressIndex() {
+        return new BLEDeviceIndex<PseudoDeviceAddress>(new BLEDeviceLastUpdatedComparator()) {
+            @Override
+            protected PseudoDeviceAddress key(BLEDevice device) {
+                return device.pseudoDeviceAddress();
+            }
+        };
+    }
+
+    private static PseudoDeviceAddress address(final long value) {
+        final byte[] data = new byte[6];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) (value >> (i * 8));
+        }
+        return new PseudoDeviceAddress(data);
+    }
+
+    private static BLEDevice device(final PseudoDeviceAddress address, final long lastUpdatedAt) {
+        final BLEDevice device = BLEDeviceFixtures.device();
+        device.pseudoDeviceAddress(address);
+        device.lastUpdatedAt = new Date(lastUpdatedAt);
+        return device;
+    }
+
+    @Test
+    public void testEmpty() {
+        final BLEDeviceIndex<PseudoDeviceAddress> index = pseudoDeviceAddressIndex();
+        assertEquals(0, index.size());
+        assertTrue(index.devices(address(1)).isEmpty());
+        assertNull(index.first(address(1)));
+    }
+
+    @Test
+    public void testUnindexed() {
+        final BLEDeviceIndex<PseudoDeviceAddress> index = pseudoDeviceAddressIndex();
+        index.update(BLEDeviceFixtures.device());
+        assertEquals(0, index.size());
+    }
+
+    @Test
+    public void testOrderedByLastUpdatedAt() {
+        final BLEDeviceIndex<PseudoDeviceAddress> index = pseudoDeviceAddressIndex();
+        final BLEDevice d0 = device(address(1), 1000);
+        final BLEDevice d1 = device(address(1), 3000);
+        final BLEDevice d2 = device(address(1), 2000);
+        final BLEDevice other = device(address(2), 4000);
+        index.update(d0);
+        index.update(d1);
+        index.update(d2);
+        index.update(other);
+        assertEquals(4, index.size());
+        final List<BLEDevice> devices = index.devices(address(1));
+        assertEquals(3, devices.size());
+        assertSame(d1, devices.get(0));
+        assertSame(d2, devices.get(1));
+        assertSame(d0, devices.get(2));
+        assertSame(d1, index.first(address(1)));
+        // Order reflects changes to lastUpdatedAt after indexing
+        d0.lastUpdatedAt = new Date(5000);
+        assertSame(d0, index.first(address(1)));
+        assertSame(d0, index.devices(address(1)).get(0));
+    }
+
+    @Test
+    public void testInsertionOrder() {
+        final BLEDeviceIndex<PseudoDeviceAddress> index = new BLEDeviceIndex<PseudoDeviceAddress>() {
+            @Override
+            protected PseudoDeviceAddress key(BLEDevice device) {
+                return device.pseudoDeviceAddress();
+            }
+        };
+        final BLEDevice d0 = device(address(1), 2000);
+        final BLEDevice d1 = device(address(1), 3000);
+        index.update(d0);
+        index.update(d1);
+        assertSame(d0, index.first(address(1)));
+        assertSame(d1, index.devices(address(1)).get(1));
+    }
+
+    @Test
+    public void testUpdateMovesDevice() {
+        final BLEDeviceIndex<PseudoDeviceAddress> index = pseudoDeviceAddressIndex();
+        final BLEDevice device = device(address(1), 1000);
+        index.update(device);
+        // Repeated update is idempotent
+        index.update(device);
+        assertEquals(1, index.devices(address(1)).size());
+        device.pseudoDeviceAddress(address(2));
+        index.update(device);
+        assertEquals(1, index.size());
+        assertTrue(index.devices(address(1)).isEmpty());
+        assertSame(device, index.first(address(2)));
+    }
+
+    @Test
+    public void testRemove() {
+        final BLEDeviceIndex<PseudoDeviceAddress> index = pseudoDeviceAddressIndex();
+        final BLEDevice d0 = device(address(1), 1000);
+        final BLEDevice d1 = device(address(1), 2000);
+        index.update(d0);
+        index.update(d1);
+        index.remove(d1);
+        assertEquals(1, index.size());
+        assertSame(d0, index.first(address(1)));
+        index.remove(d0);
+        assertEquals(0, index.size());
+        assertNull(index.first(address(1)));
+        // Removing unindexed device is harmless
+        index.remove(d0);
+        assertEquals(0, index.size());
+    }
+
+    @Test
+    public void testRemoveIsByIdentity() {
+        final BLEDeviceIndex<PseudoDeviceAddress> index = pseudoDeviceAddressIndex();
+        final BLEDevice live = device(address(1), 1000);
+        final BLEDevice stale = new BLEDevice(live.identifier, BLEDeviceFixtures.dummyDelegate);
+        index.update(live);
+        index.remove(stale);
+        assertSame(live, index.first(address(1)));
+    }
+}
@@ -0,0 +1,150 @@
+//  Copyright 2020 VMware, Inc.
+//  SPDX-License-Identifier: Apache-2.0
+//
+
+package com.idcta.proj.sensor.ble;
+
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import static com.idcta.proj.sensor.ble.BLEDeviceFixtures.device;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+public class BLEDeviceUpdateCoalescerTests {
+    /// Executor that runs tasks on demand, one call per dispatch tick
+    private final static class ManualExecutor implements Executor {
+        private final List<Runnable> tasks = new ArrayList<>();
+
+        @Override
+        public void execute(Runnable runnable) {
+            tasks.add(runnable);
+        }
+
+        private int tick() {
+            final List<Runnable> current = new ArrayList<>(tasks);
+            tasks.clear();
+            for (final Runnable runnable : current) {
+                runnable.run();
+            }
+            return current.size();
+        }
+    }
+
+    private final static class Recorder implements BLEDeviceDelegate {
+        private final List<BLEDevice> devices = new ArrayList<>();
+        private final List<BLEDeviceAttribute> attributes = new ArrayList<>();
+
+        @Override
+        public void device(BLEDevice device, BLEDeviceAttribute didUpdate) {
+            devices.add(device);
+            attributes.add(didUpdate);
+        }
+    }
+
+    @Test
+    public void testCollapseRSSI() {
+        final ManualExecutor executor = new ManualExecutor();
+        final Recorder recorder = new Recorder();
+        final BLEDeviceUpdateCoalescer coalescer = new BLEDeviceUpdateCoalescer(recorder, executor, 100);
+        final BLEDevice device = device();
+        for (int i = 0; i < 10; i++) {
+            coalescer.device(device, BLEDeviceAttribute.rssi);
+        }
+        assertEquals(1, coalescer.pending());
+        // Single dispatch task for all updates
+        assertEquals(1, executor.tick());
+        assertEquals(1, recorder.attributes.size());
+        assertSame(device, recorder.devices.get(0));
+        assertEquals(10, coalescer.received());
+        assertEquals(1, coalescer.delivered());
+        assertEquals(9, coalescer.collapsed());
+        assertEquals(0, coalescer.dropped());
+        // Next update after dispatch is delivered on next tick
+        coalescer.device(device, BLEDeviceAttribute.rssi);
+        assertEquals(1, executor.tick());
+        assertEquals(2, recorder.attributes.size());
+    }
+
+    @Test
+    public void testLosslessState() {
+        final ManualExecutor executor = new ManualExecutor();
+        final Recorder recorder = new Recorder();
+        final BLEDeviceUpdateCoalescer coalescer = new BLEDeviceUpdateCoalescer(recorder, executor, 1);
+        final BLEDevice device = device();
+        coalescer.device(device, BLEDeviceAttribute.state);
+        coalescer.device(device, BLEDeviceAttribute.rssi);
+        coalescer.device(device, BLEDeviceAttribute.state);
+        coalescer.device(device, BLEDeviceAttribute.payloadData);
+        coalescer.device(device, BLEDeviceAttribute.state);
+        executor.tick();
+        assertEquals(5, recorder.attributes.size());
+        assertEquals(BLEDeviceAttribute.state, recorder.attributes.get(0));
+        assertEquals(BLEDeviceAttribute.rssi, recorder.attributes.get(1));
+        assertEquals(BLEDeviceAttribute.state, recorder.attributes.get(2));
+        assertEquals(BLEDeviceAttribute.payloadData, recorder.attributes.get(3));
+        assertEquals(BLEDeviceAttribute.state, recorder.attributes.get(4));
+    }
+
+    @Test
+    public void testCapacity() {
+        final ManualExecutor executor = new ManualExecutor();
+        final Recorder recorder = new Recorder();
+        final BLEDeviceUpdateCoalescer coalescer = new BLEDeviceUpdateCoalescer(recorder, executor, 3);
+        final List<BLEDevice> devices = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            devices.add(device());
+        }
+        for (final BLEDevice device : devices) {
+            coalescer.device(device, BLEDeviceAttribute.rssi);
+            // Lossless updates are not limited by capacity
+            coalescer.device(device, BLEDeviceAttribute.payloadData);
+        }
+        assertEquals(8, coalescer.pending());
+        assertEquals(2, coalescer.dropped());
+        executor.tick();
+        assertEquals(8, recorder.attributes.size());
+        assertEquals(0, coalescer.pending());
+        // Capacity is released after delivery
+        for (final BLEDevice device : devices) {
+            coalescer.device(device, BLEDeviceAttribute.rssi);
+        }
+        assertEquals(3, coalescer.pending());
+        assertEquals(4, coalescer.dropped());
+    }
+
+    @Test
+    public void testUpdatesDuringDelivery() {
+        final ManualExecutor executor = new ManualExecutor();
+        final List<BLEDeviceAttribute> attributes = new ArrayList<>();
+        final BLEDeviceUpdateCoalescer[] coalescer = new BLEDeviceUpdateCoalescer[1];
+        final BLEDevice device = device();
+        coalescer[0] = new BLEDeviceUpdateCoalescer(new BLEDeviceDelegate() {
+            @Override
+            public void device(BLEDevice device, BLEDeviceAttribute didUpdate) {
+                attributes.add(didUpdate);
+                if (didUpdate == BLEDeviceAttribute.state) {
+                    // Collapsed into pending update
+                    coalescer[0].device(device, BLEDeviceAttribute.rssi);
+                    // Queued behind pending updates
+                    coalescer[0].device(device, BLEDeviceAttribute.payloadData);
+                }
+            }
+        }, executor, 100);
+        coalescer[0].device(device, BLEDeviceAttribute.state);
+        coalescer[0].device(device, BLEDeviceAttribute.rssi);
+        executor.tick();
+        assertEquals(2, attributes.size());
+        assertEquals(1, coalescer[0].collapsed());
+        // Update during delivery is scheduled for the next tick
+        assertEquals(1, coalescer[0].pending());
+        executor.tick();
+        assertEquals(3, attributes.size());
+        assertEquals(BLEDeviceAttribute.payloadData, attributes.get(2));
+        assertEquals(0, coalescer[0].pending());
+    }
+}
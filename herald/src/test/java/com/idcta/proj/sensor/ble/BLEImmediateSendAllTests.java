@@ -0,0 +1,175 @@
+//  Copyright 2020 VMware, Inc.
+//  SPDX-License-Identifier: Apache-2.0
+//
+
+package com.idcta.proj.sensor.ble;
+
+import com.idcta.proj.sensor.datatype.Data;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.idcta.proj.sensor.ble.BLEDeviceFixtures.device;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class BLEImmediateSendAllTests {
+    private final static Data data = new Data(new byte[]{1, 2, 3});
+
+    private static List<BLEDevice> devices(final int count) {
+        final List<BLEDevice> devices = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            devices.add(device());
+        }
+        return devices;
+    }
+
+    /// Fake delivery, takes fixed time per target and returns preset outcome, default delivered
+    private static class FakeImmediateSendAll extends BLEImmediateSendAll {
+        private final long sendMillis;
+        private final Map<BLEDevice, BLEImmediateSendResult.Outcome> outcomes = new ConcurrentHashMap<>();
+        private final List<BLEDevice> started = Collections.synchronizedList(new ArrayList<BLEDevice>());
+        private final List<Data> startedData = Collections.synchronizedList(new ArrayList<Data>());
+        private final AtomicInteger inFlight = new AtomicInteger(0);
+        private final AtomicInteger maxInFlight = new AtomicInteger(0);
+
+        private FakeImmediateSendAll(final int concurrency, final long sendMillis) {
+            super(concurrency);
+            this.sendMillis = sendMillis;
+        }
+
+        @Override
+        protected BLEImmediateSendResult.Outcome send(final BLEDevice device, final long deadlineMillis) {
+            started.add(device);
+            startedData.add(device.immediateSendData());
+            final int n = inFlight.incrementAndGet();
+            synchronized (maxInFlight) {
+                maxInFlight.set(Math.max(maxInFlight.get(), n));
+            }
+            try {
+                Thread.sleep(sendMillis);
+            } catch (InterruptedException e) {
+                return BLEImmediateSendResult.Outcome.timeout;
+            } finally {
+                inFlight.decrementAndGet();
+            }
+            final BLEImmediateSendResult.Outcome outcome = outcomes.get(device);
+            return (outcome == null ? BLEImmediateSendResult.Outcome.delivered : outcome);
+        }
+    }
+
+    @Test
+    public void testOutcomes() throws Exception {
+        final FakeImmediateSendAll immediateSendAll = new FakeImmediateSendAll(2, 20);
+        final List<BLEDevice> targets = devices(4);
+        immediateSendAll.outcomes.put(targets.get(1), BLEImmediateSendResult.Outcome.failed);
+        immediateSendAll.outcomes.put(targets.get(2), BLEImmediateSendResult.Outcome.noSignalCharacteristic);
+        final List<BLEImmediateSendResult> results = immediateSendAll.send(targets, data, System.currentTimeMillis() + 5000).get(10, TimeUnit.SECONDS);
+        assertEquals(4, results.size());
+        for (int i = 0; i < targets.size(); i++) {
+            assertSame(targets.get(i).identifier, results.get(i).target);
+            assertTrue(results.get(i).latencyMillis >= 20);
+        }
+        assertEquals(BLEImmediateSendResult.Outcome.delivered, results.get(0).outcome);
+        assertEquals(BLEImmediateSendResult.Outcome.failed, results.get(1).outcome);
+        assertEquals(BLEImmediateSendResult.Outcome.noSignalCharacteristic, results.get(2).outcome);
+        assertEquals(BLEImmediateSendResult.Outcome.delivered, results.get(3).outcome);
+    }
+
+    @Test
+    public void testConcurrencyAndOrder() throws Exception {
+        final FakeImmediateSendAll immediateSendAll = new FakeImmediateSendAll(3, 20);
+        final List<BLEDevice> targets = devices(12);
+        final List<BLEImmediateSendResult> results = immediateSendAll.send(targets, data, System.currentTimeMillis() + 5000).get(10, TimeUnit.SECONDS);
+        assertEquals(12, results.size());
+        assertEquals(3, immediateSendAll.maxInFlight.get());
+        // Targets are started in order
+        for (int i = 0; i < 3; i++) {
+            assertTrue(immediateSendAll.started.indexOf(targets.get(i)) < 3);
+        }
+    }
+
+    @Test
+    public void testDeadline() throws Exception {
+        final FakeImmediateSendAll immediateSendAll = new FakeImmediateSendAll(1, 200);
+        final List<BLEDevice> targets = devices(5);
+        final long start = System.currentTimeMillis();
+        final List<BLEImmediateSendResult> results = immediateSendAll.send(targets, data, start + 300).get(10, TimeUnit.SECONDS);
+        // Bounded by deadline and allowance for closing connections, not 5 x 200ms
+        assertTrue(System.currentTimeMillis() - start < 1500);
+        assertEquals(BLEImmediateSendResult.Outcome.delivered, results.get(0).outcome);
+        assertEquals(BLEImmediateSendResult.Outcome.delivered, results.get(1).outcome);
+        for (int i = 2; i < targets.size(); i++) {
+            assertEquals(BLEImmediateSendResult.Outcome.timeout, results.get(i).outcome);
+        }
+    }
+
+    @Test
+    public void testDeadlinePendingData() throws Exception {
+        final FakeImmediateSendAll immediateSendAll = new FakeImmediateSendAll(1, 200);
+        final List<BLEDevice> targets = devices(5);
+        final long start = System.currentTimeMillis();
+        final List<BLEImmediateSendResult> results = immediateSendAll.send(targets, data, start + 300).get(10, TimeUnit.SECONDS);
+        // Data is set on targets as their delivery starts
+        assertEquals(2, immediateSendAll.started.size());
+        for (final Data startedData : immediateSendAll.startedData) {
+            assertSame(data, startedData);
+        }
+        // Targets not started by the deadline are left without pending data, so the next scan
+        // does not deliver data reported as timeout
+        for (int i = 2; i < targets.size(); i++) {
+            assertEquals(BLEImmediateSendResult.Outcome.timeout, results.get(i).outcome);
+            assertNull(targets.get(i).immediateSendData());
+        }
+    }
+
+    @Test
+    public void testCancelledPendingData() throws Exception {
+        // Delivery in flight beyond deadline and close allowance is cancelled
+        final FakeImmediateSendAll immediateSendAll = new FakeImmediateSendAll(1, 5000);
+        final List<BLEDevice> targets = devices(2);
+        final List<BLEImmediateSendResult> results = immediateSendAll.send(targets, data, System.currentTimeMillis() + 100).get(10, TimeUnit.SECONDS);
+        for (int i = 0; i < targets.size(); i++) {
+            assertEquals(BLEImmediateSendResult.Outcome.timeout, results.get(i).outcome);
+            assertNull(targets.get(i).immediateSendData());
+        }
+    }
+
+    @Test
+    public void testEmpty() throws Exception {
+        final FakeImmediateSendAll immediateSendAll = new FakeImmediateSendAll(2, 20);
+        assertEquals(0, immediateSendAll.send(new ArrayList<BLEDevice>(), data, System.currentTimeMillis() + 1000).get(1, TimeUnit.SECONDS).size());
+    }
+
+    @Test
+    public void benchmarkFanOut() throws Exception {
+        final int count = 8;
+        final long sendMillis = 100;
+        System.out.println("benchmarkFanOut (targets=" + count + ",send=" + sendMillis + "ms)");
+        System.out.println("concurrency,elapsedMillis,meanLatencyMillis");
+        final long[] elapsed = new long[2];
+        final int[] concurrency = new int[]{1, 4};
+        for (int i = 0; i < concurrency.length; i++) {
+            final FakeImmediateSendAll immediateSendAll = new FakeImmediateSendAll(concurrency[i], sendMillis);
+            final long start = System.currentTimeMillis();
+            final List<BLEImmediateSendResult> results = immediateSendAll.send(devices(count), data, start + 60000).get(60, TimeUnit.SECONDS);
+            elapsed[i] = System.currentTimeMillis() - start;
+            long latency = 0;
+            for (final BLEImmediateSendResult result : results) {
+                assertEquals(BLEImmediateSendResult.Outcome.delivered, result.outcome);
+                latency += result.latencyMillis;
+            }
+            System.out.println(concurrency[i] + "," + elapsed[i] + "," + (latency / count));
+        }
+        assertTrue(elapsed[1] < elapsed[0]);
+    }
+}
@@ -0,0 +1,107 @@
+//  Copyright 2020 VMware, Inc.
+//  SPDX-License-Identifier: Apache-2.0
+//
+
+package com.idcta.proj.sensor.ble;
+
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Queue;
+import java.util.Random;
+
+import static com.idcta.proj.sensor.ble.BLEDeviceFixtures.deviceWithModel;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class BLEMtuCacheTests {
+    @Test
+    public void testRequestMtu() {
+        final BLEMtuCache cache = new BLEMtuCache(185, 100);
+        final BLEDevice device = deviceWithModel(null);
+        assertEquals(185, cache.requestMtu(device));
+        // Device negotiated lower MTU, ask for the same next time
+        cache.negotiated(device, 100);
+        assertEquals(100, cache.requestMtu(device));
+        // Device rejected, fallback to default MTU
+        cache.rejected(device);
+        assertEquals(0, cache.requestMtu(device));
+        // Device that negotiated default MTU is not asked again
+        final BLEDevice other = deviceWithModel(null);
+        cache.negotiated(other, 23);
+        assertEquals(0, cache.requestMtu(other));
+        // Disabled
+        assertEquals(0, new BLEMtuCache(23, 100).requestMtu(deviceWithModel(null)));
+    }
+
+    @Test
+    public void testRequestMtuByModel() {
+        final BLEMtuCache cache = new BLEMtuCache(185, 100);
+        cache.negotiated(deviceWithModel("Pixel 4"), 128);
+        // New device of the same model asks for the negotiated MTU
+        assertEquals(128, cache.requestMtu(deviceWithModel("Pixel 4")));
+        assertEquals(185, cache.requestMtu(deviceWithModel("Other")));
+        // Model is rejected once rejections outnumber negotiations
+        cache.rejected(deviceWithModel("Pixel 4"));
+        assertEquals(128, cache.requestMtu(deviceWithModel("Pixel 4")));
+        cache.rejected(deviceWithModel("Pixel 4"));
+        assertEquals(0, cache.requestMtu(deviceWithModel("Pixel 4")));
+        assertEquals(185, cache.requestMtu(deviceWithModel(null)));
+    }
+
+    @Test
+    public void testCapacity() {
+        final BLEMtuCache cache = new BLEMtuCache(185, 10);
+        final BLEDevice first = deviceWithModel(null);
+        cache.rejected(first);
+        for (int i = 0; i < 10; i++) {
+            cache.rejected(deviceWithModel(null));
+        }
+        assertEquals(10, cache.devices());
+        assertEquals(185, cache.requestMtu(first));
+    }
+
+    @Test
+    public void testFragment() {
+        assertEquals(20, BLEMtuCache.fragmentSize(23));
+        assertEquals(20, BLEMtuCache.fragmentSize(0));
+        assertEquals(182, BLEMtuCache.fragmentSize(185));
+        final byte[] data = new byte[510];
+        new Random(0).nextBytes(data);
+        for (final int mtu : new int[]{23, 100, 185, 517}) {
+            final int fragmentSize = BLEMtuCache.fragmentSize(mtu);
+            final Queue<byte[]> fragments = BLEMtuCache.fragment(data, fragmentSize);
+            assertEquals((data.length + fragmentSize - 1) / fragmentSize, fragments.size());
+            final ByteArrayOutputStream reassembled = new ByteArrayOutputStream();
+            for (final byte[] fragment : fragments) {
+                assertTrue(fragment.length <= fragmentSize);
+                reassembled.write(fragment, 0, fragment.length);
+            }
+            assertArrayEquals(data, reassembled.toByteArray());
+        }
+        assertEquals(0, BLEMtuCache.fragment(new byte[0], 20).size());
+    }
+
+    // MARK:- Round trips
+
+    @Test
+    public void benchmarkRoundTrips() {
+        // One write request and response per connection interval
+        final int connectionIntervalMillis = 30;
+        final int[] lengths = new int[]{129, 510};
+        System.out.println("benchmarkRoundTrips (connectionInterval=" + connectionIntervalMillis + "ms)");
+        System.out.println("mtu,dataLength,writes,estimatedMillis");
+        for (final int mtu : new int[]{23, 185, 517}) {
+            for (final int length : lengths) {
+                final int writes = BLEMtuCache.fragment(new byte[length], BLEMtuCache.fragmentSize(mtu)).size();
+                // Including MTU exchange when negotiated
+                final int roundTrips = writes + (mtu > BLEMtuCache.defaultMtu ? 1 : 0);
+                System.out.println(mtu + "," + length + "," + writes + "," + (roundTrips * connectionIntervalMillis));
+            }
+        }
+        assertEquals(26, BLEMtuCache.fragment(new byte[510], BLEMtuCache.fragmentSize(23)).size());
+        assertEquals(3, BLEMtuCache.fragment(new byte[510], BLEMtuCache.fragmentSize(185)).size());
+    }
+}
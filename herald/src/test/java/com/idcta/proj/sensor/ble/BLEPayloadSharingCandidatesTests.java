@@ -0,0 +1,264 @@
+//  Copyright 2020 VMware, Inc.
+//  SPDX-License-Identifier: Apache-2.0
+//
+
+package com.idcta.proj.sensor.ble;
+
+import com.idcta.proj.sensor.datatype.PayloadData;
+import com.idcta.proj.sensor.datatype.PayloadSharingData;
+import com.idcta.proj.sensor.datatype.RSSI;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Date;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class BLEPayloadSharingCandidatesTests {
+    private static PayloadData payload(final int value, final int length) {
+        final byte[] data = new byte[length];
+        Arrays.fill(data, (byte) value);
+        return new PayloadData(data);
+    }
+
+    private static BLEDevice device(final BLEDeviceOperatingSystem operatingSystem, final PayloadData payloadData, final long lastUpdatedAt) {
+        final BLEDevice device = BLEDeviceFixtures.device();
+        device.operatingSystem(operatingSystem);
+        device.payloadData(payloadData);
+        device.rssi(new RSSI(-50));
+        device.lastUpdatedAt = new Date(lastUpdatedAt);
+        return device;
+    }
+
+    private static BLEDevice peer(final long lastUpdatedAt) {
+        return device(BLEDeviceOperatingSystem.ios, payload(0, 10), lastUpdatedAt);
+    }
+
+    @Test
+    public void testNoRSSI() {
+        final BLEPayloadSharingCandidates candidates = new BLEPayloadSharingCandidates();
+        final long now = System.currentTimeMillis();
+        candidates.update(device(BLEDeviceOperatingSystem.ios, payload(1, 10), now));
+        final BLEDevice peer = BLEDeviceFixtures.device();
+        final PayloadSharingData data = candidates.payloadSharingData(peer, now);
+        assertEquals(127, data.rssi.value);
+        assertEquals(0, data.data.value.length);
+    }
+
+    @Test
+    public void testCandidateSelection() {
+        final BLEPayloadSharingCandidates candidates = new BLEPayloadSharingCandidates();
+        final long now = System.currentTimeMillis();
+        final BLEDevice peer = peer(now);
+        // Android devices are not shared
+        candidates.update(device(BLEDeviceOperatingSystem.android, payload(1, 10), now));
+        assertEquals(0, candidates.size());
+        PayloadSharingData data = candidates.payloadSharingData(peer, now);
+        assertEquals(127, data.rssi.value);
+        assertEquals(0, data.data.value.length);
+        // Receive only devices are shared
+        final BLEDevice receiveOnly = device(BLEDeviceOperatingSystem.android, payload(2, 10), now);
+        receiveOnly.receiveOnly(true);
+        receiveOnly.lastUpdatedAt = new Date(now);
+        candidates.update(receiveOnly);
+        // iOS devices are shared
+        candidates.update(device(BLEDeviceOperatingSystem.ios, payload(3, 10), now - 1000));
+        // Devices not seen recently are not shared
+        candidates.update(device(BLEDeviceOperatingSystem.ios, payload(4, 10), now - BLESensorConfiguration.payloadSharingExpiryTimeInterval.millis()));
+        // Peer payload is not shared with peer
+        candidates.update(device(BLEDeviceOperatingSystem.ios, payload(0, 10), now));
+        assertEquals(4, candidates.size());
+        data = candidates.payloadSharingData(peer, now);
+        assertEquals(-50, data.rssi.value);
+        final byte[] expected = new byte[20];
+        Arrays.fill(expected, 0, 10, (byte) 2);
+        Arrays.fill(expected, 10, 20, (byte) 3);
+        assertArrayEquals(expected, data.data.value);
+        assertTrue(peer.payloadSharingData.contains(payload(2, 10)));
+        assertTrue(peer.payloadSharingData.contains(payload(3, 10)));
+        assertEquals(2, peer.payloadSharingData.size());
+    }
+
+    @Test
+    public void testUnknownFirstWithinLimit() {
+        final BLEPayloadSharingCandidates candidates = new BLEPayloadSharingCandidates();
+        final long now = System.currentTimeMillis();
+        final BLEDevice peer = peer(now);
+        // Six 100 byte payloads, most recent first, only five fit the transfer limit
+        for (int i = 1; i <= 6; i++) {
+            candidates.update(device(BLEDeviceOperatingSystem.ios, payload(i, 100), now - i * 1000));
+        }
+        // Duplicate payload from device that has changed address
+        candidates.update(device(BLEDeviceOperatingSystem.ios, payload(1, 100), now - 500));
+        PayloadSharingData data = candidates.payloadSharingData(peer, now);
+        assertEquals(500, data.data.value.length);
+        for (int i = 0; i < 5; i++) {
+            assertEquals((byte) (i + 1), data.data.value[i * 100]);
+        }
+        // Payload 6 is new to peer and shared first, followed by most recent known payloads
+        candidates.update(device(BLEDeviceOperatingSystem.ios, payload(7, 10), now - 60000));
+        data = candidates.payloadSharingData(peer, now);
+        assertEquals(510, data.data.value.length);
+        assertEquals((byte) 6, data.data.value[0]);
+        assertEquals((byte) 7, data.data.value[100]);
+        assertEquals((byte) 1, data.data.value[110]);
+        assertEquals((byte) 4, data.data.value[410]);
+    }
+
+    @Test
+    public void testMemo() {
+        final BLEPayloadSharingCandidates candidates = new BLEPayloadSharingCandidates();
+        final long now = System.currentTimeMillis();
+        final BLEDevice peer = peer(now);
+        for (int i = 1; i <= 6; i++) {
+            candidates.update(device(BLEDeviceOperatingSystem.ios, payload(i, 100), now - i * 1000));
+        }
+        final PayloadSharingData first = candidates.payloadSharingData(peer, now);
+        assertEquals(500, first.data.value.length);
+        assertEquals(1, first.data.value[0]);
+        // Payload 6 did not fit and is still new to peer, so it is shared first next time
+        final PayloadSharingData data = candidates.payloadSharingData(peer, now + 1000);
+        assertNotSame(first, data);
+        assertEquals(6, data.data.value[0]);
+        // Unchanged candidates, all payloads known to peer, same result
+        assertSame(data, candidates.payloadSharingData(peer, now + 1000));
+        // Peer RSSI changed
+        peer.rssi(new RSSI(-60));
+        final PayloadSharingData dataAfterRSSI = candidates.payloadSharingData(peer, now + 1000);
+        assertNotSame(data, dataAfterRSSI);
+        assertEquals(-60, dataAfterRSSI.rssi.value);
+        // Candidate set changed
+        final PayloadSharingData memo = candidates.payloadSharingData(peer, now + 1000);
+        assertSame(dataAfterRSSI, memo);
+        candidates.update(device(BLEDeviceOperatingSystem.ios, payload(7, 10), now));
+        assertNotSame(memo, candidates.payloadSharingData(peer, now + 1000));
+        // Shared device no longer recent
+        final PayloadSharingData beforeExpiry = candidates.payloadSharingData(peer, now + 1000);
+        assertNotSame(beforeExpiry, candidates.payloadSharingData(peer, now - 1000 + BLESensorConfiguration.payloadSharingExpiryTimeInterval.millis()));
+    }
+
+    @Test
+    public void testRotation() {
+        final BLEPayloadSharingCandidates candidates = new BLEPayloadSharingCandidates();
+        final long now = System.currentTimeMillis();
+        final BLEDevice peer = peer(now);
+        for (int i = 1; i <= 12; i++) {
+            candidates.update(device(BLEDeviceOperatingSystem.ios, payload(i, 100), now - i * 1000));
+        }
+        // Payloads beyond the transfer limit are shared on the following calls, unknown first
+        final boolean[] shared = new boolean[13];
+        final byte[][] expectedFirst = new byte[][]{{1, 2, 3, 4, 5}, {6, 7, 8, 9, 10}, {11, 12, 1, 2, 3}};
+        PayloadSharingData data = null;
+        for (final byte[] expected : expectedFirst) {
+            data = candidates.payloadSharingData(peer, now);
+            assertEquals(500, data.data.value.length);
+            for (int j = 0; j < expected.length; j++) {
+                assertEquals(expected[j], data.data.value[j * 100]);
+                shared[data.data.value[j * 100]] = true;
+            }
+        }
+        for (int i = 1; i <= 12; i++) {
+            assertTrue(shared[i]);
+        }
+        // All payloads known to peer, result is memoised
+        assertSame(data, candidates.payloadSharingData(peer, now));
+    }
+
+    @Test
+    public void testHasPayloadSharingData() {
+        final BLEPayloadSharingCandidates candidates = new BLEPayloadSharingCandidates();
+        final long now = System.currentTimeMillis();
+        final BLEDevice peer = peer(now);
+        assertFalse(candidates.hasPayloadSharingData(peer, now));
+        // Peer itself is not shared
+        candidates.update(device(BLEDeviceOperatingSystem.ios, payload(0, 10), now));
+        assertFalse(candidates.hasPayloadSharingData(peer, now));
+        candidates.update(device(BLEDeviceOperatingSystem.ios, payload(1, 10), now));
+        assertTrue(candidates.hasPayloadSharingData(peer, now));
+        assertFalse(candidates.hasPayloadSharingData(peer, now + BLESensorConfiguration.payloadSharingExpiryTimeInterval.millis()));
+        // Query does not record payloads as known to peer
+        assertTrue(peer.payloadSharingData.isEmpty());
+        assertEquals(10, candidates.payloadSharingData(peer, now).data.value.length);
+        assertEquals(1, peer.payloadSharingData.size());
+    }
+
+    @Test
+    public void testRemove() {
+        final BLEPayloadSharingCandidates candidates = new BLEPayloadSharingCandidates();
+        final long now = System.currentTimeMillis();
+        final BLEDevice peer = peer(now);
+        final BLEDevice device = device(BLEDeviceOperatingSystem.ios, payload(1, 10), now);
+        candidates.update(device);
+        assertEquals(10, candidates.payloadSharingData(peer, now).data.value.length);
+        candidates.remove(device);
+        assertEquals(0, candidates.size());
+        assertEquals(0, candidates.payloadSharingData(peer, now).data.value.length);
+        // Device is no longer a candidate after losing its operating system
+        candidates.update(device);
+        device.operatingSystem(BLEDeviceOperatingSystem.android);
+        candidates.update(device);
+        assertEquals(0, candidates.size());
+    }
+
+    @Test
+    public void testPruneAndRestore() {
+        final BLEPayloadSharingCandidates candidates = new BLEPayloadSharingCandidates();
+        final long now = System.currentTimeMillis();
+        final long expiryMillis = BLESensorConfiguration.payloadSharingExpiryTimeInterval.millis();
+        final BLEDevice peer = peer(now);
+        final BLEDevice recent = device(BLEDeviceOperatingSystem.ios, payload(1, 10), now);
+        final BLEDevice expired = device(BLEDeviceOperatingSystem.ios, payload(2, 10), now - expiryMillis);
+        candidates.update(recent);
+        candidates.update(expired);
+        assertEquals(2, candidates.recent());
+        assertEquals(10, candidates.payloadSharingData(peer, now).data.value.length);
+        // Expired candidate is pruned from walk
+        assertEquals(1, candidates.recent());
+        assertEquals(2, candidates.size());
+        final PayloadSharingData memo = candidates.payloadSharingData(peer, now);
+        // Updates to recent candidate do not invalidate memo
+        recent.lastUpdatedAt = new Date(now + 1000);
+        candidates.touch(recent);
+        assertSame(memo, candidates.payloadSharingData(peer, now + 1000));
+        // Pruned candidate is restored when seen again
+        expired.lastUpdatedAt = new Date(now + 1000);
+        candidates.touch(expired);
+        assertEquals(2, candidates.recent());
+        final PayloadSharingData data = candidates.payloadSharingData(peer, now + 1000);
+        assertNotSame(memo, data);
+        assertEquals(20, data.data.value.length);
+        // Removed while pruned
+        candidates.payloadSharingData(peer, now + 1000 + expiryMillis);
+        assertEquals(0, candidates.recent());
+        candidates.remove(expired);
+        assertEquals(1, candidates.size());
+        candidates.touch(expired);
+        assertEquals(0, candidates.recent());
+    }
+
+    @Test
+    public void testReorderInWalk() {
+        final BLEPayloadSharingCandidates candidates = new BLEPayloadSharingCandidates();
+        final long now = System.currentTimeMillis();
+        final BLEDevice peer = peer(now);
+        final BLEDevice first = device(BLEDeviceOperatingSystem.ios, payload(1, 300), now - 2000);
+        final BLEDevice second = device(BLEDeviceOperatingSystem.ios, payload(2, 300), now - 1000);
+        candidates.update(first);
+        candidates.update(second);
+        // Most recent first, only one fits the transfer limit
+        assertEquals((byte) 2, candidates.payloadSharingData(peer, now).data.value[0]);
+        // First device seen again, order is refreshed by walk for next peer
+        first.lastUpdatedAt = new Date(now);
+        candidates.touch(first);
+        final BLEDevice otherPeer = device(BLEDeviceOperatingSystem.ios, payload(9, 10), now);
+        candidates.payloadSharingData(otherPeer, now);
+        final BLEDevice nextPeer = device(BLEDeviceOperatingSystem.ios, payload(8, 10), now);
+        assertEquals((byte) 1, candidates.payloadSharingData(nextPeer, now).data.value[0]);
+    }
+}
@@ -0,0 +1,116 @@
+//  Copyright 2020 VMware, Inc.
+//  SPDX-License-Identifier: Apache-2.0
+//
+
+package com.idcta.proj.sensor.ble;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class BLEScanDeliveryTests {
+
+    @Test
+    public void testPerResultByDefault() {
+        final BLEScanDelivery delivery = new BLEScanDelivery(0);
+        assertEquals(BLEScanDelivery.Mode.perResult, delivery.start(true));
+        assertEquals(0, delivery.reportDelayMillis());
+        assertFalse(delivery.fallback());
+    }
+
+    @Test
+    public void testBatched() {
+        final BLEScanDelivery delivery = new BLEScanDelivery(1000);
+        assertEquals(BLEScanDelivery.Mode.batched, delivery.start(true));
+        assertEquals(BLEScanDelivery.Mode.batched, delivery.mode());
+        assertEquals(1000, delivery.reportDelayMillis());
+    }
+
+    @Test
+    public void testOffloadUnsupported() {
+        final BLEScanDelivery delivery = new BLEScanDelivery(1000);
+        assertEquals(BLEScanDelivery.Mode.perResult, delivery.start(false));
+        assertEquals(0, delivery.reportDelayMillis());
+        // Support is checked on every scan start
+        assertEquals(BLEScanDelivery.Mode.batched, delivery.start(true));
+    }
+
+    @Test
+    public void testFallback() {
+        final BLEScanDelivery delivery = new BLEScanDelivery(1000);
+        delivery.start(true);
+        assertTrue(delivery.fallback());
+        assertEquals(BLEScanDelivery.Mode.perResult, delivery.mode());
+        assertEquals(0, delivery.reportDelayMillis());
+        // Fallback applies to subsequent scans
+        assertEquals(BLEScanDelivery.Mode.perResult, delivery.start(true));
+        assertFalse(delivery.fallback());
+    }
+
+    @Test
+    public void testStatistics() {
+        final BLEScanDelivery delivery = new BLEScanDelivery(1000);
+        delivery.wakeup(BLEScanDelivery.Mode.perResult, 1);
+        delivery.detected(BLEScanDelivery.Mode.perResult, 5);
+        delivery.wakeup(BLEScanDelivery.Mode.batched, 4);
+        delivery.detected(BLEScanDelivery.Mode.batched, 100);
+        delivery.detected(BLEScanDelivery.Mode.batched, 300);
+        // Unknown latency is ignored
+        delivery.detected(BLEScanDelivery.Mode.batched, -1);
+        final BLEScanDelivery.Statistics perResult = delivery.statistics(BLEScanDelivery.Mode.perResult);
+        assertEquals(1, perResult.wakeups());
+        assertEquals(1, perResult.results());
+        assertEquals(5, perResult.detectionLatency.mean(), Double.MIN_VALUE);
+        final BLEScanDelivery.Statistics batched = delivery.statistics(BLEScanDelivery.Mode.batched);
+        assertEquals(1, batched.wakeups());
+        assertEquals(4, batched.results());
+        assertEquals(4, batched.resultsPerWakeup(), Double.MIN_VALUE);
+        assertEquals(2, batched.detectionLatency.count());
+        assertEquals(200, batched.detectionLatency.mean(), Double.MIN_VALUE);
+    }
+
+    @Test
+    public void benchmarkWakeups() {
+        // Simulated scan window of 4s with 10 devices advertising every 100ms, comparing
+        // wake-ups and detection latency for per result delivery and batching
+        final int devices = 10;
+        final long windowMillis = 4000, advertIntervalMillis = 100;
+        final long[] reportDelays = new long[]{0, 500, 1000, 2000};
+        System.out.println("benchmarkWakeups (devices=" + devices + ",window=" + windowMillis + "ms,advertInterval=" + advertIntervalMillis + "ms)");
+        System.out.println("reportDelayMillis,mode,wakeups,results,meanLatencyMillis,maxLatencyMillis");
+        for (final long reportDelay : reportDelays) {
+            final BLEScanDelivery delivery = new BLEScanDelivery(reportDelay);
+            final BLEScanDelivery.Mode mode = delivery.start(true);
+            int pending = 0;
+            long[] pendingAt = new long[(int) (devices * windowMillis / advertIntervalMillis)];
+            long nextReport = reportDelay;
+            for (long t = 0; t < windowMillis; t += advertIntervalMillis) {
+                for (int d = 0; d < devices; d++) {
+                    final long receivedAt = t + d * advertIntervalMillis / devices;
+                    if (mode == BLEScanDelivery.Mode.perResult) {
+                        delivery.wakeup(mode, 1);
+                        delivery.detected(mode, 0);
+                    } else {
+                        pendingAt[pending++] = receivedAt;
+                    }
+                }
+                // Report batch at report delay, and flush on scan stop
+                final long next = t + advertIntervalMillis;
+                if (mode == BLEScanDelivery.Mode.batched && pending > 0 && (next >= nextReport || next >= windowMillis)) {
+                    final long reportAt = Math.min(nextReport, next);
+                    delivery.wakeup(mode, pending);
+                    for (int i = 0; i < pending; i++) {
+                        delivery.detected(mode, Math.max(0, reportAt - pendingAt[i]));
+                    }
+                    pending = 0;
+                    nextReport += reportDelay;
+                }
+            }
+            final BLEScanDelivery.Statistics statistics = delivery.statistics(mode);
+            System.out.println(reportDelay + "," + mode + "," + statistics.wakeups() + "," + statistics.results() + "," + Math.round(statistics.detectionLatency.mean()) + "," + Math.round(statistics.detectionLatency.max()));
+            assertEquals(devices * windowMillis / advertIntervalMillis, statistics.results());
+        }
+    }
+}
@@ -0,0 +1,133 @@
+//  Copyright 2020 VMware, Inc.
+//  SPDX-License-Identifier: Apache-2.0
+//
+
+package com.idcta.proj.sensor.ble;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class BLEScanDutyCyclePolicyTests {
+    private final static BLEScanDutyCycle standard = BLEScanDutyCycle.standard;
+
+    private static BLEScanCycleStatistics cycle(final int devices, final int newDevices, final long processMillis) {
+        return cycle(devices, newDevices, processMillis, BLEScanCycleStatistics.batteryLevelUnknown, false);
+    }
+
+    private static BLEScanCycleStatistics cycle(final int devices, final int newDevices, final long processMillis, final double batteryLevel, final boolean charging) {
+        return new BLEScanCycleStatistics(System.currentTimeMillis(), standard.scanOnMillis, devices, newDevices, processMillis, batteryLevel, charging);
+    }
+
+    @Test
+    public void testFixed() {
+        final BLEScanDutyCyclePolicy policy = new BLEFixedScanDutyCyclePolicy();
+        assertSame(standard, policy.initial());
+        final BLEScanDutyCycleDecision decision = policy.next(standard, cycle(100, 50, standard.scanProcessMillis));
+        assertSame(standard, decision.next);
+        assertSame(standard, decision.previous);
+        assertEquals("fixed", decision.reason);
+    }
+
+    @Test
+    public void testDense() {
+        final BLEScanDutyCyclePolicy policy = new BLEAdaptiveScanDutyCyclePolicy();
+        BLEScanDutyCycle dutyCycle = policy.initial();
+        BLEScanDutyCycleDecision decision = policy.next(dutyCycle, cycle(20, 5, 1000));
+        assertEquals("dense", decision.reason);
+        assertEquals(6000, decision.next.scanOnMillis);
+        dutyCycle = decision.next;
+        // Limited to maximum scan duration
+        for (int i = 0; i < 10; i++) {
+            dutyCycle = policy.next(dutyCycle, cycle(20, 5, 1000)).next;
+        }
+        assertEquals(12000, dutyCycle.scanOnMillis);
+        // Return to base when no longer dense
+        decision = policy.next(dutyCycle, cycle(2, 1, 1000));
+        assertEquals("normal", decision.reason);
+        assertEquals(standard, decision.next);
+    }
+
+    @Test
+    public void testQuiet() {
+        final BLEScanDutyCyclePolicy policy = new BLEAdaptiveScanDutyCyclePolicy();
+        BLEScanDutyCycle dutyCycle = policy.initial();
+        // Unchanged until several cycles without new devices
+        for (int i = 0; i < 2; i++) {
+            final BLEScanDutyCycleDecision decision = policy.next(dutyCycle, cycle(2, 0, 1000));
+            assertEquals("normal", decision.reason);
+            dutyCycle = decision.next;
+        }
+        BLEScanDutyCycleDecision decision = policy.next(dutyCycle, cycle(2, 0, 1000));
+        assertEquals("quiet", decision.reason);
+        assertEquals(3000, decision.next.scanOnMillis);
+        dutyCycle = decision.next;
+        for (int i = 0; i < 10; i++) {
+            dutyCycle = policy.next(dutyCycle, cycle(2, 0, 1000)).next;
+        }
+        assertEquals(2000, dutyCycle.scanOnMillis);
+        // New device resets quiet period
+        decision = policy.next(dutyCycle, cycle(3, 1, 1000));
+        assertEquals("normal", decision.reason);
+        assertEquals(standard.scanOnMillis, decision.next.scanOnMillis);
+    }
+
+    @Test
+    public void testOverrun() {
+        final BLEScanDutyCyclePolicy policy = new BLEAdaptiveScanDutyCyclePolicy();
+        BLEScanDutyCycle dutyCycle = policy.initial();
+        BLEScanDutyCycleDecision decision = policy.next(dutyCycle, cycle(20, 5, standard.scanProcessMillis));
+        assertEquals("overrun|dense", decision.reason);
+        assertEquals(4000, decision.next.scanOffMillis);
+        dutyCycle = decision.next;
+        for (int i = 0; i < 10; i++) {
+            dutyCycle = policy.next(dutyCycle, cycle(2, 1, standard.scanProcessMillis)).next;
+        }
+        assertEquals(30000, dutyCycle.scanOffMillis);
+        // Wait halves after overrun until back to base
+        dutyCycle = policy.next(dutyCycle, cycle(2, 1, 1000)).next;
+        assertEquals(15000, dutyCycle.scanOffMillis);
+        for (int i = 0; i < 10; i++) {
+            dutyCycle = policy.next(dutyCycle, cycle(2, 1, 1000)).next;
+        }
+        assertEquals(standard, dutyCycle);
+    }
+
+    @Test
+    public void testLowBattery() {
+        final BLEScanDutyCyclePolicy policy = new BLEAdaptiveScanDutyCyclePolicy();
+        final BLEScanDutyCycle dutyCycle = policy.initial();
+        BLEScanDutyCycleDecision decision = policy.next(dutyCycle, cycle(20, 5, 1000, 15, false));
+        assertEquals("lowBattery", decision.reason);
+        assertEquals(2000, decision.next.scanOnMillis);
+        assertEquals(10000, decision.next.scanOffMillis);
+        // Charging
+        decision = policy.next(dutyCycle, cycle(20, 5, 1000, 15, true));
+        assertEquals("dense", decision.reason);
+        // Unknown battery level
+        decision = policy.next(dutyCycle, cycle(20, 5, 1000));
+        assertEquals("dense", decision.reason);
+    }
+
+    @Test
+    public void testRecorder() {
+        final BLEScanDutyCycleRecorder recorder = new BLEScanDutyCycleRecorder(2);
+        final BLEScanDutyCyclePolicy policy = new BLEFixedScanDutyCyclePolicy();
+        // Cycles of 10s, scanning for 4s, with 4, 6 and 8 devices
+        for (int i = 0; i < 3; i++) {
+            final BLEScanCycleStatistics cycle = new BLEScanCycleStatistics(1000 + i * 10000, 4000, 4 + i * 2, 1, 1000, BLEScanCycleStatistics.batteryLevelUnknown, false);
+            assertSame(standard, recorder.record(policy.next(standard, cycle)));
+        }
+        assertEquals(3, recorder.cycles());
+        assertEquals(2, recorder.decisions().size());
+        assertEquals(6, recorder.decisions().get(0).cycle.devices);
+        assertEquals(6, recorder.meanDevices(), Double.MIN_VALUE);
+        assertEquals(12000, recorder.scanOnMillis());
+        assertEquals(0.4, recorder.radioOnFraction(), 0.0001);
+        assertEquals(10000, recorder.meanPeriodMillis(), Double.MIN_VALUE);
+        assertEquals(10000, recorder.maxPeriodMillis());
+        assertTrue(recorder.toString().contains("radioOnFraction=0.4"));
+    }
+}
@@ -0,0 +1,132 @@
+//  Copyright 2020 VMware, Inc.
+//  SPDX-License-Identifier: Apache-2.0
+//
+
+package com.idcta.proj.sensor.ble;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class BLEScanResultCoalescerTests {
+
+    /// Scan result for tests
+    private final static class Advert {
+        private final String address;
+        private final int rssi;
+
+        private Advert(final String address, final int rssi) {
+            this.address = address;
+            this.rssi = rssi;
+        }
+    }
+
+    private static BLEScanResultCoalescer<Advert> coalescer(final int capacity) {
+        return new BLEScanResultCoalescer<Advert>(capacity) {
+            @Override
+            protected String address(Advert result) {
+                return result.address;
+            }
+
+            @Override
+            protected int rssi(Advert result) {
+                return result.rssi;
+            }
+        };
+    }
+
+    @Test
+    public void testCoalesce() {
+        final BLEScanResultCoalescer<Advert> coalescer = coalescer(10);
+        final Advert last = new Advert("A", -70);
+        assertTrue(coalescer.add(new Advert("A", -60)));
+        assertTrue(coalescer.add(new Advert("B", -80)));
+        assertTrue(coalescer.add(new Advert("A", -50)));
+        assertTrue(coalescer.add(last));
+        assertEquals(2, coalescer.size());
+        final List<BLEScanResultCoalescer.Entry<Advert>> entries = coalescer.drain();
+        assertEquals(2, entries.size());
+        // Order of first result per address
+        final BLEScanResultCoalescer.Entry<Advert> a = entries.get(0);
+        assertEquals("A", a.address);
+        assertSame(last, a.latest());
+        assertEquals(3, a.count());
+        assertEquals(-50, a.maxRssi());
+        assertEquals(-60, a.meanRssi(), Double.MIN_VALUE);
+        final BLEScanResultCoalescer.Entry<Advert> b = entries.get(1);
+        assertEquals("B", b.address);
+        assertEquals(1, b.count());
+        assertEquals(-80, b.maxRssi());
+        assertEquals(4, coalescer.raw());
+        assertEquals(2, coalescer.coalesced());
+    }
+
+    @Test
+    public void testDrainStartsNewWindow() {
+        final BLEScanResultCoalescer<Advert> coalescer = coalescer(10);
+        coalescer.add(new Advert("A", -60));
+        assertEquals(1, coalescer.drain().size());
+        assertEquals(0, coalescer.size());
+        assertEquals(0, coalescer.drain().size());
+        coalescer.add(new Advert("A", -90));
+        final List<BLEScanResultCoalescer.Entry<Advert>> entries = coalescer.drain();
+        assertEquals(1, entries.get(0).count());
+        assertEquals(-90, entries.get(0).maxRssi());
+        assertEquals(2, coalescer.raw());
+        assertEquals(2, coalescer.coalesced());
+    }
+
+    @Test
+    public void testCapacity() {
+        final BLEScanResultCoalescer<Advert> coalescer = coalescer(2);
+        assertTrue(coalescer.add(new Advert("A", -60)));
+        assertTrue(coalescer.add(new Advert("B", -60)));
+        // New address is dropped, known addresses are still updated
+        assertFalse(coalescer.add(new Advert("C", -60)));
+        assertTrue(coalescer.add(new Advert("A", -40)));
+        // Result without address is dropped
+        assertFalse(coalescer.add(new Advert(null, -60)));
+        assertEquals(2, coalescer.size());
+        assertEquals(2, coalescer.dropped());
+        assertEquals(-40, coalescer.drain().get(0).maxRssi());
+        // Capacity is released on drain
+        assertTrue(coalescer.add(new Advert("C", -60)));
+    }
+
+    @Test
+    public void testAddAll() {
+        final BLEScanResultCoalescer<Advert> coalescer = coalescer(2);
+        assertEquals(2, coalescer.addAll(Arrays.asList(new Advert("A", -60), new Advert("B", -70), new Advert("A", -50), new Advert("C", -60), new Advert(null, -60))));
+        assertEquals(5, coalescer.raw());
+        assertEquals(2, coalescer.dropped());
+        final List<BLEScanResultCoalescer.Entry<Advert>> entries = coalescer.drain();
+        assertEquals(2, entries.size());
+        assertEquals(2, entries.get(0).count());
+        assertEquals(-50, entries.get(0).maxRssi());
+    }
+
+    @Test
+    public void benchmarkCoalesce() {
+        // Low latency scan window, many adverts per device
+        final int devices = 200, advertsPerDevice = 40;
+        final BLEScanResultCoalescer<Advert> coalescer = coalescer(1000);
+        final long t0 = System.nanoTime();
+        for (int i = 0; i < advertsPerDevice; i++) {
+            for (int j = 0; j < devices; j++) {
+                coalescer.add(new Advert("device" + j, -50 - (i % 30)));
+            }
+        }
+        final List<BLEScanResultCoalescer.Entry<Advert>> entries = coalescer.drain();
+        final long t1 = System.nanoTime();
+        assertEquals(devices, entries.size());
+        System.out.println("benchmarkCoalesce (devices=" + devices + ",advertsPerDevice=" + advertsPerDevice + ")");
+        System.out.println("raw,coalesced,nsPerResult");
+        System.out.println(coalescer.raw() + "," + coalescer.coalesced() + "," + ((t1 - t0) / coalescer.raw()));
+    }
+}
@@ -0,0 +1,301 @@
+//  Copyright 2020 VMware, Inc.
+//  SPDX-License-Identifier: Apache-2.0
+//
+
+package com.idcta.proj.sensor.ble;
+
+import com.idcta.proj.sensor.datatype.Data;
+import com.idcta.proj.sensor.datatype.PayloadData;
+import com.idcta.proj.sensor.datatype.PayloadSharingData;
+import com.idcta.proj.sensor.datatype.RSSI;
+import com.idcta.proj.sensor.datatype.SignalCharacteristicData;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class BLESignalDataReassemblerTests {
+
+    /// Split data into write fragments
+    private static List<byte[]> fragments(final Data data, final int size) {
+        final List<byte[]> fragments = new ArrayList<>();
+        for (int i = 0; i < data.value.length; i += size) {
+            fragments.add(Arrays.copyOfRange(data.value, i, Math.min(data.value.length, i + size)));
+        }
+        return fragments;
+    }
+
+    private static Data payloadSharing(final int length) {
+        final byte[] bytes = new byte[length];
+        new Random(length).nextBytes(bytes);
+        return SignalCharacteristicData.encodeWritePayloadSharing(new PayloadSharingData(new RSSI(-50), new Data(bytes)));
+    }
+
+    @Test
+    public void testSingleFragment() {
+        final BLESignalDataReassembler reassembler = new BLESignalDataReassembler(8192, 30000, 4);
+        final Data rssi = SignalCharacteristicData.encodeWriteRssi(new RSSI(-50));
+        final Data data = reassembler.append("A", rssi.value, 0);
+        assertNotNull(data);
+        assertEquals(rssi, data);
+        assertEquals(0, reassembler.size());
+        assertEquals(1, reassembler.completed());
+    }
+
+    @Test
+    public void testFragments() {
+        final BLESignalDataReassembler reassembler = new BLESignalDataReassembler(8192, 30000, 4);
+        final Data expected = payloadSharing(510);
+        final List<byte[]> fragments = fragments(expected, 20);
+        for (int i = 0; i < fragments.size() - 1; i++) {
+            assertNull(reassembler.append("A", fragments.get(i), i));
+        }
+        // Buffer reserved for expected length once header is received
+        assertEquals(expected.value.length, reassembler.memory("A"));
+        final Data data = reassembler.append("A", fragments.get(fragments.size() - 1), fragments.size());
+        assertNotNull(data);
+        assertArrayEquals(expected.value, data.value);
+        assertEquals(510, SignalCharacteristicData.decodeWritePayloadSharing(data).data.value.length);
+        // Buffer released on completion, next write starts new data
+        assertEquals(0, reassembler.size());
+        assertEquals(0, reassembler.memory("A"));
+        final Data payload = SignalCharacteristicData.encodeWritePayload(new PayloadData(new byte[]{1, 2, 3}));
+        assertEquals(payload, reassembler.append("A", payload.value, 100));
+        // Linear copying, fragments, growth before header and complete data
+        assertTrue(reassembler.copied() < 4 * expected.value.length);
+    }
+
+    @Test
+    public void testHeaderAcrossFragments() {
+        final BLESignalDataReassembler reassembler = new BLESignalDataReassembler(8192, 30000, 4);
+        final Data expected = payloadSharing(100);
+        final List<byte[]> fragments = fragments(expected, 2);
+        Data data = null;
+        for (final byte[] fragment : fragments) {
+            data = reassembler.append("A", fragment, 0);
+        }
+        assertNotNull(data);
+        assertArrayEquals(expected.value, data.value);
+    }
+
+    @Test
+    public void testCentralsAreIndependent() {
+        final BLESignalDataReassembler reassembler = new BLESignalDataReassembler(8192, 30000, 4);
+        final Data a = payloadSharing(200);
+        final Data b = payloadSharing(300);
+        final List<byte[]> fragmentsA = fragments(a, 20);
+        final List<byte[]> fragmentsB = fragments(b, 20);
+        Data dataA = null, dataB = null;
+        for (int i = 0; i < Math.max(fragmentsA.size(), fragmentsB.size()); i++) {
+            if (i < fragmentsA.size()) {
+                dataA = reassembler.append("A", fragmentsA.get(i), 0);
+            }
+            if (i < fragmentsB.size()) {
+                dataB = reassembler.append("B", fragmentsB.get(i), 0);
+            }
+        }
+        assertArrayEquals(a.value, dataA.value);
+        assertArrayEquals(b.value, dataB.value);
+    }
+
+    @Test
+    public void testMaximumSize() {
+        final BLESignalDataReassembler reassembler = new BLESignalDataReassembler(256, 30000, 4);
+        // Expected length beyond maximum size is discarded once header is received
+        assertNull(reassembler.append("A", fragments(payloadSharing(510), 20).get(0), 0));
+        assertEquals(1, reassembler.oversized());
+        assertEquals(0, reassembler.size());
+        // Fragments beyond expected length are discarded once they exceed maximum size
+        final byte[] header = fragments(payloadSharing(250), 20).get(0);
+        assertNull(reassembler.append("B", header, 0));
+        for (int i = 0; i < 11; i++) {
+            assertNull(reassembler.append("B", new byte[20], 0));
+        }
+        assertEquals(1, reassembler.size());
+        assertNull(reassembler.append("B", new byte[40], 0));
+        assertEquals(2, reassembler.oversized());
+        assertEquals(0, reassembler.size());
+    }
+
+    @Test
+    public void testUnknown() {
+        final BLESignalDataReassembler reassembler = new BLESignalDataReassembler(256, 30000, 4);
+        // Unknown action code is discarded on first fragment rather than held until expiry
+        assertNull(reassembler.append("A", new byte[20], 0));
+        assertEquals(1, reassembler.unknown());
+        assertEquals(0, reassembler.size());
+        assertEquals(0, reassembler.memory("A"));
+        // Invalid length
+        assertNull(reassembler.append("A", new byte[]{BLESensorConfiguration.signalCharacteristicActionWritePayload, 0, (byte) 0x80}, 0));
+        assertEquals(2, reassembler.unknown());
+        assertEquals(0, reassembler.size());
+        // Known action code with incomplete header waits for further fragments
+        assertNull(reassembler.append("A", new byte[]{BLESensorConfiguration.signalCharacteristicActionWritePayloadSharing, 0}, 0));
+        assertEquals(1, reassembler.size());
+        assertEquals(2, reassembler.unknown());
+        // Next write by central is reassembled as usual
+        reassembler.remove("A");
+        final Data expected = payloadSharing(100);
+        Data data = null;
+        for (final byte[] fragment : fragments(expected, 20)) {
+            data = reassembler.append("A", fragment, 0);
+        }
+        assertNotNull(data);
+        assertArrayEquals(expected.value, data.value);
+        assertEquals(0, reassembler.oversized());
+    }
+
+    @Test
+    public void testExpiryAndRemove() {
+        final BLESignalDataReassembler reassembler = new BLESignalDataReassembler(8192, 30000, 4);
+        final List<byte[]> fragments = fragments(payloadSharing(510), 20);
+        reassembler.append("A", fragments.get(0), 0);
+        reassembler.append("B", fragments.get(0), 0);
+        reassembler.append("B", fragments.get(1), 20000);
+        assertEquals(2, reassembler.size());
+        assertTrue(reassembler.memory("A") > 0);
+        assertEquals(1, reassembler.expire(40000));
+        assertEquals(1, reassembler.expired());
+        assertEquals(0, reassembler.memory("A"));
+        assertEquals(1, reassembler.size());
+        reassembler.remove("B");
+        assertEquals(0, reassembler.size());
+        // Stale fragments do not corrupt next write
+        final Data expected = payloadSharing(100);
+        Data data = null;
+        for (final byte[] fragment : fragments(expected, 20)) {
+            data = reassembler.append("A", fragment, 50000);
+        }
+        assertArrayEquals(expected.value, data.value);
+    }
+
+    @Test
+    public void testPool() {
+        final BLESignalDataReassembler reassembler = new BLESignalDataReassembler(8192, 30000, 2);
+        final Data data = payloadSharing(510);
+        for (int i = 0; i < 10; i++) {
+            for (final byte[] fragment : fragments(data, 20)) {
+                reassembler.append("A", fragment, 0);
+            }
+        }
+        // Buffer is reused rather than allocated per write
+        final long memory = reassembler.memory();
+        assertEquals(515, memory);
+        for (int i = 0; i < 10; i++) {
+            for (final byte[] fragment : fragments(data, 20)) {
+                reassembler.append("A", fragment, 0);
+            }
+        }
+        assertEquals(memory, reassembler.memory());
+        // Pool holds at most capacity buffers
+        for (int i = 0; i < 5; i++) {
+            reassembler.append("C" + i, new byte[]{BLESensorConfiguration.signalCharacteristicActionWritePayload}, 0);
+        }
+        for (int i = 0; i < 5; i++) {
+            reassembler.remove("C" + i);
+        }
+        assertTrue(reassembler.memory() <= 2 * 515);
+    }
+
+    /// Previous implementation, concatenating all fragments on every write
+    private final static class Concatenation {
+        private final Map<String, byte[]> data = new ConcurrentHashMap<>();
+
+        private byte[] append(final String central, final byte[] value) {
+            byte[] partialData = data.get(central);
+            if (partialData == null) {
+                partialData = new byte[0];
+            }
+            final byte[] bytes = new byte[partialData.length + value.length];
+            System.arraycopy(partialData, 0, bytes, 0, partialData.length);
+            System.arraycopy(value, 0, bytes, partialData.length, value.length);
+            data.put(central, bytes);
+            return bytes;
+        }
+    }
+
+    /// Run centrals concurrently, each writing data in fragments, returns elapsed nanos.
+    private static long run(final int centrals, final int writes, final List<byte[]> fragments, final BLESignalDataReassembler reassembler, final Concatenation concatenation, final AtomicInteger completed) throws InterruptedException {
+        final CountDownLatch start = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(centrals);
+        final int expectedLength = SignalCharacteristicData.expectedLength(fragments.get(0), fragments.get(0).length);
+        for (int c = 0; c < centrals; c++) {
+            final String central = "central" + c;
+            final Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                        for (int w = 0; w < writes; w++) {
+                            for (final byte[] fragment : fragments) {
+                                if (reassembler != null) {
+                                    if (reassembler.append(central, fragment, 0) != null) {
+                                        completed.incrementAndGet();
+                                    }
+                                } else {
+                                    // Previous implementation attempts decode on every write
+                                    final byte[] bytes = concatenation.append(central, fragment);
+                                    if (SignalCharacteristicData.decodeWritePayloadSharing(new Data(bytes)) != null) {
+                                        completed.incrementAndGet();
+                                        concatenation.data.remove(central);
+                                    } else if (bytes.length > expectedLength) {
+                                        concatenation.data.remove(central);
+                                    }
+                                }
+                            }
+                        }
+                    } catch (InterruptedException e) {
+                        // Test interrupted
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            });
+            thread.setDaemon(true);
+            thread.start();
+        }
+        final long t0 = System.nanoTime();
+        start.countDown();
+        done.await();
+        return System.nanoTime() - t0;
+    }
+
+    @Test
+    public void benchmarkConcurrentCentrals() throws Exception {
+        final int centrals = 50, writes = 200;
+        final List<byte[]> fragments = fragments(payloadSharing(510), 20);
+        // Warm up
+        run(centrals, 20, fragments, new BLESignalDataReassembler(8192, 30000, 16), null, new AtomicInteger());
+        run(centrals, 20, fragments, null, new Concatenation(), new AtomicInteger());
+        System.out.println("benchmarkConcurrentCentrals (centrals=" + centrals + ",writes=" + writes + ",length=515,fragment=20)");
+        System.out.println("method,elapsedMillis,writesPerSecond,copiedBytesPerWrite,memoryBytes");
+        final AtomicInteger concatenationCompleted = new AtomicInteger();
+        final long concatenationElapsed = run(centrals, writes, fragments, null, new Concatenation(), concatenationCompleted);
+        long concatenationCopied = 0;
+        for (int i = 1; i <= fragments.size(); i++) {
+            concatenationCopied += Math.min(515, i * 20) * 2;
+        }
+        System.out.println("concatenation," + (concatenationElapsed / 1000000) + "," + (long) (centrals * writes / (concatenationElapsed / 1e9)) + "," + concatenationCopied + ",");
+        final BLESignalDataReassembler reassembler = new BLESignalDataReassembler(8192, 30000, 16);
+        final AtomicInteger completed = new AtomicInteger();
+        final long elapsed = run(centrals, writes, fragments, reassembler, null, completed);
+        System.out.println("reassembler," + (elapsed / 1000000) + "," + (long) (centrals * writes / (elapsed / 1e9)) + "," + (reassembler.copied() / (centrals * writes)) + "," + reassembler.memory());
+        assertEquals(centrals * writes, completed.get());
+        assertEquals(centrals * writes, concatenationCompleted.get());
+        assertEquals(centrals * writes, reassembler.completed());
+        assertEquals(0, reassembler.size());
+    }
+}
@@ -0,0 +1,322 @@
+//  Copyright 2020 VMware, Inc.
+//  SPDX-License-Identifier: Apache-2.0
+//
+
+package com.idcta.proj.sensor.ble;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Executor;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class BLETimerSchedulerTests {
+
+    /// Clock that is advanced by test
+    private final static class FakeClock extends BLETimerScheduler.Clock {
+        private long now = 0;
+
+        @Override
+        public long now() {
+            return now;
+        }
+    }
+
+    /// Run delegates on calling thread
+    private final static Executor direct = new Executor() {
+        @Override
+        public void execute(Runnable runnable) {
+            runnable.run();
+        }
+    };
+
+    /// Scheduler running all lanes on given executor
+    private static BLETimerScheduler scheduler(final BLETimerScheduler.Clock clock, final Executor executor) {
+        return new BLETimerScheduler(clock) {
+            @Override
+            protected Executor lane(BLETimerDelegate delegate) {
+                return executor;
+            }
+        };
+    }
+
+    /// Executor holding tasks until run by test
+    private final static class ManualExecutor implements Executor {
+        private final List<Runnable> queue = new ArrayList<>();
+
+        @Override
+        public void execute(Runnable runnable) {
+            queue.add(runnable);
+        }
+
+        private void runAll() {
+            final List<Runnable> runnables = new ArrayList<>(queue);
+            queue.clear();
+            for (final Runnable runnable : runnables) {
+                runnable.run();
+            }
+        }
+    }
+
+    /// Delegate recording tick times
+    private static class Recorder implements BLETimerDelegate {
+        private final List<Long> ticks = new ArrayList<>();
+
+        @Override
+        public void bleTimer(long currentTimeMillis) {
+            ticks.add(currentTimeMillis);
+        }
+    }
+
+    /// Run scheduler until time, waking at each earliest deadline plus delay.
+    private static void run(final BLETimerScheduler scheduler, final FakeClock clock, final long until, final long delay) {
+        long deadline = scheduler.tick();
+        while (deadline + delay <= until) {
+            clock.now = Math.max(clock.now, deadline + delay);
+            deadline = scheduler.tick();
+        }
+        clock.now = until;
+    }
+
+    @Test
+    public void testPeriods() {
+        final FakeClock clock = new FakeClock();
+        final BLETimerScheduler scheduler = scheduler(clock, direct);
+        final Recorder fast = new Recorder();
+        final Recorder slow = new Recorder();
+        scheduler.add(fast, 1000, 1000);
+        scheduler.add(slow, 5000, 5000);
+        run(scheduler, clock, 10000, 0);
+        assertEquals(10, fast.ticks.size());
+        assertEquals(2, slow.ticks.size());
+        assertEquals(5000, (long) slow.ticks.get(0));
+        assertEquals(10000, (long) slow.ticks.get(1));
+        // Initial wake, then one wake per distinct deadline, slow delegate does not add wakes
+        assertEquals(11, scheduler.wakeups());
+        assertEquals(0, scheduler.statistics(fast).drift.max(), Double.MIN_VALUE);
+    }
+
+    @Test
+    public void testFixedRate() {
+        final FakeClock clock = new FakeClock();
+        final BLETimerScheduler scheduler = scheduler(clock, direct);
+        final Recorder recorder = new Recorder();
+        scheduler.add(recorder, 1000, 1000);
+        // Every wake is 30ms late, but lateness does not accumulate
+        run(scheduler, clock, 10100, 30);
+        assertEquals(10, recorder.ticks.size());
+        for (int i = 0; i < recorder.ticks.size(); i++) {
+            assertEquals((i + 1) * 1000 + 30, (long) recorder.ticks.get(i));
+        }
+        final BLETimerScheduler.Statistics statistics = scheduler.statistics(recorder);
+        assertEquals(10, statistics.ticks());
+        assertEquals(30, statistics.drift.mean(), Double.MIN_VALUE);
+        assertArrayEquals(new long[]{0, 0, 10, 0, 0, 0}, statistics.driftHistogram());
+    }
+
+    @Test
+    public void testMissedTicks() {
+        final FakeClock clock = new FakeClock();
+        final BLETimerScheduler scheduler = scheduler(clock, direct);
+        final Recorder recorder = new Recorder();
+        scheduler.add(recorder, 1000, 1000);
+        // Thread delayed for several periods, e.g. deep sleep
+        clock.now = 4500;
+        assertEquals(5500, scheduler.tick());
+        assertEquals(1, recorder.ticks.size());
+        final BLETimerScheduler.Statistics statistics = scheduler.statistics(recorder);
+        assertEquals(3, statistics.missed());
+        assertArrayEquals(new long[]{0, 0, 0, 0, 1, 0}, statistics.driftHistogram());
+    }
+
+    @Test
+    public void testSchedule() {
+        final FakeClock clock = new FakeClock();
+        final BLETimerScheduler scheduler = scheduler(clock, direct);
+        final Recorder recorder = new Recorder();
+        scheduler.add(recorder, 1000, 1000);
+        assertEquals(1000, scheduler.tick());
+        // Earlier deadline for time critical action
+        scheduler.schedule(recorder, 250);
+        assertEquals(250, scheduler.tick());
+        clock.now = 250;
+        assertEquals(1250, scheduler.tick());
+        // Later deadline skips ticks
+        scheduler.schedule(recorder, 4250);
+        clock.now = 1250;
+        assertEquals(4250, scheduler.tick());
+        assertEquals(1, recorder.ticks.size());
+        assertNull(scheduler.statistics(new Recorder()));
+    }
+
+    @Test
+    public void testRescheduleFromDelegate() {
+        final FakeClock clock = new FakeClock();
+        final BLETimerScheduler scheduler = scheduler(clock, direct);
+        final BLETimerDelegate delegate = new BLETimerDelegate() {
+            @Override
+            public void bleTimer(long currentTimeMillis) {
+                scheduler.schedule(this, currentTimeMillis + 3000);
+            }
+        };
+        scheduler.add(delegate, 1000, 1000);
+        clock.now = 1000;
+        scheduler.tick();
+        assertEquals(4000, scheduler.tick());
+    }
+
+    @Test
+    public void testSkipWhileRunning() {
+        final FakeClock clock = new FakeClock();
+        final ManualExecutor lane = new ManualExecutor();
+        final BLETimerScheduler scheduler = scheduler(clock, lane);
+        final Recorder recorder = new Recorder();
+        scheduler.add(recorder, 1000, 1000);
+        clock.now = 1000;
+        scheduler.tick();
+        assertEquals(1, lane.queue.size());
+        // Previous tick has not run, further ticks are skipped rather than queued
+        clock.now = 2000;
+        scheduler.tick();
+        clock.now = 3000;
+        scheduler.tick();
+        assertEquals(1, lane.queue.size());
+        lane.runAll();
+        assertEquals(1, recorder.ticks.size());
+        final BLETimerScheduler.Statistics statistics = scheduler.statistics(recorder);
+        assertEquals(2, statistics.skipped());
+        // Next tick runs once previous tick is complete
+        clock.now = 4000;
+        scheduler.tick();
+        lane.runAll();
+        assertEquals(2, recorder.ticks.size());
+        assertEquals(2, statistics.ticks());
+    }
+
+    @Test
+    public void testIsolation() {
+        final FakeClock clock = new FakeClock();
+        final ManualExecutor blockedLane = new ManualExecutor();
+        final Recorder blocked = new Recorder();
+        final Recorder other = new Recorder();
+        final BLETimerScheduler scheduler = new BLETimerScheduler(clock) {
+            @Override
+            protected Executor lane(BLETimerDelegate delegate) {
+                return (delegate == blocked ? blockedLane : direct);
+            }
+        };
+        scheduler.add(blocked, 1000, 1000);
+        scheduler.add(other, 1000, 1000);
+        run(scheduler, clock, 5000, 0);
+        assertEquals(0, blocked.ticks.size());
+        assertEquals(5, other.ticks.size());
+        assertEquals(4, scheduler.statistics(blocked).skipped());
+    }
+
+    @Test
+    public void testWatchdog() {
+        final FakeClock clock = new FakeClock();
+        final ManualExecutor lane = new ManualExecutor();
+        final BLETimerScheduler scheduler = scheduler(clock, lane);
+        final BLETimerDelegate slow = new BLETimerDelegate() {
+            @Override
+            public void bleTimer(long currentTimeMillis) {
+                clock.now += 700;
+            }
+        };
+        scheduler.add(slow, 1000, 500);
+        clock.now = 1000;
+        // Timer wakes at budget expiry to check delegate
+        assertEquals(1501, scheduler.tick());
+        final BLETimerScheduler.Statistics statistics = scheduler.statistics(slow);
+        clock.now = 1501;
+        scheduler.tick();
+        assertEquals(1, statistics.overruns());
+        // Overrun is reported once per tick
+        clock.now = 1600;
+        scheduler.tick();
+        lane.runAll();
+        assertEquals(1, statistics.overruns());
+        assertEquals(700, statistics.executionTime.mean(), Double.MIN_VALUE);
+        // Overrun detected on completion
+        clock.now = 3000;
+        scheduler.tick();
+        lane.runAll();
+        assertEquals(2, statistics.overruns());
+        assertEquals(2, statistics.ticks());
+    }
+
+    @Test
+    public void testLaneThreads() throws Exception {
+        final BLETimerScheduler scheduler = new BLETimerScheduler(BLETimerScheduler.systemClock);
+        final List<String> threads = new ArrayList<>();
+        final BLETimerDelegate delegate = new BLETimerDelegate() {
+            @Override
+            public void bleTimer(long currentTimeMillis) {
+                synchronized (threads) {
+                    threads.add(Thread.currentThread().getName());
+                    threads.notifyAll();
+                }
+            }
+        };
+        scheduler.add(delegate, 10, 10);
+        Thread.sleep(20);
+        scheduler.tick();
+        synchronized (threads) {
+            if (threads.isEmpty()) {
+                threads.wait(1000);
+            }
+        }
+        assertEquals(1, threads.size());
+        assertTrue(threads.get(0).startsWith("Sensor.BLETimer."));
+    }
+
+    @Test
+    public void testAwait() throws Exception {
+        final BLETimerScheduler scheduler = scheduler(BLETimerScheduler.systemClock, direct);
+        final long t0 = System.currentTimeMillis();
+        // Rescheduled by add, returns immediately
+        scheduler.add(new Recorder(), 1000, 1000);
+        scheduler.await(t0 + 10000);
+        assertTrue(System.currentTimeMillis() - t0 < 1000);
+        final long t1 = System.currentTimeMillis();
+        scheduler.await(t1 + 50);
+        assertTrue(System.currentTimeMillis() - t1 >= 50);
+    }
+
+    @Test
+    public void benchmarkWakeups() {
+        // One hour with a 1Hz scan loop, 1Hz advert loop and a delegate every 10s, comparing
+        // 500ms polling with deadline scheduling, with random wake latency up to 20ms
+        final long hour = 3600000;
+        final FakeClock clock = new FakeClock();
+        final BLETimerScheduler scheduler = scheduler(clock, direct);
+        final Recorder scan = new Recorder();
+        final Recorder advert = new Recorder();
+        final Recorder housekeeping = new Recorder();
+        scheduler.add(scan, 1000, 1000);
+        scheduler.add(advert, 1000, 1000);
+        scheduler.add(housekeeping, 10000, 10000);
+        final Random random = new Random(0);
+        long deadline = scheduler.tick();
+        while (deadline < hour) {
+            clock.now = deadline + random.nextInt(20);
+            deadline = scheduler.tick();
+        }
+        final long pollingWakeups = hour / 500;
+        System.out.println("benchmarkWakeups (period=1h,delegates=1s,1s,10s,wakeLatency<20ms)");
+        System.out.println("scheduler,wakeups,meanDriftMillis,maxDriftMillis,missed");
+        System.out.println("polling500ms," + pollingWakeups + ",,,");
+        System.out.println("deadline," + scheduler.wakeups() + "," + Math.round(scheduler.statistics(scan).drift.mean()) + "," + Math.round(scheduler.statistics(scan).drift.max()) + "," + scheduler.statistics(scan).missed());
+        assertEquals(0, scheduler.statistics(scan).missed());
+        assertTrue(scheduler.wakeups() <= pollingWakeups / 2 + 1);
+        assertEquals(360, housekeeping.ticks.size(), 1);
+        assertEquals(0, scheduler.statistics(scan).skipped());
+    }
+}
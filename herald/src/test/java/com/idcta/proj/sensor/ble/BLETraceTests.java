@@ -0,0 +1,143 @@
+//  Copyright 2020 VMware, Inc.
+//  SPDX-License-Identifier: Apache-2.0
+//
+
+package com.idcta.proj.sensor.ble;
+
+
+import org.junit.Test;
+
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static com.idcta.proj.sensor.ble.BLEDeviceFixtures.device;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class BLETraceTests {
+    private final static long millis = 1000000;
+
+    private static int count(final String s, final String pattern) {
+        final Matcher matcher = Pattern.compile(pattern).matcher(s);
+        int count = 0;
+        while (matcher.find()) {
+            count++;
+        }
+        return count;
+    }
+
+    @Test
+    public void testDisabled() {
+        final BLETrace trace = new BLETrace(0);
+        assertFalse(trace.isEnabled());
+        trace.span(BLETrace.scanLane, "scan", "scanStarted", trace.now());
+        trace.phase(device(), "connect");
+        assertEquals(0, trace.size());
+        assertEquals("{\"traceEvents\":[],\"displayTimeUnit\":\"ms\"}", trace.chromeTrace());
+    }
+
+    @Test
+    public void testSpan() {
+        final BLETrace trace = new BLETrace(16);
+        final long start = trace.now();
+        trace.record(BLETrace.scanLane, "scan", "scanStarted", start, start + 4000 * millis);
+        assertEquals(1, trace.size());
+        final String json = trace.chromeTrace();
+        assertTrue(json.startsWith("{\"traceEvents\":["));
+        assertTrue(json.contains("{\"name\":\"thread_name\",\"ph\":\"M\",\"pid\":1,\"tid\":1,\"args\":{\"name\":\"scan\"}}"));
+        assertTrue(json.contains("\"name\":\"scanStarted\",\"cat\":\"scan\",\"ph\":\"X\""));
+        assertTrue(json.contains("\"dur\":4000000,"));
+        // Timestamp is epoch time in micros
+        final Matcher ts = Pattern.compile("\"ts\":(\\d+)").matcher(json);
+        assertTrue(ts.find());
+        assertTrue(Math.abs(Long.parseLong(ts.group(1)) / 1000 - System.currentTimeMillis()) < 1000);
+    }
+
+    @Test
+    public void testPhases() {
+        final BLETrace trace = new BLETrace(16);
+        final BLEDevice device = device();
+        trace.phase(device, "connect");
+        assertEquals(0, trace.size());
+        trace.phase(device, "discoverServices");
+        trace.phase(device, "readPayload");
+        trace.phase(device, "disconnect");
+        trace.endPhase(device);
+        assertNull(device.tracePhase);
+        assertEquals(4, trace.size());
+        // Ending again has no effect
+        trace.endPhase(device);
+        assertEquals(4, trace.size());
+        final String json = trace.chromeTrace();
+        assertTrue(json.contains("{\"name\":\"thread_name\",\"ph\":\"M\",\"pid\":1,\"tid\":1,\"args\":{\"name\":\"" + device.identifier.value + "\"}}"));
+        assertTrue(json.indexOf("\"connect\"") < json.indexOf("\"discoverServices\""));
+        assertTrue(json.indexOf("\"readPayload\"") < json.indexOf("\"disconnect\""));
+        assertEquals(4, count(json, "\"cat\":\"connection\""));
+    }
+
+    @Test
+    public void testRingBuffer() {
+        final BLETrace trace = new BLETrace(4);
+        final long start = trace.now();
+        for (int i = 0; i < 10; i++) {
+            trace.record(BLETrace.scanLane, "scan", "span" + i, start + i * millis, start + (i + 1) * millis);
+        }
+        assertEquals(4, trace.size());
+        assertEquals(6, trace.dropped());
+        final String json = trace.chromeTrace();
+        assertFalse(json.contains("\"span5\""));
+        // Oldest first
+        assertTrue(json.indexOf("\"span6\"") < json.indexOf("\"span9\""));
+        assertEquals(4, count(json, "\"ph\":\"X\""));
+    }
+
+    @Test
+    public void testLanes() {
+        final BLETrace trace = new BLETrace(16);
+        final BLEDevice a = device();
+        final BLEDevice b = device();
+        trace.phase(a, "connect");
+        trace.phase(b, "connect");
+        trace.span(BLETrace.scanLane, "process", "taskConnect", trace.now());
+        trace.endPhase(a);
+        trace.endPhase(b);
+        final String json = trace.chromeTrace();
+        assertEquals(3, count(json, "\"thread_name\""));
+        assertEquals(1, count(json, "\"tid\":3,\"args\""));
+    }
+
+    @Test
+    public void testEscape() {
+        final BLETrace trace = new BLETrace(2);
+        trace.record("lane \"1\"\\", "cat", "name\n", 0, 0);
+        final String json = trace.chromeTrace();
+        assertTrue(json.contains("\"lane \\\"1\\\"\\\\\""));
+        assertTrue(json.contains("\"name\\u000a\""));
+    }
+
+    @Test
+    public void benchmarkRecord() {
+        final int spans = 1000000;
+        final BLETrace trace = new BLETrace(16384);
+        final BLEDevice device = device();
+        final String[] phases = new String[]{"connect", "discoverServices", "readPayload", "disconnect"};
+        // Warm up
+        for (int i = 0; i < spans; i++) {
+            trace.phase(device, phases[i % phases.length]);
+        }
+        final long start = System.nanoTime();
+        for (int i = 0; i < spans; i++) {
+            trace.phase(device, phases[i % phases.length]);
+        }
+        final long elapsed = System.nanoTime() - start;
+        final long exportStart = System.nanoTime();
+        final String json = trace.chromeTrace();
+        final long exportElapsed = System.nanoTime() - exportStart;
+        System.out.println("benchmarkRecord (spans=" + spans + ",capacity=16384)");
+        System.out.println("operation,nanosPerSpan,exportMillis,exportBytes");
+        System.out.println("phase," + (elapsed / spans) + "," + (exportElapsed / 1000000) + "," + json.length());
+        assertEquals(16384, trace.size());
+    }
+}
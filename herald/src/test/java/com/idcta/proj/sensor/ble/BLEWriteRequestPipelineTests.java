@@ -0,0 +1,237 @@
+//  Copyright 2020 VMware, Inc.
+//  SPDX-License-Identifier: Apache-2.0
+//
+
+package com.idcta.proj.sensor.ble;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+public class BLEWriteRequestPipelineTests {
+
+    /// Executor holding tasks until run by test
+    private final static class ManualExecutor implements Executor {
+        private final List<Runnable> queue = new ArrayList<>();
+
+        @Override
+        public void execute(Runnable runnable) {
+            queue.add(runnable);
+        }
+
+        private void runAll() {
+            final List<Runnable> runnables = new ArrayList<>(queue);
+            queue.clear();
+            for (final Runnable runnable : runnables) {
+                runnable.run();
+            }
+        }
+    }
+
+    /// Pipeline running each lane on a manual executor
+    private static BLEWriteRequestPipeline pipeline(final ManualExecutor[] lanes, final int capacity) {
+        for (int i = 0; i < lanes.length; i++) {
+            lanes[i] = new ManualExecutor();
+        }
+        return new BLEWriteRequestPipeline(lanes.length, capacity) {
+            @Override
+            protected Executor lane(int index) {
+                return lanes[index];
+            }
+        };
+    }
+
+    /// Task recording central and sequence number
+    private static Runnable record(final List<String> log, final String central, final int sequence) {
+        return new Runnable() {
+            @Override
+            public void run() {
+                synchronized (log) {
+                    log.add(central + sequence);
+                }
+            }
+        };
+    }
+
+    @Test
+    public void testDepth() {
+        final ManualExecutor[] lanes = new ManualExecutor[2];
+        final BLEWriteRequestPipeline pipeline = pipeline(lanes, 16);
+        final List<String> log = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            assertTrue(pipeline.submit("A", record(log, "A", i)));
+        }
+        assertEquals(5, pipeline.depth());
+        for (final ManualExecutor lane : lanes) {
+            lane.runAll();
+        }
+        assertEquals(0, pipeline.depth());
+        assertEquals(5, pipeline.maxDepth());
+        assertEquals(5, pipeline.submitted());
+        assertEquals(5, pipeline.processed());
+        assertEquals(Arrays.asList("A0", "A1", "A2", "A3", "A4"), log);
+    }
+
+    @Test
+    public void testCapacity() {
+        final ManualExecutor[] lanes = new ManualExecutor[1];
+        final BLEWriteRequestPipeline pipeline = pipeline(lanes, 3);
+        final List<String> log = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            assertTrue(pipeline.submit("A", record(log, "A", i)));
+        }
+        // Writes beyond capacity are dropped rather than blocking caller
+        assertFalse(pipeline.submit("A", record(log, "A", 3)));
+        assertEquals(1, pipeline.dropped());
+        assertEquals(3, pipeline.depth());
+        lanes[0].runAll();
+        // Capacity is available again once processed
+        assertTrue(pipeline.submit("A", record(log, "A", 4)));
+        lanes[0].runAll();
+        assertEquals(Arrays.asList("A0", "A1", "A2", "A4"), log);
+    }
+
+    @Test
+    public void testFailure() {
+        final ManualExecutor[] lanes = new ManualExecutor[1];
+        final BLEWriteRequestPipeline pipeline = pipeline(lanes, 16);
+        final List<String> log = new ArrayList<>();
+        pipeline.submit("A", new Runnable() {
+            @Override
+            public void run() {
+                throw new IllegalStateException();
+            }
+        });
+        pipeline.submit("A", record(log, "A", 1));
+        lanes[0].runAll();
+        assertEquals(1, pipeline.failed());
+        assertEquals(2, pipeline.processed());
+        assertEquals(0, pipeline.depth());
+        assertEquals(Arrays.asList("A1"), log);
+    }
+
+    @Test
+    public void testLaneIndex() {
+        final BLEWriteRequestPipeline pipeline = pipeline(new ManualExecutor[4], 16);
+        // Central is always on the same lane
+        assertEquals(pipeline.laneIndex("00:11:22:33:44:55"), pipeline.laneIndex("00:11:22:33:44:55"));
+        final boolean[] used = new boolean[4];
+        for (int i = 0; i < 100; i++) {
+            final int index = pipeline.laneIndex("00:11:22:33:44:" + i);
+            assertTrue(index >= 0 && index < 4);
+            used[index] = true;
+        }
+        for (final boolean lane : used) {
+            assertTrue(lane);
+        }
+        assertEquals(0, pipeline.laneIndex(null));
+    }
+
+    @Test
+    public void testOrderPerCentral() throws Exception {
+        final BLEWriteRequestPipeline pipeline = new BLEWriteRequestPipeline(4, 100000);
+        final int centrals = 20, writes = 500;
+        final Map<String, List<Integer>> log = new ConcurrentHashMap<>();
+        final CountDownLatch done = new CountDownLatch(centrals * writes);
+        final List<String> threads = new ArrayList<>();
+        for (int w = 0; w < writes; w++) {
+            for (int c = 0; c < centrals; c++) {
+                final String central = "central" + c;
+                final int sequence = w;
+                pipeline.submit(central, new Runnable() {
+                    @Override
+                    public void run() {
+                        List<Integer> sequences = log.get(central);
+                        if (sequences == null) {
+                            sequences = new ArrayList<>();
+                            log.put(central, sequences);
+                        }
+                        sequences.add(sequence);
+                        synchronized (threads) {
+                            if (!threads.contains(Thread.currentThread().getName())) {
+                                threads.add(Thread.currentThread().getName());
+                            }
+                        }
+                        done.countDown();
+                    }
+                });
+            }
+        }
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        assertEquals(centrals, log.size());
+        for (final List<Integer> sequences : log.values()) {
+            assertEquals(writes, sequences.size());
+            for (int i = 0; i < writes; i++) {
+                assertEquals(i, (int) sequences.get(i));
+            }
+        }
+        assertTrue(threads.size() > 1);
+        for (final String thread : threads) {
+            assertTrue(thread.startsWith("BLE.WriteRequestPipeline-"));
+        }
+        assertEquals(0, pipeline.dropped());
+    }
+
+    @Test
+    public void benchmarkBinderThread() throws Exception {
+        // Binder thread handling writes from centrals with a delegate taking 1ms per write,
+        // e.g. CSV file logger, comparing processing before response with the pipeline
+        final int centrals = 4, writes = 50;
+        final Runnable delegate = new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    Thread.sleep(1);
+                } catch (InterruptedException e) {
+                    // Test interrupted
+                }
+            }
+        };
+        System.out.println("benchmarkBinderThread (centrals=" + centrals + ",writes=" + writes + ",delegate=1ms)");
+        System.out.println("method,binderMillis,meanResponseMicros,maxDepth,dropped");
+        long t0 = System.nanoTime();
+        for (int i = 0; i < centrals * writes; i++) {
+            delegate.run();
+        }
+        final long inline = System.nanoTime() - t0;
+        System.out.println("inline," + (inline / 1000000) + "," + (inline / 1000 / (centrals * writes)) + ",,");
+        final BLEWriteRequestPipeline pipeline = new BLEWriteRequestPipeline(2, 256);
+        final CountDownLatch done = new CountDownLatch(centrals * writes);
+        t0 = System.nanoTime();
+        for (int w = 0; w < writes; w++) {
+            for (int c = 0; c < centrals; c++) {
+                pipeline.submit("central" + c, new Runnable() {
+                    @Override
+                    public void run() {
+                        delegate.run();
+                        done.countDown();
+                    }
+                });
+            }
+        }
+        final long pipelined = System.nanoTime() - t0;
+        System.out.println("pipeline," + (pipelined / 1000000) + "," + (pipelined / 1000 / (centrals * writes)) + "," + pipeline.maxDepth() + "," + pipeline.dropped());
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        // Depth is decremented after the task has run
+        final long deadline = System.currentTimeMillis() + 10000;
+        while (pipeline.depth() > 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(1);
+        }
+        assertEquals(0, pipeline.depth());
+        assertEquals(centrals * writes, pipeline.processed());
+        assertNotEquals(0, pipeline.maxDepth());
+        assertTrue(pipelined < inline);
+    }
+}
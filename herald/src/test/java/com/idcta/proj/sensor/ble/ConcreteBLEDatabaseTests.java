@@ -0,0 +1,185 @@
+//  Copyright 2020 VMware, Inc.
+//  SPDX-License-Identifier: Apache-2.0
+//
+
+package com.idcta.proj.sensor.ble;
+
+import com.idcta.proj.sensor.datatype.PayloadData;
+import com.idcta.proj.sensor.datatype.PayloadSharingData;
+import com.idcta.proj.sensor.datatype.RSSI;
+import com.idcta.proj.sensor.datatype.TargetIdentifier;
+import com.idcta.proj.sensor.datatype.TimeInterval;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class ConcreteBLEDatabaseTests {
+
+    @Test
+    public void testDeviceByPayloadData() {
+        final ConcreteBLEDatabase database = new ConcreteBLEDatabase();
+        final BLEDevice device = database.device(new PayloadData(new byte[]{1, 2, 3}));
+        assertEquals(1, database.devices().size());
+        // Same payload, distinct instance
+        assertSame(device, database.device(new PayloadData(new byte[]{1, 2, 3})));
+        assertEquals(1, database.devices().size());
+        // Different payload
+        final BLEDevice other = database.device(new PayloadData(new byte[]{4, 5, 6}));
+        assertNotSame(device, other);
+        assertEquals(2, database.devices().size());
+    }
+
+    @Test
+    public void testDeviceByPayloadDataAfterPayloadChange() {
+        final ConcreteBLEDatabase database = new ConcreteBLEDatabase();
+        final BLEDevice device = database.device(new PayloadData(new byte[]{1, 2, 3}));
+        device.payloadData(new PayloadData(new byte[]{7, 8, 9}));
+        assertSame(device, database.device(new PayloadData(new byte[]{7, 8, 9})));
+        final BLEDevice newDevice = database.device(new PayloadData(new byte[]{1, 2, 3}));
+        assertNotSame(device, newDevice);
+        assertEquals(2, database.devices().size());
+    }
+
+    @Test
+    public void testDeviceByPayloadDataFirstMatch() {
+        final ConcreteBLEDatabase database = new ConcreteBLEDatabase();
+        final BLEDevice first = database.device(new PayloadData(new byte[]{1, 2, 3}));
+        final BLEDevice second = database.device(new PayloadData(new byte[]{4, 5, 6}));
+        // Second device acquires the same payload later, first match is retained
+        second.payloadData(new PayloadData(new byte[]{1, 2, 3}));
+        assertSame(first, database.device(new PayloadData(new byte[]{1, 2, 3})));
+        // Delete first match, the other device with the same payload is found
+        database.delete(first.identifier);
+        assertSame(second, database.device(new PayloadData(new byte[]{1, 2, 3})));
+    }
+
+    @Test
+    public void testDeviceByPayloadDataAfterDelete() {
+        final ConcreteBLEDatabase database = new ConcreteBLEDatabase();
+        final BLEDevice device = database.device(new PayloadData(new byte[]{1, 2, 3}));
+        database.delete(device.identifier);
+        assertEquals(0, database.devices().size());
+        // Stale device updates must not be indexed
+        device.payloadData(new PayloadData(new byte[]{1, 2, 3}));
+        final BLEDevice newDevice = database.device(new PayloadData(new byte[]{1, 2, 3}));
+        assertNotSame(device, newDevice);
+        assertEquals(1, database.devices().size());
+    }
+
+    @Test
+    public void testForEach() {
+        final ConcreteBLEDatabase database = new ConcreteBLEDatabase();
+        final BLEDevice ios = database.device(new PayloadData(new byte[]{1}));
+        ios.operatingSystem(BLEDeviceOperatingSystem.ios);
+        final BLEDevice android = database.device(new PayloadData(new byte[]{2}));
+        android.operatingSystem(BLEDeviceOperatingSystem.android);
+        final BLEDevice old = database.device(new PayloadData(new byte[]{3}));
+        old.operatingSystem(BLEDeviceOperatingSystem.ios);
+        old.lastUpdatedAt = new Date(System.currentTimeMillis() - TimeInterval.minutes(2).millis());
+        final List<BLEDevice> visited = new ArrayList<>();
+        final BLEDeviceVisitor collector = new BLEDeviceVisitor() {
+            @Override
+            public boolean visit(BLEDevice device) {
+                visited.add(device);
+                return true;
+            }
+        };
+        assertEquals(3, database.forEach(BLEDevicePredicates.all, collector));
+        visited.clear();
+        assertEquals(2, database.forEach(BLEDevicePredicates.operatingSystem(BLEDeviceOperatingSystem.ios), collector));
+        assertTrue(visited.contains(ios) && visited.contains(old));
+        visited.clear();
+        assertEquals(1, database.forEach(BLEDevicePredicates.and(
+                BLEDevicePredicates.hasPayloadData,
+                BLEDevicePredicates.operatingSystem(BLEDeviceOperatingSystem.ios),
+                BLEDevicePredicates.updatedWithin(TimeInterval.minute)), collector));
+        assertSame(ios, visited.get(0));
+        // Stop iteration early
+        assertEquals(1, database.forEach(BLEDevicePredicates.all, new BLEDeviceVisitor() {
+            @Override
+            public boolean visit(BLEDevice device) {
+                return false;
+            }
+        }));
+    }
+
+    @Test
+    public void testPayloadSharingMemoOnScan() {
+        final ConcreteBLEDatabase database = new ConcreteBLEDatabase();
+        final BLEDevice candidate = database.device(new PayloadData(new byte[]{1, 2, 3}));
+        candidate.operatingSystem(BLEDeviceOperatingSystem.ios);
+        final BLEDevice peer = database.device(new PayloadData(new byte[]{4, 5, 6}));
+        peer.rssi(new RSSI(-50));
+        final PayloadSharingData data = database.payloadSharingData(peer);
+        assertEquals(3, data.data.value.length);
+        // Measurement updates from scan results do not change the candidate set
+        candidate.rssi(new RSSI(-40));
+        candidate.txPower(new BLE_TxPower(10));
+        assertSame(data, database.payloadSharingData(peer));
+        // Candidate set changes with payload
+        candidate.payloadData(new PayloadData(new byte[]{7, 8, 9}));
+        assertNotSame(data, database.payloadSharingData(peer));
+    }
+
+    // MARK:- Benchmark
+
+    /// Scan record advertising pseudo device address.
+    private static byte[] scanRecord(final long pseudoDeviceAddress) {
+        final byte[] scanRecord = new byte[]{0x02, 0x01, 0x1a, 0x09, (byte) 0xff, (byte) 0xfa, (byte) 0xff, 0, 0, 0, 0, 0, 0};
+        for (int i = 0; i < 6; i++) {
+            scanRecord[7 + i] = (byte) (pseudoDeviceAddress >> (i * 8));
+        }
+        return scanRecord;
+    }
+
+    /// Time taken by database to process scan results from peripherals advertising pseudo
+    /// addresses, with the given number of tracked devices, returns best of 10 rounds.
+    private static long scanProcessingNanos(final int trackedDevices, final int scanResults) {
+        final ConcreteBLEDatabase database = new ConcreteBLEDatabase();
+        final TargetIdentifier[] identifiers = new TargetIdentifier[trackedDevices];
+        for (int i = 0; i < trackedDevices; i++) {
+            // Every second device shares its pseudo address with the previous device (address rotation)
+            identifiers[i] = new TargetIdentifier();
+            database.device(identifiers[i], null, scanRecord(i / 2));
+        }
+        assertEquals(trackedDevices, database.devices().size());
+        long best = Long.MAX_VALUE;
+        for (int round = 0; round < 10; round++) {
+            // Scan records are new for every scan result
+            final int[] peripherals = new int[scanResults];
+            final byte[][] scanRecords = new byte[scanResults][];
+            for (int i = 0; i < scanResults; i++) {
+                peripherals[i] = (int) ((i * 7919L) % trackedDevices);
+                scanRecords[i] = scanRecord(peripherals[i] / 2);
+            }
+            final long start = System.nanoTime();
+            for (int i = 0; i < scanResults; i++) {
+                database.device(identifiers[peripherals[i]], null, scanRecords[i]);
+            }
+            best = Math.min(best, System.nanoTime() - start);
+        }
+        // Scan results are for tracked peripherals, no devices are created
+        assertEquals(trackedDevices, database.devices().size());
+        return best;
+    }
+
+    @Test
+    public void benchmarkScanProcessing() {
+        final int scanResults = 2000;
+        // Warm up
+        scanProcessingNanos(2000, scanResults);
+        System.out.println("benchmarkScanProcessing (scanResults=" + scanResults + ",unit=ns/result)");
+        System.out.println("devices,nanosPerResult");
+        for (final int trackedDevices : new int[]{10, 100, 500, 2000}) {
+            System.out.println(trackedDevices + "," + (scanProcessingNanos(trackedDevices, scanResults) / scanResults));
+        }
+    }
+}
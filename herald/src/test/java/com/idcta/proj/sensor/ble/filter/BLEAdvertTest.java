@@ -0,0 +1,179 @@
+//  Copyright 2020 VMware, Inc.
+//  SPDX-License-Identifier: Apache-2.0
+//
+
+package com.idcta.proj.sensor.ble.filter;
+
+import com.idcta.proj.sensor.datatype.Data;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class BLEAdvertTest {
+    /// Recorded adverts from BLEDeviceFilterTest
+    private final static String[] recorded = new String[]{
+            "0201060AFF4C001005421C1E616A000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000",
+            "02011A020A0C0BFF4C001006071EA3DD89E014FF4C0001000000000000000000002000000000000000000000000000000000000000000000000000000000",
+            "02011A020A0C0BFF4C0010060C1E4FDE4DF714FF4C0001000000000000000000002000000000000000000000000000000000000000000000000000000000",
+            "02011A14FF4C0001000000000000000000002000000000000000000000000000000000000000000000000000000000000000000000000000000000000000",
+            "02011a020a0c0aff4c001005031c8ba89d14ff4c000100200000000000000000000000000000000000000000000000000000000000000000000000000000",
+            "02011a020a0c0aff4c00100508141bba69",
+            "02011a020a0c0aff4c0010050814ff4c00",
+            "02011a020a0c11079bfd5bd672451e80d3424647af328142",
+            "02011a020a0c14ff4c000100000000000000000000200000000000",
+            "02011a0aff4c001005031c0b4c",
+            "02011a0aff4c001005031c0b4cac",
+            "02011a0aff4c001005031c0b4cac02011a0aff4c00100503",
+            "02011a0dff4c0010050814123456100101",
+            "0bff4c001006061a396363ce",
+            "1bff4c000c0e00c857ac085510515d52cf3862211006551eee51497a",
+            "1eff4c001219006d17255505df2aec6ef580be0ddeba8bb034c996de5b0200"
+    };
+
+    /// Previous implementation, parsing scan response into segment, manufacturer data and Apple segment objects
+    private static List<Data> extractMessagesByParser(final byte[] raw) {
+        final BLEScanResponseData scanResponseData = BLEAdvertParser.parseScanResponse(raw, 0);
+        final List<BLEAdvertManufacturerData> manufacturerData = BLEAdvertParser.extractManufacturerData(scanResponseData.segments);
+        final List<BLEAdvertAppleManufacturerSegment> appleSegments = BLEAdvertParser.extractAppleManufacturerSegments(manufacturerData);
+        final List<Data> messages = new ArrayList<>(appleSegments.size());
+        for (final BLEAdvertAppleManufacturerSegment segment : appleSegments) {
+            if (segment != null && segment.raw != null && segment.raw.value.length > 0) {
+                messages.add(segment.raw);
+            }
+        }
+        return messages;
+    }
+
+    @Test
+    public void testEmpty() {
+        for (final BLEAdvert advert : new BLEAdvert[]{BLEAdvert.parse(null), BLEAdvert.parse(new byte[0])}) {
+            assertFalse(advert.hasSensorService);
+            assertFalse(advert.isAppleDevice);
+            assertFalse(advert.hasPseudoDeviceAddress);
+            assertEquals(BLEAdvert.txPowerUnknown, advert.txPower);
+            assertEquals(0, advert.appleSegmentCount());
+            assertTrue(advert.appleSegments().isEmpty());
+        }
+    }
+
+    @Test
+    public void testAppleDevice() {
+        final byte[] raw = Data.fromHexEncodedString("02011A020A0C0BFF4C001006071EA3DD89E014FF4C0001000000000000000000002000000000000000000000000000000000000000000000000000000000").value;
+        final BLEAdvert advert = BLEAdvert.parse(raw);
+        // Raw bytes are kept by reference
+        assertSame(raw, advert.raw());
+        assertTrue(advert.isAppleDevice);
+        assertFalse(advert.hasSensorService);
+        assertFalse(advert.hasPseudoDeviceAddress);
+        assertEquals(12, advert.txPower);
+        assertEquals(2, advert.appleSegmentCount());
+        assertEquals("1006071EA3DD89E0", advert.appleSegment(0).hexEncodedString());
+        assertEquals("0100000000000000000000200000000000", advert.appleSegment(1).hexEncodedString());
+    }
+
+    @Test
+    public void testSensorService() {
+        // 128-bit service UUID, little endian
+        final BLEAdvert advert = BLEAdvert.parse(Data.fromHexEncodedString("02011a020a0c11079bfd5bd672451e80d3424647af328142").value);
+        assertTrue(advert.hasSensorService);
+        assertFalse(advert.isAppleDevice);
+        assertEquals(12, advert.txPower);
+        assertEquals(0, advert.appleSegmentCount());
+        // Other service
+        assertFalse(BLEAdvert.parse(Data.fromHexEncodedString("02011a11079bfd5bd672451e80d3424647af328143").value).hasSensorService);
+        // 16-bit service UUID is not the sensor service
+        assertFalse(BLEAdvert.parse(Data.fromHexEncodedString("02011a03030f18").value).hasSensorService);
+    }
+
+    @Test
+    public void testPseudoDeviceAddress() {
+        // Sensor manufacturer ID 0xFFFA, 6 byte little endian address
+        final BLEAdvert advert = BLEAdvert.parse(Data.fromHexEncodedString("02011a09ffFAFF010203040506").value);
+        assertTrue(advert.hasPseudoDeviceAddress);
+        assertEquals(0x060504030201L, advert.pseudoDeviceAddress);
+        assertFalse(advert.isAppleDevice);
+        // Wrong length
+        assertFalse(BLEAdvert.parse(Data.fromHexEncodedString("02011a08ffFAFF0102030405").value).hasPseudoDeviceAddress);
+    }
+
+    @Test
+    public void testTxPowerSigned() {
+        assertEquals(-8, BLEAdvert.parse(Data.fromHexEncodedString("020af8").value).txPower);
+    }
+
+    @Test
+    public void testMalformed() {
+        // Segment length beyond end of data
+        final BLEAdvert truncated = BLEAdvert.parse(Data.fromHexEncodedString("02011a0aff4c001005031c0b4c").value);
+        assertFalse(truncated.isAppleDevice);
+        assertEquals(0, truncated.appleSegmentCount());
+        // Apple segment with type but without length
+        final BLEAdvert trailing = BLEAdvert.parse(Data.fromHexEncodedString("0aff4c0010050814123456100201").value);
+        assertTrue(trailing.isAppleDevice);
+        assertEquals(1, trailing.appleSegmentCount());
+        assertEquals("10050814123456", trailing.appleSegment(0).hexEncodedString());
+    }
+
+    @Test
+    public void testEquivalence() {
+        for (final String hex : recorded) {
+            final byte[] raw = Data.fromHexEncodedString(hex).value;
+            final List<Data> expected = BLEDeviceFilter.extractMessages(raw);
+            final List<Data> actual = BLEAdvert.parse(raw).appleSegments();
+            if (expected == null) {
+                assertTrue(hex, actual.isEmpty());
+                assertNull(BLEDeviceFilter.extractMessages(BLEAdvert.parse(raw)));
+                continue;
+            }
+            assertEquals(hex, expected, actual);
+            // Same result as previous implementation, for well formed adverts
+            assertEquals(hex, extractMessagesByParser(raw), actual);
+            final Integer txPower = BLEAdvertParser.extractTxPower(BLEAdvertParser.parseScanResponse(raw, 0).segments);
+            assertEquals(hex, (txPower == null ? BLEAdvert.txPowerUnknown : txPower.intValue()), BLEAdvert.parse(raw).txPower);
+        }
+    }
+
+    // MARK:- Benchmark
+
+    @Test
+    public void benchmarkParse() {
+        final byte[][] adverts = new byte[recorded.length][];
+        for (int i = 0; i < recorded.length; i++) {
+            adverts[i] = Data.fromHexEncodedString(recorded[i]).value;
+        }
+        final int warmup = 20000, iterations = 100000;
+        long checksum = 0;
+        // Warm up both paths before measurement
+        for (int i = 0; i < warmup; i++) {
+            checksum += extractMessagesByParser(adverts[i % adverts.length]).size();
+            checksum += BLEAdvert.parse(adverts[i % adverts.length]).appleSegmentCount();
+        }
+        final long parserStart = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            final byte[] raw = adverts[i % adverts.length];
+            checksum += extractMessagesByParser(raw).size();
+            checksum += BLEAdvertParser.extractTxPower(BLEAdvertParser.parseScanResponse(raw, 0).segments) == null ? 0 : 1;
+        }
+        final long parserElapsed = System.nanoTime() - parserStart;
+        final long advertStart = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            final BLEAdvert advert = BLEAdvert.parse(adverts[i % adverts.length]);
+            checksum += advert.appleSegmentCount();
+            checksum += advert.txPower == BLEAdvert.txPowerUnknown ? 0 : 1;
+        }
+        final long advertElapsed = System.nanoTime() - advertStart;
+        System.out.println("benchmarkParse (adverts=" + adverts.length + ",iterations=" + iterations + ",checksum=" + checksum + ")");
+        System.out.println("method,nanosPerOp");
+        System.out.println("parser," + (parserElapsed / iterations));
+        System.out.println("advert," + (advertElapsed / iterations));
+        assertTrue(advertElapsed < parserElapsed);
+    }
+}
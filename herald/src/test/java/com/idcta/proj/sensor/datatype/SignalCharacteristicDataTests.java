@@ -4,8 +4,13 @@
 
 package com.idcta.proj.sensor.datatype;
 
+import com.idcta.proj.sensor.ble.BLESensorConfiguration;
+
 import org.junit.Test;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Random;
 
 import static org.junit.Assert.assertArrayEquals;
@@ -78,6 +83,86 @@ public class SignalCharacteristicDataTests {
         assertEquals(SignalCharacteristicDataType.payload, SignalCharacteristicData.detect(SignalCharacteristicData.encodeWritePayload(new PayloadData())));
         assertEquals(SignalCharacteristicDataType.payloadSharing, SignalCharacteristicData.detect(SignalCharacteristicData.encodeWritePayloadSharing(new PayloadSharingData(new RSSI(0), new Data()))));
         assertEquals(SignalCharacteristicDataType.immediateSend, SignalCharacteristicData.detect(SignalCharacteristicData.encodeImmediateSend(new ImmediateSendData(new Data()))));
+        assertEquals(SignalCharacteristicDataType.bundle, SignalCharacteristicData.detect(SignalCharacteristicData.encodeWriteBundle(new ArrayList<Data>())));
         assertEquals(SignalCharacteristicDataType.unknown, SignalCharacteristicData.detect(new Data()));
     }
+
+    @Test
+    public void testEncodeDecodeWriteBundle() {
+        final Random random = new Random(0);
+        for (int i=0; i<500; i++) {
+            final byte[] bytes = new byte[i];
+            random.nextBytes(bytes);
+            final List<Data> expected = Arrays.asList(
+                    SignalCharacteristicData.encodeWritePayload(new PayloadData(bytes)),
+                    SignalCharacteristicData.encodeWriteRssi(new RSSI(-i)),
+                    SignalCharacteristicData.encodeWritePayloadSharing(new PayloadSharingData(new RSSI(i), new Data(bytes))));
+            final List<Data> actual = SignalCharacteristicData.decodeWriteBundle(SignalCharacteristicData.encodeWriteBundle(expected));
+            assertNotNull(actual);
+            assertEquals(expected, actual);
+            assertArrayEquals(bytes, SignalCharacteristicData.decodeWritePayload(actual.get(0)).value);
+            assertEquals(-i, SignalCharacteristicData.decodeWriteRSSI(actual.get(1)).value);
+            assertEquals(new Data(bytes), SignalCharacteristicData.decodeWritePayloadSharing(actual.get(2)).data);
+        }
+        assertEquals(0, SignalCharacteristicData.decodeWriteBundle(SignalCharacteristicData.encodeWriteBundle(new ArrayList<Data>())).size());
+        assertNull(SignalCharacteristicData.decodeWriteBundle(null));
+        assertNull(SignalCharacteristicData.decodeWriteBundle(new Data()));
+        // Single action codes are not bundles
+        assertNull(SignalCharacteristicData.decodeWriteBundle(SignalCharacteristicData.encodeWriteRssi(new RSSI(0))));
+    }
+
+    @Test
+    public void testEncodeWriteBundleOverflow() {
+        // Bundle data count at Int16 limit
+        final Data limit = SignalCharacteristicData.encodeWriteBundle(Arrays.asList(new Data(new byte[Short.MAX_VALUE - 2])));
+        assertNotNull(limit);
+        assertEquals(Short.MAX_VALUE, (int) SignalCharacteristicData.expectedLength(limit.value, 3) - 3);
+        // Sub-bundle or total count beyond Int16 is rejected rather than truncated
+        assertNull(SignalCharacteristicData.encodeWriteBundle(Arrays.asList(new Data(new byte[Short.MAX_VALUE]))));
+        assertNull(SignalCharacteristicData.encodeWriteBundle(Arrays.asList(new Data(new byte[20000]), new Data(new byte[20000]))));
+    }
+
+    @Test
+    public void testDecodeWriteBundleInvalid() {
+        final Data bundle = SignalCharacteristicData.encodeWriteBundle(Arrays.asList(
+                SignalCharacteristicData.encodeWritePayload(new PayloadData(new byte[]{1, 2, 3})),
+                SignalCharacteristicData.encodeWriteRssi(new RSSI(-50))));
+        // Incomplete fragmented data
+        for (int i=0; i<bundle.value.length; i++) {
+            assertNull(SignalCharacteristicData.decodeWriteBundle(bundle.subdata(0, i)));
+        }
+        assertNotNull(SignalCharacteristicData.decodeWriteBundle(bundle));
+        // Immediate send and nested bundles are not allowed
+        assertNull(SignalCharacteristicData.decodeWriteBundle(SignalCharacteristicData.encodeWriteBundle(Arrays.asList(
+                SignalCharacteristicData.encodeImmediateSend(new ImmediateSendData(new Data(new byte[]{1})))))));
+        assertNull(SignalCharacteristicData.decodeWriteBundle(SignalCharacteristicData.encodeWriteBundle(Arrays.asList(bundle))));
+        // Sub-bundle length beyond end of bundle
+        final Data corrupt = new Data(bundle);
+        corrupt.value[3] = (byte) 100;
+        assertNull(SignalCharacteristicData.decodeWriteBundle(corrupt));
+    }
+
+    @Test
+    public void testExpectedLength() {
+        final List<Data> encoded = Arrays.asList(
+                SignalCharacteristicData.encodeWriteRssi(new RSSI(-50)),
+                SignalCharacteristicData.encodeWritePayload(new PayloadData(new byte[300])),
+                SignalCharacteristicData.encodeWritePayloadSharing(new PayloadSharingData(new RSSI(-50), new Data(new byte[510]))),
+                SignalCharacteristicData.encodeImmediateSend(new ImmediateSendData(new Data(new byte[]{1, 2}))),
+                SignalCharacteristicData.encodeWriteBundle(Arrays.asList(SignalCharacteristicData.encodeWriteRssi(new RSSI(-50)))));
+        for (final Data data : encoded) {
+            assertEquals(data.value.length, SignalCharacteristicData.expectedLength(data.value, data.value.length));
+        }
+        // Incomplete header
+        assertEquals(-1, SignalCharacteristicData.expectedLength(encoded.get(1).value, 2));
+        assertEquals(303, SignalCharacteristicData.expectedLength(encoded.get(1).value, 3));
+        assertEquals(-1, SignalCharacteristicData.expectedLength(encoded.get(2).value, 4));
+        assertEquals(515, SignalCharacteristicData.expectedLength(encoded.get(2).value, 5));
+        // Unknown action code
+        assertEquals(-2, SignalCharacteristicData.expectedLength(new byte[]{0, 1, 2}, 3));
+        assertEquals(-2, SignalCharacteristicData.expectedLength(new byte[]{0}, 1));
+        // Invalid length
+        assertEquals(-2, SignalCharacteristicData.expectedLength(new byte[]{BLESensorConfiguration.signalCharacteristicActionWritePayload, 0, (byte) 0x80}, 3));
+        assertEquals(-1, SignalCharacteristicData.expectedLength(null, 0));
+    }
 }
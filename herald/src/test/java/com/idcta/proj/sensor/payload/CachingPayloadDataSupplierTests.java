@@ -0,0 +1,222 @@
+//  Copyright 2020 VMware, Inc.
+//  SPDX-License-Identifier: Apache-2.0
+//
+
+package com.idcta.proj.sensor.payload;
+
+import com.idcta.proj.sensor.PayloadDataSupplier;
+import com.idcta.proj.sensor.datatype.Data;
+import com.idcta.proj.sensor.datatype.PayloadData;
+import com.idcta.proj.sensor.datatype.PayloadTimestamp;
+import com.idcta.proj.sensor.datatype.SignalCharacteristicData;
+
+import org.junit.Test;
+
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.BrokenBarrierException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+public class CachingPayloadDataSupplierTests {
+
+    /// Supplier deriving payload from timestamp in seconds, counting calls
+    private static class CountingSupplier implements PayloadDataSupplier {
+        final AtomicInteger calls = new AtomicInteger(0);
+
+        @Override
+        public PayloadData payload(PayloadTimestamp timestamp) {
+            calls.incrementAndGet();
+            final long seconds = timestamp.value.getTime() / 1000;
+            return new PayloadData(new byte[]{(byte) (seconds >> 8), (byte) seconds});
+        }
+
+        @Override
+        public List<PayloadData> payload(Data data) {
+            return new ArrayList<>();
+        }
+    }
+
+    /// Run refresh on calling thread
+    private final static Executor direct = new Executor() {
+        @Override
+        public void execute(Runnable runnable) {
+            runnable.run();
+        }
+    };
+
+    /// Executor holding tasks until run by test
+    private final static class ManualExecutor implements Executor {
+        private final List<Runnable> queue = new ArrayList<>();
+
+        @Override
+        public void execute(Runnable runnable) {
+            queue.add(runnable);
+        }
+
+        private void runAll() {
+            final List<Runnable> runnables = new ArrayList<>(queue);
+            queue.clear();
+            for (final Runnable runnable : runnables) {
+                runnable.run();
+            }
+        }
+    }
+
+    private static PayloadTimestamp at(final long millis) {
+        return new PayloadTimestamp(new Date(millis));
+    }
+
+    @Test
+    public void testHitsWithinPeriod() {
+        final CountingSupplier supplier = new CountingSupplier();
+        final CachingPayloadDataSupplier cache = new CachingPayloadDataSupplier(supplier, 1000, 100, new ManualExecutor());
+        final PayloadData payload = cache.payload(at(100));
+        assertSame(payload, cache.payload(at(500)));
+        assertSame(payload, cache.payload(at(899)));
+        assertEquals(1, supplier.calls.get());
+        assertEquals(1, cache.misses());
+        assertEquals(2, cache.hits());
+        // New period generates new payload
+        final PayloadData next = cache.payload(at(5000));
+        assertEquals(supplier.payload(at(5000)), next);
+        assertEquals(2, cache.misses());
+    }
+
+    @Test
+    public void testRefreshAhead() {
+        final CountingSupplier supplier = new CountingSupplier();
+        final ManualExecutor refreshQueue = new ManualExecutor();
+        final CachingPayloadDataSupplier cache = new CachingPayloadDataSupplier(supplier, 1000, 100, refreshQueue);
+        cache.payload(at(500));
+        assertEquals(0, refreshQueue.queue.size());
+        // Within refresh ahead time of boundary, next period is refreshed once
+        cache.payload(at(950));
+        cache.payload(at(960));
+        assertEquals(1, refreshQueue.queue.size());
+        refreshQueue.runAll();
+        assertEquals(2, supplier.calls.get());
+        // Request at boundary is served from refreshed payload
+        assertEquals(supplier.payload(at(1000)), cache.payload(at(1000)));
+        assertEquals(1, cache.misses());
+        assertEquals(3, cache.hits());
+        assertEquals(3, supplier.calls.get());
+    }
+
+    @Test
+    public void testPastPeriodNotCached() {
+        final CountingSupplier supplier = new CountingSupplier();
+        final CachingPayloadDataSupplier cache = new CachingPayloadDataSupplier(supplier, 1000, 100, direct);
+        final PayloadData payload = cache.payload(at(5500));
+        cache.payload(at(2500));
+        assertSame(payload, cache.payload(at(5600)));
+        assertEquals(2, supplier.calls.get());
+    }
+
+    @Test
+    public void testSignalCharacteristicWritePayload() {
+        final CountingSupplier supplier = new CountingSupplier();
+        final CachingPayloadDataSupplier cache = new CachingPayloadDataSupplier(supplier, 1000, 100, direct);
+        final Data encoded = cache.signalCharacteristicWritePayload(at(100));
+        assertEquals(SignalCharacteristicData.encodeWritePayload(supplier.payload(at(100))), encoded);
+        assertSame(encoded, cache.signalCharacteristicWritePayload(at(200)));
+        // Null payload is passed through
+        final CachingPayloadDataSupplier nullCache = new CachingPayloadDataSupplier(new CountingSupplier() {
+            @Override
+            public PayloadData payload(PayloadTimestamp timestamp) {
+                return null;
+            }
+        }, 1000, 100, direct);
+        assertNull(nullCache.payload(at(100)));
+        assertNull(nullCache.signalCharacteristicWritePayload(at(100)));
+    }
+
+    @Test
+    public void testConcurrentRequests() throws Exception {
+        final CountingSupplier supplier = new CountingSupplier();
+        final CachingPayloadDataSupplier cache = new CachingPayloadDataSupplier(supplier, 1000, 100, direct);
+        final int threads = 8, periods = 100;
+        final CyclicBarrier period = new CyclicBarrier(threads);
+        final CountDownLatch done = new CountDownLatch(threads);
+        for (int t = 0; t < threads; t++) {
+            final Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        // Threads request payload for the same period concurrently
+                        for (long time = 0; time < periods * 1000; time += 10) {
+                            if (time % 1000 == 0) {
+                                period.await();
+                            }
+                            cache.payload(at(time));
+                        }
+                    } catch (InterruptedException | BrokenBarrierException e) {
+                        // Test interrupted
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            });
+            thread.setDaemon(true);
+            thread.start();
+        }
+        done.await();
+        // Underlying supplier is called once per period, including refresh of the period after
+        assertEquals(periods + 1, supplier.calls.get());
+    }
+
+    /// Supplier with cost of generating payload by hashing, similar to contact identifiers
+    private static class HashingSupplier extends CountingSupplier {
+        @Override
+        public PayloadData payload(PayloadTimestamp timestamp) {
+            try {
+                final MessageDigest sha = MessageDigest.getInstance("SHA-256");
+                byte[] hash = super.payload(timestamp).value;
+                for (int i = 0; i < 100; i++) {
+                    hash = sha.digest(hash);
+                }
+                return new PayloadData(hash);
+            } catch (Exception e) {
+                return null;
+            }
+        }
+    }
+
+    @Test
+    public void benchmarkPayload() {
+        final int requests = 20000;
+        final HashingSupplier supplier = new HashingSupplier();
+        final CachingPayloadDataSupplier cache = new CachingPayloadDataSupplier(new HashingSupplier(), 360000, 30000, direct);
+        // Warm up
+        for (int i = 0; i < 1000; i++) {
+            SignalCharacteristicData.encodeWritePayload(supplier.payload(at(i)));
+            cache.signalCharacteristicWritePayload(at(i));
+        }
+        System.out.println("benchmarkPayload (requests=" + requests + ",period=6m,interval=100ms)");
+        System.out.println("method,elapsedMillis,nanosPerRequest,supplierCalls");
+        final int supplierCalls = supplier.calls.get();
+        long t0 = System.nanoTime();
+        for (int i = 0; i < requests; i++) {
+            SignalCharacteristicData.encodeWritePayload(supplier.payload(at(i * 100L)));
+        }
+        final long directElapsed = System.nanoTime() - t0;
+        System.out.println("direct," + (directElapsed / 1000000) + "," + (directElapsed / requests) + "," + (supplier.calls.get() - supplierCalls));
+        final long misses = cache.misses();
+        t0 = System.nanoTime();
+        for (int i = 0; i < requests; i++) {
+            cache.signalCharacteristicWritePayload(at(i * 100L));
+        }
+        final long cached = System.nanoTime() - t0;
+        System.out.println("cached," + (cached / 1000000) + "," + (cached / requests) + "," + (cache.misses() - misses));
+        // Requests span 6 periods, refreshed ahead of each boundary without misses
+        assertEquals(0, cache.misses() - misses);
+    }
+}